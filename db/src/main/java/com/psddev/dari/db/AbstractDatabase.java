@@ -12,7 +12,6 @@ import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.Set;
 import java.util.UUID;
-import java.util.regex.Matcher;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -565,39 +564,13 @@ public abstract class AbstractDatabase<C> implements Database {
 
     @Override
     public <T> PaginatedResult<Grouping<T>> readPartialGrouped(Query<T> query, long offset, int limit, String... fields) {
+        GroupingRange[] ranges = parseGroupingRanges(fields);
         Map<List<Object>, BasicGrouping<T>> groupingsMap = new CompactMap<List<Object>, BasicGrouping<T>>();
-        for (Object item : readIterable(query, 0)) {
 
-            State itemState = State.getInstance(item);
-            List<Object> keys = new ArrayList<Object>();
-            if (fields != null) {
-                for (String field : fields) {
-                    Matcher groupingMatcher = Query.RANGE_PATTERN.matcher(field);
-                    if (groupingMatcher.find()) {
-                        Double bucket = null;
-                        String fieldName = groupingMatcher.group(1);
-
-                        if (itemState.getByPath(fieldName) != null) {
-                            Double start = ObjectUtils.to(Double.class, groupingMatcher.group(2).trim());
-                            Double end   = ObjectUtils.to(Double.class, groupingMatcher.group(3).trim());
-                            Double gap   = ObjectUtils.to(Double.class, groupingMatcher.group(4).trim());
-                            Double value = ObjectUtils.to(Double.class, itemState.getByPath(fieldName));
-
-                            for (double window = start; window <= end; window += gap) {
-                                if (value < window) {
-                                    bucket = window - gap;
-                                    break;
-                                }
-                            }
-                        }
-                        keys.add(bucket);
-
-                    } else {
-                        keys.add(itemState.getByPath(field));
-                    }
-                }
-            }
+        for (Object item : readIterable(query, 0)) {
+            List<Object> keys = getGroupingKeys(State.getInstance(item), fields, ranges);
             BasicGrouping<T> grouping = groupingsMap.get(keys);
+
             if (grouping == null) {
                 grouping = new BasicGrouping<T>(keys, query, fields);
                 groupingsMap.put(keys, grouping);
@@ -610,6 +583,37 @@ public abstract class AbstractDatabase<C> implements Database {
         return new PaginatedResult<Grouping<T>>(offset, limit, groupings);
     }
 
+    // Parses the given grouping fields, leaving nulls for the ones that
+    // aren't numeric ranges.
+    private static GroupingRange[] parseGroupingRanges(String[] fields) {
+        GroupingRange[] ranges = new GroupingRange[fields != null ? fields.length : 0];
+
+        for (int i = 0, length = ranges.length; i < length; ++ i) {
+            ranges[i] = GroupingRange.parse(fields[i]);
+        }
+
+        return ranges;
+    }
+
+    // Returns the grouping keys for the given state. The range buckets are
+    // calculated arithmetically instead of scanning through the windows.
+    private static List<Object> getGroupingKeys(State state, String[] fields, GroupingRange[] ranges) {
+        List<Object> keys = new ArrayList<Object>(ranges.length);
+
+        for (int i = 0, length = ranges.length; i < length; ++ i) {
+            GroupingRange range = ranges[i];
+
+            if (range != null) {
+                keys.add(range.getBucket(state.getByPath(range.getField())));
+
+            } else {
+                keys.add(state.getByPath(fields[i]));
+            }
+        }
+
+        return keys;
+    }
+
     /** Basic implementation of {@link Grouping}. */
     private class BasicGrouping<T> extends AbstractGrouping<T> {
 
@@ -626,18 +630,17 @@ public abstract class AbstractDatabase<C> implements Database {
             Aggregate aggregate = new Aggregate();
             Query<?> aggregateQuery = Query.fromQuery(query);
             List<Object> keys = getKeys();
+            GroupingRange[] ranges = parseGroupingRanges(fields);
 
-            ITEM: for (Object item : readIterable(aggregateQuery, 0)) {
+            for (Object item : readIterable(aggregateQuery, 0)) {
                 State itemState = State.getInstance(item);
                 Object value = itemState.getByPath(field);
                 if (value == null) {
                     continue;
                 }
 
-                for (int i = 0, length = fields.length; i < length; ++ i) {
-                    if (!ObjectUtils.equals(keys.get(i), itemState.getByPath(fields[i]))) {
-                        continue ITEM;
-                    }
+                if (!keys.equals(getGroupingKeys(itemState, fields, ranges))) {
+                    continue;
                 }
 
                 aggregate.setNonNullCount(aggregate.getNonNullCount() + 1);
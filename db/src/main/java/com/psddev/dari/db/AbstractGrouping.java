@@ -8,6 +8,7 @@ import java.util.Map;
 import com.psddev.dari.util.CompactMap;
 import com.psddev.dari.util.HtmlObject;
 import com.psddev.dari.util.HtmlWriter;
+import com.psddev.dari.util.ObjectUtils;
 
 public abstract class AbstractGrouping<T> implements Grouping<T>, HtmlObject {
 
@@ -31,7 +32,14 @@ public abstract class AbstractGrouping<T> implements Grouping<T>, HtmlObject {
     public Query<T> createItemsQuery() {
         Query<T> itemsQuery = Query.fromQuery(query);
         for (int i = 0, length = fields.length; i < length; ++ i) {
-            itemsQuery.and(fields[i] + " = ?", keys.get(i));
+            GroupingRange range = GroupingRange.parse(fields[i]);
+
+            if (range != null) {
+                itemsQuery.and(range.createPredicate(ObjectUtils.to(Double.class, keys.get(i))));
+
+            } else {
+                itemsQuery.and(fields[i] + " = ?", keys.get(i));
+            }
         }
         return itemsQuery;
     }
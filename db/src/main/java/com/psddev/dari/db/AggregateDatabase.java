@@ -30,6 +30,10 @@ public class AggregateDatabase implements Database, Iterable<Database> {
     public static final String DEFAULT_DELEGATE_SETTING = "defaultDelegate";
     public static final String DELEGATE_SETTING = "delegate";
     public static final String GROUPS_SETTING = "groups";
+    public static final String OUTBOX_SETTING = "outbox";
+    public static final String OUTBOX_BATCH_SIZE_SETTING = "outboxBatchSize";
+    public static final String OUTBOX_MAXIMUM_ATTEMPTS_SETTING = "outboxMaximumAttempts";
+    public static final String OUTBOX_SWEEP_INTERVAL_SETTING = "outboxSweepInterval";
     public static final String READ_DELEGATE_SETTING = "readDelegate";
 
     private static final String FAKE_GROUP = UUID.randomUUID().toString();
@@ -40,6 +44,7 @@ public class AggregateDatabase implements Database, Iterable<Database> {
     private final Map<Database, Set<String>> delegateGroupsMap = new CompactMap<Database, Set<String>>();
     private volatile Map<String, Database> delegates;
     private volatile Map<String, Database> readDelegates;
+    private volatile AggregateDatabaseOutbox outbox;
 
     private volatile String name;
     private volatile DatabaseEnvironment environment;
@@ -139,6 +144,35 @@ public class AggregateDatabase implements Database, Iterable<Database> {
                 new CompactMap<String, Database>(readDelegates));
     }
 
+    /**
+     * Returns the outbox that queues the writes to the secondary
+     * delegates.
+     *
+     * @return {@code null} if the secondary delegates are written to
+     *         immediately.
+     */
+    public AggregateDatabaseOutbox getOutbox() {
+        return outbox;
+    }
+
+    /**
+     * Sets the outbox that queues the writes to the secondary delegates.
+     *
+     * @param outbox If {@code null}, the secondary delegates are written
+     *        to immediately.
+     */
+    public void setOutbox(AggregateDatabaseOutbox outbox) {
+        this.outbox = outbox;
+    }
+
+    // Returns the outbox if the writes to the given secondary delegates
+    // should be queued.
+    private AggregateDatabaseOutbox findOutbox(List<Database> delegates) {
+        AggregateDatabaseOutbox outbox = getOutbox();
+
+        return outbox != null && !delegates.isEmpty() && outbox.isAvailable() ? outbox : null;
+    }
+
     // --- Database support ---
 
     @Override
@@ -184,6 +218,16 @@ public class AggregateDatabase implements Database, Iterable<Database> {
 
         setReadDelegates(delegates);
         setDefaultReadDelegate(delegates.get(settings.get(DEFAULT_DELEGATE_SETTING)));
+
+        if (ObjectUtils.to(boolean.class, settings.get(OUTBOX_SETTING))) {
+            AggregateDatabaseOutbox outbox = new AggregateDatabaseOutbox(this);
+            Double sweepInterval = ObjectUtils.to(Double.class, settings.get(OUTBOX_SWEEP_INTERVAL_SETTING));
+
+            outbox.setBatchSize(ObjectUtils.to(int.class, settings.get(OUTBOX_BATCH_SIZE_SETTING)));
+            outbox.setMaximumAttempts(ObjectUtils.to(int.class, settings.get(OUTBOX_MAXIMUM_ATTEMPTS_SETTING)));
+            outbox.start(sweepInterval != null && sweepInterval > 0.0 ? sweepInterval : AggregateDatabaseOutbox.DEFAULT_SWEEP_INTERVAL);
+            setOutbox(outbox);
+        }
     }
 
     /** Creates database delegates based on the given {@code settings}. */
@@ -301,12 +345,22 @@ public class AggregateDatabase implements Database, Iterable<Database> {
 
     @Override
     public boolean commitWrites() {
-        return COMMIT_WRITES.execute(this);
+        return notifyOutbox(COMMIT_WRITES.execute(this));
     }
 
     @Override
     public boolean commitWritesEventually() {
-        return COMMIT_WRITES_EVENTUALLY.execute(this);
+        return notifyOutbox(COMMIT_WRITES_EVENTUALLY.execute(this));
+    }
+
+    private boolean notifyOutbox(boolean committed) {
+        AggregateDatabaseOutbox outbox = getOutbox();
+
+        if (committed && outbox != null) {
+            outbox.notifyCommitted();
+        }
+
+        return committed;
     }
 
     @Override
@@ -316,11 +370,19 @@ public class AggregateDatabase implements Database, Iterable<Database> {
 
     @Override
     public void save(State state) {
+        List<Database> delegates = findDelegatesByTypes(
+                getDelegates().values(),
+                Arrays.asList(state.getType()));
+        AggregateDatabaseOutbox outbox = findOutbox(delegates);
+
+        if (outbox != null) {
+            outbox.write(delegates, state, AggregateDatabaseOutbox.Operation.SAVE, true);
+            return;
+        }
+
         getDefaultDelegate().save(state);
 
-        for (Database delegate : findDelegatesByTypes(
-                getDelegates().values(),
-                Arrays.asList(state.getType()))) {
+        for (Database delegate : delegates) {
             try {
                 delegate.saveUnsafely(state);
             } catch (Exception ex) {
@@ -595,14 +657,28 @@ public class AggregateDatabase implements Database, Iterable<Database> {
     /** Common logic for all write operations. */
     private abstract static class WriteOperation {
 
+        private final AggregateDatabaseOutbox.Operation outboxOperation;
+
+        public WriteOperation(AggregateDatabaseOutbox.Operation outboxOperation) {
+            this.outboxOperation = outboxOperation;
+        }
+
         protected abstract void write(Database delegate, State state);
 
         public final void execute(AggregateDatabase database, State state) {
+            List<Database> delegates = database.findDelegatesByTypes(
+                    database.getDelegates().values(),
+                    Arrays.asList(state.getType()));
+            AggregateDatabaseOutbox outbox = database.findOutbox(delegates);
+
+            if (outbox != null) {
+                outbox.write(delegates, state, outboxOperation, false);
+                return;
+            }
+
             write(database.getDefaultDelegate(), state);
 
-            for (Database delegate : database.findDelegatesByTypes(
-                    database.getDelegates().values(),
-                    Arrays.asList(state.getType()))) {
+            for (Database delegate : delegates) {
                 try {
                     write(delegate, state);
                 } catch (Exception ex) {
@@ -612,21 +688,21 @@ public class AggregateDatabase implements Database, Iterable<Database> {
         }
     }
 
-    private static final WriteOperation SAVE_UNSAFELY = new WriteOperation() {
+    private static final WriteOperation SAVE_UNSAFELY = new WriteOperation(AggregateDatabaseOutbox.Operation.SAVE) {
         @Override
         protected void write(Database delegate, State state) {
             delegate.saveUnsafely(state);
         }
     };
 
-    private static final WriteOperation INDEX = new WriteOperation() {
+    private static final WriteOperation INDEX = new WriteOperation(AggregateDatabaseOutbox.Operation.INDEX) {
         @Override
         protected void write(Database delegate, State state) {
             delegate.index(state);
         }
     };
 
-    private static final WriteOperation DELETE = new WriteOperation() {
+    private static final WriteOperation DELETE = new WriteOperation(AggregateDatabaseOutbox.Operation.DELETE) {
         @Override
         protected void write(Database delegate, State state) {
             delegate.delete(state);
@@ -0,0 +1,626 @@
+package com.psddev.dari.db;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.psddev.dari.util.CompactMap;
+import com.psddev.dari.util.ObjectUtils;
+import com.psddev.dari.util.Stats;
+import com.psddev.dari.util.Task;
+
+/**
+ * Durable queue of the writes to the secondary delegates of an
+ * {@link AggregateDatabase}.
+ *
+ * <p>Instead of writing to every matching secondary delegate, such as
+ * Solr, while the caller waits, each write is recorded as an
+ * {@link Entry} in the default delegate within the same transaction as
+ * the write itself. A worker task per delegate then drains the entries in
+ * batches, retrying the failed ones with an increasing delay, so that the
+ * secondary delegates converge even after an outage. An entry that still
+ * fails after the {@linkplain #getMaximumAttempts maximum number of
+ * attempts} is given up on and logged as an error.</p>
+ *
+ * <p>How long each delivered entry waited ({@code Lag}) and the age of
+ * the oldest waiting entry after each drain ({@code Oldest}) are reported
+ * per delegate through {@link Stats} under {@code Outbox}. The number of
+ * waiting entries is available through {@link #getBacklogs} and the
+ * progress of each drain task.</p>
+ *
+ * <p>The entries are delivered at least once. If multiple VMs share the
+ * same default delegate, an entry may be delivered by more than one of
+ * them, which is harmless since the latest version of the object is
+ * always read from the default delegate before being written.</p>
+ */
+public class AggregateDatabaseOutbox {
+
+    public static final String TASK_EXECUTOR_NAME = "Aggregate Database Outbox";
+
+    public static final int DEFAULT_BATCH_SIZE = 200;
+    public static final double DEFAULT_SWEEP_INTERVAL = 5.0;
+    public static final int DEFAULT_MAXIMUM_ATTEMPTS = 20;
+
+    private static final long INITIAL_RETRY_DELAY = 1000L;
+    private static final long MAXIMUM_RETRY_DELAY = 300000L;
+    private static final double RETRY_DELAY_JITTER = 0.5;
+    private static final int MAXIMUM_ERROR_LENGTH = 1000;
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(AggregateDatabaseOutbox.class);
+    private static final Stats STATS = new Stats("Outbox");
+
+    private final AggregateDatabase database;
+    private final ConcurrentMap<String, Drainer> drainers = new ConcurrentHashMap<String, Drainer>();
+    private volatile int batchSize = DEFAULT_BATCH_SIZE;
+    private volatile int maximumAttempts = DEFAULT_MAXIMUM_ATTEMPTS;
+
+    private final Task sweeper = new Task(TASK_EXECUTOR_NAME, "Outbox Sweeper") {
+
+        @Override
+        protected void doTask() {
+            notifyCommitted();
+        }
+    };
+
+    /**
+     * Creates an instance that queues the writes to the secondary
+     * delegates of the given {@code database}.
+     *
+     * @param database Can't be {@code null}.
+     */
+    public AggregateDatabaseOutbox(AggregateDatabase database) {
+        this.database = database;
+    }
+
+    /** Returns the database whose writes are queued. */
+    public AggregateDatabase getDatabase() {
+        return database;
+    }
+
+    /** Returns the maximum number of entries drained at once. */
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    /** Sets the maximum number of entries drained at once. */
+    public void setBatchSize(int batchSize) {
+        this.batchSize = batchSize > 0 ? batchSize : DEFAULT_BATCH_SIZE;
+    }
+
+    /**
+     * Returns the maximum number of times that an entry is attempted before
+     * it's given up on.
+     */
+    public int getMaximumAttempts() {
+        return maximumAttempts;
+    }
+
+    /**
+     * Sets the maximum number of times that an entry is attempted before
+     * it's given up on.
+     */
+    public void setMaximumAttempts(int maximumAttempts) {
+        this.maximumAttempts = maximumAttempts > 0 ? maximumAttempts : DEFAULT_MAXIMUM_ATTEMPTS;
+    }
+
+    /**
+     * Starts periodically draining all delegates so that the entries
+     * that are waiting to be retried, or that were left by another VM,
+     * are eventually delivered.
+     *
+     * @param interval In seconds.
+     */
+    public void start(double interval) {
+        sweeper.scheduleWithFixedDelay(interval, interval);
+    }
+
+    /** Stops periodically draining all delegates. */
+    public void stop() {
+        sweeper.stop();
+
+        for (Drainer drainer : drainers.values()) {
+            drainer.stop();
+        }
+    }
+
+    /**
+     * Returns {@code true} if the entries can be written, which isn't the
+     * case while the types are still being bootstrapped.
+     */
+    public boolean isAvailable() {
+        return database.getEnvironment().getTypeByClass(Entry.class) != null;
+    }
+
+    /**
+     * Performs the given {@code operation} on the given {@code state} in
+     * the default delegate and queues it for the given secondary
+     * {@code delegates} in the same transaction.
+     *
+     * @param state Can't be {@code null}.
+     * @param operation Can't be {@code null}.
+     * @param validate If {@code true}, the state is validated and saved
+     *        normally in the default delegate.
+     */
+    public void write(Collection<Database> delegates, State state, Operation operation, boolean validate) {
+        Database defaultDelegate = database.getDefaultDelegate();
+        ObjectType entryType = database.getEnvironment().getTypeByClass(Entry.class);
+        long now = System.currentTimeMillis();
+        boolean committed;
+
+        defaultDelegate.beginWrites();
+
+        try {
+            if (validate) {
+                defaultDelegate.save(state);
+
+            } else {
+                operation.write(defaultDelegate, state);
+            }
+
+            for (Database delegate : delegates) {
+                Entry entry = (Entry) entryType.createObject(null);
+
+                entry.setDelegateName(delegate.getName());
+                entry.setObjectId(state.getId());
+                entry.setObjectTypeId(state.getTypeId());
+                entry.setOperation(operation);
+                entry.setCreateTime(now);
+                entry.setNextAttemptTime(now);
+                defaultDelegate.saveUnsafely(entry.getState());
+            }
+
+            committed = defaultDelegate.commitWrites();
+
+        } finally {
+            defaultDelegate.endWrites();
+        }
+
+        // Within a larger batch, the entries aren't visible until the
+        // outermost commit, which calls #notifyCommitted.
+        if (committed) {
+            for (Database delegate : delegates) {
+                getDrainer(delegate).submit();
+            }
+        }
+    }
+
+    /**
+     * Notifies that the writes queued within a batch were committed so
+     * that they can be drained immediately.
+     */
+    public void notifyCommitted() {
+        Database defaultDelegate = database.getDefaultDelegate();
+
+        for (Database delegate : database.getDelegates().values()) {
+            if (!delegate.equals(defaultDelegate)) {
+                getDrainer(delegate).submit();
+            }
+        }
+    }
+
+    /**
+     * Returns the lag of each secondary delegate, which is how long the
+     * oldest undelivered entry has been waiting, as of the last drain.
+     *
+     * @return Never {@code null}. Keys are the delegate names, and values
+     *         are in seconds.
+     */
+    public Map<String, Double> getLags() {
+        Map<String, Double> lags = new CompactMap<String, Double>();
+
+        for (Map.Entry<String, Drainer> e : drainers.entrySet()) {
+            lags.put(e.getKey(), e.getValue().getLag());
+        }
+
+        return lags;
+    }
+
+    /**
+     * Returns the backlog of each secondary delegate, which is the number
+     * of undelivered entries, as of the last drain.
+     *
+     * @return Never {@code null}. Keys are the delegate names.
+     */
+    public Map<String, Long> getBacklogs() {
+        Map<String, Long> backlogs = new CompactMap<String, Long>();
+
+        for (Map.Entry<String, Drainer> e : drainers.entrySet()) {
+            backlogs.put(e.getKey(), e.getValue().getBacklog());
+        }
+
+        return backlogs;
+    }
+
+    private Drainer getDrainer(Database delegate) {
+        String name = delegate.getName();
+        Drainer drainer = drainers.get(name);
+
+        if (drainer == null) {
+            drainer = new Drainer(delegate);
+            Drainer existing = drainers.putIfAbsent(name, drainer);
+
+            if (existing != null) {
+                drainer = existing;
+            }
+        }
+
+        return drainer;
+    }
+
+    /** Kind of write that can be queued. */
+    public enum Operation {
+
+        SAVE {
+            @Override
+            protected void write(Database delegate, State state) {
+                delegate.saveUnsafely(state);
+            }
+        },
+
+        INDEX {
+            @Override
+            protected void write(Database delegate, State state) {
+                delegate.index(state);
+            }
+        },
+
+        DELETE {
+            @Override
+            protected void write(Database delegate, State state) {
+                delegate.delete(state);
+            }
+        };
+
+        protected abstract void write(Database delegate, State state);
+    }
+
+    /** Write to a secondary delegate that's waiting to be delivered. */
+    public static class Entry extends Record {
+
+        @Indexed
+        private String delegateName;
+
+        private UUID objectId;
+        private UUID objectTypeId;
+        private Operation operation;
+
+        @Indexed
+        private long createTime;
+
+        @Indexed
+        private long nextAttemptTime;
+
+        private int attempts;
+        private String lastError;
+
+        public String getDelegateName() {
+            return delegateName;
+        }
+
+        public void setDelegateName(String delegateName) {
+            this.delegateName = delegateName;
+        }
+
+        public UUID getObjectId() {
+            return objectId;
+        }
+
+        public void setObjectId(UUID objectId) {
+            this.objectId = objectId;
+        }
+
+        public UUID getObjectTypeId() {
+            return objectTypeId;
+        }
+
+        public void setObjectTypeId(UUID objectTypeId) {
+            this.objectTypeId = objectTypeId;
+        }
+
+        public Operation getOperation() {
+            return operation;
+        }
+
+        public void setOperation(Operation operation) {
+            this.operation = operation;
+        }
+
+        public long getCreateTime() {
+            return createTime;
+        }
+
+        public void setCreateTime(long createTime) {
+            this.createTime = createTime;
+        }
+
+        public long getNextAttemptTime() {
+            return nextAttemptTime;
+        }
+
+        public void setNextAttemptTime(long nextAttemptTime) {
+            this.nextAttemptTime = nextAttemptTime;
+        }
+
+        public int getAttempts() {
+            return attempts;
+        }
+
+        public void setAttempts(int attempts) {
+            this.attempts = attempts;
+        }
+
+        public String getLastError() {
+            return lastError;
+        }
+
+        public void setLastError(String lastError) {
+            this.lastError = lastError;
+        }
+    }
+
+    /** Delivers the entries for a single secondary delegate. */
+    private class Drainer extends Task {
+
+        private final Database delegate;
+        private final String delegateName;
+        private final AtomicBoolean submitted = new AtomicBoolean();
+        private volatile double lag;
+        private volatile long backlog;
+
+        public Drainer(Database delegate) {
+            super(TASK_EXECUTOR_NAME, "Outbox to " + delegate.getName());
+
+            this.delegate = delegate;
+            this.delegateName = delegate.getName();
+        }
+
+        public double getLag() {
+            return lag;
+        }
+
+        public long getBacklog() {
+            return backlog;
+        }
+
+        @Override
+        public void submit() {
+            submitted.set(true);
+            super.submit();
+        }
+
+        @Override
+        protected void doTask() {
+            while (shouldContinue()) {
+                submitted.set(false);
+
+                int size = getBatchSize();
+                int drained = drain(size);
+
+                if (drained < size && !submitted.get()) {
+                    break;
+                }
+            }
+
+            Entry oldest = Query.
+                    from(Entry.class).
+                    where("delegateName = ?", delegateName).
+                    sortAscending("createTime").
+                    using(database.getDefaultDelegate()).
+                    noCache().
+                    master().
+                    first();
+
+            backlog = oldest != null ? Query.
+                    from(Entry.class).
+                    where("delegateName = ?", delegateName).
+                    using(database.getDefaultDelegate()).
+                    noCache().
+                    master().
+                    count() : 0L;
+            lag = oldest != null ? STATS.startTimer(oldest.getCreateTime()).stop(delegateName + " Oldest") : 0.0;
+            setProgress(String.format("Lag: %.3f seconds, Backlog: %d entries", lag, backlog));
+        }
+
+        // Delivers a batch of entries and returns the number processed.
+        private int drain(int size) {
+            Database defaultDelegate = database.getDefaultDelegate();
+            long now = System.currentTimeMillis();
+            List<Entry> entries = Query.
+                    from(Entry.class).
+                    where("delegateName = ? and nextAttemptTime <= ?", delegateName, now).
+                    sortAscending("nextAttemptTime").
+                    using(defaultDelegate).
+                    noCache().
+                    master().
+                    select(0, size).
+                    getItems();
+
+            if (entries.isEmpty()) {
+                return 0;
+            }
+
+            // Only the latest entry for each object needs to be delivered.
+            // The rest are deleted along with the delivered ones.
+            Map<UUID, Entry> latestEntries = new LinkedHashMap<UUID, Entry>();
+
+            for (Entry entry : entries) {
+                Entry previous = latestEntries.get(entry.getObjectId());
+
+                if (previous == null || previous.getCreateTime() <= entry.getCreateTime()) {
+                    latestEntries.put(entry.getObjectId(), entry);
+                }
+            }
+
+            Map<UUID, State> states = readStates(latestEntries.values());
+            List<Entry> failed = new ArrayList<Entry>();
+            List<Entry> abandoned = new ArrayList<Entry>();
+            Stats.Timer timer = STATS.startTimer();
+
+            try {
+                writeAll(latestEntries.values(), states);
+
+            } catch (Exception error) {
+                LOGGER.debug(String.format("Can't write a batch to [%s]", delegateName), error);
+
+                // Retry one by one to find the entries that failed.
+                for (Entry entry : latestEntries.values()) {
+                    try {
+                        write(entry, states);
+
+                    } catch (Exception entryError) {
+                        if (retryLater(entry, entryError, now)) {
+                            failed.add(entry);
+
+                        } else {
+                            abandoned.add(entry);
+                        }
+                    }
+                }
+            }
+
+            timer.stop(delegateName + " Write", latestEntries.size() - failed.size() - abandoned.size());
+
+            for (Entry entry : latestEntries.values()) {
+                if (!failed.contains(entry) && !abandoned.contains(entry)) {
+                    STATS.startTimer(entry.getCreateTime()).stop(delegateName + " Lag");
+                }
+            }
+
+            if (!failed.isEmpty() || !abandoned.isEmpty()) {
+                STATS.startTimer().stop(delegateName + " Failure", failed.size() + abandoned.size());
+            }
+
+            if (!abandoned.isEmpty()) {
+                STATS.startTimer().stop(delegateName + " Gave Up", abandoned.size());
+            }
+
+            defaultDelegate.beginWrites();
+
+            try {
+                for (Entry entry : entries) {
+                    if (failed.contains(entry)) {
+                        defaultDelegate.saveUnsafely(entry.getState());
+
+                    } else {
+                        defaultDelegate.delete(entry.getState());
+                    }
+                }
+
+                defaultDelegate.commitWrites();
+
+            } finally {
+                defaultDelegate.endWrites();
+            }
+
+            return entries.size();
+        }
+
+        // Reads the latest versions of the objects to be saved or indexed.
+        private Map<UUID, State> readStates(Collection<Entry> entries) {
+            List<UUID> ids = new ArrayList<UUID>();
+
+            for (Entry entry : entries) {
+                if (entry.getOperation() != Operation.DELETE) {
+                    ids.add(entry.getObjectId());
+                }
+            }
+
+            Map<UUID, State> states = new CompactMap<UUID, State>();
+
+            if (!ids.isEmpty()) {
+                for (Object object : Query.
+                        from(Object.class).
+                        where("_id = ?", ids).
+                        using(database.getDefaultDelegate()).
+                        noCache().
+                        master().
+                        selectAll()) {
+                    State state = State.getInstance(object);
+
+                    states.put(state.getId(), state);
+                }
+            }
+
+            return states;
+        }
+
+        private void writeAll(Collection<Entry> entries, Map<UUID, State> states) {
+            delegate.beginWrites();
+
+            try {
+                for (Entry entry : entries) {
+                    write(entry, states);
+                }
+
+                delegate.commitWrites();
+
+            } finally {
+                delegate.endWrites();
+            }
+        }
+
+        private void write(Entry entry, Map<UUID, State> states) {
+            State state = states.get(entry.getObjectId());
+
+            // Object that no longer exists in the default delegate should be
+            // deleted from the secondary delegate as well.
+            if (state == null) {
+                state = State.getInstance(database.getEnvironment().createObject(
+                        entry.getObjectTypeId(),
+                        entry.getObjectId()));
+
+                Operation.DELETE.write(delegate, state);
+
+            } else {
+                entry.getOperation().write(delegate, state);
+            }
+        }
+
+        // Schedules the given entry to be retried and returns true, or
+        // returns false if it's been attempted too many times already.
+        private boolean retryLater(Entry entry, Exception error, long now) {
+            int attempts = entry.getAttempts() + 1;
+
+            if (attempts >= getMaximumAttempts()) {
+                LOGGER.error(String.format(
+                        "Giving up on writing [%s] to [%s] after %s attempt(s)",
+                        entry.getObjectId(), delegateName, attempts),
+                        error);
+
+                return false;
+            }
+
+            long delay = INITIAL_RETRY_DELAY << Math.min(attempts - 1, 20);
+
+            if (delay > MAXIMUM_RETRY_DELAY) {
+                delay = MAXIMUM_RETRY_DELAY;
+            }
+
+            String message = ObjectUtils.isBlank(error.getMessage()) ? error.getClass().getName() : error.getMessage();
+
+            if (message.length() > MAXIMUM_ERROR_LENGTH) {
+                message = message.substring(0, MAXIMUM_ERROR_LENGTH);
+            }
+
+            entry.setAttempts(attempts);
+            entry.setNextAttemptTime(now + ObjectUtils.jitter(delay, RETRY_DELAY_JITTER));
+            entry.setLastError(message);
+
+            LOGGER.warn(String.format(
+                    "Can't write [%s] to [%s] after %s attempt(s)",
+                    entry.getObjectId(), delegateName, attempts),
+                    error);
+
+            return true;
+        }
+    }
+}
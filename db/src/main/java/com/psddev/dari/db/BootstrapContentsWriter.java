@@ -0,0 +1,366 @@
+package com.psddev.dari.db;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+import org.codehaus.jackson.JsonFactory;
+import org.codehaus.jackson.JsonGenerationException;
+import org.codehaus.jackson.JsonGenerator;
+import org.codehaus.jackson.JsonParser;
+import org.codehaus.jackson.JsonToken;
+import org.codehaus.jackson.PrettyPrinter;
+
+import com.psddev.dari.util.ObjectUtils;
+import com.psddev.dari.util.Stats;
+
+/**
+ * Writes the rows of a {@link BootstrapPackage}, one JSON object per
+ * line.
+ *
+ * <p>When the database is a {@link SqlDatabase}, the stored data is
+ * copied token by token from the raw rows without creating any objects,
+ * and only the {@code _id} and {@code _type} fields are rewritten. The
+ * objects referenced through the follow references fields are collected
+ * across many rows and read in batches.</p>
+ */
+class BootstrapContentsWriter {
+
+    public static final int FETCH_SIZE = 200;
+    public static final int REFERENCE_BATCH_SIZE = 500;
+
+    private static final int MAX_SEEN_REFERENCE_IDS_SIZE = 100000;
+
+    private static final Stats STATS = new Stats("Bootstrap Export");
+    private static final String ROW_STATS_OPERATION = "Row";
+    private static final String REFERENCE_STATS_OPERATION = "Reference";
+
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    static {
+        JSON_FACTORY.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+    }
+
+    private final Database database;
+    private final SqlDatabase sqlDatabase;
+    private final Map<UUID, Map<String, Set<ObjectType>>> followReferences;
+    private final JsonGenerator generator;
+    private final Map<String, String> typeNames = new HashMap<String, String>();
+    private final Map<ObjectType, Set<UUID>> pendingReferenceIds = new LinkedHashMap<ObjectType, Set<UUID>>();
+    private int pendingReferencesSize;
+    private long rowCount;
+
+    // Recently written references, so that the commonly referenced
+    // objects aren't written over and over again. Writing one twice after
+    // it's evicted is harmless, since the import saves are idempotent.
+    @SuppressWarnings("serial")
+    private final Map<UUID, Boolean> seenReferenceIds = new LinkedHashMap<UUID, Boolean>(16, 0.75f, true) {
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<UUID, Boolean> eldest) {
+            return size() > MAX_SEEN_REFERENCE_IDS_SIZE;
+        }
+    };
+
+    /**
+     * Creates an instance that writes the rows from the given
+     * {@code database} to the given {@code writer}.
+     *
+     * @param followReferences Maps the IDs of the types to the names of
+     *        their fields whose references should also be written, and
+     *        the types of those references.
+     */
+    public BootstrapContentsWriter(
+            Database database,
+            Map<UUID, Map<String, Set<ObjectType>>> followReferences,
+            Writer writer)
+            throws IOException {
+
+        this.database = database;
+        this.sqlDatabase = getRawDatabase(database);
+        this.followReferences = followReferences;
+        this.generator = JSON_FACTORY.createJsonGenerator(writer);
+
+        generator.setPrettyPrinter(new LinePrettyPrinter());
+    }
+
+    // Returns the SQL database that the raw rows can be read from, or
+    // null if the objects must be created to get all of their data.
+    private static SqlDatabase getRawDatabase(Database database) {
+        while (database instanceof ForwardingDatabase) {
+            database = ((ForwardingDatabase) database).getDelegate();
+        }
+
+        if (!(database instanceof SqlDatabase)) {
+            return null;
+        }
+
+        // Some values aren't in the data but only in the index tables.
+        DatabaseEnvironment environment = database.getEnvironment();
+        List<ObjectField> fields = new ArrayList<ObjectField>(environment.getFields());
+
+        for (ObjectType type : environment.getTypes()) {
+            fields.addAll(type.getFields());
+        }
+
+        for (ObjectField field : fields) {
+            if (field.as(SqlDatabase.FieldData.class).isIndexTableSourceFromAnywhere()) {
+                return null;
+            }
+        }
+
+        return (SqlDatabase) database;
+    }
+
+    /** Returns the number of rows written so far. */
+    public long getRowCount() {
+        return rowCount;
+    }
+
+    /** Writes all rows matching the given {@code query}. */
+    public void writeAll(Query<?> query) throws IOException {
+        writeAll(query, true);
+    }
+
+    private void writeAll(Query<?> query, boolean follow) throws IOException {
+        query.noCache();
+
+        if (sqlDatabase != null) {
+            for (SqlDatabase.RawRow row : sqlDatabase.readRawIterable(query, FETCH_SIZE)) {
+                byte[] data = row.getData();
+
+                if (data != null) {
+                    writeRow(JSON_FACTORY.createJsonParser(data), row.getId(), row.getTypeId(), follow);
+                }
+            }
+
+        } else {
+            for (Object object : query.using(database).resolveToReferenceOnly().iterable(FETCH_SIZE)) {
+                if (object instanceof Recordable) {
+                    State state = ((Recordable) object).getState();
+
+                    writeRow(JSON_FACTORY.createJsonParser(ObjectUtils.toJson(state.getSimpleValues(true))), state.getId(), state.getTypeId(), follow);
+                }
+            }
+        }
+    }
+
+    // Copies the object from the given parser with the _id and _type
+    // rewritten, and collects the references that should be followed.
+    private void writeRow(JsonParser parser, UUID id, UUID typeId, boolean follow) throws IOException {
+        Stats.Timer timer = STATS.startTimer();
+
+        try {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                return;
+            }
+
+            Map<String, Set<ObjectType>> followFields = follow && typeId != null ? followReferences.get(typeId) : null;
+
+            generator.writeStartObject();
+
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String name = parser.getCurrentName();
+
+                parser.nextToken();
+
+                if (StateValueUtils.ID_KEY.equals(name) ||
+                        StateValueUtils.TYPE_KEY.equals(name)) {
+                    parser.skipChildren();
+
+                } else {
+                    generator.writeFieldName(name);
+                    copyValue(parser, followFields != null ? followFields.get(name) : null);
+                }
+            }
+
+            generator.writeStringField(StateValueUtils.ID_KEY, id.toString());
+            generator.writeStringField(StateValueUtils.TYPE_KEY, getTypeName(String.valueOf(typeId)));
+            generator.writeEndObject();
+
+            ++ rowCount;
+
+        } finally {
+            parser.close();
+            timer.stop(ROW_STATS_OPERATION);
+        }
+
+        if (pendingReferencesSize >= REFERENCE_BATCH_SIZE) {
+            writeReferences();
+        }
+    }
+
+    private void copyValue(JsonParser parser, Set<ObjectType> referenceTypes) throws IOException {
+        switch (parser.getCurrentToken()) {
+            case START_OBJECT :
+                generator.writeStartObject();
+
+                while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                    String name = parser.getCurrentName();
+                    JsonToken token = parser.nextToken();
+
+                    generator.writeFieldName(name);
+
+                    if (token == JsonToken.VALUE_STRING &&
+                            StateValueUtils.TYPE_KEY.equals(name)) {
+                        generator.writeString(getTypeName(parser.getText()));
+
+                    } else {
+                        if (token == JsonToken.VALUE_STRING &&
+                                referenceTypes != null &&
+                                StateValueUtils.REFERENCE_KEY.equals(name)) {
+                            addReference(referenceTypes, ObjectUtils.to(UUID.class, parser.getText()));
+                        }
+
+                        copyValue(parser, referenceTypes);
+                    }
+                }
+
+                generator.writeEndObject();
+                break;
+
+            case START_ARRAY :
+                generator.writeStartArray();
+
+                while (parser.nextToken() != JsonToken.END_ARRAY) {
+                    copyValue(parser, referenceTypes);
+                }
+
+                generator.writeEndArray();
+                break;
+
+            default :
+                generator.copyCurrentEvent(parser);
+                break;
+        }
+    }
+
+    // Returns the internal name of the type with the given ID, or the ID
+    // itself if it's not a known type.
+    private String getTypeName(String typeId) {
+        String name = typeNames.get(typeId);
+
+        if (name == null) {
+            ObjectType type = typeId.length() == 36 ? database.getEnvironment().getTypeById(ObjectUtils.to(UUID.class, typeId)) : null;
+
+            name = type != null ? type.getInternalName() : typeId;
+            typeNames.put(typeId, name);
+        }
+
+        return name;
+    }
+
+    private void addReference(Set<ObjectType> types, UUID id) {
+        if (id == null || seenReferenceIds.containsKey(id)) {
+            return;
+        }
+
+        for (ObjectType type : types) {
+            Set<UUID> ids = pendingReferenceIds.get(type);
+
+            if (ids == null) {
+                ids = new HashSet<UUID>();
+                pendingReferenceIds.put(type, ids);
+            }
+
+            if (ids.add(id)) {
+                ++ pendingReferencesSize;
+            }
+        }
+    }
+
+    // Writes all pending references, without following their references.
+    private void writeReferences() throws IOException {
+        if (pendingReferenceIds.isEmpty()) {
+            return;
+        }
+
+        Stats.Timer timer = STATS.startTimer();
+        Map<ObjectType, Set<UUID>> referenceIds = new LinkedHashMap<ObjectType, Set<UUID>>(pendingReferenceIds);
+
+        pendingReferenceIds.clear();
+        pendingReferencesSize = 0;
+
+        for (Map.Entry<ObjectType, Set<UUID>> entry : referenceIds.entrySet()) {
+            Set<UUID> ids = entry.getValue();
+
+            for (UUID id : ids) {
+                seenReferenceIds.put(id, Boolean.TRUE);
+            }
+
+            writeAll(Query.fromType(entry.getKey()).using(database).where("_id = ?", ids), false);
+        }
+
+        timer.stop(REFERENCE_STATS_OPERATION);
+    }
+
+    /** Writes all pending references and flushes the underlying writer. */
+    public void finish() throws IOException {
+        writeReferences();
+
+        if (rowCount > 0) {
+            generator.writeRaw('\n');
+        }
+
+        generator.flush();
+    }
+
+    // Writes compact JSON with each root value on its own line.
+    private static class LinePrettyPrinter implements PrettyPrinter {
+
+        @Override
+        public void writeRootValueSeparator(JsonGenerator generator) throws IOException, JsonGenerationException {
+            generator.writeRaw('\n');
+        }
+
+        @Override
+        public void writeStartObject(JsonGenerator generator) throws IOException, JsonGenerationException {
+            generator.writeRaw('{');
+        }
+
+        @Override
+        public void writeEndObject(JsonGenerator generator, int size) throws IOException, JsonGenerationException {
+            generator.writeRaw('}');
+        }
+
+        @Override
+        public void writeObjectEntrySeparator(JsonGenerator generator) throws IOException, JsonGenerationException {
+            generator.writeRaw(',');
+        }
+
+        @Override
+        public void writeObjectFieldValueSeparator(JsonGenerator generator) throws IOException, JsonGenerationException {
+            generator.writeRaw(':');
+        }
+
+        @Override
+        public void writeStartArray(JsonGenerator generator) throws IOException, JsonGenerationException {
+            generator.writeRaw('[');
+        }
+
+        @Override
+        public void writeEndArray(JsonGenerator generator, int size) throws IOException, JsonGenerationException {
+            generator.writeRaw(']');
+        }
+
+        @Override
+        public void writeArrayValueSeparator(JsonGenerator generator) throws IOException, JsonGenerationException {
+            generator.writeRaw(',');
+        }
+
+        @Override
+        public void beforeArrayValues(JsonGenerator generator) {
+        }
+
+        @Override
+        public void beforeObjectEntries(JsonGenerator generator) {
+        }
+    }
+}
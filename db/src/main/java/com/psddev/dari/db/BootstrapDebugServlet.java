@@ -128,7 +128,9 @@ public class BootstrapDebugServlet extends HttpServlet {
                                 if (action.equals(DELETE_AND_IMPORT_BUTTON_TEXT)) {
                                     deleteFirst = true;
                                 }
-                                BootstrapPackage.Static.importContents(selectedDatabase, fileName, fileInput, deleteFirst, numWriters, commitSize);
+                                boolean resume = ObjectUtils.to(boolean.class, req.getParameter("resumeImport"));
+
+                                BootstrapPackage.Static.importContents(selectedDatabase, fileName, fileInput, deleteFirst, numWriters, commitSize, resume);
                             }
                         }
                     }
@@ -380,7 +382,7 @@ public class BootstrapDebugServlet extends HttpServlet {
                         writeStart("h2").writeHtml("Import Bootstrap Package").writeEnd();
 
                         writeStart("form", "action", "/_debug/db-bootstrap", "class", "form-horizontal", "method", "post", "enctype", "multipart/form-data");
-                        writeStart("p").writeHtml("Upload a bootstrap export and import it into the database. Objects with the same ").writeStart("code").writeHtml("id").writeEnd().writeHtml(" will be overwritten. If \"Delete Before Import\" is checked, all objects of the included types will be deleted before the new objects are saved. ").writeEnd();
+                        writeStart("p").writeHtml("Upload a bootstrap export and import it into the database. Objects with the same ").writeStart("code").writeHtml("id").writeEnd().writeHtml(" will be overwritten. If \"Delete Before Import\" is checked, all objects of the included types will be deleted before the new objects are saved. If \"Resume Failed Import?\" is checked, the rows that a previous failed import of the same package into this database committed will be skipped. ").writeEnd();
                         writeStart("p").writeHtml("This is a potentially ").writeStart("strong").writeHtml("DANGEROUS").writeEnd().writeHtml(" operation, and may result in data loss. ").writeEnd();
 
                         writeStart("div", "class", "control-group");
@@ -397,6 +399,13 @@ public class BootstrapDebugServlet extends HttpServlet {
                             writeEnd();
                         writeEnd();
 
+                        writeStart("div", "class", "control-group");
+                            writeStart("label", "class", "control-label", "id", wp.createId()).writeHtml("Resume Failed Import?").writeEnd();
+                            writeStart("div", "class", "controls");
+                                writeElement("input", "type", "checkbox", "name", "resumeImport", "value", "true");
+                            writeEnd();
+                        writeEnd();
+
                         writeStart("div", "class", "control-group");
                             writeStart("label", "class", "control-label", "id", wp.createId()).writeHtml("# of Writers").writeEnd();
                             writeStart("div", "class", "controls");
@@ -1,17 +1,27 @@
 package com.psddev.dari.db;
 
 import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedList;
 import java.util.List;
+import java.util.ListIterator;
+import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
+import java.util.TreeMap;
 import java.util.UUID;
 import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -19,8 +29,12 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.psddev.dari.util.AsyncQueue;
+import com.psddev.dari.util.CompactMap;
+import com.psddev.dari.util.IoUtils;
 import com.psddev.dari.util.ObjectUtils;
+import com.psddev.dari.util.StringUtils;
 import com.psddev.dari.util.Task;
+import com.psddev.dari.util.TaskExecutor;
 import com.psddev.dari.util.TypeReference;
 
 class BootstrapImportTask extends Task {
@@ -28,6 +42,12 @@ class BootstrapImportTask extends Task {
     public static final String EXECUTOR_PREFIX = "Bootstrap Import";
 
     private static final Logger LOGGER = LoggerFactory.getLogger(BootstrapImportTask.class);
+    private static final int CHUNK_SIZE = 500;
+    private static final long CHECKPOINT_INTERVAL = 5000L;
+    private static final UUID GLOBALS_ID = new UUID(-1L, -1L);
+    private static final UUID ZERO_TYPE_ID = new UUID(0L, 0L);
+    private static final Pattern UUID_PATTERN = Pattern.compile("[0-9a-f]{8}-[0-9a-f]{4}-[0-9a-f]{4}-[0-9a-f]{4}-[0-9a-f]{12}", Pattern.CASE_INSENSITIVE);
+    private static final TypeReference<Map<String, Object>> MAP_STRING_OBJECT_TYPE = new TypeReference<Map<String, Object>>() { };
 
     private final Database database;
     private final String filename;
@@ -40,12 +60,18 @@ class BootstrapImportTask extends Task {
     private final List<AsyncDatabaseWriter<Record>> savers = new ArrayList<AsyncDatabaseWriter<Record>>();
     private final List<AsyncDatabaseWriter<Record>> deleters = new ArrayList<AsyncDatabaseWriter<Record>>();
     private AsyncQueue<Record> deleteQueue;
-    private final Map<UUID, ObjectType> unknownTypes = new HashMap<UUID, ObjectType>();
-    private boolean needsTranslation;
-    private final Pattern uuidPattern = Pattern.compile("[0-9a-f]{8}-[0-9a-f]{4}-[0-9a-f]{4}-[0-9a-f]{4}-[0-9a-f]{12}", Pattern.CASE_INSENSITIVE);
+    private final Map<UUID, ObjectType> unknownTypes = new ConcurrentHashMap<UUID, ObjectType>();
+    private volatile boolean needsTranslation;
     private final Map<UUID, UUID> remoteToLocalIdMap = new HashMap<UUID, UUID>();
     private final Map<String, String> remoteToLocalIdStringMap = new HashMap<String, String>();
-    private static final TypeReference<Map<String, Object>> MAP_STRING_OBJECT_TYPE = new TypeReference<Map<String, Object>>() { };
+    private int numParsers = Runtime.getRuntime().availableProcessors();
+    private boolean resume;
+    private long numRows;
+    private boolean completed;
+    private final LinkedList<Chunk> handedOff = new LinkedList<Chunk>();
+    private String checkpointHeaders;
+    private long checkpointLine;
+    private long lastCheckpointWrite;
 
     public BootstrapImportTask(Database database, String filename, InputStream fileInputStream, boolean deleteFirst, int numWriters, int commitSize) {
         super(EXECUTOR_PREFIX, EXECUTOR_PREFIX + " " + filename);
@@ -62,8 +88,41 @@ class BootstrapImportTask extends Task {
         }
     }
 
+    /**
+     * Returns the number of threads that parse the lines in parallel.
+     */
+    public int getNumParsers() {
+        return numParsers;
+    }
+
+    /**
+     * Sets the number of threads that parse the lines in parallel.
+     */
+    public void setNumParsers(int numParsers) {
+        this.numParsers = Math.max(1, numParsers);
+    }
+
+    /**
+     * Returns {@code true} if the import should resume after the last
+     * line that a previous, failed import of the same package into the
+     * same database is known to have committed.
+     */
+    public boolean isResume() {
+        return resume;
+    }
+
+    /**
+     * Sets whether the import should resume after the last line that a
+     * previous, failed import of the same package into the same database
+     * is known to have committed. Ignored when deleting first.
+     */
+    public void setResume(boolean resume) {
+        this.resume = resume;
+    }
+
     public void doTask() throws IOException {
         List<Task> tasks = new ArrayList<Task>();
+        boolean failed = true;
         try {
             for (int i = 0; i < numWriters; i++) {
                 AsyncDatabaseWriter<Record> saver = new AsyncDatabaseWriter<Record>(EXECUTOR_PREFIX, saveQueue, database, WriteOperation.SAVE_UNSAFELY, commitSize, true);
@@ -111,7 +170,7 @@ class BootstrapImportTask extends Task {
                 setProgressTotal(ObjectUtils.to(Long.class, headers.get(BootstrapPackage.Static.ROW_COUNT_HEADER)));
             }
             UUID localObjTypeId = database.getEnvironment().getTypeByClass(ObjectType.class).getId();
-            UUID globalsId = new UUID(-1L, -1L);
+            UUID globalsId = GLOBALS_ID;
             Set<String> typeNames = new HashSet<String>();
             boolean isAllTypes = false;
             Map<String, String> typeMapTypeFields = new HashMap<String, String>();
@@ -192,10 +251,16 @@ class BootstrapImportTask extends Task {
                 }
             }
             LOGGER.info("Importing data from " + filename + " . . . ");
-            int numRows = 0;
-            boolean afterMappingTypes = false;
             ObjectType objType = database.getEnvironment().getTypeByClass(ObjectType.class);
+            long resumeLine = readCheckpoint(headers);
+            long lineNumber = 0;
+
+            // The objects used to map the remote IDs to the local ones come
+            // first, and they must be read in order before any of the IDs
+            // can be translated.
             while (null != (line = reader.readLine())) {
+                ++ lineNumber;
+
                 if (!shouldContinue()) {
                     break;
                 }
@@ -209,78 +274,100 @@ class BootstrapImportTask extends Task {
                 if (!line.startsWith("{") || !line.endsWith("}")) {
                     throw new RuntimeException("Invalid line in input file: " + line);
                 }
-                line = translateIds(line);
-                Map<String, Object> stateMap = ObjectUtils.to(MAP_STRING_OBJECT_TYPE, ObjectUtils.fromJson(line));
-                UUID globalId = new UUID(-1L, -1L);
-                UUID zeroTypeId = new UUID(0L, 0L);
+                Map<String, Object> stateMap = parseLine(line);
+                String typeName = ObjectUtils.to(String.class, stateMap.get("_type"));
+                ObjectType type = database.getEnvironment().getTypeByName(typeName);
+
+                if (type == null || !(typeMapTypeFields.containsKey(typeName) || objType.equals(type))) {
+                    break;
+                }
+
                 try {
                     UUID id = ObjectUtils.to(UUID.class, stateMap.get("_id"));
                     if (id == null) {
                         LOGGER.error("Invalid line in input file: " + line);
                         continue;
                     }
-                    if (id.equals(globalId)) {
-                        LOGGER.debug("Not importing " + globalId);
-                        continue;
-                    }
-                    ObjectType type = database.getEnvironment().getTypeByName(ObjectUtils.to(String.class, stateMap.get("_type")));
-                    if (type == null) {
-                        if (zeroTypeId.equals(ObjectUtils.to(UUID.class, stateMap.get("_type")))) {
-                            LOGGER.debug("Not importing type " + zeroTypeId);
-                        } else {
-                            LOGGER.error("Unknown type in line: " + line);
-                        }
-                        continue;
-                    }
                     Object obj = type.createObject(id);
-                    Record record;
-                    if (obj instanceof Record) {
-                        record = (Record) obj;
-                    } else {
+                    if (!(obj instanceof Record)) {
                         LOGGER.error("Unknown type in line: " + line);
                         continue;
                     }
-
-                    if (!afterMappingTypes && (typeMapTypeFields.containsKey(ObjectUtils.to(String.class, stateMap.get("_type"))) || objType.equals(type))) {
-                        String typeMapField = typeMapTypeFields.get(ObjectUtils.to(String.class, stateMap.get("_type")));
-                        Object localObj;
+                    Record record = (Record) obj;
+                    String typeMapField = typeMapTypeFields.get(typeName);
+                    Object localObj;
+                    if (objType.equals(type)) {
+                        localObj = database.getEnvironment().getTypeByName(ObjectUtils.to(String.class, stateMap.get("internalName")));
+                    } else {
+                        localObj = Query.fromType(type).where(typeMapField + " = ?", ObjectUtils.to(String.class, stateMap.get(typeMapField))).first();
+                    }
+                    if (localObj instanceof Recordable) {
+                        UUID localId = ((Recordable) localObj).getState().getId();
+                        remoteToLocalIdMap.put(id, localId);
                         if (objType.equals(type)) {
-                            localObj = database.getEnvironment().getTypeByName(ObjectUtils.to(String.class, stateMap.get("internalName")));
-                        } else {
-                            localObj = Query.fromType(type).where(typeMapField + " = ?", ObjectUtils.to(String.class, stateMap.get(typeMapField))).first();
-                        }
-                        if (localObj instanceof Recordable) {
-                            UUID localId = ((Recordable) localObj).getState().getId();
-                            remoteToLocalIdMap.put(ObjectUtils.to(UUID.class, stateMap.get("_id")), localId);
-                            if (objType.equals(type)) {
-                                stateMap.put("_id", localId);
-                            }
+                            stateMap.put("_id", localId);
                         }
-                        if (localObj == null || isAllTypes || typeNames.contains(type.getInternalName())) {
-                            record.getState().setResolveToReferenceOnly(true);
-                            record.getState().setValues(stateMap);
-                            saveQueue.add(record);
-                        }
-                    } else if (!afterMappingTypes) {
-                        afterMappingTypes = true;
-                        // this is the first line after all of the objectTypes, potentially need to re-parse it.
-                        prepareIdTranslation();
-                        line = translateIds(line);
-                        stateMap = ObjectUtils.to(MAP_STRING_OBJECT_TYPE, ObjectUtils.fromJson(line));
-                        record.getState().setResolveToReferenceOnly(true);
-                        record.getState().setValues(stateMap);
-                        saveQueue.add(record);
-                    } else {
+                    }
+                    if (localObj == null || isAllTypes || typeNames.contains(type.getInternalName())) {
                         record.getState().setResolveToReferenceOnly(true);
                         record.getState().setValues(stateMap);
                         saveQueue.add(record);
                     }
-
-                    setProgressIndex(++numRows);
+                    setProgressIndex(++ numRows);
                 } catch (RuntimeException t) {
                     LOGGER.error("Error when saving state at " + stateMap.get("_id") + ": ", t);
                 }
             }
+
+            prepareIdTranslation();
+
+            // Everything else is parsed and translated in parallel, and
+            // handed off to the writers in the original order.
+            TaskExecutor executor = getExecutor();
+            LinkedList<Chunk> pending = new LinkedList<Chunk>();
+            List<String> lines = new ArrayList<String>(CHUNK_SIZE);
+
+            if (line != null && lineNumber > resumeLine) {
+                lines.add(line);
+            }
+
+            while (shouldContinue()) {
+                line = reader.readLine();
+
+                if (line != null) {
+                    ++ lineNumber;
+
+                    if (lineNumber > resumeLine) {
+                        lines.add(line);
+                    }
+                }
+
+                if (lines.size() >= CHUNK_SIZE || (line == null && !lines.isEmpty())) {
+                    pending.add(new Chunk(executor.submit(new Parser(lines)), lineNumber));
+                    lines = new ArrayList<String>(CHUNK_SIZE);
+
+                    while (pending.size() > numParsers) {
+                        handOff(pending.removeFirst());
+                    }
+                }
+
+                if (line == null) {
+                    break;
+                }
+            }
+
+            while (!pending.isEmpty()) {
+                Chunk chunk = pending.removeFirst();
+
+                if (shouldContinue()) {
+                    handOff(chunk);
+                } else {
+                    chunk.future.cancel(true);
+                }
+            }
+
+            completed = shouldContinue();
+            failed = false;
         } catch (RuntimeException e) {
             for (Task task : tasks) {
                 task.stop();
@@ -314,10 +401,263 @@ class BootstrapImportTask extends Task {
                     }
                 }
             }
+            // Only a failed import can be resumed. A stopped one must be
+            // started over so that its rows aren't skipped by accident.
+            if (failed) {
+                writeCheckpoint();
+            } else {
+                deleteCheckpoint();
+            }
+
             LOGGER.info("Done with import of " + filename + ".");
         }
     }
 
+    // Adds the records parsed from the given chunk to the save queue, and
+    // advances the checkpoint to the last chunk whose records must have
+    // been committed by the writers.
+    private void handOff(Chunk chunk) {
+        List<Record> records;
+
+        try {
+            records = chunk.future.get();
+
+        } catch (InterruptedException error) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(error);
+
+        } catch (ExecutionException error) {
+            Throwable cause = error.getCause();
+            throw cause instanceof RuntimeException ?
+                    (RuntimeException) cause :
+                    new IllegalStateException(cause);
+        }
+
+        for (Record record : records) {
+            if (!saveQueue.add(record)) {
+                break;
+            }
+        }
+
+        numRows += records.size();
+        setProgressIndex(numRows);
+
+        chunk.rowsAfter = numRows;
+        handedOff.add(chunk);
+
+        // Records that are still in the queue or held by the writers.
+        long uncommitted = queueSize + (long) numWriters * commitSize;
+
+        while (!handedOff.isEmpty() && handedOff.getFirst().rowsAfter <= numRows - uncommitted) {
+            checkpointLine = handedOff.removeFirst().endLine;
+        }
+
+        long now = System.currentTimeMillis();
+
+        if (now - lastCheckpointWrite > CHECKPOINT_INTERVAL) {
+            lastCheckpointWrite = now;
+            writeCheckpoint();
+        }
+    }
+
+    /**
+     * Returns the file that holds the checkpoint for the import of this
+     * package into this database in the temporary directory.
+     */
+    File getCheckpointFile() {
+        String key = filename + "\n" + database.getClass().getName() + "\n" + database.getName();
+
+        return new File(System.getProperty("java.io.tmpdir"), "dari-bootstrap-" + StringUtils.hex(StringUtils.md5(key)) + ".checkpoint");
+    }
+
+    // Returns the line to resume after if resuming and the previous import
+    // of the same package with the same headers into the same database
+    // failed.
+    private long readCheckpoint(Map<String, String> headers) {
+        checkpointHeaders = StringUtils.hex(StringUtils.md5(new TreeMap<String, String>(headers).toString()));
+
+        if (deleteFirst || !resume) {
+            deleteCheckpoint();
+            return 0L;
+        }
+
+        File file = getCheckpointFile();
+
+        if (!file.exists()) {
+            return 0L;
+        }
+
+        try {
+            String[] parts = IoUtils.toString(file, StringUtils.UTF_8).trim().split("\\s+");
+
+            if (parts.length == 2 && checkpointHeaders.equals(parts[0])) {
+                checkpointLine = ObjectUtils.to(long.class, parts[1]);
+                LOGGER.info("Resuming import of " + filename + " into " + database.getName() + " after line " + checkpointLine);
+                return checkpointLine;
+            }
+
+            LOGGER.info("Not resuming import of " + filename + " because its headers changed");
+
+        } catch (IOException error) {
+            LOGGER.warn("Can't read the checkpoint for " + filename, error);
+        }
+
+        return 0L;
+    }
+
+    private void writeCheckpoint() {
+        if (checkpointHeaders == null || checkpointLine <= 0L) {
+            return;
+        }
+
+        try {
+            FileOutputStream output = new FileOutputStream(getCheckpointFile());
+
+            try {
+                output.write((checkpointHeaders + " " + checkpointLine).getBytes(StringUtils.UTF_8));
+
+            } finally {
+                output.close();
+            }
+
+        } catch (IOException error) {
+            LOGGER.warn("Can't write the checkpoint for " + filename, error);
+        }
+    }
+
+    private void deleteCheckpoint() {
+        File file = getCheckpointFile();
+
+        if (file.exists() && !file.delete()) {
+            LOGGER.warn("Can't delete the checkpoint for " + filename);
+        }
+    }
+
+    // Parses the given line, translating the remote IDs to the local ones
+    // in the field names and the string values.
+    private Map<String, Object> parseLine(String line) {
+        return ObjectUtils.to(MAP_STRING_OBJECT_TYPE, translateValues(ObjectUtils.fromJson(line)));
+    }
+
+    @SuppressWarnings("unchecked")
+    private Object translateValues(Object value) {
+        if (!needsTranslation) {
+            return value;
+
+        } else if (value instanceof String) {
+            return translateIds((String) value);
+
+        } else if (value instanceof Map) {
+            Map<String, Object> translated = new CompactMap<String, Object>();
+            for (Map.Entry<String, Object> entry : ((Map<String, Object>) value).entrySet()) {
+                translated.put(translateIds(entry.getKey()), translateValues(entry.getValue()));
+            }
+            return translated;
+
+        } else if (value instanceof List) {
+            for (ListIterator<Object> i = ((List<Object>) value).listIterator(); i.hasNext();) {
+                i.set(translateValues(i.next()));
+            }
+            return value;
+
+        } else {
+            return value;
+        }
+    }
+
+    // Creates the record to be saved from the given line.
+    private Record createRecord(String line) {
+        Map<String, Object> stateMap = parseLine(line);
+        UUID id = ObjectUtils.to(UUID.class, stateMap.get("_id"));
+
+        if (id == null) {
+            LOGGER.error("Invalid line in input file: " + line);
+            return null;
+        }
+
+        if (id.equals(GLOBALS_ID)) {
+            LOGGER.debug("Not importing " + GLOBALS_ID);
+            return null;
+        }
+
+        ObjectType type = database.getEnvironment().getTypeByName(ObjectUtils.to(String.class, stateMap.get("_type")));
+
+        if (type == null) {
+            if (ZERO_TYPE_ID.equals(ObjectUtils.to(UUID.class, stateMap.get("_type")))) {
+                LOGGER.debug("Not importing type " + ZERO_TYPE_ID);
+            } else {
+                LOGGER.error("Unknown type in line: " + line);
+            }
+            return null;
+        }
+
+        Object obj = type.createObject(id);
+
+        if (!(obj instanceof Record)) {
+            LOGGER.error("Unknown type in line: " + line);
+            return null;
+        }
+
+        Record record = (Record) obj;
+
+        record.getState().setResolveToReferenceOnly(true);
+        record.getState().setValues(stateMap);
+        return record;
+    }
+
+    /** Parses and translates a chunk of lines in parallel. */
+    private class Parser implements Callable<List<Record>> {
+
+        private final List<String> lines;
+
+        public Parser(List<String> lines) {
+            this.lines = lines;
+        }
+
+        @Override
+        public List<Record> call() {
+            List<Record> records = new ArrayList<Record>(lines.size());
+
+            for (String line : lines) {
+                line = line.trim();
+                if ("".equals(line)) {
+                    continue;
+                }
+                if (line.startsWith("#")) {
+                    continue;
+                }
+                if (!line.startsWith("{") || !line.endsWith("}")) {
+                    throw new RuntimeException("Invalid line in input file: " + line);
+                }
+
+                try {
+                    Record record = createRecord(line);
+
+                    if (record != null) {
+                        records.add(record);
+                    }
+
+                } catch (RuntimeException error) {
+                    LOGGER.error("Error when parsing line: " + line, error);
+                }
+            }
+
+            return records;
+        }
+    }
+
+    private static class Chunk {
+
+        public final Future<List<Record>> future;
+        public final long endLine;
+        public long rowsAfter;
+
+        public Chunk(Future<List<Record>> future, long endLine) {
+            this.future = future;
+            this.endLine = endLine;
+        }
+    }
+
     private void prepareIdTranslation() {
         needsTranslation = !remoteToLocalIdMap.isEmpty();
         for (Map.Entry<UUID, UUID> entry : remoteToLocalIdMap.entrySet()) {
@@ -325,38 +665,58 @@ class BootstrapImportTask extends Task {
         }
     }
 
-    private String translateIds(String line) {
-        if (!needsTranslation) {
-            return line;
+    // Translates the remote IDs in the given string value. Most IDs are
+    // the whole value, so only the longer strings need to be searched.
+    private String translateIds(String value) {
+        if (!needsTranslation || value == null) {
+            return value;
+        }
+        int length = value.length();
+        if (length < 36) {
+            return value;
         }
-        StringBuilder newLine = new StringBuilder();
-        Matcher idMatcher = uuidPattern.matcher(line);
+        if (length == 36) {
+            String localId = remoteToLocalIdStringMap.get(value);
+            if (localId == null) {
+                localId = remoteToLocalIdStringMap.get(value.toLowerCase(Locale.ENGLISH));
+            }
+            if (localId != null) {
+                saveUnknownType(localId);
+                return localId;
+            }
+            return value;
+        }
+        StringBuilder newValue = null;
+        Matcher idMatcher = UUID_PATTERN.matcher(value);
         int cursor = 0;
-        boolean found = false;
         while (idMatcher.find()) {
             int start = idMatcher.start();
             int end = idMatcher.end();
-            newLine.append(line.substring(cursor, start));
-            String remoteId = line.substring(start, end);
-            String localId;
-            if ((localId = remoteToLocalIdStringMap.get(remoteId)) != null) {
-                found = true;
-                newLine.append(localId);
-            } else {
-                newLine.append(remoteId);
-            }
-            cursor = end;
-            ObjectType unknownType;
-            if ((unknownType = unknownTypes.remove(localId)) != null) {
-                saveQueue.add(unknownType);
+            String localId = remoteToLocalIdStringMap.get(value.substring(start, end).toLowerCase(Locale.ENGLISH));
+            if (localId != null) {
+                if (newValue == null) {
+                    newValue = new StringBuilder(length);
+                }
+                newValue.append(value, cursor, start);
+                newValue.append(localId);
+                cursor = end;
+                saveUnknownType(localId);
             }
         }
-        if (found) {
-            newLine.append(line.substring(cursor));
-            return newLine.toString();
+        if (newValue != null) {
+            newValue.append(value, cursor, length);
+            return newValue.toString();
         } else {
-            return line;
+            return value;
         }
     }
 
+    private void saveUnknownType(String localId) {
+        if (!unknownTypes.isEmpty()) {
+            ObjectType unknownType = unknownTypes.remove(ObjectUtils.to(UUID.class, localId));
+            if (unknownType != null) {
+                saveQueue.add(unknownType);
+            }
+        }
+    }
 }
@@ -4,7 +4,6 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.Writer;
 import java.util.ArrayList;
-import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -145,8 +144,6 @@ public class BootstrapPackage extends Record {
         public static final String ROW_COUNT_HEADER = "Row Count";
         public static final String ALL_TYPES_HEADER_VALUE = "ALL";
 
-        private static final int MAX_SEEN_REFERENCE_IDS_SIZE = 100000;
-
         public static BootstrapPackage getPackage(Database database, String name) {
             return getPackagesMap(database).get(name);
         }
@@ -345,7 +342,7 @@ public class BootstrapPackage extends Record {
             }
 
             // Determine if there are any fields that need references followed
-            Map<UUID, Map<String, ObjectType>> followReferences = new HashMap<UUID, Map<String, ObjectType>>();
+            Map<UUID, Map<String, Set<ObjectType>>> followReferences = new HashMap<UUID, Map<String, Set<ObjectType>>>();
             if (!pkg.isInit()) {
                 for (ObjectType type : exportTypes) {
                     for (String fieldName : type.as(TypeData.class).getFollowReferencesFields()) {
@@ -353,10 +350,17 @@ public class BootstrapPackage extends Record {
                         if (field != null) {
                             for (ObjectType fieldType : field.getTypes()) {
                                 if (!exportTypes.contains(fieldType)) {
-                                    if (!followReferences.containsKey(type.getId())) {
-                                        followReferences.put(type.getId(), new HashMap<String, ObjectType>());
+                                    Map<String, Set<ObjectType>> followFields = followReferences.get(type.getId());
+                                    if (followFields == null) {
+                                        followFields = new HashMap<String, Set<ObjectType>>();
+                                        followReferences.put(type.getId(), followFields);
+                                    }
+                                    Set<ObjectType> followTypes = followFields.get(fieldName);
+                                    if (followTypes == null) {
+                                        followTypes = new HashSet<ObjectType>();
+                                        followFields.put(fieldName, followTypes);
                                     }
-                                    followReferences.get(type.getId()).put(fieldName, fieldType);
+                                    followTypes.add(fieldType);
                                 }
                             }
                         }
@@ -412,82 +416,36 @@ public class BootstrapPackage extends Record {
             writer.write('\n');
             writer.flush();
 
+            BootstrapContentsWriter contentsWriter = new BootstrapContentsWriter(database, followReferences, writer);
+
             // ObjectType records first
             if (exportTypes.isEmpty() || exportTypes.contains(objType) || needsObjectTypeMap) {
-                for (Object r : Query.fromType(objType).using(database).noCache().resolveToReferenceOnly().iterable(100)) {
-                    writer.write(ObjectUtils.toJson(((Recordable) r).getState().getSimpleValues(true)));
-                    writer.write('\n');
-                }
+                contentsWriter.writeAll(Query.fromType(objType).using(database));
             }
 
             // Then other mapping types
             for (ObjectType typeMapType : typeMaps) {
-                for (Object r : Query.fromType(typeMapType).using(database).noCache().resolveToReferenceOnly().iterable(100)) {
-                    writer.write(ObjectUtils.toJson(((Recordable) r).getState().getSimpleValues(true)));
-                    writer.write('\n');
-                }
+                contentsWriter.writeAll(Query.fromType(typeMapType).using(database));
             }
 
             // Then everything else
-            UUID lastTypeId = null;
-            Set<UUID> seenIds = new HashSet<UUID>();
-            for (Object o : query.noCache().resolveToReferenceOnly().iterable(100)) {
-                if (o instanceof Recordable) {
-                    Recordable r = (Recordable) o;
-                    writer.write(ObjectUtils.toJson(r.getState().getSimpleValues(true)));
-                    writer.write('\n');
-                    if (!pkg.isInit()) {
-                        if (lastTypeId == null || !lastTypeId.equals(r.getState().getTypeId())) {
-                            seenIds.clear();
-                        } else if (seenIds.size() > MAX_SEEN_REFERENCE_IDS_SIZE) {
-                            seenIds.clear();
-                        }
-                        lastTypeId = r.getState().getTypeId();
-                        Map<String, ObjectType> followReferencesFieldMap;
-                        if ((followReferencesFieldMap = followReferences.get(r.getState().getTypeId())) != null) {
-                            for (Map.Entry<String, ObjectType> entry : followReferencesFieldMap.entrySet()) {
-                                Object reference = r.getState().getRawValue(entry.getKey());
-                                Set<UUID> referenceIds = new HashSet<UUID>();
-                                if (reference instanceof Collection) {
-                                    for (Object referenceObj : ((Collection<?>) reference)) {
-                                        if (referenceObj instanceof Recordable) {
-                                            UUID referenceUUID = ObjectUtils.to(UUID.class, ((Recordable) referenceObj).getState().getId());
-                                            if (referenceUUID != null) {
-                                                if (!seenIds.contains(referenceUUID)) {
-                                                    referenceIds.add(referenceUUID);
-                                                }
-                                            }
-                                        }
-                                    }
-                                } else if (reference instanceof Recordable) {
-                                    UUID referenceUUID = ObjectUtils.to(UUID.class, ((Recordable) reference).getState().getId());
-                                    if (referenceUUID != null) {
-                                        if (!seenIds.contains(referenceUUID)) {
-                                            referenceIds.add(referenceUUID);
-                                        }
-                                    }
-                                }
-                                if (!referenceIds.isEmpty()) {
-                                    for (Object ref : Query.fromType(entry.getValue()).noCache().using(database).where("_id = ?", referenceIds).selectAll()) {
-                                        if (ref instanceof Recordable) {
-                                            Recordable refr = (Recordable) ref;
-                                            seenIds.add(refr.getState().getId());
-                                            writer.write(ObjectUtils.toJson(refr.getState().getSimpleValues(true)));
-                                            writer.write('\n');
-                                        }
-                                    }
-                                }
-                            }
-                        }
-                    }
-                }
-            }
-
-            writer.flush();
+            contentsWriter.writeAll(query);
+            contentsWriter.finish();
         }
 
         public static void importContents(Database database, String filename, InputStream fileInputStream, boolean deleteFirst, int numWriters, int commitSize) throws IOException {
+            importContents(database, filename, fileInputStream, deleteFirst, numWriters, commitSize, false);
+        }
+
+        /**
+         * Imports the given package in the background. If {@code resume}
+         * is {@code true} and a previous import of the same package into
+         * the same database failed, the lines that it's known to have
+         * committed are skipped.
+         */
+        public static void importContents(Database database, String filename, InputStream fileInputStream, boolean deleteFirst, int numWriters, int commitSize, boolean resume) throws IOException {
             BootstrapImportTask importer = new BootstrapImportTask(database, filename, fileInputStream, deleteFirst, numWriters, commitSize);
+            importer.setResume(resume);
             importer.submit();
         }
     }
@@ -7,6 +7,7 @@ import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 import com.psddev.dari.util.ObjectUtils;
 import com.psddev.dari.util.PaginatedResult;
@@ -43,6 +44,7 @@ public class CachingDatabase extends ForwardingDatabase {
     private final ConcurrentMap<Query<?>, Object> readFirstCache = new ConcurrentHashMap<Query<?>, Object>();
     private final ConcurrentMap<Query<?>, Map<Range, PaginatedResult<?>>> readPartialCache = new ConcurrentHashMap<Query<?>, Map<Range, PaginatedResult<?>>>();
     private final ConcurrentMap<UUID, Boolean> idOnlyQueryIds = new ConcurrentHashMap<UUID, Boolean>();
+    private final AtomicLong flushCount = new AtomicLong();
 
     private static class Range {
 
@@ -102,6 +104,46 @@ public class CachingDatabase extends ForwardingDatabase {
         return referenceCache;
     }
 
+    /**
+     * Returns the number of times that this cache has been flushed so
+     * far, which can be passed to {@link #preloadObject} later.
+     */
+    long getFlushCount() {
+        return flushCount.get();
+    }
+
+    /**
+     * Caches the given {@code object} that was read from the delegate
+     * outside of this database, unless a copy of it is already cached,
+     * or this cache has been flushed since the given {@code flushCount}.
+     *
+     * @param object Can't be {@code null}.
+     * @return {@code true} if the object was cached.
+     */
+    boolean preloadObject(Object object, long flushCount) {
+        State state = State.getInstance(object);
+
+        if (state.isReferenceOnly() ||
+                state.isResolveToReferenceOnly() ||
+                this.flushCount.get() != flushCount) {
+            return false;
+        }
+
+        UUID id = state.getId();
+
+        if (objectCache.putIfAbsent(id, object) != null) {
+            return false;
+
+        // Flushed while caching, so the object may be stale.
+        } else if (this.flushCount.get() != flushCount) {
+            objectCache.remove(id, object);
+            return false;
+
+        } else {
+            return true;
+        }
+    }
+
     // --- ForwardingDatabase support ---
 
     private boolean isCacheDisabled(Query<?> query) {
@@ -276,7 +318,8 @@ public class CachingDatabase extends ForwardingDatabase {
     @Override
     @SuppressWarnings("unchecked")
     public <T> PaginatedResult<T> readPartial(Query<T> query, long offset, int limit) {
-        if (isCacheDisabled(query)) {
+        if (isCacheDisabled(query) ||
+                query.getOptions().containsKey(Query.CONTINUATION_QUERY_OPTION)) {
             return super.readPartial(query, offset, limit);
         }
 
@@ -316,6 +359,7 @@ public class CachingDatabase extends ForwardingDatabase {
      * Flush the entire cache. This is executed after every .save() to avoid inconsistent results.
      */
     protected void flush() {
+        flushCount.incrementAndGet();
         objectCache.clear();
         referenceCache.clear();
         readAllCache.clear();
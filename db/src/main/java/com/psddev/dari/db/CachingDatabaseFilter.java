@@ -1,27 +1,64 @@
 package com.psddev.dari.db;
 
 import java.io.IOException;
-import java.util.Set;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.regex.Pattern;
 
 import javax.servlet.FilterChain;
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
 import com.psddev.dari.util.AbstractFilter;
 import com.psddev.dari.util.Settings;
+import com.psddev.dari.util.Stats;
+import com.psddev.dari.util.TaskExecutor;
 
 import com.google.common.cache.Cache;
 import com.google.common.cache.CacheBuilder;
 
-/** Enables various per-request database result caching. */
+/**
+ * Enables various per-request database result caching.
+ *
+ * <p>If {@code dari/isCachingFilterPreloadEnabled} is {@code true}, it
+ * also learns which objects are read by the requests to each route and
+ * preloads the ones that are read frequently enough in parallel while
+ * the request is being processed. The preloads run in the
+ * {@value #PRELOAD_EXECUTOR_NAME} task executor, which rejects them by
+ * default instead of making the request wait when all of its threads are
+ * busy, and the rejected ones are skipped.</p>
+ */
 public class CachingDatabaseFilter extends AbstractFilter {
 
     public static final String CACHE_PARAMETER = "_cache";
 
-    private static final Cache<String, Set<UUID>> ID_CACHE = CacheBuilder.newBuilder().maximumSize(250).build();
+    public static final String PRELOAD_EXECUTOR_NAME = "Caching Database Preloads";
+    public static final double DEFAULT_PRELOAD_THRESHOLD = 0.5;
+    public static final int DEFAULT_PRELOAD_BATCH_SIZE = 100;
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(CachingDatabaseFilter.class);
+    private static final Stats STATS = new Stats("Caching Preload");
+    private static final String PRELOAD_STATS_OPERATION = "Preload";
+    private static final String USEFUL_STATS_OPERATION = "Useful";
+    private static final String WASTED_STATS_OPERATION = "Wasted";
+    private static final String DROPPED_STATS_OPERATION = "Dropped";
+
+    private static final Pattern VARIABLE_PATH_SEGMENT_PATTERN = Pattern.compile("(?i)/(?:[0-9]+|[0-9a-f]{8}-?[0-9a-f]{4}-?[0-9a-f]{4}-?[0-9a-f]{4}-?[0-9a-f]{12})(?=/|$)");
+    private static final Cache<String, RouteProfile> ROUTE_PROFILES = CacheBuilder.newBuilder().maximumSize(250).build();
 
     // --- AbstractFilter support ---
     @Override
@@ -43,31 +80,58 @@ public class CachingDatabaseFilter extends AbstractFilter {
         if (Settings.getOrDefault(boolean.class, "dari/isCachingFilterEnabled", true) &&
                 !Boolean.FALSE.toString().equals(request.getParameter(CACHE_PARAMETER))) {
 
+            Database delegate = Database.Static.getDefault();
             CachingDatabase caching = new CachingDatabase();
 
-            caching.setDelegate(Database.Static.getDefault());
+            caching.setDelegate(delegate);
 
             Database.Static.overrideDefault(caching);
 
             try {
-                String url = request.getServletPath() + "?" + request.getQueryString();
                 boolean preload = Settings.getOrDefault(boolean.class, "dari/isCachingFilterPreloadEnabled", false);
 
                 if (preload) {
-                    Set<UUID> objectIds = ID_CACHE.getIfPresent(url);
-                    if (objectIds != null) {
-                        Query.from(Object.class).using(caching).where("id = ?", objectIds).selectAll();
+                    String route = getRoute(request);
+                    RouteProfile profile = ROUTE_PROFILES.getIfPresent(route);
+                    Preload preloading = null;
+
+                    if (profile != null) {
+                        preloading = new Preload(delegate, caching, profile.getFrequentIds(Settings.getOrDefault(double.class, "dari/cachingFilterPreloadThreshold", DEFAULT_PRELOAD_THRESHOLD)));
+                        preloading.start();
                     }
-                }
 
-                chain.doFilter(request, response);
+                    try {
+                        chain.doFilter(request, response);
 
-                if (preload) {
-                    Set<UUID> objectIds = new HashSet<UUID>(caching.getIdOnlyQueryIds());
+                    } finally {
+                        if (preloading != null) {
+                            preloading.finish();
+                        }
+                    }
+
+                    Map<UUID, UUID> typeIds = new HashMap<UUID, UUID>();
+
+                    for (UUID id : caching.getIdOnlyQueryIds()) {
+                        Object object = caching.getObjectCache().get(id);
 
-                    if (!objectIds.isEmpty()) {
-                        ID_CACHE.put(url, objectIds);
+                        typeIds.put(id, object instanceof Recordable ? ((Recordable) object).getState().getTypeId() : null);
                     }
+
+                    if (preloading != null) {
+                        preloading.record(typeIds.keySet());
+                    }
+
+                    if (!typeIds.isEmpty()) {
+                        if (profile == null) {
+                            profile = new RouteProfile();
+                            ROUTE_PROFILES.put(route, profile);
+                        }
+
+                        profile.update(typeIds);
+                    }
+
+                } else {
+                    chain.doFilter(request, response);
                 }
 
             } finally {
@@ -78,4 +142,260 @@ public class CachingDatabaseFilter extends AbstractFilter {
             chain.doFilter(request, response);
         }
     }
+
+    /**
+     * Returns the route that the given {@code request} belongs to, which
+     * is its servlet path without the numeric or UUID segments plus the
+     * names of its parameters.
+     */
+    static String getRoute(HttpServletRequest request) {
+        StringBuilder route = new StringBuilder();
+        String path = request.getServletPath();
+
+        if (path != null) {
+            route.append(VARIABLE_PATH_SEGMENT_PATTERN.matcher(path).replaceAll("/*"));
+        }
+
+        @SuppressWarnings("unchecked")
+        Map<String, ?> parameters = request.getParameterMap();
+
+        if (parameters != null && !parameters.isEmpty()) {
+            String[] names = parameters.keySet().toArray(new String[parameters.size()]);
+
+            Arrays.sort(names);
+            route.append('?');
+
+            for (String name : names) {
+                route.append(name);
+                route.append('&');
+            }
+
+            route.setLength(route.length() - 1);
+        }
+
+        return route.toString();
+    }
+
+    /**
+     * Frequencies of the objects read by the requests to a route, weighted
+     * toward the recent requests so that the objects that stop being read
+     * are eventually forgotten.
+     */
+    static class RouteProfile {
+
+        private static final double DECAY = 0.9;
+        private static final double MINIMUM_SCORE = 0.05;
+        private static final int MAXIMUM_SIZE = 1000;
+
+        private final Map<UUID, Usage> usages = new HashMap<UUID, Usage>();
+        private double weight;
+
+        /**
+         * Returns the IDs of the objects that were read in at least the
+         * given {@code threshold} fraction of the recent requests, mapped
+         * to their type IDs.
+         */
+        public synchronized Map<UUID, UUID> getFrequentIds(double threshold) {
+            Map<UUID, UUID> ids = new HashMap<UUID, UUID>();
+
+            for (Map.Entry<UUID, Usage> entry : usages.entrySet()) {
+                Usage usage = entry.getValue();
+
+                if (usage.score >= threshold * weight) {
+                    ids.put(entry.getKey(), usage.typeId);
+                }
+            }
+
+            return ids;
+        }
+
+        /**
+         * Updates the frequencies using the given {@code typeIds}, which
+         * maps the IDs of all objects read by a request to their type IDs.
+         */
+        public synchronized void update(Map<UUID, UUID> typeIds) {
+            weight = weight * DECAY + 1.0;
+
+            for (Iterator<Usage> i = usages.values().iterator(); i.hasNext();) {
+                Usage usage = i.next();
+
+                usage.score *= DECAY;
+
+                if (usage.score < MINIMUM_SCORE) {
+                    i.remove();
+                }
+            }
+
+            for (Map.Entry<UUID, UUID> entry : typeIds.entrySet()) {
+                UUID id = entry.getKey();
+                Usage usage = usages.get(id);
+
+                if (usage == null) {
+                    if (usages.size() >= MAXIMUM_SIZE) {
+                        continue;
+                    }
+
+                    usage = new Usage();
+                    usages.put(id, usage);
+                }
+
+                usage.score += 1.0;
+
+                if (entry.getValue() != null) {
+                    usage.typeId = entry.getValue();
+                }
+            }
+        }
+
+        private static class Usage {
+
+            public UUID typeId;
+            public double score;
+        }
+    }
+
+    /**
+     * Preloads objects into a {@link CachingDatabase} in parallel, split
+     * by their types.
+     */
+    static class Preload {
+
+        private final Database delegate;
+        private final CachingDatabase caching;
+        private final Map<UUID, UUID> ids;
+        private final String executorName;
+        private final List<Future<?>> futures = new ArrayList<Future<?>>();
+        private boolean finished;
+
+        public Preload(Database delegate, CachingDatabase caching, Map<UUID, UUID> ids) {
+            this(delegate, caching, ids, PRELOAD_EXECUTOR_NAME);
+        }
+
+        /** Creates an instance that runs in the given executor. For testing. */
+        Preload(Database delegate, CachingDatabase caching, Map<UUID, UUID> ids, String executorName) {
+            this.delegate = delegate;
+            this.caching = caching;
+            this.ids = ids;
+            this.executorName = executorName;
+        }
+
+        public void start() {
+            if (ids.isEmpty()) {
+                return;
+            }
+
+            Map<UUID, List<UUID>> idsByType = new HashMap<UUID, List<UUID>>();
+
+            for (Map.Entry<UUID, UUID> entry : ids.entrySet()) {
+                UUID typeId = entry.getValue();
+                List<UUID> typeIds = idsByType.get(typeId);
+
+                if (typeIds == null) {
+                    typeIds = new ArrayList<UUID>();
+                    idsByType.put(typeId, typeIds);
+                }
+
+                typeIds.add(entry.getKey());
+            }
+
+            int batchSize = Math.max(1, Settings.getOrDefault(int.class, "dari/cachingFilterPreloadBatchSize", DEFAULT_PRELOAD_BATCH_SIZE));
+            TaskExecutor executor = TaskExecutor.Static.getInstance(executorName, TaskExecutor.RejectionPolicy.ABORT);
+            final long flushCount = caching.getFlushCount();
+            int submitted = 0;
+
+            SUBMIT: for (List<UUID> typeIds : idsByType.values()) {
+                for (int i = 0, size = typeIds.size(); i < size; i += batchSize) {
+                    final List<UUID> batch = typeIds.subList(i, Math.min(i + batchSize, size));
+                    Future<?> future;
+
+                    try {
+                        future = executor.submit(new Callable<Void>() {
+
+                            @Override
+                            public Void call() {
+                                if (isFinished()) {
+                                    return null;
+                                }
+
+                                Stats.Timer timer = STATS.startTimer();
+                                List<Object> objects = Query.
+                                        from(Object.class).
+                                        where("_id = ?", batch).
+                                        using(delegate).
+                                        selectAll();
+
+                                int preloaded = 0;
+
+                                for (Object object : objects) {
+                                    synchronized (Preload.this) {
+                                        if (finished) {
+                                            break;
+
+                                        } else if (caching.preloadObject(object, flushCount)) {
+                                            ++ preloaded;
+                                        }
+                                    }
+                                }
+
+                                timer.stop(PRELOAD_STATS_OPERATION, preloaded);
+                                return null;
+                            }
+                        });
+
+                    // All threads are busy, so the rest of the preloads
+                    // would be too late to be useful.
+                    } catch (RejectedExecutionException error) {
+                        int dropped = ids.size() - submitted;
+
+                        STATS.startTimer().stop(DROPPED_STATS_OPERATION, dropped);
+                        LOGGER.debug("Dropped [{}] preloads because [{}] is busy", dropped, executorName);
+                        break SUBMIT;
+                    }
+
+                    futures.add(future);
+                    submitted += batch.size();
+                }
+            }
+        }
+
+        /** Returns the futures for all preload batches. For testing. */
+        List<Future<?>> getFutures() {
+            return futures;
+        }
+
+        private synchronized boolean isFinished() {
+            return finished;
+        }
+
+        // Preloads that haven't finished by the end of the request are
+        // useless, and shouldn't put objects in the cache after it.
+        public void finish() {
+            synchronized (this) {
+                finished = true;
+            }
+
+            for (Future<?> future : futures) {
+                future.cancel(false);
+            }
+        }
+
+        public void record(Set<UUID> readIds) {
+            if (ids.isEmpty()) {
+                return;
+            }
+
+            Set<UUID> useful = new HashSet<UUID>(ids.keySet());
+
+            useful.retainAll(readIds);
+
+            int wasted = ids.size() - useful.size();
+
+            STATS.startTimer().stop(USEFUL_STATS_OPERATION, useful.size());
+
+            if (wasted > 0) {
+                STATS.startTimer().stop(WASTED_STATS_OPERATION, wasted);
+                LOGGER.debug("Preloaded [{}] objects that weren't read", wasted);
+            }
+        }
+    }
 }
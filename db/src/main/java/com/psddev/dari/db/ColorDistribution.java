@@ -1,14 +1,12 @@
 package com.psddev.dari.db;
 
-import java.awt.Color;
 import java.awt.image.BufferedImage;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
-import java.util.HashSet;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Random;
-import java.util.Set;
 
 import javax.imageio.ImageIO;
 
@@ -20,6 +18,9 @@ import com.psddev.dari.util.StorageItem;
 /**
  * Stores information about how much of each color is in an image.
  *
+ * <p>The color buckets aren't indexed in the database, so use
+ * {@link ColorIndex} to search by them.</p>
+ *
  * @see ColorImage
  */
 @ColorDistribution.Embedded
@@ -27,88 +28,88 @@ public class ColorDistribution extends Record {
 
     // CHECKSTYLE:OFF
     // Grayscale
-    @Indexed private Double n_0_0_0;
-    @Indexed private Double n_0_0_20;
-    @Indexed private Double n_0_0_40;
-    @Indexed private Double n_0_0_60;
-    @Indexed private Double n_0_0_80;
-    @Indexed private Double n_0_0_100;
+    private Double n_0_0_0;
+    private Double n_0_0_20;
+    private Double n_0_0_40;
+    private Double n_0_0_60;
+    private Double n_0_0_80;
+    private Double n_0_0_100;
 
     // Color
-    @Indexed private Double n_0_40_20; @Indexed private Double n_0_40_40; @Indexed private Double n_0_40_60; @Indexed private Double n_0_40_80;
-    @Indexed private Double n_0_60_20; @Indexed private Double n_0_60_40; @Indexed private Double n_0_60_60; @Indexed private Double n_0_60_80;
-    @Indexed private Double n_0_80_20; @Indexed private Double n_0_80_40; @Indexed private Double n_0_80_60; @Indexed private Double n_0_80_80;
-    @Indexed private Double n_0_100_20; @Indexed private Double n_0_100_40; @Indexed private Double n_0_100_60; @Indexed private Double n_0_100_80;
-
-    @Indexed private Double n_24_40_20; @Indexed private Double n_24_40_40; @Indexed private Double n_24_40_60; @Indexed private Double n_24_40_80;
-    @Indexed private Double n_24_60_20; @Indexed private Double n_24_60_40; @Indexed private Double n_24_60_60; @Indexed private Double n_24_60_80;
-    @Indexed private Double n_24_80_20; @Indexed private Double n_24_80_40; @Indexed private Double n_24_80_60; @Indexed private Double n_24_80_80;
-    @Indexed private Double n_24_100_20; @Indexed private Double n_24_100_40; @Indexed private Double n_24_100_60; @Indexed private Double n_24_100_80;
-
-    @Indexed private Double n_48_40_20; @Indexed private Double n_48_40_40; @Indexed private Double n_48_40_60; @Indexed private Double n_48_40_80;
-    @Indexed private Double n_48_60_20; @Indexed private Double n_48_60_40; @Indexed private Double n_48_60_60; @Indexed private Double n_48_60_80;
-    @Indexed private Double n_48_80_20; @Indexed private Double n_48_80_40; @Indexed private Double n_48_80_60; @Indexed private Double n_48_80_80;
-    @Indexed private Double n_48_100_20; @Indexed private Double n_48_100_40; @Indexed private Double n_48_100_60; @Indexed private Double n_48_100_80;
-
-    @Indexed private Double n_72_40_20; @Indexed private Double n_72_40_40; @Indexed private Double n_72_40_60; @Indexed private Double n_72_40_80;
-    @Indexed private Double n_72_60_20; @Indexed private Double n_72_60_40; @Indexed private Double n_72_60_60; @Indexed private Double n_72_60_80;
-    @Indexed private Double n_72_80_20; @Indexed private Double n_72_80_40; @Indexed private Double n_72_80_60; @Indexed private Double n_72_80_80;
-    @Indexed private Double n_72_100_20; @Indexed private Double n_72_100_40; @Indexed private Double n_72_100_60; @Indexed private Double n_72_100_80;
-
-    @Indexed private Double n_96_40_20; @Indexed private Double n_96_40_40; @Indexed private Double n_96_40_60; @Indexed private Double n_96_40_80;
-    @Indexed private Double n_96_60_20; @Indexed private Double n_96_60_40; @Indexed private Double n_96_60_60; @Indexed private Double n_96_60_80;
-    @Indexed private Double n_96_80_20; @Indexed private Double n_96_80_40; @Indexed private Double n_96_80_60; @Indexed private Double n_96_80_80;
-    @Indexed private Double n_96_100_20; @Indexed private Double n_96_100_40; @Indexed private Double n_96_100_60; @Indexed private Double n_96_100_80;
-
-    @Indexed private Double n_120_40_20; @Indexed private Double n_120_40_40; @Indexed private Double n_120_40_60; @Indexed private Double n_120_40_80;
-    @Indexed private Double n_120_60_20; @Indexed private Double n_120_60_40; @Indexed private Double n_120_60_60; @Indexed private Double n_120_60_80;
-    @Indexed private Double n_120_80_20; @Indexed private Double n_120_80_40; @Indexed private Double n_120_80_60; @Indexed private Double n_120_80_80;
-    @Indexed private Double n_120_100_20; @Indexed private Double n_120_100_40; @Indexed private Double n_120_100_60; @Indexed private Double n_120_100_80;
-
-    @Indexed private Double n_144_40_20; @Indexed private Double n_144_40_40; @Indexed private Double n_144_40_60; @Indexed private Double n_144_40_80;
-    @Indexed private Double n_144_60_20; @Indexed private Double n_144_60_40; @Indexed private Double n_144_60_60; @Indexed private Double n_144_60_80;
-    @Indexed private Double n_144_80_20; @Indexed private Double n_144_80_40; @Indexed private Double n_144_80_60; @Indexed private Double n_144_80_80;
-    @Indexed private Double n_144_100_20; @Indexed private Double n_144_100_40; @Indexed private Double n_144_100_60; @Indexed private Double n_144_100_80;
-
-    @Indexed private Double n_168_40_20; @Indexed private Double n_168_40_40; @Indexed private Double n_168_40_60; @Indexed private Double n_168_40_80;
-    @Indexed private Double n_168_60_20; @Indexed private Double n_168_60_40; @Indexed private Double n_168_60_60; @Indexed private Double n_168_60_80;
-    @Indexed private Double n_168_80_20; @Indexed private Double n_168_80_40; @Indexed private Double n_168_80_60; @Indexed private Double n_168_80_80;
-    @Indexed private Double n_168_100_20; @Indexed private Double n_168_100_40; @Indexed private Double n_168_100_60; @Indexed private Double n_168_100_80;
-
-    @Indexed private Double n_192_40_20; @Indexed private Double n_192_40_40; @Indexed private Double n_192_40_60; @Indexed private Double n_192_40_80;
-    @Indexed private Double n_192_60_20; @Indexed private Double n_192_60_40; @Indexed private Double n_192_60_60; @Indexed private Double n_192_60_80;
-    @Indexed private Double n_192_80_20; @Indexed private Double n_192_80_40; @Indexed private Double n_192_80_60; @Indexed private Double n_192_80_80;
-    @Indexed private Double n_192_100_20; @Indexed private Double n_192_100_40; @Indexed private Double n_192_100_60; @Indexed private Double n_192_100_80;
-
-    @Indexed private Double n_216_40_20; @Indexed private Double n_216_40_40; @Indexed private Double n_216_40_60; @Indexed private Double n_216_40_80;
-    @Indexed private Double n_216_60_20; @Indexed private Double n_216_60_40; @Indexed private Double n_216_60_60; @Indexed private Double n_216_60_80;
-    @Indexed private Double n_216_80_20; @Indexed private Double n_216_80_40; @Indexed private Double n_216_80_60; @Indexed private Double n_216_80_80;
-    @Indexed private Double n_216_100_20; @Indexed private Double n_216_100_40; @Indexed private Double n_216_100_60; @Indexed private Double n_216_100_80;
-
-    @Indexed private Double n_240_40_20; @Indexed private Double n_240_40_40; @Indexed private Double n_240_40_60; @Indexed private Double n_240_40_80;
-    @Indexed private Double n_240_60_20; @Indexed private Double n_240_60_40; @Indexed private Double n_240_60_60; @Indexed private Double n_240_60_80;
-    @Indexed private Double n_240_80_20; @Indexed private Double n_240_80_40; @Indexed private Double n_240_80_60; @Indexed private Double n_240_80_80;
-    @Indexed private Double n_240_100_20; @Indexed private Double n_240_100_40; @Indexed private Double n_240_100_60; @Indexed private Double n_240_100_80;
-
-    @Indexed private Double n_264_40_20; @Indexed private Double n_264_40_40; @Indexed private Double n_264_40_60; @Indexed private Double n_264_40_80;
-    @Indexed private Double n_264_60_20; @Indexed private Double n_264_60_40; @Indexed private Double n_264_60_60; @Indexed private Double n_264_60_80;
-    @Indexed private Double n_264_80_20; @Indexed private Double n_264_80_40; @Indexed private Double n_264_80_60; @Indexed private Double n_264_80_80;
-    @Indexed private Double n_264_100_20; @Indexed private Double n_264_100_40; @Indexed private Double n_264_100_60; @Indexed private Double n_264_100_80;
-
-    @Indexed private Double n_288_40_20; @Indexed private Double n_288_40_40; @Indexed private Double n_288_40_60; @Indexed private Double n_288_40_80;
-    @Indexed private Double n_288_60_20; @Indexed private Double n_288_60_40; @Indexed private Double n_288_60_60; @Indexed private Double n_288_60_80;
-    @Indexed private Double n_288_80_20; @Indexed private Double n_288_80_40; @Indexed private Double n_288_80_60; @Indexed private Double n_288_80_80;
-    @Indexed private Double n_288_100_20; @Indexed private Double n_288_100_40; @Indexed private Double n_288_100_60; @Indexed private Double n_288_100_80;
-
-    @Indexed private Double n_312_40_20; @Indexed private Double n_312_40_40; @Indexed private Double n_312_40_60; @Indexed private Double n_312_40_80;
-    @Indexed private Double n_312_60_20; @Indexed private Double n_312_60_40; @Indexed private Double n_312_60_60; @Indexed private Double n_312_60_80;
-    @Indexed private Double n_312_80_20; @Indexed private Double n_312_80_40; @Indexed private Double n_312_80_60; @Indexed private Double n_312_80_80;
-    @Indexed private Double n_312_100_20; @Indexed private Double n_312_100_40; @Indexed private Double n_312_100_60; @Indexed private Double n_312_100_80;
-
-    @Indexed private Double n_336_40_20; @Indexed private Double n_336_40_40; @Indexed private Double n_336_40_60; @Indexed private Double n_336_40_80;
-    @Indexed private Double n_336_60_20; @Indexed private Double n_336_60_40; @Indexed private Double n_336_60_60; @Indexed private Double n_336_60_80;
-    @Indexed private Double n_336_80_20; @Indexed private Double n_336_80_40; @Indexed private Double n_336_80_60; @Indexed private Double n_336_80_80;
-    @Indexed private Double n_336_100_20; @Indexed private Double n_336_100_40; @Indexed private Double n_336_100_60; @Indexed private Double n_336_100_80;
+    private Double n_0_40_20; private Double n_0_40_40; private Double n_0_40_60; private Double n_0_40_80;
+    private Double n_0_60_20; private Double n_0_60_40; private Double n_0_60_60; private Double n_0_60_80;
+    private Double n_0_80_20; private Double n_0_80_40; private Double n_0_80_60; private Double n_0_80_80;
+    private Double n_0_100_20; private Double n_0_100_40; private Double n_0_100_60; private Double n_0_100_80;
+
+    private Double n_24_40_20; private Double n_24_40_40; private Double n_24_40_60; private Double n_24_40_80;
+    private Double n_24_60_20; private Double n_24_60_40; private Double n_24_60_60; private Double n_24_60_80;
+    private Double n_24_80_20; private Double n_24_80_40; private Double n_24_80_60; private Double n_24_80_80;
+    private Double n_24_100_20; private Double n_24_100_40; private Double n_24_100_60; private Double n_24_100_80;
+
+    private Double n_48_40_20; private Double n_48_40_40; private Double n_48_40_60; private Double n_48_40_80;
+    private Double n_48_60_20; private Double n_48_60_40; private Double n_48_60_60; private Double n_48_60_80;
+    private Double n_48_80_20; private Double n_48_80_40; private Double n_48_80_60; private Double n_48_80_80;
+    private Double n_48_100_20; private Double n_48_100_40; private Double n_48_100_60; private Double n_48_100_80;
+
+    private Double n_72_40_20; private Double n_72_40_40; private Double n_72_40_60; private Double n_72_40_80;
+    private Double n_72_60_20; private Double n_72_60_40; private Double n_72_60_60; private Double n_72_60_80;
+    private Double n_72_80_20; private Double n_72_80_40; private Double n_72_80_60; private Double n_72_80_80;
+    private Double n_72_100_20; private Double n_72_100_40; private Double n_72_100_60; private Double n_72_100_80;
+
+    private Double n_96_40_20; private Double n_96_40_40; private Double n_96_40_60; private Double n_96_40_80;
+    private Double n_96_60_20; private Double n_96_60_40; private Double n_96_60_60; private Double n_96_60_80;
+    private Double n_96_80_20; private Double n_96_80_40; private Double n_96_80_60; private Double n_96_80_80;
+    private Double n_96_100_20; private Double n_96_100_40; private Double n_96_100_60; private Double n_96_100_80;
+
+    private Double n_120_40_20; private Double n_120_40_40; private Double n_120_40_60; private Double n_120_40_80;
+    private Double n_120_60_20; private Double n_120_60_40; private Double n_120_60_60; private Double n_120_60_80;
+    private Double n_120_80_20; private Double n_120_80_40; private Double n_120_80_60; private Double n_120_80_80;
+    private Double n_120_100_20; private Double n_120_100_40; private Double n_120_100_60; private Double n_120_100_80;
+
+    private Double n_144_40_20; private Double n_144_40_40; private Double n_144_40_60; private Double n_144_40_80;
+    private Double n_144_60_20; private Double n_144_60_40; private Double n_144_60_60; private Double n_144_60_80;
+    private Double n_144_80_20; private Double n_144_80_40; private Double n_144_80_60; private Double n_144_80_80;
+    private Double n_144_100_20; private Double n_144_100_40; private Double n_144_100_60; private Double n_144_100_80;
+
+    private Double n_168_40_20; private Double n_168_40_40; private Double n_168_40_60; private Double n_168_40_80;
+    private Double n_168_60_20; private Double n_168_60_40; private Double n_168_60_60; private Double n_168_60_80;
+    private Double n_168_80_20; private Double n_168_80_40; private Double n_168_80_60; private Double n_168_80_80;
+    private Double n_168_100_20; private Double n_168_100_40; private Double n_168_100_60; private Double n_168_100_80;
+
+    private Double n_192_40_20; private Double n_192_40_40; private Double n_192_40_60; private Double n_192_40_80;
+    private Double n_192_60_20; private Double n_192_60_40; private Double n_192_60_60; private Double n_192_60_80;
+    private Double n_192_80_20; private Double n_192_80_40; private Double n_192_80_60; private Double n_192_80_80;
+    private Double n_192_100_20; private Double n_192_100_40; private Double n_192_100_60; private Double n_192_100_80;
+
+    private Double n_216_40_20; private Double n_216_40_40; private Double n_216_40_60; private Double n_216_40_80;
+    private Double n_216_60_20; private Double n_216_60_40; private Double n_216_60_60; private Double n_216_60_80;
+    private Double n_216_80_20; private Double n_216_80_40; private Double n_216_80_60; private Double n_216_80_80;
+    private Double n_216_100_20; private Double n_216_100_40; private Double n_216_100_60; private Double n_216_100_80;
+
+    private Double n_240_40_20; private Double n_240_40_40; private Double n_240_40_60; private Double n_240_40_80;
+    private Double n_240_60_20; private Double n_240_60_40; private Double n_240_60_60; private Double n_240_60_80;
+    private Double n_240_80_20; private Double n_240_80_40; private Double n_240_80_60; private Double n_240_80_80;
+    private Double n_240_100_20; private Double n_240_100_40; private Double n_240_100_60; private Double n_240_100_80;
+
+    private Double n_264_40_20; private Double n_264_40_40; private Double n_264_40_60; private Double n_264_40_80;
+    private Double n_264_60_20; private Double n_264_60_40; private Double n_264_60_60; private Double n_264_60_80;
+    private Double n_264_80_20; private Double n_264_80_40; private Double n_264_80_60; private Double n_264_80_80;
+    private Double n_264_100_20; private Double n_264_100_40; private Double n_264_100_60; private Double n_264_100_80;
+
+    private Double n_288_40_20; private Double n_288_40_40; private Double n_288_40_60; private Double n_288_40_80;
+    private Double n_288_60_20; private Double n_288_60_40; private Double n_288_60_60; private Double n_288_60_80;
+    private Double n_288_80_20; private Double n_288_80_40; private Double n_288_80_60; private Double n_288_80_80;
+    private Double n_288_100_20; private Double n_288_100_40; private Double n_288_100_60; private Double n_288_100_80;
+
+    private Double n_312_40_20; private Double n_312_40_40; private Double n_312_40_60; private Double n_312_40_80;
+    private Double n_312_60_20; private Double n_312_60_40; private Double n_312_60_60; private Double n_312_60_80;
+    private Double n_312_80_20; private Double n_312_80_40; private Double n_312_80_60; private Double n_312_80_80;
+    private Double n_312_100_20; private Double n_312_100_40; private Double n_312_100_60; private Double n_312_100_80;
+
+    private Double n_336_40_20; private Double n_336_40_40; private Double n_336_40_60; private Double n_336_40_80;
+    private Double n_336_60_20; private Double n_336_60_40; private Double n_336_60_60; private Double n_336_60_80;
+    private Double n_336_80_20; private Double n_336_80_40; private Double n_336_80_60; private Double n_336_80_80;
+    private Double n_336_100_20; private Double n_336_100_40; private Double n_336_100_60; private Double n_336_100_80;
 
     // CHECKSTYLE:ON
     /**
@@ -118,7 +119,9 @@ public class ColorDistribution extends Record {
     @FieldInternalNamePrefix("color.")
     public static class Data extends Modification<Object> {
 
-        @Indexed
+        /** Internal name of the field that holds the distribution. */
+        public static final String DISTRIBUTION_FIELD = "color.distribution";
+
         private ColorDistribution distribution;
 
         public ColorDistribution getDistribution() {
@@ -135,6 +138,22 @@ public class ColorDistribution extends Record {
      */
     public static final class Static {
 
+        /** Number of clusters that the colors are grouped into. */
+        public static final int CLUSTER_COUNT = 5;
+
+        /** Maximum number of pixels that are sampled from an image. */
+        public static final int MAXIMUM_SAMPLES = 10000;
+
+        /** Prefix of the names of the fields that hold the color buckets. */
+        public static final String BUCKET_PREFIX = "n_";
+
+        /** Maximum number of k-means iterations. */
+        public static final int MAXIMUM_ITERATIONS = 20;
+
+        // Fixed so that the same image always produces the same
+        // distribution.
+        private static final long RANDOM_SEED = 0x5eedL;
+
         /**
          * Analyzes the given image {@code item} and creates a
          * {@link ColorDistribution} instance.
@@ -147,14 +166,20 @@ public class ColorDistribution extends Record {
 
             try {
                 BufferedImage itemImage = Scalr.resize(ImageIO.read(itemData), 250);
-                double pixelCount = itemImage.getWidth() * itemImage.getHeight();
-                List<Cluster> clusters = findClusters(itemImage, 5);
+                int[] colors = samplePixels(itemImage, MAXIMUM_SAMPLES);
+                int colorsCount = colors.length / 3;
+                int[] centers = new int[CLUSTER_COUNT * 3];
+                int[] sizes = findClusters(colors, centers, CLUSTER_COUNT, MAXIMUM_ITERATIONS, RANDOM_SEED);
                 ColorDistribution distribution = new ColorDistribution();
                 List<DominantColor> dominantColors = new ArrayList<DominantColor>();
 
-                for (Cluster cluster : clusters) {
-                    int[] center = cluster.center;
-                    double percentage = cluster.colors.size() / pixelCount;
+                for (int c = 0, clustersCount = sizes.length; c < clustersCount; ++ c) {
+                    if (sizes[c] == 0) {
+                        continue;
+                    }
+
+                    int[] center = new int[] { centers[c * 3], centers[c * 3 + 1], centers[c * 3 + 2] };
+                    double percentage = (double) sizes[c] / colorsCount;
                     boolean found = false;
 
                     distribution.getState().put(
@@ -163,19 +188,7 @@ public class ColorDistribution extends Record {
                             "_" + center[2],
                             percentage);
 
-                    int normalized0 = center[0];
-                    int normalized1 = center[1];
-                    int normalized2 = center[2];
-
-                    if (normalized1 < 30 || normalized2 < 15 || normalized2 > 85) {
-                        normalized0 = 0;
-                        normalized1 = 0;
-                    }
-
-                    int[] normalized = new int[] {
-                            (((int) Math.round(normalized0 / 24.0)) * 24) % 360,
-                            ((int) Math.round(normalized1 / 20.0)) * 20,
-                            ((int) Math.round(normalized2 / 20.0)) * 20 };
+                    int[] normalized = normalize(center[0], center[1], center[2]);
 
                     for (DominantColor dc : dominantColors) {
                         if (dc.color[0] == normalized[0] &&
@@ -198,9 +211,7 @@ public class ColorDistribution extends Record {
 
                 for (DominantColor dc : dominantColors) {
                     distribution.getState().put(
-                            "n_" + dc.color[0] +
-                            "_" + dc.color[1] +
-                            "_" + dc.color[2],
+                            getBucket(dc.color[0], dc.color[1], dc.color[2]),
                             dc.percentage);
                 }
 
@@ -211,116 +222,210 @@ public class ColorDistribution extends Record {
             }
         }
 
+        /**
+         * Normalizes the given HUSL {@code hue}, {@code saturation}, and
+         * {@code lightness} into one of the color buckets, treating the
+         * colors that are too dull, dark, or light as grayscale.
+         */
+        private static int[] normalize(int hue, int saturation, int lightness) {
+            if (saturation < 30 || lightness < 15 || lightness > 85) {
+                hue = 0;
+                saturation = 0;
+            }
+
+            return new int[] {
+                    (((int) Math.round(hue / 24.0)) * 24) % 360,
+                    ((int) Math.round(saturation / 20.0)) * 20,
+                    ((int) Math.round(lightness / 20.0)) * 20 };
+        }
+
+        /**
+         * Returns the name of the field that holds the percentage of the
+         * color bucket that the given HUSL {@code hue},
+         * {@code saturation}, and {@code lightness} belong to.
+         *
+         * @return Never {@code null}.
+         */
+        public static String getBucket(int hue, int saturation, int lightness) {
+            int[] normalized = normalize(hue, saturation, lightness);
+
+            return BUCKET_PREFIX + normalized[0] +
+                    "_" + normalized[1] +
+                    "_" + normalized[2];
+        }
+
         private static class DominantColor {
 
             public int[] color;
             public double percentage;
         }
 
-        private static class Cluster {
-
-            public int[] center;
-            public List<int[]> colors;
-            public List<int[]> newColors;
+        /**
+         * Returns the HUSL colors of at most the given {@code maximum}
+         * number of pixels evenly spread across the given {@code image},
+         * packed as {@code [h0, s0, l0, h1, s1, l1, ...]}.
+         */
+        static int[] samplePixels(BufferedImage image, int maximum) {
+            int width = image.getWidth();
+            int height = image.getHeight();
+            int[] rgbs = image.getRGB(0, 0, width, height, null, 0, width);
+            int pixelsCount = rgbs.length;
+            int samplesCount = Math.min(pixelsCount, maximum);
+            double step = (double) pixelsCount / samplesCount;
+            int[] colors = new int[samplesCount * 3];
+            int lastRgb = 0;
+            int[] lastHusl = null;
+
+            for (int i = 0; i < samplesCount; ++ i) {
+                int rgb = rgbs[(int) (i * step)];
+
+                // Neighboring pixels are often the same color.
+                if (lastHusl == null || rgb != lastRgb) {
+                    lastRgb = rgb;
+                    lastHusl = HuslColorSpace.Static.fromRGBtoHUSL((rgb >> 16) & 0xff, (rgb >> 8) & 0xff, rgb & 0xff);
+                }
 
-            public Cluster(int[] center, int imageSize) {
-                this.center = center;
-                this.colors = new ArrayList<int[]>(imageSize);
-                this.colors.add(center);
-                this.newColors = new ArrayList<int[]>(imageSize);
+                colors[i * 3] = lastHusl[0];
+                colors[i * 3 + 1] = lastHusl[1];
+                colors[i * 3 + 2] = lastHusl[2];
             }
+
+            return colors;
         }
 
-        private static List<Cluster> findClusters(BufferedImage image, int count) {
-            int imageHeight = image.getHeight();
-            int imageWidth = image.getWidth();
-            int imageSize = imageHeight * imageWidth;
-            List<int[]> imageColors = new ArrayList<int[]>(imageSize);
+        /**
+         * Groups the given packed {@code colors} into the given
+         * {@code count} number of clusters using k-means.
+         *
+         * @param centers Filled with the packed cluster centers.
+         * @param maximumIterations Maximum number of times that the
+         *        centers are recalculated.
+         * @param seed Seed for picking the initial centers.
+         * @return Number of colors in each cluster.
+         */
+        static int[] findClusters(int[] colors, int[] centers, int count, int maximumIterations, long seed) {
+            int colorsCount = colors.length / 3;
+            int[] sizes = new int[count];
 
-            for (int j = 0; j < imageHeight; ++ j) {
-                for (int i = 0; i < imageWidth; ++ i) {
-                    imageColors.add(HuslColorSpace.Static.toHUSL(new Color(image.getRGB(i, j))));
-                }
+            if (colorsCount == 0) {
+                return sizes;
             }
 
-            // Initialize the clusters with random points within the image.
-            List<Cluster> clusters = new ArrayList<Cluster>();
-            Random random = new Random();
-            Set<Integer> usedIndexes = new HashSet<Integer>();
+            // Initialize the clusters with random points within the image,
+            // avoiding the same colors if possible.
+            Random random = new Random(seed);
+
+            for (int c = 0; c < count; ++ c) {
+                int index = 0;
+
+                for (int attempt = 0; attempt < 10; ++ attempt) {
+                    boolean used = false;
+                    index = random.nextInt(colorsCount);
 
-            while (clusters.size() < count) {
-                int index = random.nextInt(imageSize);
+                    for (int d = 0; d < c; ++ d) {
+                        if (centers[d * 3] == colors[index * 3] &&
+                                centers[d * 3 + 1] == colors[index * 3 + 1] &&
+                                centers[d * 3 + 2] == colors[index * 3 + 2]) {
+                            used = true;
+                            break;
+                        }
+                    }
 
-                if (!usedIndexes.contains(index)) {
-                    usedIndexes.add(index);
-                    clusters.add(new Cluster(imageColors.get(index), imageSize));
+                    if (!used) {
+                        break;
+                    }
                 }
+
+                centers[c * 3] = colors[index * 3];
+                centers[c * 3 + 1] = colors[index * 3 + 1];
+                centers[c * 3 + 2] = colors[index * 3 + 2];
             }
 
-            while (true) {
-                for (Cluster cluster : clusters) {
-                    cluster.newColors.clear();
-                }
+            int[] assignments = new int[colorsCount];
+            long[] sums = new long[count * 3];
 
-                // Add the colors to the closest cluster.
-                for (int[] color : imageColors) {
-                    double minDist = Double.POSITIVE_INFINITY;
-                    Cluster minDistCluster = null;
+            for (int iteration = 0; iteration < maximumIterations; ++ iteration) {
+                boolean changed = false;
 
-                    for (Cluster cluster : clusters) {
-                        double dist = euclideanDistance(color, cluster.center);
+                // Add the colors to the closest cluster.
+                for (int i = 0; i < colorsCount; ++ i) {
+                    int c0 = colors[i * 3];
+                    int c1 = colors[i * 3 + 1];
+                    int c2 = colors[i * 3 + 2];
+                    int minDist = Integer.MAX_VALUE;
+                    int minDistCluster = 0;
+
+                    for (int c = 0; c < count; ++ c) {
+                        int d0 = c0 - centers[c * 3];
+                        int d1 = c1 - centers[c * 3 + 1];
+                        int d2 = c2 - centers[c * 3 + 2];
+                        int dist = d0 * d0 + d1 * d1 + d2 * d2;
 
                         if (dist < minDist) {
                             minDist = dist;
-                            minDistCluster = cluster;
+                            minDistCluster = c;
                         }
                     }
 
-                    minDistCluster.newColors.add(color);
+                    if (iteration == 0 || assignments[i] != minDistCluster) {
+                        assignments[i] = minDistCluster;
+                        changed = true;
+                    }
+                }
+
+                if (!changed) {
+                    break;
+                }
+
+                // Re-calculate the cluster centers.
+                Arrays.fill(sums, 0L);
+                Arrays.fill(sizes, 0);
+
+                for (int i = 0; i < colorsCount; ++ i) {
+                    int c = assignments[i];
+
+                    sums[c * 3] += colors[i * 3];
+                    sums[c * 3 + 1] += colors[i * 3 + 1];
+                    sums[c * 3 + 2] += colors[i * 3 + 2];
+                    ++ sizes[c];
                 }
 
-                // Re-calculate the cluster center.
                 double diff = 0.0;
 
-                for (Cluster cluster : clusters) {
-                    int[] oldCenter = cluster.center;
-                    List<int[]> oldColors = cluster.colors;
-                    List<int[]> newColors = cluster.newColors;
-                    double c0 = 0.0;
-                    double c1 = 0.0;
-                    double c2 = 0.0;
-
-                    for (int[] color : newColors) {
-                        c0 += color[0];
-                        c1 += color[1];
-                        c2 += color[2];
-                    }
+                for (int c = 0; c < count; ++ c) {
+                    int size = sizes[c];
 
-                    int newColorsSize = newColors.size();
-                    c0 /= newColorsSize;
-                    c1 /= newColorsSize;
-                    c2 /= newColorsSize;
+                    // Keep the old center if the cluster is empty.
+                    if (size == 0) {
+                        continue;
+                    }
 
-                    cluster.center = new int[] { (int) c0, (int) c1, (int) c2 };
-                    cluster.colors = newColors;
-                    cluster.newColors = oldColors;
-                    diff = Math.max(diff, euclideanDistance(oldCenter, cluster.center));
+                    int n0 = (int) (sums[c * 3] / size);
+                    int n1 = (int) (sums[c * 3 + 1] / size);
+                    int n2 = (int) (sums[c * 3 + 2] / size);
+                    int d0 = n0 - centers[c * 3];
+                    int d1 = n1 - centers[c * 3 + 1];
+                    int d2 = n2 - centers[c * 3 + 2];
+
+                    diff = Math.max(diff, d0 * d0 + d1 * d1 + d2 * d2);
+                    centers[c * 3] = n0;
+                    centers[c * 3 + 1] = n1;
+                    centers[c * 3 + 2] = n2;
                 }
 
-                // If the new center is close to the old one, stop.
+                // If the new centers are close to the old ones, stop.
                 if (diff < 1.0) {
                     break;
                 }
             }
 
-            return clusters;
-        }
+            Arrays.fill(sizes, 0);
+
+            for (int i = 0; i < colorsCount; ++ i) {
+                ++ sizes[assignments[i]];
+            }
 
-        private static double euclideanDistance(int[] color1, int[] color2) {
-            return Math.sqrt(
-                    Math.pow(color1[0] - color2[0], 2) +
-                    Math.pow(color1[1] - color2[1], 2) +
-                    Math.pow(color1[2] - color2[2], 2));
+            return sizes;
         }
     }
 }
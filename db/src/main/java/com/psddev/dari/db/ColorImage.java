@@ -1,15 +1,31 @@
 package com.psddev.dari.db;
 
 import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.psddev.dari.util.Settings;
 import com.psddev.dari.util.StorageItem;
+import com.psddev.dari.util.TaskExecutor;
 
 /**
  * Implement this interface to automatically analyze an image for
- * {@link ColorDistribution} information and enable search by color.
+ * {@link ColorDistribution} information and enable search by color
+ * through {@link ColorIndex}.
+ *
+ * <p>The image is analyzed while the object is being saved, unless
+ * {@code dari/isColorImageAnalysisAsynchronous} is {@code true}, in which
+ * case it's analyzed in the background after the save.</p>
  */
 public interface ColorImage extends Recordable {
 
@@ -28,6 +44,10 @@ class ColorImageData extends Modification<ColorImage> {
 
     @Override
     protected void beforeSave() {
+        if (ColorImageAnalyzer.isAsynchronous()) {
+            return;
+        }
+
         ColorDistribution.Data distributionData = as(ColorDistribution.Data.class);
 
         if (distributionData.getDistribution() == null) {
@@ -45,4 +65,163 @@ class ColorImageData extends Modification<ColorImage> {
             }
         }
     }
+
+    @Override
+    protected void afterSave() {
+        State state = getState();
+
+        if (ColorImageAnalyzer.isAsynchronous() &&
+                as(ColorDistribution.Data.class).getDistribution() == null &&
+                getOriginalObject().getColorImage() != null) {
+            ColorImageAnalyzer.submit(state.getDatabase(), state.getId());
+        }
+
+        ColorIndex.updateIfLoaded(state.getDatabase(), state.getId(), as(ColorDistribution.Data.class).getDistribution());
+    }
+
+    @Override
+    protected void afterDelete() {
+        ColorIndex.updateIfLoaded(getState().getDatabase(), getId(), null);
+    }
+}
+
+/**
+ * Analyzes the color images in the background, using up to as many
+ * threads as there are processors so that bulk imports don't wait on
+ * the analysis.
+ *
+ * <p>An object is only queued once until its analysis starts, and at
+ * most {@value #MAXIMUM_PENDING} objects are queued. The ones that don't
+ * fit are analyzed the next time that they're saved.</p>
+ */
+class ColorImageAnalyzer implements Runnable {
+
+    public static final String ASYNCHRONOUS_SETTING = "dari/isColorImageAnalysisAsynchronous";
+    public static final String TASK_EXECUTOR_NAME = "Color Image Analysis";
+    public static final int MAXIMUM_PENDING = 10000;
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ColorImageAnalyzer.class);
+    private static final Queue<List<Object>> PENDING = new ConcurrentLinkedQueue<List<Object>>();
+    private static final Set<List<Object>> PENDING_KEYS = Collections.newSetFromMap(new ConcurrentHashMap<List<Object>, Boolean>());
+    private static final AtomicInteger WORKERS = new AtomicInteger();
+
+    /**
+     * Returns {@code true} if the images should be analyzed in the
+     * background after they're saved.
+     */
+    public static boolean isAsynchronous() {
+        return Settings.getOrDefault(boolean.class, ASYNCHRONOUS_SETTING, false);
+    }
+
+    /**
+     * Queues the object with the given {@code id} in the given
+     * {@code database} for analysis. Does nothing if it's already queued
+     * or the queue is full.
+     */
+    public static void submit(Database database, UUID id) {
+        List<Object> key = Arrays.<Object>asList(database, id);
+
+        if (PENDING_KEYS.size() >= MAXIMUM_PENDING) {
+            LOGGER.warn("Not analyzing the color image [{}] because {} others are waiting!", id, MAXIMUM_PENDING);
+            return;
+
+        } else if (!PENDING_KEYS.add(key)) {
+            return;
+        }
+
+        PENDING.add(key);
+
+        int maximum = Runtime.getRuntime().availableProcessors();
+
+        while (true) {
+            int workers = WORKERS.get();
+
+            if (workers >= maximum) {
+                return;
+
+            } else if (WORKERS.compareAndSet(workers, workers + 1)) {
+                TaskExecutor.Static.getInstance(TASK_EXECUTOR_NAME).execute(new ColorImageAnalyzer());
+                return;
+            }
+        }
+    }
+
+    @Override
+    public void run() {
+        try {
+            for (List<Object> pending; (pending = PENDING.poll()) != null;) {
+                PENDING_KEYS.remove(pending);
+                analyze((Database) pending.get(0), (UUID) pending.get(1));
+            }
+
+        } finally {
+            WORKERS.decrementAndGet();
+        }
+
+        // Something may have been queued right before the worker count
+        // went down.
+        if (!PENDING.isEmpty() &&
+                WORKERS.get() == 0 &&
+                WORKERS.compareAndSet(0, 1)) {
+            TaskExecutor.Static.getInstance(TASK_EXECUTOR_NAME).execute(new ColorImageAnalyzer());
+        }
+    }
+
+    // Finds the object with the given id, or null if it's not a color
+    // image that still needs to be analyzed.
+    private static State findUnanalyzed(Database database, UUID id) {
+        Object object = Query.
+                from(Object.class).
+                where("_id = ?", id).
+                using(database).
+                noCache().
+                master().
+                first();
+
+        if (!(object instanceof ColorImage)) {
+            return null;
+        }
+
+        State state = State.getInstance(object);
+
+        return state.as(ColorDistribution.Data.class).getDistribution() == null ? state : null;
+    }
+
+    // The analysis is slow, so the object is read again right before the
+    // distribution is saved, and only the distribution is written, so
+    // that the edits made in the meantime aren't lost.
+    private void analyze(Database database, UUID id) {
+        try {
+            State state = findUnanalyzed(database, id);
+
+            if (state == null) {
+                return;
+            }
+
+            StorageItem image = ((ColorImage) state.getOriginalObject()).getColorImage();
+
+            if (image == null) {
+                return;
+            }
+
+            ColorDistribution distribution = ColorDistribution.Static.createDistribution(image);
+
+            state = findUnanalyzed(database, id);
+
+            if (state != null) {
+                state.putAtomically(ColorDistribution.Data.DISTRIBUTION_FIELD, distribution);
+                state.saveUnsafely();
+
+                // The unsafe save skips afterSave, so the index has to be
+                // told about the new distribution here.
+                ColorIndex.updateIfLoaded(database, id, distribution);
+            }
+
+        } catch (IOException error) {
+            LOGGER.error(String.format("Can't analyze the color image [%s]!", id), error);
+
+        } catch (RuntimeException error) {
+            LOGGER.error(String.format("Can't analyze the color image [%s]!", id), error);
+        }
+    }
 }
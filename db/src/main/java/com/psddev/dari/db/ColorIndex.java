@@ -0,0 +1,547 @@
+package com.psddev.dari.db;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.psddev.dari.util.Settings;
+import com.psddev.dari.util.Stats;
+import com.psddev.dari.util.TaskExecutor;
+
+/**
+ * In-memory index of the {@link ColorDistribution}s of all
+ * {@link ColorImage}s in a database for searching by color.
+ *
+ * <p>Each distribution is kept as a sparse vector of the percentages in
+ * its normalized color buckets, along with an inverted list of the
+ * objects in each bucket, so the searches only look at the objects that
+ * share at least one color with the query. The index is loaded from the
+ * database on first use. The color buckets aren't indexed in the
+ * database, so this replaces the queries on
+ * {@code color.distribution/n_*} fields, such as
+ * {@link #findDominant} instead of
+ * {@code where("color.distribution/n_0_100_60 > 0.5")}.</p>
+ *
+ * <p>The color images that are saved or deleted in this VM update the
+ * index once they're committed. The changes made in other VMs aren't seen
+ * until {@link #refresh} or {@link #reload} is called, or, if
+ * {@code dari/colorIndexRefreshInterval} is set to a positive number of
+ * milliseconds, until the whole index is reloaded in the background on
+ * the first search after that long since the last load.</p>
+ */
+public class ColorIndex {
+
+    public static final String REFRESH_INTERVAL_SETTING = "dari/colorIndexRefreshInterval";
+    public static final long DEFAULT_REFRESH_INTERVAL = 0L;
+    public static final String TASK_EXECUTOR_NAME = "Color Index";
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ColorIndex.class);
+    private static final Stats STATS = new Stats("Color Index");
+    private static final ConcurrentMap<String, ColorIndex> INSTANCES = new ConcurrentHashMap<String, ColorIndex>();
+
+    private static final Comparator<Match> MATCH_COMPARATOR = new Comparator<Match>() {
+
+        @Override
+        public int compare(Match x, Match y) {
+            return Double.compare(y.score, x.score);
+        }
+    };
+
+    private final Database database;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private Map<UUID, Vector> vectors = new HashMap<UUID, Vector>();
+    private Map<String, Map<UUID, Float>> postings = new HashMap<String, Map<UUID, Float>>();
+    private boolean loading;
+    private final Set<UUID> changedDuringLoad = new HashSet<UUID>();
+    private final AtomicBoolean reloadSubmitted = new AtomicBoolean();
+    private volatile boolean tracking;
+    private volatile boolean loaded;
+    private volatile long loadedAt;
+
+    /**
+     * Returns the index for the given {@code database}.
+     *
+     * @param database Can't be {@code null}.
+     * @return Never {@code null}.
+     */
+    public static ColorIndex getInstance(Database database) {
+        database = unwrap(database);
+        String name = database.getName();
+        ColorIndex index = INSTANCES.get(name);
+
+        if (index == null) {
+            ColorIndex newIndex = new ColorIndex(database);
+            index = INSTANCES.putIfAbsent(name, newIndex);
+
+            if (index == null) {
+                index = newIndex;
+            }
+        }
+
+        return index;
+    }
+
+    // Per-request wrappers such as CachingDatabase share the index with
+    // the underlying database.
+    private static Database unwrap(Database database) {
+        while (database instanceof ForwardingDatabase) {
+            database = ((ForwardingDatabase) database).getDelegate();
+        }
+
+        return database;
+    }
+
+    /**
+     * Updates the index for the object with the given {@code id} in the
+     * given {@code database} with the given committed
+     * {@code distribution} if the index for the database is in use.
+     *
+     * @param distribution If {@code null}, removes the object.
+     */
+    static void updateIfLoaded(Database database, UUID id, ColorDistribution distribution) {
+        if (database == null) {
+            return;
+        }
+
+        ColorIndex index = INSTANCES.get(unwrap(database).getName());
+
+        if (index != null && index.tracking) {
+            index.update(id, distribution);
+        }
+    }
+
+    private ColorIndex(Database database) {
+        this.database = database;
+    }
+
+    /** Returns the database that this index is for. */
+    public Database getDatabase() {
+        return database;
+    }
+
+    /** Returns the number of objects in this index. */
+    public int getSize() {
+        ensureLoaded();
+        lock.readLock().lock();
+
+        try {
+            return vectors.size();
+
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private void ensureLoaded() {
+        if (!loaded) {
+            synchronized (this) {
+                if (!loaded) {
+                    LOGGER.info("Loading color index for [{}]", database.getName());
+                    load();
+                    loaded = true;
+                }
+            }
+
+            return;
+        }
+
+        long interval = Settings.getOrDefault(long.class, REFRESH_INTERVAL_SETTING, DEFAULT_REFRESH_INTERVAL);
+
+        if (interval > 0 &&
+                System.currentTimeMillis() - loadedAt > interval &&
+                reloadSubmitted.compareAndSet(false, true)) {
+
+            TaskExecutor.Static.getInstance(TASK_EXECUTOR_NAME).execute(new Runnable() {
+
+                @Override
+                public void run() {
+                    try {
+                        reload();
+
+                    } catch (RuntimeException error) {
+                        LOGGER.warn(String.format("Can't reload color index for [%s]!", database.getName()), error);
+
+                    } finally {
+                        reloadSubmitted.set(false);
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * Reloads the whole index from the database, replacing it at once
+     * when done so that the searches in the meantime use the current one.
+     */
+    public void reload() {
+        synchronized (this) {
+            load();
+            loaded = true;
+        }
+    }
+
+    private void load() {
+        Stats.Timer timer = STATS.startTimer();
+        Map<UUID, Vector> newVectors = new HashMap<UUID, Vector>();
+        Map<String, Map<UUID, Float>> newPostings = new HashMap<String, Map<UUID, Float>>();
+        boolean success = false;
+        int count = 0;
+        List<UUID> changed;
+
+        // Start tracking the changes first so that the ones during the
+        // load can be re-read afterwards instead of being overwritten by
+        // the older copies that the load may have seen.
+        lock.writeLock().lock();
+
+        try {
+            loading = true;
+            changedDuringLoad.clear();
+
+        } finally {
+            lock.writeLock().unlock();
+        }
+
+        tracking = true;
+
+        try {
+            for (ColorImage image : Query.from(ColorImage.class).using(database).noCache().iterable(200)) {
+                ColorDistribution distribution = image.getState().as(ColorDistribution.Data.class).getDistribution();
+
+                if (distribution != null) {
+                    put(newVectors, newPostings, image.getState().getId(), Vector.from(distribution));
+                    ++ count;
+                }
+            }
+
+            success = true;
+
+        } finally {
+            lock.writeLock().lock();
+
+            try {
+                if (success) {
+                    vectors = newVectors;
+                    postings = newPostings;
+                }
+
+                loading = false;
+                changed = new ArrayList<UUID>(changedDuringLoad);
+                changedDuringLoad.clear();
+
+            } finally {
+                lock.writeLock().unlock();
+            }
+
+            loadedAt = System.currentTimeMillis();
+        }
+
+        for (UUID id : changed) {
+            refresh(id);
+        }
+
+        timer.stop("Load", count);
+    }
+
+    /**
+     * Re-reads the object with the given {@code id} from the database and
+     * updates the index with its current distribution, or removes it if
+     * it's been deleted.
+     */
+    public void refresh(UUID id) {
+        Object object = Query.
+                from(Object.class).
+                where("_id = ?", id).
+                using(database).
+                master().
+                noCache().
+                first();
+
+        ColorDistribution distribution = object instanceof ColorImage ?
+                State.getInstance(object).as(ColorDistribution.Data.class).getDistribution() :
+                null;
+
+        lock.writeLock().lock();
+
+        try {
+            if (loading) {
+                changedDuringLoad.add(id);
+            }
+
+            removeUnlocked(id);
+
+            if (distribution != null) {
+                put(vectors, postings, id, Vector.from(distribution));
+            }
+
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Updates the index with the given {@code distribution} for the object
+     * with the given {@code id}, without checking the database.
+     *
+     * @param distribution If {@code null}, removes the object.
+     */
+    public void update(UUID id, ColorDistribution distribution) {
+        if (distribution == null) {
+            remove(id);
+            return;
+        }
+
+        Vector vector = Vector.from(distribution);
+
+        lock.writeLock().lock();
+
+        try {
+            if (loading) {
+                changedDuringLoad.add(id);
+            }
+
+            removeUnlocked(id);
+            put(vectors, postings, id, vector);
+
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private static void put(Map<UUID, Vector> vectors, Map<String, Map<UUID, Float>> postings, UUID id, Vector vector) {
+        if (vector.buckets.length == 0) {
+            return;
+        }
+
+        vectors.put(id, vector);
+
+        for (int i = 0, length = vector.buckets.length; i < length; ++ i) {
+            String bucket = vector.buckets[i];
+            Map<UUID, Float> bucketPostings = postings.get(bucket);
+
+            if (bucketPostings == null) {
+                bucketPostings = new HashMap<UUID, Float>();
+                postings.put(bucket, bucketPostings);
+            }
+
+            bucketPostings.put(id, vector.weights[i]);
+        }
+    }
+
+    /**
+     * Removes the object with the given {@code id} from the index, without
+     * checking the database.
+     */
+    public void remove(UUID id) {
+        lock.writeLock().lock();
+
+        try {
+            if (loading) {
+                changedDuringLoad.add(id);
+            }
+
+            removeUnlocked(id);
+
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void removeUnlocked(UUID id) {
+        Vector old = vectors.remove(id);
+
+        if (old != null) {
+            for (String bucket : old.buckets) {
+                Map<UUID, Float> bucketPostings = postings.get(bucket);
+
+                if (bucketPostings != null) {
+                    bucketPostings.remove(id);
+
+                    if (bucketPostings.isEmpty()) {
+                        postings.remove(bucket);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Finds the objects with the palettes most similar to the given
+     * {@code distribution}, scored by the sum of the overlapping
+     * percentages in each color bucket.
+     *
+     * @param distribution Can't be {@code null}.
+     * @param limit Maximum number of matches to return.
+     * @return Never {@code null}. Sorted by the score, highest first.
+     */
+    public List<Match> findSimilar(ColorDistribution distribution, int limit) {
+        ensureLoaded();
+
+        Stats.Timer timer = STATS.startTimer();
+        Vector query = Vector.from(distribution);
+        Map<UUID, Double> scores = new HashMap<UUID, Double>();
+
+        lock.readLock().lock();
+
+        try {
+            for (int i = 0, length = query.buckets.length; i < length; ++ i) {
+                Map<UUID, Float> bucketPostings = postings.get(query.buckets[i]);
+
+                if (bucketPostings == null) {
+                    continue;
+                }
+
+                float queryWeight = query.weights[i];
+
+                for (Map.Entry<UUID, Float> entry : bucketPostings.entrySet()) {
+                    UUID id = entry.getKey();
+                    Double score = scores.get(id);
+                    double overlap = Math.min(queryWeight, entry.getValue());
+
+                    scores.put(id, score != null ? score + overlap : overlap);
+                }
+            }
+
+        } finally {
+            lock.readLock().unlock();
+        }
+
+        List<Match> matches = toMatches(scores, limit);
+
+        timer.stop("Find Similar");
+        return matches;
+    }
+
+    /**
+     * Finds the objects that have at least the given {@code minimum}
+     * percentage of the color with the given HUSL {@code hue},
+     * {@code saturation}, and {@code lightness}, after it's normalized
+     * into a color bucket.
+     *
+     * @param minimum Between {@code 0.0} and {@code 1.0}.
+     * @param limit Maximum number of matches to return.
+     * @return Never {@code null}. Sorted by the percentage, highest first.
+     */
+    public List<Match> findDominant(int hue, int saturation, int lightness, double minimum, int limit) {
+        ensureLoaded();
+
+        Stats.Timer timer = STATS.startTimer();
+        String bucket = ColorDistribution.Static.getBucket(hue, saturation, lightness);
+        Map<UUID, Double> scores = new HashMap<UUID, Double>();
+
+        lock.readLock().lock();
+
+        try {
+            Map<UUID, Float> bucketPostings = postings.get(bucket);
+
+            if (bucketPostings != null) {
+                for (Map.Entry<UUID, Float> entry : bucketPostings.entrySet()) {
+                    float weight = entry.getValue();
+
+                    if (weight >= minimum) {
+                        scores.put(entry.getKey(), (double) weight);
+                    }
+                }
+            }
+
+        } finally {
+            lock.readLock().unlock();
+        }
+
+        List<Match> matches = toMatches(scores, limit);
+
+        timer.stop("Find Dominant");
+        return matches;
+    }
+
+    private List<Match> toMatches(Map<UUID, Double> scores, int limit) {
+        List<Match> matches = new ArrayList<Match>(scores.size());
+
+        for (Map.Entry<UUID, Double> entry : scores.entrySet()) {
+            matches.add(new Match(entry.getKey(), entry.getValue()));
+        }
+
+        Collections.sort(matches, MATCH_COMPARATOR);
+
+        return matches.size() > limit ? new ArrayList<Match>(matches.subList(0, limit)) : matches;
+    }
+
+    /** Object found by one of the searches in a {@link ColorIndex}. */
+    public static class Match {
+
+        private final UUID id;
+        private final double score;
+
+        public Match(UUID id, double score) {
+            this.id = id;
+            this.score = score;
+        }
+
+        public UUID getId() {
+            return id;
+        }
+
+        public double getScore() {
+            return score;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("{id=%s, score=%s}", id, score);
+        }
+    }
+
+    // Sparse vector of the percentages in each color bucket.
+    private static class Vector {
+
+        public final String[] buckets;
+        public final float[] weights;
+
+        private Vector(String[] buckets, float[] weights) {
+            this.buckets = buckets;
+            this.weights = weights;
+        }
+
+        public static Vector from(ColorDistribution distribution) {
+            List<String> buckets = new ArrayList<String>();
+            List<Float> weights = new ArrayList<Float>();
+
+            for (Map.Entry<String, Object> entry : distribution.getState().getValues().entrySet()) {
+                String key = entry.getKey();
+                Object value = entry.getValue();
+
+                if (key.startsWith(ColorDistribution.Static.BUCKET_PREFIX) &&
+                        value instanceof Number) {
+                    float weight = ((Number) value).floatValue();
+
+                    if (weight > 0.0f) {
+                        buckets.add(key.intern());
+                        weights.add(weight);
+                    }
+                }
+            }
+
+            int size = buckets.size();
+            float[] weightsArray = new float[size];
+
+            for (int i = 0; i < size; ++ i) {
+                weightsArray[i] = weights.get(i);
+            }
+
+            return new Vector(buckets.toArray(new String[size]), weightsArray);
+        }
+    }
+}
@@ -5,17 +5,22 @@ import java.beans.IntrospectionException;
 import java.beans.Introspector;
 import java.beans.PropertyDescriptor;
 import java.beans.SimpleBeanInfo;
+import java.io.File;
+import java.io.IOException;
 import java.lang.reflect.Method;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -30,6 +35,7 @@ import com.psddev.dari.util.Lazy;
 import com.psddev.dari.util.ObjectUtils;
 import com.psddev.dari.util.Once;
 import com.psddev.dari.util.PeriodicCache;
+import com.psddev.dari.util.Settings;
 import com.psddev.dari.util.Task;
 import com.psddev.dari.util.TypeDefinition;
 
@@ -38,6 +44,14 @@ public class DatabaseEnvironment implements ObjectStruct {
     public static final String GLOBAL_FIELDS_FIELD = "globalFields";
     public static final String GLOBAL_INDEXES_FIELD = "globalIndexes";
 
+    /**
+     * Setting key for the directory where the snapshots of the resolved
+     * types and globals are stored. If set, the environment starts from
+     * a valid snapshot and loads the types from the database in the
+     * background instead.
+     */
+    public static final String SNAPSHOT_DIRECTORY_SETTING = "dari/environmentSnapshotDirectory";
+
     private static final Logger LOGGER = LoggerFactory.getLogger(DatabaseEnvironment.class);
 
     private final Database database;
@@ -134,6 +148,14 @@ public class DatabaseEnvironment implements ObjectStruct {
         @Override
         protected void run() {
 
+            // Start from the local snapshot if it's still valid, and
+            // load everything from the database in the background.
+            if (bootstrapFromSnapshot()) {
+                listenToChanges();
+                refresher.scheduleWithFixedDelay(5.0, 5.0);
+                return;
+            }
+
             // Fetch the globals, which includes a reference to the root
             // type. References to other objects can't be resolved,
             // because the type definitions haven't been loaded yet.
@@ -156,6 +178,17 @@ public class DatabaseEnvironment implements ObjectStruct {
                         rootType.getId());
             }
 
+            // Remember when the types and globals were last updated before
+            // loading them so that a concurrent change invalidates the
+            // snapshot.
+            Date globalsUpdate = null;
+            Date typesUpdate = null;
+
+            if (getSnapshotFile() != null) {
+                globalsUpdate = queryGlobalsUpdate();
+                typesUpdate = rootType != null ? queryTypesUpdate() : null;
+            }
+
             // Load all other types based on the root type. Then globals
             // again in case they reference other typed objects. Then
             // types again using the information from the fully resolved
@@ -163,40 +196,407 @@ public class DatabaseEnvironment implements ObjectStruct {
             refreshTypes();
             refreshGlobals();
             refreshTypes();
+            writeSnapshot(globalsUpdate, typesUpdate);
 
+            listenToChanges();
             refresher.scheduleWithFixedDelay(5.0, 5.0);
         }
     };
 
-    /** Task for updating the globals and the types periodically. */
+    /**
+     * Task for updating the globals and the types periodically. While an
+     * {@link EnvironmentChangeNotifier} is delivering notifications, this
+     * only checks every {@link #NOTIFIED_REFRESH_INTERVAL} seconds in case
+     * one was missed.
+     */
     private final Task refresher = new Task(PeriodicCache.TASK_EXECUTOR_NAME, null) {
         @Override
         public void doTask() {
-            Database database = getDatabase();
+            EnvironmentChangeNotifier notifier = changeNotifier;
 
-            Date newGlobalsUpdate = Query.
-                    from(Object.class).
-                    where("_id = ?", GLOBALS_ID).
-                    using(database).
-                    lastUpdate();
-            if (newGlobalsUpdate != null &&
-                    (lastGlobalsUpdate == null ||
-                    newGlobalsUpdate.after(lastGlobalsUpdate))) {
-                refreshGlobals();
+            if (notifier != null &&
+                    notifier.isEnvironmentChangeNotifying() &&
+                    System.currentTimeMillis() - lastRefreshCheck < NOTIFIED_REFRESH_INTERVAL * 1000L) {
+                return;
             }
 
-            Date newTypesUpdate = Query.
-                    from(ObjectType.class).
-                    using(database).
-                    lastUpdate();
-            if (newTypesUpdate != null &&
-                    (lastTypesUpdate == null ||
-                    newTypesUpdate.after(lastTypesUpdate))) {
-                refreshTypes();
+            refreshIfUpdated();
+        }
+    };
+
+    /** Task for updating the globals and the types on notification. */
+    private final Task notifiedRefresher = new Task(PeriodicCache.TASK_EXECUTOR_NAME, null) {
+        @Override
+        public void doTask() {
+            while (changeNotified.getAndSet(false)) {
+                refreshIfUpdated();
+            }
+        }
+    };
+
+    // Refreshes the globals and the types if they changed since the last
+    // time they were loaded.
+    private void refreshIfUpdated() {
+        lastRefreshCheck = System.currentTimeMillis();
+
+        Date newGlobalsUpdate = queryGlobalsUpdate();
+        if (newGlobalsUpdate != null &&
+                (lastGlobalsUpdate == null ||
+                newGlobalsUpdate.after(lastGlobalsUpdate))) {
+            refreshGlobals();
+        }
+
+        Date newTypesUpdate = queryTypesUpdate();
+        if (newTypesUpdate != null &&
+                (lastTypesUpdate == null ||
+                newTypesUpdate.after(lastTypesUpdate))) {
+            refreshTypes();
+        }
+    }
+
+    /**
+     * Task for fully loading the types and the globals from the database
+     * after starting from a snapshot.
+     */
+    private final Task snapshotValidator = new Task(PeriodicCache.TASK_EXECUTOR_NAME, null) {
+        @Override
+        public void doTask() {
+            Date globalsUpdate = queryGlobalsUpdate();
+            Date typesUpdate = queryTypesUpdate();
+
+            refreshGlobals();
+            refreshTypes();
+            writeSnapshot(globalsUpdate, typesUpdate);
+        }
+    };
+
+    // --- Change notification support ---
+
+    /**
+     * Interval, in seconds, between the checks for changes while an
+     * {@link EnvironmentChangeNotifier} is delivering notifications.
+     */
+    private static final double NOTIFIED_REFRESH_INTERVAL = 60.0;
+
+    private volatile EnvironmentChangeNotifier changeNotifier;
+    private volatile long lastRefreshCheck;
+    private final AtomicBoolean changeNotified = new AtomicBoolean();
+
+    private final EnvironmentChangeNotifier.Listener changeListener = new EnvironmentChangeNotifier.Listener() {
+
+        @Override
+        public void changed(UUID id, UUID typeId) {
+            if (GLOBALS_ID.equals(id) ||
+                    permanentTypes.byId.containsKey(id)) {
+                notifyChange();
+
+            } else if (typeId != null) {
+                ObjectType rootType = permanentTypes.byClassName.get(ObjectType.class.getName().toLowerCase(Locale.ENGLISH));
+
+                if (rootType != null && typeId.equals(rootType.getId())) {
+                    notifyChange();
+                }
             }
         }
+
+        @Override
+        public void changedAll() {
+            notifyChange();
+        }
     };
 
+    private void notifyChange() {
+        changeNotified.set(true);
+        notifiedRefresher.submit();
+    }
+
+    // Starts listening to the change notifications from the backing
+    // database if it supports them.
+    private void listenToChanges() {
+        EnvironmentChangeNotifier notifier = findChangeNotifier(getDatabase());
+
+        if (notifier != null && changeNotifier == null) {
+            notifier.addEnvironmentChangeListener(changeListener);
+            changeNotifier = notifier;
+            LOGGER.info("Listening to the type and the globals changes in [{}]", getDatabase().getName());
+        }
+    }
+
+    // Finds the database that actually stores the types.
+    private static EnvironmentChangeNotifier findChangeNotifier(Database database) {
+        if (database instanceof EnvironmentChangeNotifier) {
+            return (EnvironmentChangeNotifier) database;
+
+        } else if (database instanceof AggregateDatabase) {
+            return findChangeNotifier(((AggregateDatabase) database).getDefaultDelegate());
+
+        } else if (database instanceof ForwardingDatabase) {
+            return findChangeNotifier(((ForwardingDatabase) database).getDelegate());
+
+        } else {
+            return null;
+        }
+    }
+
+    private Date queryGlobalsUpdate() {
+        return Query.
+                from(Object.class).
+                where("_id = ?", GLOBALS_ID).
+                using(getDatabase()).
+                lastUpdate();
+    }
+
+    private Date queryTypesUpdate() {
+        return Query.
+                from(ObjectType.class).
+                using(getDatabase()).
+                lastUpdate();
+    }
+
+    // --- Snapshot support ---
+
+    // Returns the snapshot file for the backing database.
+    private File getSnapshotFile() {
+        String directory = Settings.get(String.class, SNAPSHOT_DIRECTORY_SETTING);
+
+        if (ObjectUtils.isBlank(directory)) {
+            return null;
+        }
+
+        String name = getDatabase().getName();
+
+        if (ObjectUtils.isBlank(name)) {
+            name = "default";
+        }
+
+        return new File(directory, name.replaceAll("[^A-Za-z0-9._-]", "_") + ".json");
+    }
+
+    // Starts from the snapshot if it's valid and schedules the full load
+    // in the background.
+    private boolean bootstrapFromSnapshot() {
+        File file = getSnapshotFile();
+
+        if (file == null) {
+            return false;
+        }
+
+        DatabaseEnvironmentSnapshot snapshot = new DatabaseEnvironmentSnapshot(file);
+
+        try {
+            if (!snapshot.read()) {
+                return false;
+            }
+
+        } catch (Exception error) {
+            LOGGER.warn(String.format("Can't read the environment snapshot at [%s]!", file), error);
+            return false;
+        }
+
+        if (!DatabaseEnvironmentSnapshot.hashClassPath(ObjectUtils.getCurrentClassLoader(), file.getParentFile()).equals(snapshot.getClassPathHash())) {
+            LOGGER.info("Ignoring the environment snapshot at [{}] because the class path changed", file);
+            return false;
+        }
+
+        TypesCache temporaryTypes = new TypesCache();
+        temporaryTypesLocal.set(temporaryTypes);
+
+        try {
+            State newGlobals;
+
+            try {
+                newGlobals = restoreSnapshot(temporaryTypes, snapshot);
+
+            } catch (RuntimeException error) {
+                LOGGER.warn(String.format("Can't restore the environment snapshot at [%s]!", file), error);
+                return false;
+            }
+
+            Date globalsUpdate = queryGlobalsUpdate();
+            Date typesUpdate = queryTypesUpdate();
+
+            if (globalsUpdate == null ||
+                    typesUpdate == null ||
+                    globalsUpdate.getTime() != snapshot.getGlobalsUpdate() ||
+                    typesUpdate.getTime() != snapshot.getTypesUpdate()) {
+                LOGGER.info("Ignoring the environment snapshot at [{}] because the types or the globals changed", file);
+                return false;
+            }
+
+            TypesCache newPermanentTypes = new TypesCache();
+
+            for (ObjectType type : temporaryTypes.byId.values()) {
+                newPermanentTypes.add(type);
+            }
+
+            newPermanentTypes.changed.addAll(snapshot.getChanged());
+
+            globals = newGlobals;
+            lastGlobalsUpdate = globalsUpdate;
+            permanentTypes = newPermanentTypes;
+            lastTypesUpdate = typesUpdate;
+            fieldsCache.reset();
+            metricFieldsCache.reset();
+            indexesCache.reset();
+
+        } finally {
+            temporaryTypesLocal.remove();
+        }
+
+        LOGGER.info(
+                "Started [{}] from the environment snapshot at [{}] with [{}] types",
+                new Object[] { getDatabase().getName(), file, permanentTypes.byId.size() });
+
+        snapshotValidator.submit();
+        return true;
+    }
+
+    // Restores all types in the given snapshot into the given cache and
+    // returns the globals.
+    private State restoreSnapshot(TypesCache temporaryTypes, DatabaseEnvironmentSnapshot snapshot) {
+        Database database = getDatabase();
+        List<Map<String, Object>> typesValues = snapshot.getTypes();
+        List<ObjectType> types = new ArrayList<ObjectType>();
+
+        // Create all types first so that they can reference each other.
+        for (Map<String, Object> typeValues : typesValues) {
+            ObjectType type = new ObjectType();
+            State typeState = type.getState();
+
+            typeState.setDatabase(database);
+            typeState.setId(ObjectUtils.to(UUID.class, typeValues.get(State.ID_KEY)));
+            typeState.setTypeId(ObjectUtils.to(UUID.class, typeValues.get(State.TYPE_KEY)));
+            typeState.setStatus(StateStatus.SAVED);
+            temporaryTypes.byId.put(typeState.getId(), type);
+            types.add(type);
+        }
+
+        // The root type describes the fields in all other types, including
+        // itself, so it's populated using a temporary one that's initialized
+        // from the class like in refreshTypes first.
+        int rootIndex = -1;
+
+        for (int i = 0, size = types.size(); i < size; ++ i) {
+            State typeState = types.get(i).getState();
+
+            if (typeState.getId().equals(typeState.getTypeId())) {
+                rootIndex = i;
+                break;
+            }
+        }
+
+        if (rootIndex < 0) {
+            throw new IllegalStateException("No root type in the snapshot!");
+        }
+
+        ObjectType rootType = types.get(rootIndex);
+        ObjectType initialRootType = new ObjectType();
+        State initialRootTypeState = initialRootType.getState();
+
+        initialRootTypeState.setDatabase(database);
+        initialRootTypeState.setId(rootType.getId());
+        initialRootTypeState.setTypeId(rootType.getId());
+        initialRootType.setObjectClassName(ObjectType.class.getName());
+        initialRootType.initialize();
+        temporaryTypes.add(initialRootType);
+
+        rootType.getState().setValues(resolveSnapshotReferences(temporaryTypes.byId, typesValues.get(rootIndex)));
+        temporaryTypes.add(rootType);
+
+        for (int i = 0, size = types.size(); i < size; ++ i) {
+            if (i != rootIndex) {
+                types.get(i).getState().setValues(resolveSnapshotReferences(temporaryTypes.byId, typesValues.get(i)));
+            }
+        }
+
+        for (ObjectType type : types) {
+            temporaryTypes.add(type);
+        }
+
+        State newGlobals = State.getInstance(createObject(null, GLOBALS_ID));
+
+        newGlobals.setStatus(StateStatus.SAVED);
+        newGlobals.setValues(resolveSnapshotReferences(temporaryTypes.byId, snapshot.getGlobals()));
+        return newGlobals;
+    }
+
+    // Replaces the references to the types in the given values, including
+    // the ones nested within lists and maps, with the types themselves so
+    // that they're not fetched from the database.
+    @SuppressWarnings("unchecked")
+    static Map<String, Object> resolveSnapshotReferences(Map<UUID, ObjectType> types, Map<String, Object> values) {
+        return (Map<String, Object>) resolveSnapshotReference(types, values);
+    }
+
+    private static Object resolveSnapshotReference(Map<UUID, ObjectType> types, Object value) {
+        if (value instanceof Map) {
+            UUID id = StateValueUtils.toIdIfReference(value);
+
+            if (id != null) {
+                ObjectType type = types.get(id);
+
+                return type != null ? type : value;
+            }
+
+            Map<Object, Object> resolved = new LinkedHashMap<Object, Object>();
+
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+                resolved.put(entry.getKey(), resolveSnapshotReference(types, entry.getValue()));
+            }
+
+            return resolved;
+
+        } else if (value instanceof List) {
+            List<Object> resolved = new ArrayList<Object>();
+
+            for (Object item : (List<?>) value) {
+                resolved.add(resolveSnapshotReference(types, item));
+            }
+
+            return resolved;
+
+        } else {
+            return value;
+        }
+    }
+
+    // Writes the current types and globals to the snapshot file.
+    private void writeSnapshot(Date globalsUpdate, Date typesUpdate) {
+        File file = getSnapshotFile();
+        State currentGlobals = globals;
+
+        if (file == null ||
+                globalsUpdate == null ||
+                typesUpdate == null ||
+                currentGlobals == null) {
+            return;
+        }
+
+        TypesCache currentTypes = permanentTypes;
+        List<Map<String, Object>> types = new ArrayList<Map<String, Object>>();
+
+        for (ObjectType type : currentTypes.byId.values()) {
+            types.add(type.getState().getSimpleValues());
+        }
+
+        DatabaseEnvironmentSnapshot snapshot = new DatabaseEnvironmentSnapshot(file);
+
+        snapshot.setClassPathHash(DatabaseEnvironmentSnapshot.hashClassPath(ObjectUtils.getCurrentClassLoader(), file.getParentFile()));
+        snapshot.setGlobalsUpdate(globalsUpdate.getTime());
+        snapshot.setTypesUpdate(typesUpdate.getTime());
+        snapshot.setGlobals(currentGlobals.getSimpleValues());
+        snapshot.setTypes(types);
+        snapshot.setChanged(new LinkedHashSet<UUID>(currentTypes.changed));
+
+        try {
+            snapshot.write();
+            LOGGER.info("Wrote the environment snapshot for [{}] to [{}]", getDatabase().getName(), file);
+
+        } catch (IOException error) {
+            LOGGER.warn(String.format("Can't write the environment snapshot to [%s]!", file), error);
+        }
+    }
+
     /** Immediately refreshes all globals using the backing database. */
     public synchronized void refreshGlobals() {
         bootstrapOnce.ensure();
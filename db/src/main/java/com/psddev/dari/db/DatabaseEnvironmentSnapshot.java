@@ -0,0 +1,266 @@
+package com.psddev.dari.db;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.regex.Pattern;
+
+import com.psddev.dari.util.IoUtils;
+import com.psddev.dari.util.ObjectUtils;
+import com.psddev.dari.util.StringUtils;
+
+/**
+ * Local file that contains the resolved types and globals of a
+ * {@link DatabaseEnvironment} so that it can start without loading them
+ * from the database.
+ *
+ * <p>A snapshot is only valid when the last update dates of the types
+ * and the globals in the database, and the hash of the class path, all
+ * match the ones recorded at the time it was written.</p>
+ */
+class DatabaseEnvironmentSnapshot {
+
+    public static final int VERSION = 1;
+
+    private static final String VERSION_KEY = "version";
+    private static final String CLASS_PATH_HASH_KEY = "classPathHash";
+    private static final String TYPES_UPDATE_KEY = "typesUpdate";
+    private static final String GLOBALS_UPDATE_KEY = "globalsUpdate";
+    private static final String GLOBALS_KEY = "globals";
+    private static final String TYPES_KEY = "types";
+    private static final String CHANGED_KEY = "changed";
+
+    private final File file;
+    private long typesUpdate;
+    private long globalsUpdate;
+    private String classPathHash;
+    private Map<String, Object> globals;
+    private List<Map<String, Object>> types;
+    private Set<UUID> changed;
+
+    /**
+     * Creates an instance that reads from and writes to the given
+     * {@code file}.
+     */
+    public DatabaseEnvironmentSnapshot(File file) {
+        this.file = file;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public long getTypesUpdate() {
+        return typesUpdate;
+    }
+
+    public void setTypesUpdate(long typesUpdate) {
+        this.typesUpdate = typesUpdate;
+    }
+
+    public long getGlobalsUpdate() {
+        return globalsUpdate;
+    }
+
+    public void setGlobalsUpdate(long globalsUpdate) {
+        this.globalsUpdate = globalsUpdate;
+    }
+
+    public String getClassPathHash() {
+        return classPathHash;
+    }
+
+    public void setClassPathHash(String classPathHash) {
+        this.classPathHash = classPathHash;
+    }
+
+    public Map<String, Object> getGlobals() {
+        return globals;
+    }
+
+    public void setGlobals(Map<String, Object> globals) {
+        this.globals = globals;
+    }
+
+    public List<Map<String, Object>> getTypes() {
+        return types;
+    }
+
+    public void setTypes(List<Map<String, Object>> types) {
+        this.types = types;
+    }
+
+    public Set<UUID> getChanged() {
+        return changed;
+    }
+
+    public void setChanged(Set<UUID> changed) {
+        this.changed = changed;
+    }
+
+    /**
+     * Reads the snapshot from the file.
+     *
+     * @return {@code false} if the file doesn't exist or was written by
+     *         an incompatible version.
+     */
+    @SuppressWarnings("unchecked")
+    public boolean read() throws IOException {
+        if (!file.isFile()) {
+            return false;
+        }
+
+        Object json = ObjectUtils.fromJson(IoUtils.toString(file, StringUtils.UTF_8));
+
+        if (!(json instanceof Map)) {
+            return false;
+        }
+
+        Map<String, Object> map = (Map<String, Object>) json;
+
+        if (ObjectUtils.to(int.class, map.get(VERSION_KEY)) != VERSION) {
+            return false;
+        }
+
+        typesUpdate = ObjectUtils.to(long.class, map.get(TYPES_UPDATE_KEY));
+        globalsUpdate = ObjectUtils.to(long.class, map.get(GLOBALS_UPDATE_KEY));
+        classPathHash = ObjectUtils.to(String.class, map.get(CLASS_PATH_HASH_KEY));
+        globals = (Map<String, Object>) map.get(GLOBALS_KEY);
+        types = (List<Map<String, Object>>) map.get(TYPES_KEY);
+        changed = new LinkedHashSet<UUID>();
+
+        Object changedIds = map.get(CHANGED_KEY);
+
+        if (changedIds instanceof List) {
+            for (Object id : (List<Object>) changedIds) {
+                UUID uuid = ObjectUtils.to(UUID.class, id);
+                if (uuid != null) {
+                    changed.add(uuid);
+                }
+            }
+        }
+
+        return globals != null && types != null;
+    }
+
+    /**
+     * Writes the snapshot to a temporary file first and then renames it
+     * so that a partially written snapshot is never read.
+     */
+    public void write() throws IOException {
+        Map<String, Object> map = new LinkedHashMap<String, Object>();
+        List<String> changedIds = new ArrayList<String>();
+
+        if (changed != null) {
+            for (UUID id : changed) {
+                changedIds.add(id.toString());
+            }
+        }
+
+        map.put(VERSION_KEY, VERSION);
+        map.put(CLASS_PATH_HASH_KEY, classPathHash);
+        map.put(TYPES_UPDATE_KEY, typesUpdate);
+        map.put(GLOBALS_UPDATE_KEY, globalsUpdate);
+        map.put(GLOBALS_KEY, globals);
+        map.put(TYPES_KEY, types);
+        map.put(CHANGED_KEY, changedIds);
+
+        IoUtils.createParentDirectories(file);
+
+        File temporary = new File(file.getPath() + "." + UUID.randomUUID() + ".tmp");
+        OutputStream output = new FileOutputStream(temporary);
+
+        try {
+            output.write(ObjectUtils.toJson(map).getBytes(StringUtils.UTF_8));
+
+        } finally {
+            output.close();
+        }
+
+        if (file.exists()) {
+            IoUtils.delete(file);
+        }
+
+        IoUtils.rename(temporary, file);
+    }
+
+    /**
+     * Returns a hash of all JAR files and class directories visible to
+     * the given {@code loader}, based on their paths, sizes, and last
+     * modified times. Anything inside the given {@code excluded}
+     * directory, typically the one that holds the snapshots, is skipped.
+     */
+    public static String hashClassPath(ClassLoader loader, File excluded) {
+        MessageDigest md5;
+
+        try {
+            md5 = MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException error) {
+            throw new IllegalStateException(error);
+        }
+
+        Set<File> files = new LinkedHashSet<File>();
+
+        for (ClassLoader l = loader; l != null; l = l.getParent()) {
+            if (l instanceof URLClassLoader) {
+                for (URL url : ((URLClassLoader) l).getURLs()) {
+                    File file = IoUtils.toFile(url, StringUtils.UTF_8);
+                    if (file != null) {
+                        files.add(file);
+                    }
+                }
+            }
+        }
+
+        String classPath = System.getProperty("java.class.path");
+
+        if (!ObjectUtils.isBlank(classPath)) {
+            for (String path : StringUtils.split(classPath, Pattern.quote(File.pathSeparator))) {
+                files.add(new File(path));
+            }
+        }
+
+        File excludedAbsolute = excluded != null ? excluded.getAbsoluteFile() : null;
+
+        for (File file : files) {
+            hashFile(md5, file, excludedAbsolute);
+        }
+
+        return StringUtils.hex(md5.digest());
+    }
+
+    private static void hashFile(MessageDigest md5, File file, File excluded) {
+        if (file.getAbsoluteFile().equals(excluded)) {
+            return;
+
+        } else if (file.isDirectory()) {
+            File[] children = file.listFiles();
+
+            if (children != null) {
+                Arrays.sort(children);
+
+                for (File child : children) {
+                    hashFile(md5, child, excluded);
+                }
+            }
+
+        } else if (file.isFile()) {
+            md5.update(file.getAbsolutePath().getBytes(StringUtils.UTF_8));
+            md5.update(ObjectUtils.to(String.class, file.length()).getBytes(StringUtils.UTF_8));
+            md5.update(ObjectUtils.to(String.class, file.lastModified()).getBytes(StringUtils.UTF_8));
+        }
+    }
+}
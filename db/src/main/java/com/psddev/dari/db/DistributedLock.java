@@ -1,34 +1,87 @@
 package com.psddev.dari.db;
 
 import java.lang.ref.WeakReference;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.Random;
+import java.util.Set;
 import java.util.UUID;
 import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.psddev.dari.util.ObjectUtils;
+import com.psddev.dari.util.Settings;
+import com.psddev.dari.util.Stats;
 import com.psddev.dari.util.StringUtils;
+import com.psddev.dari.util.Task;
 import com.psddev.dari.util.UuidUtils;
 
-/** Enforces mutual exclusion across multiple VMs using a {@link Database}. */
+/**
+ * Enforces mutual exclusion across multiple VMs using a {@link Database}.
+ *
+ * <p>The threads within the same VM wait on a local lock first, so only
+ * one of them at a time ever tries to acquire the lock from the database.
+ * The lock is a lease stored in the database that's renewed in the
+ * background for as long as it's held, and expires after
+ * {@code dari/distributedLockLeaseDuration} milliseconds if its VM goes
+ * away. If the lease is lost anyway, for example because the VM paused
+ * for longer than that, {@link #isLost} returns {@code true} and
+ * {@link #unlock} throws {@link LostException}. The waiters retry with an
+ * exponential backoff and jitter.</p>
+ *
+ * <p>If {@code dari/isDistributedLockNative} is {@code true} and the
+ * database is a {@link SqlDatabase} whose vendor
+ * {@linkplain SqlVendor#supportsNativeLocks supports native locks}, those
+ * are used instead. The lease records and the native locks don't exclude
+ * each other, so the setting must be the same on all VMs that share the
+ * database, and can't be changed in a rolling deploy. Each held native
+ * lock also pins a pooled connection until it's released, so the pool
+ * must be larger than the number of locks held at the same time.</p>
+ */
 public class DistributedLock implements Lock {
 
+    public static final String LEASE_DURATION_SETTING = "dari/distributedLockLeaseDuration";
+    public static final long DEFAULT_LEASE_DURATION = 10000L;
+    public static final String NATIVE_SETTING = "dari/isDistributedLockNative";
+
+    public static final String STATS_NAME = "Distributed Lock";
+    public static final String ACQUIRE_STATS_OPERATION = "Acquire";
+    public static final String MASTER_QUERY_STATS_OPERATION = "Master Query";
+    public static final String RENEW_STATS_OPERATION = "Renew";
+    public static final String LOST_STATS_OPERATION = "Lost";
+
     private static final Logger LOGGER = LoggerFactory.getLogger(DistributedLock.class);
-    private static final long TIMEOUT = 10000;
-    private static final long TRY_INTERVAL = 50L;
+    private static final Stats STATS = new Stats(STATS_NAME);
+    private static final long MINIMUM_BACKOFF = 10L;
+    private static final long MAXIMUM_BACKOFF = 250L;
+    private static final double HEARTBEAT_INTERVAL = 0.2;
+    private static final Random RANDOM = new Random();
+
+    private static final Set<DistributedLock> HELD = Collections.newSetFromMap(new ConcurrentHashMap<DistributedLock, Boolean>());
+    private static final Heartbeat HEARTBEAT = new Heartbeat();
 
     private final String lockId = UUID.randomUUID().toString();
     private final Database database;
     private final String keyString;
     private final UUID keyId;
     private final AtomicReference<Thread> holderRef = new AtomicReference<Thread>();
+    private final ReentrantLock localLock = new ReentrantLock(true);
+    private Connection nativeConnection;
+    private volatile long lastRenew;
+    private volatile boolean lost;
+    private boolean renewing;
+    private boolean releasePending;
 
     protected DistributedLock(Database database, String key) {
         this.database = database;
@@ -36,6 +89,38 @@ public class DistributedLock implements Lock {
         this.keyId = UuidUtils.fromBytes(StringUtils.md5(key));
     }
 
+    /**
+     * Returns the number of milliseconds that a lease is valid for without
+     * being renewed.
+     */
+    public static long getLeaseDuration() {
+        return Settings.getOrDefault(long.class, LEASE_DURATION_SETTING, DEFAULT_LEASE_DURATION);
+    }
+
+    // Exponential backoff with full jitter so that the waiters in
+    // different VMs don't all hit the database at the same time.
+    static long calculateBackoff(int attempt) {
+        long maximum = Math.min(MAXIMUM_BACKOFF, MINIMUM_BACKOFF << Math.min(attempt, 16));
+
+        synchronized (RANDOM) {
+            return MINIMUM_BACKOFF + (long) (RANDOM.nextDouble() * (maximum - MINIMUM_BACKOFF));
+        }
+    }
+
+    /**
+     * Returns {@code true} if the lease on this lock was lost while the
+     * current holder held it, so another VM may have acquired it since.
+     */
+    public boolean isLost() {
+        return lost;
+    }
+
+    private void checkReentrant() {
+        if (Thread.currentThread().equals(holderRef.get())) {
+            throw new ReentrantException();
+        }
+    }
+
     // --- Lock support ---
 
     /**
@@ -46,16 +131,42 @@ public class DistributedLock implements Lock {
      */
     @Override
     public void lock() {
-        if (!tryLock()) {
-            LOGGER.debug("Waiting to acquire [{}]", this);
-            do {
-                try {
-                    Thread.sleep(TRY_INTERVAL);
-                } catch (InterruptedException ex) {
-                    // Ignore thread interruption and keep trying to lock.
+        checkReentrant();
+
+        Stats.Timer timer = STATS.startTimer();
+        boolean interrupted = false;
+
+        localLock.lock();
+
+        try {
+            if (!tryLockRemotely()) {
+                LOGGER.debug("Waiting to acquire [{}]", this);
+
+                for (int attempt = 0; ; ++ attempt) {
+                    try {
+                        Thread.sleep(calculateBackoff(attempt));
+                    } catch (InterruptedException ex) {
+                        // Keep trying to lock, but preserve the interrupt.
+                        interrupted = true;
+                    }
+
+                    if (tryLockRemotely()) {
+                        break;
+                    }
                 }
-            } while (!tryLock());
+            }
+
+        } catch (RuntimeException error) {
+            localLock.unlock();
+            throw error;
+
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
         }
+
+        timer.stop(ACQUIRE_STATS_OPERATION);
     }
 
     /**
@@ -66,12 +177,30 @@ public class DistributedLock implements Lock {
      */
     @Override
     public void lockInterruptibly() throws InterruptedException {
-        if (!tryLock()) {
-            LOGGER.debug("Waiting to acquire [{}] interruptibly", this);
-            do {
-                Thread.sleep(TRY_INTERVAL);
-            } while (!tryLock());
+        checkReentrant();
+
+        Stats.Timer timer = STATS.startTimer();
+        boolean acquired = false;
+
+        localLock.lockInterruptibly();
+
+        try {
+            if (!(acquired = tryLockRemotely())) {
+                LOGGER.debug("Waiting to acquire [{}] interruptibly", this);
+
+                for (int attempt = 0; !acquired; ++ attempt) {
+                    Thread.sleep(calculateBackoff(attempt));
+                    acquired = tryLockRemotely();
+                }
+            }
+
+        } finally {
+            if (!acquired) {
+                localLock.unlock();
+            }
         }
+
+        timer.stop(ACQUIRE_STATS_OPERATION);
     }
 
     @Override
@@ -87,52 +216,24 @@ public class DistributedLock implements Lock {
      */
     @Override
     public boolean tryLock() {
-        if (Thread.currentThread().equals(holderRef.get())) {
-            throw new ReentrantException();
-        }
+        checkReentrant();
 
-        synchronized (holderRef) {
-            State key = State.getInstance(Query.
-                    from(Object.class).
-                    where("_id = ?", keyId).
-                    using(database).
-                    noCache().
-                    master().
-                    first());
-
-            if (key == null) {
-                key = new State();
-                key.setDatabase(database);
-                key.setId(keyId);
-                key.put("keyString", keyString);
+        if (!localLock.tryLock()) {
+            return false;
+        }
 
-            } else {
-                if (ObjectUtils.to(long.class, key.get("lastPing")) + TIMEOUT < System.currentTimeMillis()) {
-                    LOGGER.debug("Timeout exceeded: [{}]", this);
-                } else {
-                    return false;
-                }
-            }
+        boolean acquired = false;
 
-            try {
-                key.replaceAtomically("lockId", lockId);
-                key.replaceAtomically("lastPing", System.currentTimeMillis());
-                key.saveImmediately();
+        try {
+            acquired = tryLockRemotely();
 
-            } catch (DatabaseException ex) {
-                Throwable cause = ex.getCause();
-                if (cause instanceof AtomicOperation.ReplacementException) {
-                    LOGGER.debug("Stolen by a different VM: [{}]", this);
-                    return false;
-                } else {
-                    throw ex;
-                }
+        } finally {
+            if (!acquired) {
+                localLock.unlock();
             }
-
-            holderRef.set(Thread.currentThread());
-            LOGGER.debug("Acquired [{}]", this);
-            return true;
         }
+
+        return acquired;
     }
 
     /**
@@ -143,17 +244,42 @@ public class DistributedLock implements Lock {
      */
     @Override
     public boolean tryLock(long time, TimeUnit unit) throws InterruptedException {
+        checkReentrant();
+
+        Stats.Timer timer = STATS.startTimer();
         long end = System.currentTimeMillis() + unit.toMillis(time);
 
-        do {
-            if (tryLock()) {
-                return true;
-            } else {
-                Thread.sleep(TRY_INTERVAL);
+        if (!localLock.tryLock(time, unit)) {
+            return false;
+        }
+
+        boolean acquired = false;
+
+        try {
+            acquired = tryLockRemotely();
+
+            for (int attempt = 0; !acquired; ++ attempt) {
+                long remaining = end - System.currentTimeMillis();
+
+                if (remaining <= 0) {
+                    break;
+                }
+
+                Thread.sleep(Math.min(remaining, calculateBackoff(attempt)));
+                acquired = tryLockRemotely();
+            }
+
+        } finally {
+            if (!acquired) {
+                localLock.unlock();
             }
-        } while (System.currentTimeMillis() < end);
+        }
+
+        if (acquired) {
+            timer.stop(ACQUIRE_STATS_OPERATION);
+        }
 
-        return false;
+        return acquired;
     }
 
     /**
@@ -162,6 +288,8 @@ public class DistributedLock implements Lock {
      * @throws IllegalStateException If {@link #lock} hasn't been called yet.
      * @throws IllegalMonitorStateException If the current thread doesn't
      *         hold this lock.
+     * @throws LostException If the lease was lost while the current
+     *         thread held this lock. The lock is released anyway.
      */
     @Override
     public void unlock() {
@@ -174,24 +302,284 @@ public class DistributedLock implements Lock {
             throw new IllegalMonitorStateException("Not the lock owner!");
         }
 
+        boolean wasLost;
+
+        try {
+            synchronized (holderRef) {
+                wasLost = lost;
+
+                try {
+                    LOGGER.debug("Releasing [{}]", this);
+
+                    if (nativeConnection != null) {
+                        unlockNatively();
+
+                    } else if (renewing) {
+                        releasePending = true;
+
+                    } else {
+                        deleteLease();
+                    }
+
+                } finally {
+                    holderRef.set(null);
+                    HELD.remove(this);
+                }
+            }
+
+        } finally {
+            localLock.unlock();
+        }
+
+        if (wasLost) {
+            throw new LostException(this);
+        }
+    }
+
+    // --- Remote locking ---
+
+    // Returns the SQL database whose vendor supports native locks, if
+    // they're enabled.
+    private SqlDatabase getNativeLockDatabase() {
+        if (!Settings.getOrDefault(boolean.class, NATIVE_SETTING, false)) {
+            return null;
+        }
+
+        Database db = database;
+
+        while (db instanceof ForwardingDatabase) {
+            db = ((ForwardingDatabase) db).getDelegate();
+        }
+
+        if (db instanceof SqlDatabase) {
+            SqlDatabase sql = (SqlDatabase) db;
+
+            if (sql.getVendor().supportsNativeLocks()) {
+                return sql;
+            }
+        }
+
+        return null;
+    }
+
+    // Tries once to acquire the lock from the database. Must be called
+    // while holding the local lock.
+    private boolean tryLockRemotely() {
+        synchronized (holderRef) {
+            SqlDatabase sql = getNativeLockDatabase();
+
+            if (sql != null ? !tryLockNatively(sql) : !tryLease()) {
+                return false;
+            }
+
+            lastRenew = System.currentTimeMillis();
+            lost = false;
+            holderRef.set(Thread.currentThread());
+            HELD.add(this);
+
+            if (nativeConnection == null) {
+                HEARTBEAT.scheduleWithFixedDelay(HEARTBEAT_INTERVAL, HEARTBEAT_INTERVAL);
+            }
+
+            LOGGER.debug("Acquired [{}]", this);
+            return true;
+        }
+    }
+
+    private boolean tryLockNatively(SqlDatabase sql) {
+        Connection connection = sql.openConnection();
+        boolean acquired = false;
+
+        try {
+            acquired = sql.getVendor().tryNativeLock(connection, keyId);
+            STATS.startTimer().stop(MASTER_QUERY_STATS_OPERATION);
+
+        } catch (SQLException error) {
+            throw new SqlDatabaseException(sql, "Can't acquire a native lock!", error);
+
+        } finally {
+            if (acquired) {
+                nativeConnection = connection;
+
+            } else {
+                sql.closeConnection(connection);
+            }
+        }
+
+        return acquired;
+    }
+
+    private void unlockNatively() {
+        SqlDatabase sql = getNativeLockDatabase();
+        Connection connection = nativeConnection;
+
+        nativeConnection = null;
+
+        try {
+            sql.getVendor().releaseNativeLock(connection, keyId);
+            STATS.startTimer().stop(MASTER_QUERY_STATS_OPERATION);
+
+        } catch (SQLException error) {
+            throw new SqlDatabaseException(sql, "Can't release a native lock!", error);
+
+        } finally {
+            sql.closeConnection(connection);
+        }
+    }
+
+    private State readKey() {
+        State key = State.getInstance(Query.
+                from(Object.class).
+                where("_id = ?", keyId).
+                using(database).
+                noCache().
+                master().
+                first());
+
+        STATS.startTimer().stop(MASTER_QUERY_STATS_OPERATION);
+        return key;
+    }
+
+    private boolean tryLease() {
+        State key = readKey();
+
+        if (key == null) {
+            key = new State();
+            key.setDatabase(database);
+            key.setId(keyId);
+            key.put("keyString", keyString);
+
+        } else if (ObjectUtils.to(long.class, key.get("lastPing")) + getLeaseDuration() < System.currentTimeMillis()) {
+            LOGGER.debug("Lease expired: [{}]", this);
+
+        } else {
+            return false;
+        }
+
+        try {
+            key.replaceAtomically("lockId", lockId);
+            key.replaceAtomically("lastPing", System.currentTimeMillis());
+            key.saveImmediately();
+            STATS.startTimer().stop(MASTER_QUERY_STATS_OPERATION);
+
+        } catch (DatabaseException ex) {
+            Throwable cause = ex.getCause();
+            if (cause instanceof AtomicOperation.ReplacementException) {
+                LOGGER.debug("Stolen by a different VM: [{}]", this);
+                return false;
+            } else {
+                throw ex;
+            }
+        }
+
+        return true;
+    }
+
+    private void deleteLease() {
+        State key = readKey();
+
+        if (key != null && lockId.equals(key.get("lockId"))) {
+            key.deleteImmediately();
+            STATS.startTimer().stop(MASTER_QUERY_STATS_OPERATION);
+        }
+    }
+
+    // Renews the lease if a third of its duration has passed since the
+    // last renewal.
+    //
+    // The database is accessed without holding the monitor, since the
+    // holder may be waiting on the database, for example for the types
+    // to be refreshed, while it tries to unlock. If the lock is released
+    // in the meantime, the lease is deleted here after the renewal
+    // instead, since deleting it during the renewal would make the
+    // atomic replacement retry forever. Until then, the lease still
+    // keeps out the other holders.
+    private void renewIfDue() {
         synchronized (holderRef) {
-            try {
-                LOGGER.debug("Releasing [{}]", this);
-
-                State key = State.getInstance(Query.
-                        from(Object.class).
-                        where("_id = ?", keyId).
-                        using(database).
-                        noCache().
-                        master().
-                        first());
-
-                if (key != null && lockId.equals(key.get("lockId"))) {
-                    key.deleteImmediately();
+            if (holderRef.get() == null ||
+                    nativeConnection != null ||
+                    renewing ||
+                    System.currentTimeMillis() - lastRenew < getLeaseDuration() / 3) {
+                return;
+            }
+
+            renewing = true;
+        }
+
+        Stats.Timer timer = STATS.startTimer();
+        Boolean renewed = null;
+        boolean released;
+
+        try {
+            State key = readKey();
+
+            if (key == null || !lockId.equals(key.get("lockId"))) {
+                renewed = Boolean.FALSE;
+
+            } else {
+                try {
+                    key.replaceAtomically("lastPing", System.currentTimeMillis());
+                    key.saveImmediately();
+                    STATS.startTimer().stop(MASTER_QUERY_STATS_OPERATION);
+                    renewed = Boolean.TRUE;
+
+                } catch (DatabaseException ex) {
+                    if (ex.getCause() instanceof AtomicOperation.ReplacementException) {
+                        renewed = Boolean.FALSE;
+
+                    } else {
+                        throw ex;
+                    }
+                }
+            }
+
+        } finally {
+            synchronized (holderRef) {
+                renewing = false;
+                released = releasePending;
+                releasePending = false;
+
+                if (released || renewed == null) {
+                    // Released or failed, so there's nothing to update.
+
+                } else if (renewed) {
+                    lastRenew = System.currentTimeMillis();
+                    timer.stop(RENEW_STATS_OPERATION);
+
+                } else {
+                    LOGGER.warn("Lost the lease on [{}] while holding it!", this);
+                    lost = true;
+                    HELD.remove(this);
+                    timer.stop(LOST_STATS_OPERATION);
+                }
+            }
+        }
+
+        if (released) {
+            deleteLease();
+        }
+    }
+
+    /** Renews the leases on all held locks. */
+    private static class Heartbeat extends Task {
+
+        public Heartbeat() {
+            super("Distributed Locks", "Distributed Lock Heartbeat");
+        }
+
+        @Override
+        protected void doTask() {
+            for (DistributedLock lock : HELD) {
+                if (!shouldContinue()) {
+                    break;
                 }
 
-            } finally {
-                holderRef.set(null);
+                try {
+                    lock.renewIfDue();
+
+                } catch (RuntimeException error) {
+                    LOGGER.warn(String.format("Can't renew the lease on [%s]!", lock), error);
+                }
             }
         }
     }
@@ -239,6 +627,18 @@ public class DistributedLock implements Lock {
         }
     }
 
+    /**
+     * Thrown when the lock is released after its lease was lost while it
+     * was held.
+     */
+    @SuppressWarnings("serial")
+    public static class LostException extends IllegalStateException {
+
+        public LostException(DistributedLock lock) {
+            super(String.format("Lost the lease on [%s] while holding it!", lock));
+        }
+    }
+
     /** {@link DistributedLock} utility methods. */
     public static final class Static {
 
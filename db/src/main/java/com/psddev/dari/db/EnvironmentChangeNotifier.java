@@ -0,0 +1,43 @@
+package com.psddev.dari.db;
+
+import java.util.UUID;
+
+/**
+ * Database that can push notifications about changed objects so that
+ * {@link DatabaseEnvironment} only refreshes the types and the globals
+ * when they actually changed, instead of polling the database.
+ */
+public interface EnvironmentChangeNotifier {
+
+    /**
+     * Returns {@code true} if the notifications are currently being
+     * delivered. While this returns {@code false}, the environment falls
+     * back to polling.
+     */
+    public boolean isEnvironmentChangeNotifying();
+
+    /** Adds the given {@code listener} to be notified of the changes. */
+    public void addEnvironmentChangeListener(Listener listener);
+
+    /** Removes the given {@code listener}. */
+    public void removeEnvironmentChangeListener(Listener listener);
+
+    /** Receives the notifications from an {@link EnvironmentChangeNotifier}. */
+    public static interface Listener {
+
+        /**
+         * Called when the object with the given {@code id} was saved or
+         * deleted.
+         *
+         * @param id Never {@code null}.
+         * @param typeId {@code null} if it's not known, such as on delete.
+         */
+        public void changed(UUID id, UUID typeId);
+
+        /**
+         * Called when the individual changes can't be determined, such
+         * as after reconnecting to the source of the notifications.
+         */
+        public void changedAll();
+    }
+}
@@ -0,0 +1,147 @@
+package com.psddev.dari.db;
+
+import java.util.regex.Matcher;
+
+import com.psddev.dari.util.ObjectUtils;
+
+/**
+ * Numeric range in a grouping field that matches
+ * {@link Query#RANGE_PATTERN}, such as {@code price(0,100,10)}.
+ *
+ * <p>The windows start at {@code start} and step by {@code gap} while
+ * they're less than or equal to {@code end}. A value is put in the bucket
+ * that starts at the window right before the first one that's greater than
+ * it, so values less than {@code start} end up in the bucket at
+ * {@code start - gap}, and values past the last window don't get a bucket
+ * at all.</p>
+ */
+final class GroupingRange {
+
+    private final String field;
+    private final double start;
+    private final double end;
+    private final double gap;
+    private final long lastWindow;
+
+    private GroupingRange(String field, double start, double end, double gap) {
+        this.field = field;
+        this.start = start;
+        this.end = end;
+        this.gap = gap;
+        this.lastWindow = start <= end ? (long) Math.floor((end - start) / gap) : -1L;
+    }
+
+    /**
+     * Parses the given grouping {@code field}.
+     *
+     * @return {@code null} if the field isn't a range.
+     * @throws IllegalArgumentException If the gap isn't positive.
+     */
+    public static GroupingRange parse(String field) {
+        if (field == null || field.indexOf('(') < 0) {
+            return null;
+        }
+
+        Matcher matcher = Query.RANGE_PATTERN.matcher(field);
+
+        if (!matcher.find()) {
+            return null;
+        }
+
+        double start = ObjectUtils.to(double.class, matcher.group(2).trim());
+        double end = ObjectUtils.to(double.class, matcher.group(3).trim());
+        double gap = ObjectUtils.to(double.class, matcher.group(4).trim());
+
+        if (!(gap > 0.0)) {
+            throw new IllegalArgumentException(String.format(
+                    "Gap must be positive in [%s]!", field));
+        }
+
+        return new GroupingRange(matcher.group(1), start, end, gap);
+    }
+
+    /** Returns the name of the field whose values are grouped. */
+    public String getField() {
+        return field;
+    }
+
+    public double getStart() {
+        return start;
+    }
+
+    public double getEnd() {
+        return end;
+    }
+
+    public double getGap() {
+        return gap;
+    }
+
+    /**
+     * Returns the index of the last window, or {@code -1} if there aren't
+     * any. Values that are greater than or equal to the start of this
+     * window don't get a bucket.
+     */
+    public long getLastWindow() {
+        return lastWindow;
+    }
+
+    /**
+     * Returns the index of the bucket that the given {@code value} belongs
+     * in, {@code -1} for the values less than the start.
+     *
+     * @return {@code null} if the value isn't a number or is past the last
+     * window.
+     */
+    public Long getIndex(Object value) {
+        Double number = value instanceof Number ?
+                Double.valueOf(((Number) value).doubleValue()) :
+                ObjectUtils.to(Double.class, value);
+
+        if (number == null || number.isNaN()) {
+            return null;
+
+        } else if (number < start) {
+            return lastWindow >= 0 ? -1L : null;
+
+        } else {
+            long index = (long) Math.floor((number - start) / gap);
+            return index < lastWindow ? index : null;
+        }
+    }
+
+    /**
+     * Returns the bucket that starts at the given {@code index}.
+     *
+     * @return {@code null} if the given {@code index} is {@code null}.
+     */
+    public Double getBucket(Long index) {
+        return index != null ? Double.valueOf(start + index * gap) : null;
+    }
+
+    /** Returns the bucket that the given {@code value} belongs in. */
+    public Double getBucket(Object value) {
+        return getBucket(getIndex(value));
+    }
+
+    /**
+     * Returns the predicate that matches all values in the given
+     * {@code bucket}.
+     */
+    public Predicate createPredicate(Double bucket) {
+        if (bucket == null) {
+            return PredicateParser.Static.parse(
+                    field + " = missing or " + field + " >= ?",
+                    start + lastWindow * gap);
+
+        } else if (bucket < start) {
+            return PredicateParser.Static.parse(field + " < ?", start);
+
+        } else {
+            return PredicateParser.Static.parse(
+                    field + " >= ? and " + field + " < ?",
+                    bucket,
+                    bucket + gap);
+        }
+    }
+}
@@ -15,6 +15,7 @@ import org.slf4j.LoggerFactory;
 
 import com.psddev.dari.util.ClassEnhancer;
 import com.psddev.dari.util.ObjectUtils;
+import com.psddev.dari.util.TypeAccessor;
 
 /**
  * Enables lazily loading fields that are expensive to initialize.
@@ -111,7 +112,11 @@ public class LazyLoadEnhancer extends ClassEnhancer {
 
         MethodVisitor visitor = super.visitMethod(access, name, desc, signature, exceptions);
 
-        if (alreadyEnhanced) {
+        // The field accessors added by TypeAccessorEnhancer must read
+        // and write the fields as is, like the reflection.
+        if (alreadyEnhanced ||
+                name.startsWith(TypeAccessor.FIELD_GETTER_PREFIX) ||
+                name.startsWith(TypeAccessor.FIELD_SETTER_PREFIX)) {
             return visitor;
 
         } else {
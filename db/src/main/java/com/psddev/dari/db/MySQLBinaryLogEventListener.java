@@ -2,6 +2,7 @@ package com.psddev.dari.db;
 
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
@@ -19,6 +20,7 @@ import com.github.shyiko.mysql.binlog.event.EventHeader;
 import com.github.shyiko.mysql.binlog.event.EventType;
 import com.github.shyiko.mysql.binlog.event.TableMapEventData;
 import com.github.shyiko.mysql.binlog.event.UpdateRowsEventData;
+import com.github.shyiko.mysql.binlog.event.WriteRowsEventData;
 import com.google.common.cache.Cache;
 import com.psddev.dari.db.shyiko.DariQueryEventData;
 import com.psddev.dari.util.ObjectUtils;
@@ -28,21 +30,44 @@ class MySQLBinaryLogEventListener implements EventListener {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(MySQLBinaryLogEventListener.class);
     private static final Pattern DELETE_PATTERN = Pattern.compile("DELETE\\s+FROM\\s+`?(?<table>\\p{Alnum}+)`?\\s+WHERE\\s+`?id`?\\s*(?:(?:IN\\s*\\()|(?:=))\\s*(?<id>(?:(?:[^\']+'){2},?\\s*){1,})\\)?", Pattern.CASE_INSENSITIVE);
-    private static final Pattern UPDATE_PATTERN = Pattern.compile("UPDATE\\s+`?(?<table>\\p{Alnum}+)`?\\s+SET\\s+`?typeId`?\\s*=\\s*(?<typeId>(?:[^\']+'){2})\\s*,\\s*`?data`?\\s*=\\s*(?<data>.+)\\s*WHERE\\s+`?id`?\\s*(?:(?:IN\\s*\\()|(?:=))\\s*(?<id>(?:[^\']+'){2}).*", Pattern.CASE_INSENSITIVE);
+    private static final String VALUE_PATTERN = "(?:_binary'(?:[^'\\\\]|\\\\.)*'|X'[0-9A-Fa-f]*')";
+    private static final Pattern INSERT_PATTERN = Pattern.compile("INSERT\\s+INTO\\s+`?(\\p{Alnum}+)`?\\s*\\(\\s*`?id`?\\s*,\\s*`?typeId`?\\s*,[^)]*\\)\\s*VALUES\\s*\\(\\s*(" + VALUE_PATTERN + ")\\s*,\\s*(" + VALUE_PATTERN + ")\\s*,.*", Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+    private static final Pattern UPDATE_PATTERN = Pattern.compile("UPDATE\\s+`?(?<table>\\p{Alnum}+)`?\\s+SET\\s+`?typeId`?\\s*=\\s*(?<typeId>(?:[^\']+'){2})\\s*,\\s*`?data`?\\s*=\\s*(?<data>.+?)\\s*WHERE\\s+`?id`?\\s*(?:(?:IN\\s*\\()|(?:=))\\s*(?<id>(?:[^\']+'){2}).*", Pattern.CASE_INSENSITIVE);
+
+    /**
+     * Number of milliseconds after a change to the {@link SqlDatabase#RECORD_TABLE}
+     * that couldn't be parsed, such as in a statement-based binary log,
+     * during which the changes aren't considered to be fully notified.
+     */
+    public static final long UNPARSED_POLL_DURATION = 60000L;
 
     private final Cache<UUID, Object[]> cache;
+    private final EnvironmentChangeNotifier.Listener changeListener;
     private final String catalog;
 
     private boolean transactionBegin = false;
     private TableMapEventData tableMapEventData;
     private final List<Event> events = new ArrayList<Event>();
     private boolean isFlushCache = false;
+    private volatile long lastUnparsed;
 
-    public MySQLBinaryLogEventListener(Cache<UUID, Object[]> cache, String catalog) {
+    public MySQLBinaryLogEventListener(Cache<UUID, Object[]> cache, EnvironmentChangeNotifier.Listener changeListener, String catalog) {
         this.cache = cache;
+        this.changeListener = changeListener;
         this.catalog = catalog;
     }
 
+    /**
+     * Returns {@code true} if all changes to the {@link SqlDatabase#RECORD_TABLE}
+     * are being passed to the change listener individually. After a
+     * change that couldn't be parsed, this returns {@code false} for
+     * {@link #UNPARSED_POLL_DURATION} milliseconds so that the listener
+     * can fall back to polling instead.
+     */
+    public boolean isNotifying() {
+        return System.currentTimeMillis() - lastUnparsed > UNPARSED_POLL_DURATION;
+    }
+
     /**
      * Makes sure length of the given {@code in} is 16.
      */
@@ -90,6 +115,15 @@ class MySQLBinaryLogEventListener implements EventListener {
         }
     }
 
+    private void notifyChange(byte[] id, byte[] typeId) {
+        id = confirm16Bytes(id);
+        if (id != null) {
+            changeListener.changed(
+                    ObjectUtils.to(UUID.class, id),
+                    typeId == null || typeId.length == 0 ? null : ObjectUtils.to(UUID.class, confirm16Bytes(typeId)));
+        }
+    }
+
     private void commitTransaction() {
 
         for (Event event : events) {
@@ -101,19 +135,30 @@ class MySQLBinaryLogEventListener implements EventListener {
                 for (Map.Entry<Serializable[], Serializable[]> row : ((UpdateRowsEventData) eventData).getRows()) {
                     Serializable[] newValue = row.getValue();
                     updateCache((byte[]) newValue[0], (byte[]) newValue[1], (byte[]) newValue[2]);
+                    notifyChange((byte[]) newValue[0], (byte[]) newValue[1]);
                     LOGGER.debug("UpdateRow HEX [{}][{}]", StringUtils.hex((byte[]) newValue[0]), ((byte[]) newValue[0]).length);
                 }
             } else if (eventType == EventType.DELETE_ROWS || eventType == EventType.EXT_DELETE_ROWS) {
                 for (Serializable[] row : ((DeleteRowsEventData) eventData).getRows()) {
                     invalidateCache((byte[]) row[0]);
+                    notifyChange((byte[]) row[0], null);
                     LOGGER.debug("DeleteRow HEX [{}][{}]", StringUtils.hex((byte[]) row[0]), ((byte[]) row[0]).length);
                 }
+            } else if (eventType == EventType.WRITE_ROWS || eventType == EventType.EXT_WRITE_ROWS) {
+                for (Serializable[] row : ((WriteRowsEventData) eventData).getRows()) {
+                    notifyChange((byte[]) row[0], (byte[]) row[1]);
+                }
+
             } else if (eventType == EventType.QUERY) {
                 DariQueryEventData queryEventData = (DariQueryEventData) eventData;
-                if (queryEventData.getAction() == DariQueryEventData.Action.UPDATE) {
+                if (queryEventData.getAction() == DariQueryEventData.Action.INSERT) {
+                    notifyChange(queryEventData.getId(), queryEventData.getTypeId());
+                } else if (queryEventData.getAction() == DariQueryEventData.Action.UPDATE) {
                     updateCache(queryEventData.getId(), queryEventData.getTypeId(), queryEventData.getData());
+                    notifyChange(queryEventData.getId(), queryEventData.getTypeId());
                 } else if (queryEventData.getAction() == DariQueryEventData.Action.DELETE) {
                     invalidateCache(queryEventData.getId());
+                    notifyChange(queryEventData.getId(), null);
                 }
 
             } else {
@@ -126,6 +171,12 @@ class MySQLBinaryLogEventListener implements EventListener {
         cache.invalidateAll();
     }
 
+    private void markUnparsed(String sql) {
+        isFlushCache = true;
+        lastUnparsed = System.currentTimeMillis();
+        LOGGER.debug("Bin log cache flushed due to [{}]", sql);
+    }
+
     private byte[] getByteData(byte[] source, String strSource, int begin, int end) {
         byte[] target = null;
         if (strSource.startsWith("_binary")) {
@@ -144,6 +195,12 @@ class MySQLBinaryLogEventListener implements EventListener {
                         case 48: // 0
                             value = 0;
                             break;
+                        case 92: // \
+                            value = 92;
+                            break;
+                        case 90: // Z
+                            value = 26;
+                            break;
                         case 97: // a
                             value = 7;
                             break;
@@ -177,6 +234,10 @@ class MySQLBinaryLogEventListener implements EventListener {
                 }
                 target[targetIndex++] = value;
             }
+            // The escapes make the data shorter than the statement.
+            if (targetIndex < target.length) {
+                target = Arrays.copyOf(target, targetIndex);
+            }
         } else if (strSource.startsWith("X")) {
             String hex = strSource.substring(2, strSource.length() - 1);
             int len = hex.length();
@@ -228,8 +289,7 @@ class MySQLBinaryLogEventListener implements EventListener {
                         processed = true;
                         LOGGER.debug("[DEBUG] QUERY EVENT UPDATE [{}]", queryEventData);
                     } else {
-                        isFlushCache = true;
-                        LOGGER.debug("Bin log cache flushed due to [{}]", sql);
+                        markUnparsed(sql);
                     }
                 } else if (statementParts[0].equalsIgnoreCase("DELETE")) {
                     queryEventData.setActionl(DariQueryEventData.Action.DELETE);
@@ -239,14 +299,21 @@ class MySQLBinaryLogEventListener implements EventListener {
                         processed = true;
                         LOGGER.debug("[DEBUG] QUERY EVENT DELETE [{}]", queryEventData);
                     } else {
-                        isFlushCache = true;
-                        LOGGER.debug("Bin log cache flushed due to [{}]", sql);
+                        markUnparsed(sql);
                     }
                 } else if (statementParts[0].equalsIgnoreCase("INSERT")) {
-                    // Do nothing
+                    queryEventData.setActionl(DariQueryEventData.Action.INSERT);
+                    Matcher matcher = INSERT_PATTERN.matcher(sql);
+                    if (matcher.matches()) {
+                        queryEventData.setId(getByteData(byteStatement, matcher.group(2), matcher.start(2), matcher.end(2)));
+                        queryEventData.setTypeId(getByteData(byteStatement, matcher.group(3), matcher.start(3), matcher.end(3)));
+                        processed = true;
+                        LOGGER.debug("[DEBUG] QUERY EVENT INSERT [{}]", queryEventData);
+                    } else {
+                        markUnparsed(sql);
+                    }
                 } else {
-                    isFlushCache = true;
-                    LOGGER.debug("Bin log cache flushed due to [{}]", sql);
+                    markUnparsed(sql);
                 }
             }
         }
@@ -270,9 +337,8 @@ class MySQLBinaryLogEventListener implements EventListener {
                 try {
                     if (isFlushCache) {
                         flushCache();
-                    } else {
-                        commitTransaction();
                     }
+                    commitTransaction();
                 } finally {
                     events.clear();
                     isFlushCache = false;
@@ -287,7 +353,7 @@ class MySQLBinaryLogEventListener implements EventListener {
                         } else if (EventType.isDelete(eventType)) {
                             tableId = ((DeleteRowsEventData) eventData).getTableId();
                         } else if (EventType.isWrite(eventType)) {
-                            // Do nothing
+                            tableId = ((WriteRowsEventData) eventData).getTableId();
                         } else {
                             LOGGER.error("NOT RECOGNIZED TYPE: {}", eventType);
                         }
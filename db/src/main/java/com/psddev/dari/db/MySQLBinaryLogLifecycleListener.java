@@ -14,10 +14,12 @@ class MySQLBinaryLogLifecycleListener extends AbstractLifecycleListener {
     private static final Logger LOGGER = LoggerFactory.getLogger(MySQLBinaryLogLifecycleListener.class);
 
     private final Cache<UUID, Object[]> cache;
+    private final EnvironmentChangeNotifier.Listener changeListener;
     private volatile boolean connected;
 
-    public MySQLBinaryLogLifecycleListener(Cache<UUID, Object[]> cache) {
+    public MySQLBinaryLogLifecycleListener(Cache<UUID, Object[]> cache, EnvironmentChangeNotifier.Listener changeListener) {
         this.cache = cache;
+        this.changeListener = changeListener;
     }
 
     public boolean isConnected() {
@@ -28,6 +30,9 @@ class MySQLBinaryLogLifecycleListener extends AbstractLifecycleListener {
     public void onConnect(BinaryLogClient client) {
         LOGGER.info("Connected to MySQL as a slave");
         connected = true;
+
+        // Anything could have changed while disconnected.
+        changeListener.changedAll();
     }
 
     @Override
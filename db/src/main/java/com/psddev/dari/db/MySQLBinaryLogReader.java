@@ -44,9 +44,10 @@ class MySQLBinaryLogReader {
 
     private final BinaryLogClient client;
     private final MySQLBinaryLogLifecycleListener lifecycleListener;
+    private final MySQLBinaryLogEventListener eventListener;
     private final AtomicBoolean running = new AtomicBoolean();
 
-    public MySQLBinaryLogReader(Cache<UUID, Object[]> cache, DataSource dataSource) {
+    public MySQLBinaryLogReader(Cache<UUID, Object[]> cache, EnvironmentChangeNotifier.Listener changeListener, DataSource dataSource) {
         Class<?> dataSourceClass = dataSource.getClass();
         String dataSourceClassName = dataSourceClass.getName();
         String jdbcUrl = null;
@@ -103,11 +104,12 @@ class MySQLBinaryLogReader {
         username = ObjectUtils.firstNonNull(username, "");
         password = ObjectUtils.firstNonNull(password, "");
         this.client = new BinaryLogClient(host, port, catalog, username, password);
-        this.lifecycleListener = new MySQLBinaryLogLifecycleListener(cache);
+        this.lifecycleListener = new MySQLBinaryLogLifecycleListener(cache, changeListener);
+        this.eventListener = new MySQLBinaryLogEventListener(cache, changeListener, catalog);
 
         client.setServerId(RANDOM.nextLong());
         client.registerLifecycleListener(lifecycleListener);
-        client.registerEventListener(new MySQLBinaryLogEventListener(cache, catalog));
+        client.registerEventListener(eventListener);
 
         @SuppressWarnings("rawtypes")
         Map<EventType, EventDataDeserializer> eventDataDeserializers = new HashMap<EventType, EventDataDeserializer>();
@@ -162,6 +164,14 @@ class MySQLBinaryLogReader {
         return isRunning() && lifecycleListener.isConnected();
     }
 
+    /**
+     * Returns {@code true} if connected and all recent changes were
+     * passed to the change listener individually.
+     */
+    public boolean isNotifying() {
+        return isConnected() && eventListener.isNotifying();
+    }
+
     public void stop() {
         if (running.compareAndSet(true, false)) {
             try {
@@ -0,0 +1,70 @@
+package com.psddev.dari.db;
+
+/**
+ * {@link QueryFilter} that's backed by a {@link Predicate}, so that
+ * {@link Query#selectFiltered} can push the parts of it that the database
+ * understands into the query, and only evaluate the rest in memory.
+ *
+ * <p>The parts that are pushed into the query are evaluated with the
+ * database semantics, the same as {@link Query#where}, which may differ
+ * from {@link PredicateParser#evaluate} on the missing values. For
+ * example, {@code rank < 3} doesn't match the objects without a rank in
+ * SQL, but does in memory.</p>
+ *
+ * <p>It can also wrap another filter that can't be expressed as a
+ * predicate. That filter is always evaluated in memory, after the
+ * predicate.</p>
+ */
+public class PredicateQueryFilter<E> implements QueryFilter<E> {
+
+    private final Predicate predicate;
+    private final QueryFilter<? super E> filter;
+
+    /**
+     * Creates an instance that includes the items matching the given
+     * {@code predicate} and the given {@code filter}.
+     *
+     * @param predicate If {@code null}, matches all items.
+     * @param filter If {@code null}, includes all items.
+     */
+    public PredicateQueryFilter(Predicate predicate, QueryFilter<? super E> filter) {
+        this.predicate = predicate;
+        this.filter = filter;
+    }
+
+    /**
+     * Creates an instance that includes the items matching the given
+     * {@code predicate}.
+     *
+     * @param predicate If {@code null}, matches all items.
+     */
+    public PredicateQueryFilter(Predicate predicate) {
+        this(predicate, null);
+    }
+
+    /**
+     * Creates an instance that includes the items matching the given
+     * {@code predicateString} along with the given {@code parameters}.
+     */
+    public PredicateQueryFilter(String predicateString, Object... parameters) {
+        this(PredicateParser.Static.parse(predicateString, parameters), null);
+    }
+
+    /** Returns the predicate. May be {@code null}. */
+    public Predicate getPredicate() {
+        return predicate;
+    }
+
+    /** Returns the filter that's evaluated after the predicate. May be {@code null}. */
+    public QueryFilter<? super E> getFilter() {
+        return filter;
+    }
+
+    // --- QueryFilter support ---
+
+    @Override
+    public boolean include(E item) {
+        return PredicateParser.Static.evaluate(item, predicate) &&
+                (filter == null || filter.include(item));
+    }
+}
@@ -0,0 +1,148 @@
+package com.psddev.dari.db;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Splits a predicate into the part that the database behind a query can
+ * evaluate and the residual part that must be evaluated in memory.
+ *
+ * <p>Only the top-level {@code and} is split, since the other compound
+ * predicates can't be evaluated partially. Each conjunct is tried by
+ * translating the query with it into the native query of the
+ * {@link SqlDatabase}, {@link SolrDatabase}, or {@link MongoDatabase}.
+ * Nothing is pushed into the other databases.</p>
+ */
+final class PredicateSplitter {
+
+    private final Predicate pushed;
+    private final Predicate residual;
+
+    private PredicateSplitter(Predicate pushed, Predicate residual) {
+        this.pushed = pushed;
+        this.residual = residual;
+    }
+
+    /**
+     * Splits the given {@code predicate} for the given {@code query}.
+     *
+     * @param predicate If {@code null}, both parts are {@code null}.
+     */
+    public static PredicateSplitter split(Query<?> query, Predicate predicate) {
+        if (predicate == null) {
+            return new PredicateSplitter(null, null);
+        }
+
+        Set<Database> databases = new LinkedHashSet<Database>();
+
+        addTranslatingDatabases(databases, query.getDatabase());
+
+        if (databases.isEmpty() || !isTranslatable(databases, query)) {
+            return new PredicateSplitter(null, predicate);
+        }
+
+        List<Predicate> conjuncts = new ArrayList<Predicate>();
+        Predicate pushed = null;
+        Predicate residual = null;
+
+        addConjuncts(conjuncts, predicate);
+
+        for (Predicate conjunct : conjuncts) {
+            Query<?> pushedQuery = query.clone();
+
+            pushedQuery.and(CompoundPredicate.combine(PredicateParser.AND_OPERATOR, pushed, conjunct));
+
+            if (isTranslatable(databases, pushedQuery)) {
+                pushed = CompoundPredicate.combine(PredicateParser.AND_OPERATOR, pushed, conjunct);
+
+            } else {
+                residual = CompoundPredicate.combine(PredicateParser.AND_OPERATOR, residual, conjunct);
+            }
+        }
+
+        return new PredicateSplitter(pushed, residual);
+    }
+
+    // Finds all databases that the reads may go to. If any of them can't
+    // translate predicates, nothing can be pushed.
+    private static void addTranslatingDatabases(Set<Database> databases, Database database) {
+        if (database instanceof ForwardingDatabase) {
+            addTranslatingDatabases(databases, ((ForwardingDatabase) database).getDelegate());
+
+        } else if (database instanceof AggregateDatabase) {
+            AggregateDatabase aggregate = (AggregateDatabase) database;
+
+            addTranslatingDatabases(databases, aggregate.getDefaultReadDelegate());
+
+            for (Database delegate : aggregate.getReadDelegates().values()) {
+                addTranslatingDatabases(databases, delegate);
+            }
+
+        } else if (database instanceof SqlDatabase ||
+                database instanceof SolrDatabase ||
+                database instanceof MongoDatabase) {
+            databases.add(database);
+
+        } else {
+            databases.add(null);
+        }
+    }
+
+    private static void addConjuncts(List<Predicate> conjuncts, Predicate predicate) {
+        if (predicate instanceof CompoundPredicate &&
+                PredicateParser.AND_OPERATOR.equals(predicate.getOperator())) {
+            for (Predicate child : ((CompoundPredicate) predicate).getChildren()) {
+                addConjuncts(conjuncts, child);
+            }
+
+        } else {
+            conjuncts.add(predicate);
+        }
+    }
+
+    // Translating the query doesn't execute it, so any error is a sign
+    // that the database doesn't support a part of it.
+    private static boolean isTranslatable(Set<Database> databases, Query<?> query) {
+        for (Database database : databases) {
+            try {
+                if (database instanceof SqlDatabase) {
+                    ((SqlDatabase) database).buildSelectStatement(query);
+
+                } else if (database instanceof SolrDatabase) {
+                    ((SolrDatabase) database).buildQuery(query);
+
+                } else if (database instanceof MongoDatabase) {
+                    ((MongoDatabase) database).buildMongoQuery(query);
+
+                } else {
+                    return false;
+                }
+
+            } catch (RuntimeException error) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Returns the part that the database can evaluate.
+     *
+     * @return May be {@code null}.
+     */
+    public Predicate getPushed() {
+        return pushed;
+    }
+
+    /**
+     * Returns the part that must be evaluated in memory.
+     *
+     * @return May be {@code null}.
+     */
+    public Predicate getResidual() {
+        return residual;
+    }
+}
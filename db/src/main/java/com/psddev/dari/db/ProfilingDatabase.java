@@ -3,7 +3,6 @@ package com.psddev.dari.db;
 import java.util.Date;
 import java.util.List;
 
-import com.psddev.dari.util.ObjectUtils;
 import com.psddev.dari.util.PaginatedResult;
 import com.psddev.dari.util.Profiler;
 
@@ -52,25 +51,12 @@ public class ProfilingDatabase extends ForwardingDatabase {
     // --- ForwardingDatabase support ---
 
     private void startQueryEvent(String event, Query<?> query) {
-        StackTraceElement caller = null;
+        StackTraceElement caller;
 
         Profiler.Static.pauseThreadEvent();
 
         try {
-            StackTraceElement[] elements = new Throwable().getStackTrace();
-
-            for (int i = 2, length = elements.length; i < length; ++ i) {
-                StackTraceElement element = elements[i];
-                String className = element.getClassName();
-                Class<?> c = ObjectUtils.getClassByName(className);
-
-                if (c == null ||
-                        !(Database.class.isAssignableFrom(c) ||
-                        Query.class.isAssignableFrom(c))) {
-                    caller = element;
-                    break;
-                }
-            }
+            caller = QueryProfiler.findCaller();
 
         } finally {
             Profiler.Static.resumeThreadEvent();
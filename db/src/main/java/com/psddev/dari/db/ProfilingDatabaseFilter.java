@@ -15,7 +15,8 @@ import com.psddev.dari.util.StringUtils;
 
 /**
  * Enables {@link ProfilingDatabase} if {@link Profiler} is active
- * on the current HTTP request.
+ * on the current HTTP request, or {@link QueryProfilingDatabase} if
+ * the {@link QueryProfiler#SAMPLE_RATE_SETTING} is positive.
  */
 public class ProfilingDatabaseFilter extends AbstractFilter {
 
@@ -29,7 +30,24 @@ public class ProfilingDatabaseFilter extends AbstractFilter {
         Profiler profiler = Profiler.Static.getThreadProfiler();
 
         if (profiler == null) {
-            super.doRequest(request, response, chain);
+            double sampleRate = QueryProfiler.Static.getSampleRate();
+
+            if (sampleRate <= 0.0) {
+                super.doRequest(request, response, chain);
+                return;
+            }
+
+            QueryProfilingDatabase profiling = new QueryProfilingDatabase();
+            profiling.setDelegate(Database.Static.getDefault());
+            profiling.setSampleRate(sampleRate);
+
+            try {
+                Database.Static.overrideDefault(profiling);
+                super.doRequest(request, response, chain);
+
+            } finally {
+                Database.Static.restoreDefault();
+            }
 
         } else {
             ProfilingDatabase profiling = new ProfilingDatabase();
@@ -127,6 +127,13 @@ public class Query<E> extends Record {
 
     public static final String CREATOR_EXTRA = "dari.creatorQuery";
 
+    /**
+     * Option that holds the continuation token from the previous page.
+     *
+     * @see #selectAfter
+     */
+    public static final String CONTINUATION_QUERY_OPTION = "dari.continuation";
+
     public static final Pattern RANGE_PATTERN = Pattern.compile("([^\\(]*)\\(([^,)]*),([^,)]*),([^\\))]*)\\)");
     public static final String RANGE_START = "start";
     public static final String RANGE_END = "end";
@@ -1512,6 +1519,28 @@ public class Query<E> extends Record {
         return getDatabase().readPartial(this, offset, limit);
     }
 
+    /**
+     * Returns a partial list of all objects matching this query that
+     * come after the position represented by the given
+     * {@code continuation} in a {@linkplain #getDatabase database}.
+     *
+     * <p>Unlike {@link #select(long, int)}, the cost of reading a page
+     * doesn't grow with its distance from the first page in databases
+     * that support it. Databases that don't ignore the continuation and
+     * return the first page.</p>
+     *
+     * @param continuation If blank, returns the first page. Otherwise,
+     *        must be the value of {@link PaginatedResult#getContinuation}
+     *        from the previous page of a query with the same sorters.
+     * @param limit Maximum number of objects to return.
+     */
+    public PaginatedResult<E> selectAfter(String continuation, int limit) {
+        Query<E> query = clone();
+
+        query.getOptions().put(CONTINUATION_QUERY_OPTION, continuation != null ? continuation : "");
+        return query.getDatabase().readPartial(query, 0L, limit);
+    }
+
     /**
      * Returns a list of all objects matching this query in a
      * {@linkplain #getDatabase database}.
@@ -1541,6 +1570,12 @@ public class Query<E> extends Record {
      * by the given {@code filter} within the range of the given
      * {@code offset} and {@code limit}.
      *
+     * <p>If the given {@code filter} is a {@link PredicateQueryFilter},
+     * the parts of its predicate that the database can evaluate are added
+     * to this query, and only the rest is evaluated in memory. The objects
+     * are then read in pages whose sizes are adjusted based on how many
+     * of them made it through the filter so far.</p>
+     *
      * @param offset Must be greater than or equal to {@code 0}.
      * @param limit Must be greater than {@code 0}.
      * @param filter If {@code null}, doesn't filter.
@@ -1551,6 +1586,9 @@ public class Query<E> extends Record {
     public PaginatedResult<E> selectFiltered(long offset, int limit, QueryFilter<? super E> filter) {
         if (filter == null) {
             return select(offset, limit);
+
+        } else if (filter instanceof PredicateQueryFilter) {
+            return selectPredicateFiltered(offset, limit, (PredicateQueryFilter<? super E>) filter);
         }
 
         Iterator<E> iterator = iterable(0).iterator();
@@ -1588,6 +1626,63 @@ public class Query<E> extends Record {
         return new PaginatedResult<E>(offset, limit, offset + items.size(), items);
     }
 
+    // Pushes as much of the filter predicate into the query as possible,
+    // and streams the rest in one pass, fetching enough objects at a time
+    // to likely find all the matches with some over-fetching.
+    private PaginatedResult<E> selectPredicateFiltered(long offset, int limit, PredicateQueryFilter<? super E> filter) {
+        PredicateSplitter splitter = PredicateSplitter.split(this, filter.getPredicate());
+        Predicate residual = splitter.getResidual();
+        QueryFilter<? super E> residualFilter = filter.getFilter();
+        Query<E> pushedQuery = clone();
+        int limitPlusOne = limit < Integer.MAX_VALUE ? limit + 1 : limit;
+
+        pushedQuery.and(splitter.getPushed());
+
+        if (residual == null && residualFilter == null) {
+            PaginatedResult<E> result = pushedQuery.select(offset, limitPlusOne);
+            List<E> items = result.getItems();
+
+            return new PaginatedResult<E>(offset, limit, offset + items.size(), items);
+        }
+
+        int fetchSize = Static.getFilteredFetchSize(offset + limitPlusOne, 0, 0);
+        Iterator<E> iterator = pushedQuery.iterable(fetchSize).iterator();
+        List<E> items = new ArrayList<E>();
+
+        try {
+            long matched = 0;
+
+            while (iterator.hasNext()) {
+                E item = iterator.next();
+
+                if (item != null &&
+                        PredicateParser.Static.evaluate(item, residual) &&
+                        (residualFilter == null || residualFilter.include(item))) {
+                    ++ matched;
+
+                    if (matched > offset) {
+                        items.add(item);
+
+                        if (items.size() > limit) {
+                            break;
+                        }
+                    }
+                }
+            }
+
+        } finally {
+            if (iterator instanceof Closeable) {
+                try {
+                    ((Closeable) iterator).close();
+                } catch (IOException error) {
+                    LOGGER.debug("Can't close iterator [{}]!", iterator);
+                }
+            }
+        }
+
+        return new PaginatedResult<E>(offset, limit, offset + items.size(), items);
+    }
+
     // --- Database.Static bridge ---
 
     /**
@@ -1611,6 +1706,10 @@ public class Query<E> extends Record {
     /** Static utility methods. */
     public static final class Static {
 
+        private static final double FILTERED_OVER_FETCH_FACTOR = 1.5;
+        private static final int MINIMUM_FILTERED_FETCH_SIZE = 10;
+        private static final int MAXIMUM_FILTERED_FETCH_SIZE = 5000;
+
         private static final Map<String, String> KEY_ALIASES; static {
             Map<String, String> m = new HashMap<String, String>();
             m.put("*", ANY_KEY);
@@ -1622,6 +1721,19 @@ public class Query<E> extends Record {
             KEY_ALIASES = m;
         }
 
+        /**
+         * Returns the number of objects to fetch at a time in
+         * {@link Query#selectFiltered} so that the given {@code remaining}
+         * number of matches are likely found in one more fetch, based on
+         * the number of objects {@code read} and {@code matched} so far.
+         */
+        static int getFilteredFetchSize(long remaining, long read, long matched) {
+            double ratio = (matched + 1.0) / (read + 1.0);
+            double fetchSize = Math.ceil(remaining / ratio * FILTERED_OVER_FETCH_FACTOR);
+
+            return (int) Math.max(MINIMUM_FILTERED_FETCH_SIZE, Math.min(MAXIMUM_FILTERED_FETCH_SIZE, fetchSize));
+        }
+
         /** Returns the canonical form of the given {@code key}. */
         public static String getCanonicalKey(String key) {
             String canonicalKey = KEY_ALIASES.get(key);
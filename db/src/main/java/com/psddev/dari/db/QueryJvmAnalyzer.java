@@ -4,7 +4,11 @@ import java.io.PrintWriter;
 import java.io.StringWriter;
 import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 import org.objectweb.asm.Opcodes;
 
@@ -16,8 +20,29 @@ import com.psddev.dari.util.sa.JvmMethodListener;
 import com.psddev.dari.util.sa.JvmObject;
 import com.psddev.dari.util.sa.JvmObjectListener;
 
+/**
+ * Analyzes the {@link Query} usages for invalid queries and for patterns
+ * that are known to perform poorly, such as running a query inside a
+ * loop or inside a getter of a {@link Recordable} class.
+ *
+ * @see Static#findPerformanceWarnings
+ */
 public class QueryJvmAnalyzer extends JvmAnalyzer {
 
+    /** Names of the {@link Query} methods that run the query. */
+    public static final Set<String> EXECUTION_METHOD_NAMES = new HashSet<String>(Arrays.asList(
+            "count",
+            "countBy",
+            "deleteAll",
+            "first",
+            "groupBy",
+            "hasMoreThan",
+            "iterable",
+            "lastUpdate",
+            "select",
+            "selectAll",
+            "selectFiltered"));
+
     @Override
     public void onStart() {
         Jvm jvm = getJvm();
@@ -64,7 +89,8 @@ public class QueryJvmAnalyzer extends JvmAnalyzer {
                 int calledLine,
                 JvmObject calledObject,
                 List<JvmObject> calledArguments,
-                JvmObject returnedObject) {
+                JvmObject returnedObject,
+                boolean inLoop) {
 
             if ("count".equals(calledMethod.getName())) {
                 returnedObject.addListener(new CountCompareListener(callingMethod, callingLine));
@@ -73,6 +99,10 @@ public class QueryJvmAnalyzer extends JvmAnalyzer {
             Object calledObjectResolved = calledObject.resolve();
             JvmLogger logger = getLogger();
 
+            for (String warning : Static.findPerformanceWarnings(callingMethod, calledMethod, calledObjectResolved, inLoop)) {
+                logger.warnPerformance(callingMethod, calledLine, warning);
+            }
+
             if (calledObjectResolved instanceof Query) {
                 Query<?> query = (Query<?>) calledObjectResolved;
 
@@ -174,7 +204,7 @@ public class QueryJvmAnalyzer extends JvmAnalyzer {
                 case Opcodes.FCMPG :
                 case Opcodes.DCMPL :
                 case Opcodes.DCMPG :
-                    getLogger().warn(method, line, "Comparing against the result of [count] can be slow. Consider using [hasMoreThan] instead.");
+                    getLogger().warnPerformance(method, line, "Comparing against the result of [count] can be slow. Consider using [hasMoreThan] instead.");
                     break;
 
                 default :
@@ -182,4 +212,91 @@ public class QueryJvmAnalyzer extends JvmAnalyzer {
             }
         }
     }
+
+    /** {@link QueryJvmAnalyzer} utility methods. */
+    public static final class Static {
+
+        /**
+         * Returns the warnings about the performance of the invocation of
+         * the given {@code calledMethod} on {@link Query} from the given
+         * {@code callingMethod}.
+         *
+         * @param query Resolved query. May be {@code null}.
+         * @param inLoop {@code true} if the invocation is inside a loop.
+         * @return Never {@code null}. Mutable.
+         */
+        public static List<String> findPerformanceWarnings(Method callingMethod, Method calledMethod, Object query, boolean inLoop) {
+            List<String> warnings = new ArrayList<String>();
+            String calledName = calledMethod.getName();
+
+            if (!EXECUTION_METHOD_NAMES.contains(calledName)) {
+                return warnings;
+            }
+
+            if (inLoop) {
+                warnings.add(String.format(
+                        "Calling [%s] inside a loop runs a query for each iteration. Consider running one query for all items before the loop.",
+                        calledName));
+            }
+
+            if (isRecordableGetter(callingMethod)) {
+                warnings.add(String.format(
+                        "Calling [%s] inside the getter [%s] runs a query every time that it's called, such as for each item in a list. Consider storing a reference instead.",
+                        calledName,
+                        callingMethod.getName()));
+            }
+
+            if (query instanceof Query) {
+                Query<?> q = (Query<?>) query;
+
+                if ("selectAll".equals(calledName) && q.getPredicate() == null) {
+                    warnings.add("Calling [selectAll] without a predicate loads every matching object. Consider [select(offset, limit)] or [iterable(fetchSize)] instead.");
+                }
+
+                for (Sorter sorter : q.getSorters()) {
+                    String op = sorter.getOperator();
+                    List<Object> options = sorter.getOptions();
+
+                    if (!options.isEmpty() &&
+                            (Sorter.ASCENDING_OPERATOR.equals(op) ||
+                            Sorter.DESCENDING_OPERATOR.equals(op))) {
+                        String field = options.get(0).toString();
+
+                        if (!isIndexed(q, field)) {
+                            warnings.add(String.format(
+                                    "Sorting by [%s] that isn't @Indexed requires reading every matching object. Add @Indexed to the field.",
+                                    field));
+                        }
+                    }
+                }
+            }
+
+            return warnings;
+        }
+
+        private static boolean isRecordableGetter(Method method) {
+            String name = method.getName();
+
+            return method.getParameterTypes().length == 0 &&
+                    !Modifier.isStatic(method.getModifiers()) &&
+                    ((name.startsWith("get") && name.length() > 3) ||
+                    (name.startsWith("is") && name.length() > 2)) &&
+                    Recordable.class.isAssignableFrom(method.getDeclaringClass());
+        }
+
+        // Returns false only if the field is known to exist but isn't
+        // indexed, so that the unresolvable queries don't warn.
+        private static boolean isIndexed(Query<?> query, String field) {
+            try {
+                query.mapEmbeddedKey(query.getDatabase().getEnvironment(), field);
+                return true;
+
+            } catch (Query.NoIndexException error) {
+                return false;
+
+            } catch (RuntimeException error) {
+                return true;
+            }
+        }
+    }
 }
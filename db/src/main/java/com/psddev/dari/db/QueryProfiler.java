@@ -0,0 +1,445 @@
+package com.psddev.dari.db;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import com.psddev.dari.util.LatencyHistogram;
+import com.psddev.dari.util.ObjectUtils;
+import com.psddev.dari.util.Settings;
+import com.psddev.dari.util.StripedLong;
+
+/**
+ * Aggregates the latencies of a sample of the database calls by the
+ * shape of the query.
+ *
+ * <p>Each sampled query is normalized into a fingerprint that includes
+ * its type, the shape of its predicate without the values, its sorters
+ * and its fields, so that the queries that only differ in their values
+ * are counted together. The stack is only walked for the sampled calls,
+ * to find the call site.</p>
+ *
+ * <p>The aggregates are displayed through {@link QueryProfilerDebugServlet},
+ * which is typically available at {@code /_debug/db-query-profiler}.</p>
+ *
+ * @see QueryProfilingDatabase
+ */
+public class QueryProfiler {
+
+    /** Setting for the fraction of the calls that should be sampled. */
+    public static final String SAMPLE_RATE_SETTING = "dari/queryProfilerSampleRate";
+
+    public static final double DEFAULT_SAMPLE_RATE = 0.0;
+
+    /** Fingerprint used once there are too many distinct ones. */
+    public static final String OTHER_FINGERPRINT = "(other)";
+
+    private static final int MAXIMUM_ENTRIES = 500;
+    private static final int MAXIMUM_CALLERS = 10;
+    private static final String OTHER_CALLER = "(other)";
+    private static final int HISTOGRAM_STRIPES = 2;
+
+    private static final ThreadLocal<long[]> RANDOM_SEEDS = new ThreadLocal<long[]>() {
+
+        @Override
+        protected long[] initialValue() {
+            return new long[] { System.nanoTime() ^ Thread.currentThread().getId() * 0x9E3779B97F4A7C15L | 1L };
+        }
+    };
+
+    private static final ConcurrentMap<String, Boolean> SKIPPED_CLASS_NAMES = new ConcurrentHashMap<String, Boolean>();
+
+    private final ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<String, Entry>();
+    private volatile long resetTime = System.currentTimeMillis();
+
+    /**
+     * Returns {@code true} if the current call should be sampled at the
+     * given {@code rate}. Uses a random number generator that's local to
+     * the current thread, so that the threads don't contend.
+     */
+    public static boolean isSampled(double rate) {
+        if (rate <= 0.0) {
+            return false;
+
+        } else if (rate >= 1.0) {
+            return true;
+        }
+
+        long[] seed = RANDOM_SEEDS.get();
+        long x = seed[0];
+
+        x ^= x << 13;
+        x ^= x >>> 7;
+        x ^= x << 17;
+        seed[0] = x;
+
+        return (x >>> 11) * 0x1.0p-53 < rate;
+    }
+
+    /**
+     * Returns the fingerprint of the given {@code query}, which includes
+     * its type, the shape of its predicate without the values, its
+     * sorters and its fields.
+     *
+     * @return Never {@code null}.
+     */
+    public static String getFingerprint(Query<?> query) {
+        StringBuilder fingerprint = new StringBuilder();
+
+        appendFingerprint(fingerprint, query);
+        return fingerprint.toString();
+    }
+
+    private static void appendFingerprint(StringBuilder fingerprint, Query<?> query) {
+        String group = query.getGroup();
+
+        fingerprint.append(ObjectUtils.isBlank(group) ? "*" : group);
+
+        Predicate predicate = query.getPredicate();
+
+        if (predicate != null) {
+            fingerprint.append(" where ");
+            appendPredicate(fingerprint, predicate);
+        }
+
+        List<Sorter> sorters = query.getSorters();
+
+        if (!sorters.isEmpty()) {
+            fingerprint.append(" sort");
+
+            for (Sorter sorter : sorters) {
+                List<Object> options = sorter.getOptions();
+
+                fingerprint.append(' ');
+                fingerprint.append(sorter.getOperator());
+
+                if (!options.isEmpty()) {
+                    fingerprint.append(' ');
+                    fingerprint.append(options.get(0));
+                }
+            }
+        }
+
+        List<String> fields = query.getFields();
+
+        if (fields != null) {
+            fingerprint.append(" fields ");
+            fingerprint.append(fields);
+        }
+    }
+
+    private static void appendPredicate(StringBuilder fingerprint, Predicate predicate) {
+        if (predicate instanceof CompoundPredicate) {
+            String operator = predicate.getOperator();
+            List<Predicate> children = ((CompoundPredicate) predicate).getChildren();
+
+            if (PredicateParser.NOT_OPERATOR.equals(operator)) {
+                fingerprint.append("not ");
+            }
+
+            fingerprint.append('(');
+
+            for (int i = 0, size = children.size(); i < size; ++ i) {
+                if (i > 0) {
+                    fingerprint.append(' ');
+                    fingerprint.append(operator);
+                    fingerprint.append(' ');
+                }
+
+                appendPredicate(fingerprint, children.get(i));
+            }
+
+            fingerprint.append(')');
+
+        } else if (predicate instanceof ComparisonPredicate) {
+            ComparisonPredicate comparison = (ComparisonPredicate) predicate;
+            boolean missing = true;
+            Query<?> subQuery = null;
+
+            for (Object value : comparison.getValues()) {
+                if (value instanceof Query) {
+                    subQuery = (Query<?>) value;
+
+                } else if (!Query.MISSING_VALUE.equals(value)) {
+                    missing = false;
+                }
+            }
+
+            fingerprint.append(comparison.getKey());
+            fingerprint.append(' ');
+            fingerprint.append(comparison.getOperator());
+
+            if (comparison.isIgnoreCase()) {
+                fingerprint.append("[c]");
+            }
+
+            if (subQuery != null) {
+                fingerprint.append(" (");
+                appendFingerprint(fingerprint, subQuery);
+                fingerprint.append(')');
+
+            } else {
+                fingerprint.append(missing ? " missing" : " ?");
+            }
+
+        } else {
+            fingerprint.append(predicate.getClass().getSimpleName());
+        }
+    }
+
+    /**
+     * Returns the first element in the current stack that's outside the
+     * database and the query classes.
+     *
+     * @return May be {@code null}.
+     */
+    public static StackTraceElement findCaller() {
+        for (StackTraceElement element : new Throwable().getStackTrace()) {
+            String className = element.getClassName();
+            Boolean skipped = SKIPPED_CLASS_NAMES.get(className);
+
+            if (skipped == null) {
+                Class<?> c = ObjectUtils.getClassByName(className);
+
+                skipped = c != null && (
+                        Database.class.isAssignableFrom(c) ||
+                        Query.class.isAssignableFrom(c) ||
+                        QueryProfiler.class.isAssignableFrom(c));
+
+                SKIPPED_CLASS_NAMES.put(className, skipped);
+            }
+
+            if (!skipped) {
+                return element;
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Records a sampled call to the given {@code operation} with the
+     * given {@code query} that took the given {@code duration} in
+     * nanoseconds and returned the given number of {@code rows}.
+     *
+     * @param rows Negative if unknown.
+     */
+    public void record(String operation, Query<?> query, long duration, long rows) {
+        String fingerprint = getFingerprint(query);
+        String key = operation + '\n' + fingerprint;
+        Entry entry = entries.get(key);
+
+        if (entry == null) {
+            if (entries.size() >= MAXIMUM_ENTRIES) {
+                fingerprint = OTHER_FINGERPRINT;
+                key = operation + '\n' + fingerprint;
+                entry = entries.get(key);
+            }
+
+            if (entry == null) {
+                Entry newEntry = new Entry(operation, fingerprint);
+
+                entry = entries.putIfAbsent(key, newEntry);
+
+                if (entry == null) {
+                    entry = newEntry;
+                }
+            }
+        }
+
+        StackTraceElement caller = findCaller();
+
+        entry.record(duration, rows, caller != null ? caller.toString() : null);
+    }
+
+    /** Returns the time of the last {@link #reset}, or the creation. */
+    public long getResetTime() {
+        return resetTime;
+    }
+
+    /** Removes all aggregates. */
+    public void reset() {
+        entries.clear();
+        resetTime = System.currentTimeMillis();
+    }
+
+    /**
+     * Returns the {@code limit} entries that rank the highest according
+     * to the given {@code sort}.
+     *
+     * @param sort If {@code null}, sorts by the total duration.
+     * @return Never {@code null}. Mutable.
+     */
+    public List<Entry> getTopEntries(final Sort sort, int limit) {
+        final Map<Entry, LatencyHistogram.Snapshot> snapshots = new HashMap<Entry, LatencyHistogram.Snapshot>();
+
+        for (Entry entry : entries.values()) {
+            snapshots.put(entry, entry.getDurations());
+        }
+
+        List<Entry> top = new ArrayList<Entry>(snapshots.keySet());
+
+        Collections.sort(top, new Comparator<Entry>() {
+
+            @Override
+            public int compare(Entry x, Entry y) {
+                double xValue = (sort != null ? sort : Sort.TOTAL).getValue(x, snapshots.get(x));
+                double yValue = (sort != null ? sort : Sort.TOTAL).getValue(y, snapshots.get(y));
+
+                return Double.compare(yValue, xValue);
+            }
+        });
+
+        return top.size() > limit ? new ArrayList<Entry>(top.subList(0, limit)) : top;
+    }
+
+    /** How the entries can be ranked in {@link #getTopEntries}. */
+    public enum Sort {
+
+        TOTAL {
+            @Override
+            double getValue(Entry entry, LatencyHistogram.Snapshot durations) {
+                return durations.getSum();
+            }
+        },
+
+        MEAN {
+            @Override
+            double getValue(Entry entry, LatencyHistogram.Snapshot durations) {
+                return durations.getMean();
+            }
+        },
+
+        P99 {
+            @Override
+            double getValue(Entry entry, LatencyHistogram.Snapshot durations) {
+                return durations.getPercentile(99.0);
+            }
+        },
+
+        COUNT {
+            @Override
+            double getValue(Entry entry, LatencyHistogram.Snapshot durations) {
+                return durations.getCount();
+            }
+        },
+
+        ROWS {
+            @Override
+            double getValue(Entry entry, LatencyHistogram.Snapshot durations) {
+                return entry.getRows();
+            }
+        };
+
+        abstract double getValue(Entry entry, LatencyHistogram.Snapshot durations);
+    }
+
+    /** Aggregates of the sampled calls with the same operation and fingerprint. */
+    public static class Entry {
+
+        private final String operation;
+        private final String fingerprint;
+        private final LatencyHistogram durations = new LatencyHistogram(HISTOGRAM_STRIPES);
+        private final StripedLong rows = new StripedLong();
+        private final ConcurrentMap<String, StripedLong> callers = new ConcurrentHashMap<String, StripedLong>();
+
+        Entry(String operation, String fingerprint) {
+            this.operation = operation;
+            this.fingerprint = fingerprint;
+        }
+
+        public String getOperation() {
+            return operation;
+        }
+
+        public String getFingerprint() {
+            return fingerprint;
+        }
+
+        /** Returns the durations of the sampled calls in nanoseconds. */
+        public LatencyHistogram.Snapshot getDurations() {
+            return durations.getSnapshot();
+        }
+
+        /** Returns the total number of rows returned by the sampled calls. */
+        public long getRows() {
+            return rows.sum();
+        }
+
+        /**
+         * Returns the number of sampled calls from each call site.
+         *
+         * @return Never {@code null}. Mutable.
+         */
+        public List<Map.Entry<String, Long>> getCallers() {
+            List<Map.Entry<String, Long>> counts = new ArrayList<Map.Entry<String, Long>>();
+
+            for (Map.Entry<String, StripedLong> entry : callers.entrySet()) {
+                counts.add(new AbstractMap.SimpleImmutableEntry<String, Long>(entry.getKey(), entry.getValue().sum()));
+            }
+
+            Collections.sort(counts, new Comparator<Map.Entry<String, Long>>() {
+
+                @Override
+                public int compare(Map.Entry<String, Long> x, Map.Entry<String, Long> y) {
+                    return y.getValue().compareTo(x.getValue());
+                }
+            });
+
+            return counts;
+        }
+
+        void record(long duration, long rows, String caller) {
+            durations.record(duration);
+
+            if (rows > 0) {
+                this.rows.add(rows);
+            }
+
+            if (caller != null) {
+                StripedLong count = callers.get(caller);
+
+                if (count == null) {
+                    if (callers.size() >= MAXIMUM_CALLERS) {
+                        caller = OTHER_CALLER;
+                        count = callers.get(caller);
+                    }
+
+                    if (count == null) {
+                        StripedLong newCount = new StripedLong();
+
+                        count = callers.putIfAbsent(caller, newCount);
+
+                        if (count == null) {
+                            count = newCount;
+                        }
+                    }
+                }
+
+                count.increment();
+            }
+        }
+    }
+
+    /** {@link QueryProfiler} utility methods. */
+    public static final class Static {
+
+        private static final QueryProfiler DEFAULT = new QueryProfiler();
+
+        /** Returns the profiler that {@link QueryProfilingDatabase} uses by default. */
+        public static QueryProfiler getDefault() {
+            return DEFAULT;
+        }
+
+        /** Returns the sample rate from the {@link #SAMPLE_RATE_SETTING}. */
+        public static double getSampleRate() {
+            return Settings.getOrDefault(double.class, SAMPLE_RATE_SETTING, DEFAULT_SAMPLE_RATE);
+        }
+    }
+}
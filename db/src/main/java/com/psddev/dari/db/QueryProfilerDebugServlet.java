@@ -0,0 +1,138 @@
+package com.psddev.dari.db;
+
+import java.io.IOException;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import com.psddev.dari.util.DebugFilter;
+import com.psddev.dari.util.LatencyHistogram;
+import com.psddev.dari.util.WebPageContext;
+
+/** Debug servlet that reports the slowest queries from {@link QueryProfiler}. */
+@DebugFilter.Path("db-query-profiler")
+@SuppressWarnings("serial")
+public class QueryProfilerDebugServlet extends HttpServlet {
+
+    private static final int DEFAULT_LIMIT = 50;
+
+    @Override
+    protected void service(
+            HttpServletRequest request,
+            HttpServletResponse response)
+            throws IOException, ServletException {
+
+        WebPageContext page = new WebPageContext(getServletContext(), request, response);
+
+        if (page.isFormPost()) {
+            if ("Reset".equals(page.param(String.class, "action"))) {
+                QueryProfiler.Static.getDefault().reset();
+            }
+
+            page.redirect("");
+            return;
+        }
+
+        final QueryProfiler.Sort sort = page.paramOrDefault(QueryProfiler.Sort.class, "sort", QueryProfiler.Sort.TOTAL);
+        final int limit = page.paramOrDefault(int.class, "limit", DEFAULT_LIMIT);
+
+        new DebugFilter.PageWriter(page) { {
+            startPage("Database", "Query Profiler");
+
+                QueryProfiler profiler = QueryProfiler.Static.getDefault();
+                double sampleRate = QueryProfiler.Static.getSampleRate();
+
+                if (sampleRate <= 0.0) {
+                    writeStart("div", "class", "alert alert-info");
+                        writeHtml("Sampling is off. Set ");
+                        writeStart("code").writeHtml(QueryProfiler.SAMPLE_RATE_SETTING).writeEnd();
+                        writeHtml(" to a fraction between 0 and 1 to turn it on.");
+                    writeEnd();
+
+                } else {
+                    writeStart("p");
+                        writeHtml("Sampling ");
+                        writeStart("strong").writeObject(sampleRate * 100.0).writeHtml("%").writeEnd();
+                        writeHtml(" of the queries since ");
+                        writeObject(new Date(profiler.getResetTime()));
+                        writeHtml(".");
+                    writeEnd();
+                }
+
+                writeStart("form", "action", page.url(null), "class", "form-inline", "method", "get");
+                    writeStart("select", "name", "sort");
+                        for (QueryProfiler.Sort s : QueryProfiler.Sort.values()) {
+                            writeStart("option", "selected", s.equals(sort) ? "selected" : null, "value", s.name());
+                                writeHtml("Sort by ").writeHtml(s.name().toLowerCase());
+                            writeEnd();
+                        }
+                    writeEnd();
+                    writeHtml(' ');
+                    writeElement("input", "class", "input-small", "name", "limit", "type", "text", "value", limit);
+                    writeHtml(' ');
+                    writeElement("input", "class", "btn", "type", "submit", "value", "Show");
+                writeEnd();
+
+                writeStart("form", "method", "post");
+                    writeElement("input", "class", "btn btn-small btn-danger", "name", "action", "type", "submit", "value", "Reset");
+                writeEnd();
+
+                writeStart("table", "class", "table table-condensed table-striped");
+                    writeStart("thead");
+                        writeStart("tr");
+                            writeStart("th").writeHtml("Operation").writeEnd();
+                            writeStart("th").writeHtml("Fingerprint").writeEnd();
+                            writeStart("th").writeHtml("Samples").writeEnd();
+                            writeStart("th").writeHtml("Total (ms)").writeEnd();
+                            writeStart("th").writeHtml("Mean (ms)").writeEnd();
+                            writeStart("th").writeHtml("p50 (ms)").writeEnd();
+                            writeStart("th").writeHtml("p95 (ms)").writeEnd();
+                            writeStart("th").writeHtml("p99 (ms)").writeEnd();
+                            writeStart("th").writeHtml("Max (ms)").writeEnd();
+                            writeStart("th").writeHtml("Rows/Call").writeEnd();
+                            writeStart("th").writeHtml("Call Sites").writeEnd();
+                        writeEnd();
+                    writeEnd();
+
+                    writeStart("tbody");
+                        for (QueryProfiler.Entry entry : profiler.getTopEntries(sort, limit)) {
+                            LatencyHistogram.Snapshot durations = entry.getDurations();
+                            long count = durations.getCount();
+                            List<Map.Entry<String, Long>> callers = entry.getCallers();
+
+                            writeStart("tr");
+                                writeStart("td").writeHtml(entry.getOperation()).writeEnd();
+                                writeStart("td").writeStart("code").writeHtml(entry.getFingerprint()).writeEnd().writeEnd();
+                                writeStart("td").writeObject(count).writeEnd();
+                                writeStart("td").writeHtml(String.format("%.1f", durations.getSum() / 1e6)).writeEnd();
+                                writeStart("td").writeHtml(String.format("%.2f", durations.getMean() / 1e6)).writeEnd();
+                                writeStart("td").writeHtml(String.format("%.2f", durations.getPercentile(50.0) / 1e6)).writeEnd();
+                                writeStart("td").writeHtml(String.format("%.2f", durations.getPercentile(95.0) / 1e6)).writeEnd();
+                                writeStart("td").writeHtml(String.format("%.2f", durations.getPercentile(99.0) / 1e6)).writeEnd();
+                                writeStart("td").writeHtml(String.format("%.2f", durations.getMax() / 1e6)).writeEnd();
+                                writeStart("td").writeHtml(count > 0 ? String.format("%.1f", (double) entry.getRows() / count) : "").writeEnd();
+                                writeStart("td");
+                                    writeStart("ul", "class", "unstyled");
+                                        for (Map.Entry<String, Long> caller : callers) {
+                                            writeStart("li");
+                                                writeHtml(caller.getKey());
+                                                writeHtml(" x ");
+                                                writeObject(caller.getValue());
+                                            writeEnd();
+                                        }
+                                    writeEnd();
+                                writeEnd();
+                            writeEnd();
+                        }
+                    writeEnd();
+                writeEnd();
+
+            endPage();
+        } };
+    }
+}
@@ -0,0 +1,152 @@
+package com.psddev.dari.db;
+
+import java.util.List;
+import java.util.Map;
+
+import com.psddev.dari.util.ObjectUtils;
+import com.psddev.dari.util.PaginatedResult;
+
+/**
+ * Records a sample of the queries using {@link QueryProfiler}.
+ *
+ * <p>Unlike {@link ProfilingDatabase}, the calls that aren't sampled only
+ * cost a random number, so it's cheap enough to leave on in production.
+ * {@link ProfilingDatabaseFilter} installs it on every request when the
+ * {@link QueryProfiler#SAMPLE_RATE_SETTING} is positive.</p>
+ */
+public class QueryProfilingDatabase extends ForwardingDatabase {
+
+    /** Sub-setting for the fraction of the calls that should be sampled. */
+    public static final String SAMPLE_RATE_SUB_SETTING = "sampleRate";
+
+    private QueryProfiler profiler = QueryProfiler.Static.getDefault();
+    private double sampleRate = QueryProfiler.Static.getSampleRate();
+
+    /** Returns the profiler that aggregates the samples. */
+    public QueryProfiler getProfiler() {
+        return profiler;
+    }
+
+    /** Sets the profiler that aggregates the samples. */
+    public void setProfiler(QueryProfiler profiler) {
+        this.profiler = profiler;
+    }
+
+    /** Returns the fraction of the calls that should be sampled. */
+    public double getSampleRate() {
+        return sampleRate;
+    }
+
+    /** Sets the fraction of the calls that should be sampled. */
+    public void setSampleRate(double sampleRate) {
+        this.sampleRate = sampleRate;
+    }
+
+    // --- ForwardingDatabase support ---
+
+    @Override
+    public void initialize(String settingsKey, Map<String, Object> settings) {
+        super.initialize(settingsKey, settings);
+
+        Object rate = settings.get(SAMPLE_RATE_SUB_SETTING);
+
+        if (rate != null) {
+            setSampleRate(ObjectUtils.to(double.class, rate));
+        }
+    }
+
+    private void record(String operation, Query<?> query, long start, long rows) {
+        profiler.record(operation, query, System.nanoTime() - start, rows);
+    }
+
+    @Override
+    public <T> List<T> readAll(Query<T> query) {
+        if (!QueryProfiler.isSampled(sampleRate)) {
+            return super.readAll(query);
+        }
+
+        long start = System.nanoTime();
+        List<T> result = super.readAll(query);
+
+        record(ProfilingDatabase.READ_ALL_EVENT_NAME, query, start, result.size());
+        return result;
+    }
+
+    @Override
+    public <T> List<Grouping<T>> readAllGrouped(Query<T> query, String... fields) {
+        if (!QueryProfiler.isSampled(sampleRate)) {
+            return super.readAllGrouped(query, fields);
+        }
+
+        long start = System.nanoTime();
+        List<Grouping<T>> result = super.readAllGrouped(query, fields);
+
+        record(ProfilingDatabase.READ_ALL_GROUPED_EVENT_NAME, query, start, result.size());
+        return result;
+    }
+
+    @Override
+    public long readCount(Query<?> query) {
+        if (!QueryProfiler.isSampled(sampleRate)) {
+            return super.readCount(query);
+        }
+
+        long start = System.nanoTime();
+        long result = super.readCount(query);
+
+        record(ProfilingDatabase.READ_COUNT_EVENT_NAME, query, start, 1L);
+        return result;
+    }
+
+    @Override
+    public <T> T readFirst(Query<T> query) {
+        if (!QueryProfiler.isSampled(sampleRate)) {
+            return super.readFirst(query);
+        }
+
+        long start = System.nanoTime();
+        T result = super.readFirst(query);
+
+        record(ProfilingDatabase.READ_FIRST_EVENT_NAME, query, start, result != null ? 1L : 0L);
+        return result;
+    }
+
+    @Override
+    public <T> PaginatedResult<T> readPartial(Query<T> query, long offset, int limit) {
+        if (!QueryProfiler.isSampled(sampleRate)) {
+            return super.readPartial(query, offset, limit);
+        }
+
+        long start = System.nanoTime();
+        PaginatedResult<T> result = super.readPartial(query, offset, limit);
+
+        record(ProfilingDatabase.READ_PARTIAL_EVENT_NAME, query, start, result.getItems().size());
+        return result;
+    }
+
+    @Override
+    public <T> PaginatedResult<Grouping<T>> readPartialGrouped(Query<T> query, long offset, int limit, String... fields) {
+        if (!QueryProfiler.isSampled(sampleRate)) {
+            return super.readPartialGrouped(query, offset, limit, fields);
+        }
+
+        long start = System.nanoTime();
+        PaginatedResult<Grouping<T>> result = super.readPartialGrouped(query, offset, limit, fields);
+
+        record(ProfilingDatabase.READ_PARTIAL_GROUPED_EVENT_NAME, query, start, result.getItems().size());
+        return result;
+    }
+
+    @Override
+    public void deleteByQuery(Query<?> query) {
+        if (!QueryProfiler.isSampled(sampleRate)) {
+            super.deleteByQuery(query);
+            return;
+        }
+
+        long start = System.nanoTime();
+
+        super.deleteByQuery(query);
+        record(ProfilingDatabase.DELETE_BY_QUERY_EVENT_NAME, query, start, -1L);
+    }
+}
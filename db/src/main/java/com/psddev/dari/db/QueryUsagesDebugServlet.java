@@ -172,6 +172,7 @@ public class QueryUsagesDebugServlet extends HttpServlet {
         private final Object calledObjectResolved;
         private final String stringified;
         private final List<Invocation> callers;
+        private final List<String> warnings = new ArrayList<String>();
         private boolean countCompare;
 
         public Invocation(
@@ -199,6 +200,14 @@ public class QueryUsagesDebugServlet extends HttpServlet {
             this.countCompare = countCompare;
         }
 
+        public Object getCalledObjectResolved() {
+            return calledObjectResolved;
+        }
+
+        public void addWarning(String warning) {
+            warnings.add(warning);
+        }
+
         @Override
         public void format(HtmlWriter writer) throws IOException {
             String callingClassName = callingMethod.getDeclaringClass().getName();
@@ -228,6 +237,12 @@ public class QueryUsagesDebugServlet extends HttpServlet {
                 writer.writeHtml(stringified);
             writer.writeEnd();
 
+            for (String warning : warnings) {
+                writer.writeStart("div", "class", "alert alert-warning");
+                    writer.writeHtml(warning);
+                writer.writeEnd();
+            }
+
             if (query) {
                 if (calledObjectResolved instanceof Query) {
                     Query<?> query = (Query<?>) calledObjectResolved;
@@ -391,7 +406,8 @@ public class QueryUsagesDebugServlet extends HttpServlet {
                 int calledLine,
                 JvmObject calledObject,
                 List<JvmObject> calledArguments,
-                JvmObject returnedObject) {
+                JvmObject returnedObject,
+                boolean inLoop) {
 
             List<Invocation> callers = new ArrayList<Invocation>();
             Invocation invocation = new Invocation(
@@ -405,6 +421,10 @@ public class QueryUsagesDebugServlet extends HttpServlet {
                     returnedObject,
                     callers);
 
+            for (String warning : QueryJvmAnalyzer.Static.findPerformanceWarnings(callingMethod, calledMethod, invocation.getCalledObjectResolved(), inLoop)) {
+                invocation.addWarning(warning);
+            }
+
             queryInvocations.add(invocation);
             callersByMethod.put(callingMethod, callers);
 
@@ -463,7 +483,8 @@ public class QueryUsagesDebugServlet extends HttpServlet {
                 int calledLine,
                 JvmObject calledObject,
                 List<JvmObject> calledArguments,
-                JvmObject returnedObject) {
+                JvmObject returnedObject,
+                boolean inLoop) {
 
             List<Invocation> newCallers = newCallersByMethod.get(callingMethod);
 
@@ -483,6 +504,12 @@ public class QueryUsagesDebugServlet extends HttpServlet {
                     returnedObject,
                     newCallers);
 
+            if (inLoop) {
+                invocation.addWarning(String.format(
+                        "Calling [%s] inside a loop runs its queries for each iteration. Consider running one query for all items before the loop.",
+                        calledMethod.getName()));
+            }
+
             callers.add(invocation);
         }
     }
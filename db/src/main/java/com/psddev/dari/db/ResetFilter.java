@@ -23,6 +23,7 @@ public class ResetFilter extends AbstractFilter {
 
     @Override
     protected void doDestroy() {
+        SequenceAllocator.releaseAll();
         SqlDatabase.closeAll();
         SqlDatabase.Static.deregisterAllDrivers();
 
@@ -1,6 +1,7 @@
 package com.psddev.dari.db;
 
 import com.psddev.dari.util.ObjectUtils;
+import com.psddev.dari.util.Settings;
 
 /**
  * Automatically changing sequence of numbers, similar to a {@code SEQUENCE}
@@ -14,6 +15,8 @@ public class Sequence extends Record {
 
     private double value;
 
+    private double gaps;
+
     public String getName() {
         return name;
     }
@@ -30,6 +33,16 @@ public class Sequence extends Record {
         this.value = value;
     }
 
+    /**
+     * Returns the number of values that were reserved in blocks but never
+     * handed out.
+     *
+     * @see Static#nextLong(String, long, int)
+     */
+    public double getGaps() {
+        return gaps;
+    }
+
     /** Returns the next number in this sequence. */
     public double next() {
         synchronized (this) {
@@ -45,24 +58,66 @@ public class Sequence extends Record {
     /** {@link Sequence} utility methods. */
     public static final class Static {
 
+        public static final String BLOCK_SIZE_SETTING = "dari/sequenceBlockSize";
+        public static final int DEFAULT_BLOCK_SIZE = 1;
+
         /**
          * Returns the next number in the sequence with the given {@code name},
          * or the given {@code initialValue} if the sequence has never been
          * used before.
          *
+         * <p>If {@code dari/sequenceBlockSize} is greater than {@code 1}, the
+         * numbers are reserved in blocks of that size as in
+         * {@link #nextLong(String, long, int)}.</p>
+         *
          * @param name Can't be blank.
          */
         public static long nextLong(String name, long initialValue) {
+            return nextLong(name, initialValue, Settings.getOrDefault(int.class, BLOCK_SIZE_SETTING, DEFAULT_BLOCK_SIZE));
+        }
+
+        /**
+         * Returns the next number in the sequence with the given {@code name},
+         * or the given {@code initialValue} if the sequence has never been
+         * used before, reserving the numbers from the database in blocks of
+         * the given {@code blockSize}.
+         *
+         * <p>With a block size greater than {@code 1}, the numbers are still
+         * unique across all VMs, but they're only increasing within each VM,
+         * and the numbers that are left when the application is destroyed
+         * are skipped and counted in {@link Sequence#getGaps}.</p>
+         *
+         * @param name Can't be blank.
+         * @param blockSize Must be at least {@code 1}.
+         */
+        public static long nextLong(String name, long initialValue, int blockSize) {
+            Database database = Database.Static.getDefault();
+
+            if (blockSize > 1) {
+                return SequenceAllocator.getInstance(database, name, initialValue, blockSize).next();
+
+            } else {
+                return (long) findOrCreate(database, name, initialValue).next();
+            }
+        }
+
+        /**
+         * Returns the sequence with the given {@code name} in the given
+         * {@code database}, creating it with the given {@code initialValue}
+         * if it doesn't exist yet.
+         */
+        static Sequence findOrCreate(Database database, String name, long initialValue) {
             Sequence s = null;
 
             while (true) {
-                s = Query.from(Sequence.class).where("name = ?", name).master().noCache().first();
+                s = Query.from(Sequence.class).where("name = ?", name).using(database).master().noCache().first();
 
                 if (s != null) {
                     break;
                 }
 
                 s = new Sequence();
+                s.getState().setDatabase(database);
                 s.setName(name);
                 s.setValue(initialValue);
 
@@ -77,7 +132,7 @@ public class Sequence extends Record {
                 }
             }
 
-            return (long) s.next();
+            return s;
         }
     }
 }
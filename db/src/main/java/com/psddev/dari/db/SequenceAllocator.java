@@ -0,0 +1,254 @@
+package com.psddev.dari.db;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.psddev.dari.util.ObjectUtils;
+import com.psddev.dari.util.Stats;
+import com.psddev.dari.util.TaskExecutor;
+
+/**
+ * Hands out the numbers in a {@link Sequence} from blocks that are
+ * reserved in the database, so that most calls to {@link #next} don't
+ * touch the database at all.
+ *
+ * <p>Each block is reserved with one atomic increment of the sequence
+ * value, and its numbers are handed out from an {@link AtomicLong}. Once
+ * only a quarter of a block is left, the next one is reserved in the
+ * background. The numbers are unique across all VMs, but they're only
+ * increasing within each VM, and the numbers left in the blocks when the
+ * application is destroyed (see {@link #releaseAll}) are skipped. Those are
+ * added to the sequence's {@code gaps} count.</p>
+ */
+class SequenceAllocator {
+
+    public static final String PREFETCH_EXECUTOR_NAME = "Sequence Prefetches";
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(SequenceAllocator.class);
+    private static final Stats STATS = new Stats("Sequence");
+    private static final String ALLOCATE_STATS_OPERATION = "Allocate";
+    private static final String GAP_STATS_OPERATION = "Gap";
+
+    private static final ConcurrentMap<String, SequenceAllocator> INSTANCES = new ConcurrentHashMap<String, SequenceAllocator>();
+
+    private final Database database;
+    private final String name;
+    private final long initialValue;
+    private final int blockSize;
+    private final AtomicReference<Block> current = new AtomicReference<Block>();
+    private final Object allocateLock = new Object();
+    private Future<Block> prefetch;
+    private Sequence sequence;
+
+    /**
+     * Returns the allocator for the sequence with the given {@code name}
+     * in the given {@code database}. The {@code blockSize} is only used
+     * the first time.
+     */
+    public static SequenceAllocator getInstance(Database database, String name, long initialValue, int blockSize) {
+        while (database instanceof ForwardingDatabase) {
+            database = ((ForwardingDatabase) database).getDelegate();
+        }
+
+        String key = database.getName() + "/" + name;
+        SequenceAllocator allocator = INSTANCES.get(key);
+
+        if (allocator == null) {
+            SequenceAllocator newAllocator = new SequenceAllocator(database, name, initialValue, blockSize);
+
+            allocator = INSTANCES.putIfAbsent(key, newAllocator);
+
+            if (allocator == null) {
+                allocator = newAllocator;
+            }
+        }
+
+        return allocator;
+    }
+
+    /**
+     * Gives up the numbers that are left in all allocators and forgets
+     * them. This is called by {@link ResetFilter} when the application is
+     * destroyed, while the databases are still open.
+     */
+    public static void releaseAll() {
+        for (String key : INSTANCES.keySet()) {
+            SequenceAllocator allocator = INSTANCES.remove(key);
+
+            if (allocator != null) {
+                allocator.recordGaps();
+            }
+        }
+    }
+
+    /**
+     * Creates an instance that allocates the numbers for the sequence
+     * with the given {@code name} in the given {@code database}. Each
+     * instance acts like a separate VM.
+     */
+    SequenceAllocator(Database database, String name, long initialValue, int blockSize) {
+        if (blockSize < 1) {
+            throw new IllegalArgumentException("Block size must be at least 1!");
+        }
+
+        this.database = database;
+        this.name = name;
+        this.initialValue = initialValue;
+        this.blockSize = blockSize;
+    }
+
+    public int getBlockSize() {
+        return blockSize;
+    }
+
+    /** Returns the next number in the sequence. */
+    public long next() {
+        while (true) {
+            Block block = current.get();
+
+            if (block != null) {
+                long value = block.next.getAndIncrement();
+
+                if (value <= block.end) {
+                    if (block.end - value == blockSize / 4) {
+                        startPrefetch();
+                    }
+
+                    return value;
+                }
+            }
+
+            synchronized (this) {
+                if (current.get() == block) {
+                    current.set(takeNextBlock());
+                }
+            }
+        }
+    }
+
+    private synchronized void startPrefetch() {
+        if (prefetch != null) {
+            return;
+        }
+
+        prefetch = TaskExecutor.Static.getInstance(PREFETCH_EXECUTOR_NAME).submit(new Callable<Block>() {
+
+            @Override
+            public Block call() {
+                return allocate();
+            }
+        });
+    }
+
+    // Returns the prefetched block, or reserves one now if there isn't
+    // one. Must be called while synchronized on this.
+    private Block takeNextBlock() {
+        Future<Block> future = prefetch;
+
+        prefetch = null;
+
+        if (future != null) {
+            try {
+                return future.get();
+
+            } catch (ExecutionException error) {
+                LOGGER.warn(String.format("Can't prefetch the next block in [%s]!", name), error.getCause());
+
+            } catch (InterruptedException error) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        return allocate();
+    }
+
+    // Reserves the next block of numbers with one atomic increment. Must
+    // not synchronize on this, since the prefetch is waited on while
+    // synchronized on this.
+    private Block allocate() {
+        synchronized (allocateLock) {
+            Stats.Timer timer = STATS.startTimer();
+
+            if (sequence == null) {
+                sequence = Sequence.Static.findOrCreate(database, name, initialValue);
+            }
+
+            State state = sequence.getState();
+
+            state.incrementAtomically("value", blockSize);
+            state.saveImmediately();
+
+            long end = ObjectUtils.to(long.class, state.get("value"));
+
+            timer.stop(ALLOCATE_STATS_OPERATION);
+            return new Block(end - blockSize + 1, end);
+        }
+    }
+
+    /**
+     * Gives up the numbers that are left in the current and the
+     * prefetched blocks, and adds their count to the sequence's
+     * {@code gaps}.
+     */
+    public synchronized void recordGaps() {
+        long gaps = 0;
+        Block block = current.getAndSet(null);
+
+        if (block != null) {
+            gaps += block.getRemaining();
+        }
+
+        if (prefetch != null) {
+            try {
+                if (!prefetch.cancel(false)) {
+                    gaps += prefetch.get().getRemaining();
+                }
+
+            } catch (Exception error) {
+                // The prefetch failed, so there's nothing to give up.
+            }
+
+            prefetch = null;
+        }
+
+        if (gaps <= 0) {
+            return;
+        }
+
+        STATS.startTimer().stop(GAP_STATS_OPERATION, gaps);
+        LOGGER.info("Skipping [{}] numbers in sequence [{}]", gaps, name);
+
+        try {
+            Sequence s = Sequence.Static.findOrCreate(database, name, initialValue);
+
+            s.getState().incrementAtomically("gaps", gaps);
+            s.getState().saveImmediately();
+
+        } catch (RuntimeException error) {
+            LOGGER.warn(String.format("Can't record the gaps in sequence [%s]!", name), error);
+        }
+    }
+
+    private static class Block {
+
+        public final long end;
+        public final AtomicLong next;
+
+        public Block(long start, long end) {
+            this.end = end;
+            this.next = new AtomicLong(start);
+        }
+
+        public long getRemaining() {
+            return Math.max(0L, end - next.get() + 1);
+        }
+    }
+}
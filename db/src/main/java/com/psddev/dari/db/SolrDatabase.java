@@ -14,11 +14,14 @@ import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.ListIterator;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -36,6 +39,7 @@ import org.apache.solr.common.SolrDocumentList;
 import org.apache.solr.common.SolrInputDocument;
 import org.apache.solr.common.params.CommonParams;
 import org.apache.solr.common.params.MoreLikeThisParams;
+import org.apache.solr.common.params.UpdateParams;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -46,6 +50,7 @@ import com.psddev.dari.util.Profiler;
 import com.psddev.dari.util.Settings;
 import com.psddev.dari.util.SettingsException;
 import com.psddev.dari.util.Stats;
+import com.psddev.dari.util.Task;
 import com.psddev.dari.util.UuidUtils;
 
 /**
@@ -55,15 +60,23 @@ import com.psddev.dari.util.UuidUtils;
 public class SolrDatabase extends AbstractDatabase<SolrServer> {
 
     public static final String DEFAULT_COMMIT_WITHIN_SETTING = "dari/solrDefaultCommitWithin";
+    public static final String DEFAULT_COMMIT_INTERVAL_SETTING = "dari/solrDefaultCommitInterval";
 
     public static final String SERVER_URL_SUB_SETTING = "serverUrl";
     public static final String READ_SERVER_URL_SUB_SETTING = "readServerUrl";
     public static final String TENANT_SUB_SETTING = "tenant";
     public static final String COMMIT_WITHIN_SUB_SETTING = "commitWithin";
+    public static final String COMMIT_INTERVAL_SUB_SETTING = "commitInterval";
+    public static final String SOFT_COMMIT_SUB_SETTING = "softCommit";
+    public static final String HARD_COMMIT_INTERVAL_SUB_SETTING = "hardCommitInterval";
     public static final String VERSION_SUB_SETTING = "version";
     public static final String SAVE_DATA_SUB_SETTING = "saveData";
 
     public static final double DEFAULT_COMMIT_WITHIN = 0.0;
+    public static final double DEFAULT_COMMIT_INTERVAL = 0.0;
+    public static final double DEFAULT_HARD_COMMIT_INTERVAL = 60.0;
+
+    public static final String COMMIT_TASK_EXECUTOR_NAME = "Solr Commits";
 
     public static final String TENANT_FIELD = "_s__tenant";
     public static final String ID_FIELD = "id";
@@ -78,6 +91,10 @@ public class SolrDatabase extends AbstractDatabase<SolrServer> {
     public static final String SCORE_EXTRA = "solr.score";
     public static final String NORMALIZED_SCORE_EXTRA = "solr.normalizedScore";
 
+    // Commit parameters from Solr 4 that aren't in UpdateParams yet.
+    static final String SOFT_COMMIT_PARAMETER = "softCommit";
+    static final String OPEN_SEARCHER_PARAMETER = "openSearcher";
+
     private static final int INITIAL_FETCH_SIZE = 100;
     private static final Logger LOGGER = LoggerFactory.getLogger(SolrDatabase.class);
     private static final Pattern UUID_PATTERN = Pattern.compile("([A-Fa-f0-9]{8})-([A-Fa-f0-9]{4})-([A-Fa-f0-9]{4})-([A-Fa-f0-9]{4})-([A-Fa-f0-9]{12})");
@@ -86,6 +103,8 @@ public class SolrDatabase extends AbstractDatabase<SolrServer> {
     private static final Stats STATS = new Stats(SHORT_NAME);
     private static final String ADD_STATS_OPERATION = "Add";
     private static final String COMMIT_STATS_OPERATION = "Commit";
+    private static final String SOFT_COMMIT_STATS_OPERATION = "Soft Commit";
+    private static final String COMMITTED_DOCUMENTS_STATS_OPERATION = "Committed Documents";
     private static final String DELETE_STATS_OPERATION = "Delete";
     private static final String QUERY_STATS_OPERATION = "Query";
     private static final String ADD_PROFILER_EVENT = SHORT_NAME + " " + ADD_STATS_OPERATION;
@@ -99,6 +118,10 @@ public class SolrDatabase extends AbstractDatabase<SolrServer> {
     private volatile Double commitWithin;
     private volatile String version;
     private volatile boolean saveData = true;
+    private volatile Double commitInterval;
+    private volatile boolean softCommit;
+    private volatile double hardCommitInterval = DEFAULT_HARD_COMMIT_INTERVAL;
+    private volatile CommitScheduler commitScheduler;
 
     /** Returns the underlying Solr server. */
     public SolrServer getServer() {
@@ -165,6 +188,80 @@ public class SolrDatabase extends AbstractDatabase<SolrServer> {
         this.saveData = saveData;
     }
 
+    /**
+     * Returns the minimum number of seconds between the commits that are
+     * requested by the immediate writes. When it's positive, the commit
+     * requests from all threads are coalesced into at most one commit per
+     * interval.
+     */
+    public Double getCommitInterval() {
+        return commitInterval;
+    }
+
+    public double getEffectiveCommitInterval() {
+        Double commitInterval = getCommitInterval();
+        if (commitInterval == null) {
+            commitInterval = Settings.get(Double.class, DEFAULT_COMMIT_INTERVAL_SETTING);
+            if (commitInterval == null) {
+                commitInterval = DEFAULT_COMMIT_INTERVAL;
+            }
+        }
+        return commitInterval;
+    }
+
+    public void setCommitInterval(Double commitInterval) {
+        this.commitInterval = commitInterval;
+    }
+
+    /**
+     * Returns {@code true} if the coalesced commits should be soft, and
+     * made durable by the periodic hard commits.
+     */
+    public boolean isSoftCommit() {
+        return softCommit;
+    }
+
+    public void setSoftCommit(boolean softCommit) {
+        this.softCommit = softCommit;
+    }
+
+    /**
+     * Returns the maximum number of seconds between the hard commits when
+     * the coalesced commits are soft.
+     */
+    public double getHardCommitInterval() {
+        return hardCommitInterval;
+    }
+
+    public void setHardCommitInterval(double hardCommitInterval) {
+        this.hardCommitInterval = hardCommitInterval;
+    }
+
+    /**
+     * Returns the number of documents that were written but not yet
+     * committed by the coalesced commits.
+     */
+    public long getPendingDocumentCount() {
+        CommitScheduler scheduler = commitScheduler;
+
+        return scheduler != null ? scheduler.pendingDocuments.get() : 0L;
+    }
+
+    /**
+     * Waits until all writes made so far are committed, so that they're
+     * visible in the subsequent queries. Returns immediately if the
+     * commits aren't coalesced, since the immediate writes are committed
+     * before they return in that case.
+     *
+     * @param timeout In seconds.
+     * @return {@code false} if the timeout elapsed before the commit.
+     */
+    public boolean waitForCommit(double timeout) {
+        CommitScheduler scheduler = commitScheduler;
+
+        return scheduler == null || scheduler.waitForCommit(timeout);
+    }
+
     private static class SolrSchema {
 
         public final int version;
@@ -1056,9 +1153,7 @@ public class SolrDatabase extends AbstractDatabase<SolrServer> {
         List<T> objects = new ArrayList<T>();
         if (documents != null) {
             count = documents.getNumFound();
-            for (SolrDocument document : documents) {
-                objects.add(createSavedObjectWithDocument(document, documents, query));
-            }
+            objects = createSavedObjectsWithDocuments(documents, query);
         }
 
         return new SolrPaginatedResult<T>(
@@ -1081,42 +1176,69 @@ public class SolrDatabase extends AbstractDatabase<SolrServer> {
     }
 
     /**
-     * Creates a previously saved object using the given {@code document}.
+     * Creates previously saved objects using the given {@code documents}
+     * in the same order.
+     *
+     * <p>The documents without the data are loaded from the primary
+     * database all at once.</p>
      */
-    private <T> T createSavedObjectWithDocument(
-            SolrDocument document,
+    private <T> List<T> createSavedObjectsWithDocuments(
             SolrDocumentList documents,
             Query<T> query) {
 
-        T object = createSavedObject(document.get(TYPE_ID_FIELD), document.get(ID_FIELD), query);
-        State objectState = State.getInstance(object);
+        List<T> objects = new ArrayList<T>(documents.size());
+        Map<UUID, State> missingStates = new LinkedHashMap<UUID, State>();
+        Database primary = null;
+
+        for (SolrDocument document : documents) {
+            T object = createSavedObject(document.get(TYPE_ID_FIELD), document.get(ID_FIELD), query);
+            State objectState = State.getInstance(object);
 
-        if (!objectState.isReferenceOnly()) {
-            String data = (String) document.get(DATA_FIELD);
+            if (!objectState.isReferenceOnly()) {
+                String data = (String) document.get(DATA_FIELD);
 
-            if (ObjectUtils.isBlank(data)) {
-                Object original = objectState.getDatabase().readFirst(Query.from(Object.class).where("_id = ?", objectState.getId()));
-                if (original != null) {
-                    objectState.setValues(State.getInstance(original).getSimpleValues());
+                if (ObjectUtils.isBlank(data)) {
+                    missingStates.put(objectState.getId(), objectState);
+                    primary = objectState.getDatabase();
+
+                } else {
+                    @SuppressWarnings("unchecked")
+                    Map<String, Object> values = (Map<String, Object>) ObjectUtils.fromJson(data);
+                    objectState.setValues(values);
                 }
+            }
 
-            } else {
-                @SuppressWarnings("unchecked")
-                Map<String, Object> values = (Map<String, Object>) ObjectUtils.fromJson(data);
-                objectState.setValues(values);
+            Map<String, Object> extras = objectState.getExtras();
+            Object score = document.get(SCORE_FIELD);
+            extras.put(SCORE_EXTRA, score);
+
+            Float maxScore = documents.getMaxScore();
+            if (maxScore != null && score instanceof Number) {
+                extras.put(NORMALIZED_SCORE_EXTRA, ((Number) score).floatValue() / maxScore);
             }
+
+            objects.add(object);
         }
 
-        Map<String, Object> extras = objectState.getExtras();
-        Object score = document.get(SCORE_FIELD);
-        extras.put(SCORE_EXTRA, score);
+        if (!missingStates.isEmpty()) {
+            for (Object original : primary.readAll(Query.
+                    from(Object.class).
+                    where("_id = ?", missingStates.keySet()))) {
+
+                State originalState = State.getInstance(original);
+                State objectState = missingStates.get(originalState.getId());
+
+                if (objectState != null) {
+                    objectState.setValues(originalState.getSimpleValues());
+                }
+            }
+        }
 
-        Float maxScore = documents.getMaxScore();
-        if (maxScore != null && score instanceof Number) {
-            extras.put(NORMALIZED_SCORE_EXTRA, ((Number) score).floatValue() / maxScore);
+        for (ListIterator<T> i = objects.listIterator(); i.hasNext();) {
+            i.set(swapObjectType(query, i.next()));
         }
 
-        return swapObjectType(query, object);
+        return objects;
     }
 
     /** Commits all pending writes in the underlying Solr server. */
@@ -1125,6 +1247,10 @@ public class SolrDatabase extends AbstractDatabase<SolrServer> {
     }
 
     private void doCommit(SolrServer server) {
+        doCommit(server, false, true);
+    }
+
+    private void doCommit(SolrServer server, boolean soft, boolean openSearcher) {
         Throwable error = null;
 
         try {
@@ -1132,10 +1258,17 @@ public class SolrDatabase extends AbstractDatabase<SolrServer> {
             Profiler.Static.startThreadEvent(COMMIT_PROFILER_EVENT);
 
             try {
-                server.commit();
+                UpdateRequest commit = createCommitRequest(soft, openSearcher);
+
+                if (commit != null) {
+                    commit.process(server);
+
+                } else {
+                    server.commit();
+                }
 
             } finally {
-                double duration = timer.stop(COMMIT_STATS_OPERATION);
+                double duration = timer.stop(soft ? SOFT_COMMIT_STATS_OPERATION : COMMIT_STATS_OPERATION);
                 Profiler.Static.stopThreadEvent();
 
                 LOGGER.debug("Solr commit time: [{}]ms", duration);
@@ -1152,6 +1285,215 @@ public class SolrDatabase extends AbstractDatabase<SolrServer> {
         }
     }
 
+    /**
+     * Creates the request for a soft commit, or a hard commit that
+     * doesn't open a new searcher. Older Solr servers ignore these
+     * options and commit normally.
+     *
+     * @return {@code null} for a normal hard commit that opens a new
+     * searcher.
+     */
+    static UpdateRequest createCommitRequest(boolean soft, boolean openSearcher) {
+        if (!soft && openSearcher) {
+            return null;
+        }
+
+        UpdateRequest commit = new UpdateRequest();
+
+        commit.setParam(UpdateParams.COMMIT, "true");
+        commit.setParam(UpdateParams.WAIT_FLUSH, "false");
+        commit.setParam(UpdateParams.WAIT_SEARCHER, "true");
+
+        if (soft) {
+            commit.setParam(SOFT_COMMIT_PARAMETER, "true");
+
+        } else {
+            commit.setParam(OPEN_SEARCHER_PARAMETER, "false");
+        }
+
+        return commit;
+    }
+
+    /**
+     * Returns {@code true} if the next commit should be a hard one, given
+     * whether the soft commits are enabled and a hard commit is due to
+     * make the earlier soft commits durable.
+     */
+    static boolean isHardCommitNext(boolean softCommit, boolean hardCommitDue) {
+        return !softCommit || hardCommitDue;
+    }
+
+    /**
+     * Returns {@code true} if the next commit should open a new searcher.
+     * A hard commit that only makes the earlier soft commits durable,
+     * without any new writes to show, doesn't need to.
+     */
+    static boolean isOpenSearcherNext(boolean softCommit, boolean hard, boolean newWrites) {
+        return !hard || !softCommit || newWrites;
+    }
+
+    /**
+     * Coalesces the commit requests from all threads into at most one
+     * commit per {@link #getEffectiveCommitInterval}. The interval is
+     * widened to twice the duration of the last commit when the commits
+     * become slow, so that the server isn't kept busy committing.
+     */
+    private class CommitScheduler extends Task {
+
+        private final AtomicLong pendingDocuments = new AtomicLong();
+        private final Object lock = new Object();
+        private long requested;
+        private long committed;
+        private long lastCommit;
+        private long lastHardCommit = System.currentTimeMillis();
+        private boolean softCommitted;
+        private double lastDuration;
+
+        public CommitScheduler(String databaseName) {
+            super(COMMIT_TASK_EXECUTOR_NAME, "Commits to " + databaseName);
+        }
+
+        public void addPending(int count) {
+            pendingDocuments.addAndGet(count);
+        }
+
+        // Requests a commit and makes sure that this task is running.
+        public void request() {
+            synchronized (lock) {
+                ++ requested;
+                lock.notifyAll();
+            }
+
+            if (!isRunning()) {
+                submit();
+            }
+        }
+
+        public boolean waitForCommit(double timeout) {
+            long end = System.currentTimeMillis() + (long) (timeout * 1000);
+
+            synchronized (lock) {
+                long target = requested;
+
+                while (committed < target) {
+                    long wait = end - System.currentTimeMillis();
+
+                    if (wait <= 0) {
+                        return false;
+                    }
+
+                    // Commit in this thread if the task stopped running,
+                    // such as when the executor is shut down.
+                    if (!isRunning() && getFuture() != null && getFuture().isDone()) {
+                        break;
+                    }
+
+                    try {
+                        lock.wait(Math.min(wait, 1000L));
+
+                    } catch (InterruptedException error) {
+                        Thread.currentThread().interrupt();
+                        return false;
+                    }
+                }
+
+                if (committed >= target) {
+                    return true;
+                }
+            }
+
+            commit();
+            return true;
+        }
+
+        @Override
+        protected void doTask() {
+            try {
+                while (shouldContinue()) {
+                    commitNext();
+                }
+
+            } catch (InterruptedException error) {
+                // Stop running since the executor is shutting down.
+            }
+        }
+
+        // Waits for the next commit request and commits once the interval
+        // since the last commit elapses.
+        private void commitNext() throws InterruptedException {
+            long target;
+            boolean hard;
+            boolean openSearcher;
+
+            synchronized (lock) {
+                while (committed >= requested && !isHardCommitDue()) {
+                    if (softCommitted) {
+                        lock.wait(Math.max(1L, lastHardCommit + (long) (getHardCommitInterval() * 1000) - System.currentTimeMillis()));
+
+                    } else {
+                        lock.wait();
+                    }
+                }
+
+                long nextCommit = lastCommit + (long) (Math.max(getEffectiveCommitInterval(), lastDuration * 2.0) * 1000);
+
+                for (long wait; (wait = nextCommit - System.currentTimeMillis()) > 0;) {
+                    lock.wait(wait);
+                }
+
+                target = requested;
+                hard = isHardCommitNext(isSoftCommit(), isHardCommitDue());
+                openSearcher = isOpenSearcherNext(isSoftCommit(), hard, committed < target);
+            }
+
+            long documents = pendingDocuments.getAndSet(0);
+            long start = System.currentTimeMillis();
+
+            try {
+                doCommit(openConnection(), !hard, openSearcher);
+
+            } catch (DatabaseException error) {
+                pendingDocuments.addAndGet(documents);
+                LOGGER.warn("Can't commit to Solr! Retrying later...", error);
+
+                synchronized (lock) {
+                    lastCommit = System.currentTimeMillis();
+                }
+
+                return;
+            }
+
+            STATS.startTimer().stop(COMMITTED_DOCUMENTS_STATS_OPERATION, documents);
+
+            synchronized (lock) {
+                lastCommit = System.currentTimeMillis();
+                lastDuration = (lastCommit - start) / 1e3;
+
+                if (hard) {
+                    lastHardCommit = lastCommit;
+                    softCommitted = false;
+
+                } else {
+                    softCommitted = true;
+                }
+
+                if (committed < target) {
+                    committed = target;
+                }
+
+                lock.notifyAll();
+            }
+
+            setProgress(String.format(
+                    "Last commit: %s documents in %.3f seconds",
+                    documents, lastDuration));
+        }
+
+        private boolean isHardCommitDue() {
+            return softCommitted && System.currentTimeMillis() - lastHardCommit >= getHardCommitInterval() * 1000;
+        }
+    }
+
     // --- AbstractDatabase support ---
 
     @Override
@@ -1179,6 +1521,14 @@ public class SolrDatabase extends AbstractDatabase<SolrServer> {
 
         setTenant(ObjectUtils.to(String.class, settings.get(TENANT_SUB_SETTING)));
         setCommitWithin(ObjectUtils.to(Double.class, settings.get(COMMIT_WITHIN_SUB_SETTING)));
+        setCommitInterval(ObjectUtils.to(Double.class, settings.get(COMMIT_INTERVAL_SUB_SETTING)));
+        setSoftCommit(ObjectUtils.to(boolean.class, settings.get(SOFT_COMMIT_SUB_SETTING)));
+
+        Double hardCommitInterval = ObjectUtils.to(Double.class, settings.get(HARD_COMMIT_INTERVAL_SUB_SETTING));
+        if (hardCommitInterval != null) {
+            setHardCommitInterval(hardCommitInterval);
+        }
+
         setVersion(ObjectUtils.to(String.class, settings.get(VERSION_SUB_SETTING)));
 
         Boolean saveData = ObjectUtils.to(Boolean.class, settings.get(SAVE_DATA_SUB_SETTING));
@@ -1240,10 +1590,8 @@ public class SolrDatabase extends AbstractDatabase<SolrServer> {
         solrQuery.setStart(0);
         solrQuery.setRows(1);
         SolrDocumentList documents = queryWithOptions(solrQuery, query).getResults();
-        if (documents != null) {
-            for (SolrDocument document : documents) {
-                return createSavedObjectWithDocument(document, documents, query);
-            }
+        if (documents != null && !documents.isEmpty()) {
+            return createSavedObjectsWithDocuments(documents, query).get(0);
         }
         return null;
     }
@@ -1369,14 +1717,24 @@ public class SolrDatabase extends AbstractDatabase<SolrServer> {
 
     @Override
     protected void commitTransaction(SolrServer server, boolean isImmediate) {
-        if (isImmediate && getEffectiveCommitWithin() <= 0.0) {
+        if (isCommitCoalesced(isImmediate)) {
+            getCommitScheduler().request();
+
+        } else if (isImmediate && getEffectiveCommitWithin() <= 0.0) {
             doCommit(openConnection());
         }
     }
 
+    private boolean isCommitCoalesced(boolean isImmediate) {
+        return isImmediate &&
+                getEffectiveCommitWithin() <= 0.0 &&
+                getEffectiveCommitInterval() > 0.0;
+    }
+
     private void processUpdate(
             SolrServer server,
             UpdateRequest update,
+            int size,
             boolean isImmediate)
             throws IOException, SolrServerException {
 
@@ -1388,6 +1746,22 @@ public class SolrDatabase extends AbstractDatabase<SolrServer> {
         }
 
         update.process(server);
+
+        if (isCommitCoalesced(isImmediate)) {
+            getCommitScheduler().addPending(size);
+        }
+    }
+
+    private CommitScheduler getCommitScheduler() {
+        if (commitScheduler == null) {
+            synchronized (this) {
+                if (commitScheduler == null) {
+                    commitScheduler = new CommitScheduler(getName());
+                }
+            }
+        }
+
+        return commitScheduler;
     }
 
     @Override
@@ -1513,7 +1887,7 @@ public class SolrDatabase extends AbstractDatabase<SolrServer> {
             try {
                 UpdateRequest update = new UpdateRequest();
                 update.add(documents);
-                processUpdate(server, update, isImmediate);
+                processUpdate(server, update, documentsSize, isImmediate);
 
             } finally {
                 double duration = timer.stop(ADD_STATS_OPERATION);
@@ -1689,7 +2063,7 @@ public class SolrDatabase extends AbstractDatabase<SolrServer> {
             try {
                 UpdateRequest update = new UpdateRequest();
                 update.deleteById(idStrings);
-                processUpdate(openConnection(), update, isImmediate);
+                processUpdate(openConnection(), update, statesSize, isImmediate);
 
             } finally {
                 double duration = timer.stop(DELETE_STATS_OPERATION);
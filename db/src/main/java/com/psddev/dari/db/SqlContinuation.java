@@ -0,0 +1,257 @@
+package com.psddev.dari.db;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import javax.xml.bind.DatatypeConverter;
+
+import com.psddev.dari.util.ObjectUtils;
+import com.psddev.dari.util.StringUtils;
+
+/**
+ * Position after a page within the sorted results of a query, used by
+ * {@link SqlDatabase} to seek directly to the next page instead of
+ * skipping all the previous rows with an offset.
+ *
+ * <p>The position consists of an anchor, which is the sort values and the
+ * ID of the last object that could be seeked to, and the number of rows
+ * to skip after it. The rows are only skipped when the anchor can't be
+ * moved, such as when the sort values are missing.</p>
+ */
+class SqlContinuation {
+
+    private static final String SORTERS_KEY = "s";
+    private static final String VALUES_KEY = "v";
+    private static final String ID_KEY = "i";
+    private static final String SKIP_KEY = "k";
+
+    private final String sorters;
+    private final List<Object> values;
+    private final UUID id;
+    private final long skip;
+
+    private SqlContinuation(String sorters, List<Object> values, UUID id, long skip) {
+        this.sorters = sorters;
+        this.values = values;
+        this.id = id;
+        this.skip = skip;
+    }
+
+    /**
+     * Parses the given {@code token} that was returned with the previous
+     * page of the given {@code query}.
+     *
+     * @param token If blank, returns the position at the first page.
+     * @throws IllegalArgumentException If the token is invalid or was
+     *         created for a query with different sorters.
+     */
+    public static SqlContinuation parse(Query<?> query, String token) {
+        String sorters = createSortersHash(query);
+
+        if (ObjectUtils.isBlank(token)) {
+            return new SqlContinuation(sorters, null, null, 0L);
+        }
+
+        Map<?, ?> json;
+
+        try {
+            String base64 = token.replace('-', '+').replace('_', '/');
+
+            while (base64.length() % 4 != 0) {
+                base64 += "=";
+            }
+
+            json = (Map<?, ?>) ObjectUtils.fromJson(new String(DatatypeConverter.parseBase64Binary(base64), StringUtils.UTF_8));
+
+        } catch (RuntimeException error) {
+            throw new IllegalArgumentException(String.format(
+                    "[%s] isn't a valid continuation token!", token), error);
+        }
+
+        if (json == null || !sorters.equals(json.get(SORTERS_KEY))) {
+            throw new IllegalArgumentException(String.format(
+                    "[%s] isn't a continuation token for [%s]!", token, query));
+        }
+
+        List<?> values = (List<?>) json.get(VALUES_KEY);
+
+        return new SqlContinuation(
+                sorters,
+                values != null ? new ArrayList<Object>(values) : null,
+                ObjectUtils.to(UUID.class, json.get(ID_KEY)),
+                ObjectUtils.to(long.class, json.get(SKIP_KEY)));
+    }
+
+    // Identifies the sorters so that the token can't be used with a query
+    // that's sorted differently.
+    private static String createSortersHash(Query<?> query) {
+        return StringUtils.hex(StringUtils.md5(String.valueOf(query.getSorters()))).substring(0, 8);
+    }
+
+    /** Returns the number of rows to skip after the anchor. */
+    public long getSkip() {
+        return skip;
+    }
+
+    /**
+     * Returns the query that finds the rows after the anchor in the
+     * given {@code query}, sorted by the ID last so that the rows with
+     * the same sort values are always in the same order.
+     *
+     * @param nullSortedFirst {@code true} if {@code NULL}s are sorted
+     *        before all other values in an ascending order.
+     */
+    public <T> Query<T> createSeekQuery(Query<T> query, boolean nullSortedFirst) {
+        Query<T> seekQuery = query.clone();
+
+        seekQuery.getOptions().remove(Query.CONTINUATION_QUERY_OPTION);
+        seekQuery.sortAscending(Query.ID_KEY);
+
+        if (values == null || id == null) {
+            return seekQuery;
+        }
+
+        List<Sorter> sorters = query.getSorters();
+        List<Predicate> alternatives = new ArrayList<Predicate>();
+        List<Predicate> equalities = new ArrayList<Predicate>();
+
+        // (s0 > v0) OR (s0 = v0 AND s1 > v1) OR ... OR (... AND _id > id)
+        for (int i = 0, size = sorters.size(); i <= size; ++ i) {
+            Predicate after;
+
+            if (i < size) {
+                Sorter sorter = sorters.get(i);
+                String key = (String) sorter.getOptions().get(0);
+                boolean ascending = Sorter.ASCENDING_OPERATOR.equals(sorter.getOperator());
+                Object value = values.get(i);
+
+                after = new ComparisonPredicate(
+                        ascending ? PredicateParser.GREATER_THAN_OPERATOR : PredicateParser.LESS_THAN_OPERATOR,
+                        false,
+                        key,
+                        Collections.singletonList(value));
+
+                // Objects without the value follow the anchor when the NULLs
+                // are sorted after all other values.
+                if (ascending != nullSortedFirst) {
+                    after = CompoundPredicate.combine(
+                            PredicateParser.OR_OPERATOR,
+                            after,
+                            new ComparisonPredicate(PredicateParser.EQUALS_ANY_OPERATOR, false, key, Collections.singletonList(Query.MISSING_VALUE)));
+                }
+
+                alternatives.add(combineAnd(equalities, after));
+                equalities.add(new ComparisonPredicate(PredicateParser.EQUALS_ANY_OPERATOR, false, key, Collections.singletonList(value)));
+
+            } else {
+                after = new ComparisonPredicate(PredicateParser.GREATER_THAN_OPERATOR, false, Query.ID_KEY, Collections.singletonList(id));
+                alternatives.add(combineAnd(equalities, after));
+            }
+        }
+
+        seekQuery.and(new CompoundPredicate(PredicateParser.OR_OPERATOR, alternatives));
+        return seekQuery;
+    }
+
+    private static Predicate combineAnd(List<Predicate> equalities, Predicate last) {
+        if (equalities.isEmpty()) {
+            return last;
+        }
+
+        List<Predicate> children = new ArrayList<Predicate>(equalities);
+
+        children.add(last);
+        return new CompoundPredicate(PredicateParser.AND_OPERATOR, children);
+    }
+
+    /**
+     * Returns the position after the given {@code items}, which were read
+     * from this position using the given {@code query}.
+     */
+    public SqlContinuation next(Query<?> query, List<?> items) {
+        if (items.isEmpty()) {
+            return this;
+        }
+
+        State last = State.getInstance(items.get(items.size() - 1));
+        List<Object> lastValues = new ArrayList<Object>();
+
+        for (Sorter sorter : query.getSorters()) {
+            String operator = sorter.getOperator();
+            Object value = null;
+
+            if (Sorter.ASCENDING_OPERATOR.equals(operator) ||
+                    Sorter.DESCENDING_OPERATOR.equals(operator)) {
+                String key = (String) sorter.getOptions().get(0);
+
+                value = toSeekValue(Query.ID_KEY.equals(key) ? last.getId() : last.getByPath(key));
+            }
+
+            // Can't seek, so skip the rows after the current anchor instead.
+            if (value == null) {
+                return new SqlContinuation(sorters, values, id, skip + items.size());
+            }
+
+            lastValues.add(value);
+        }
+
+        return new SqlContinuation(sorters, lastValues, last.getId(), 0L);
+    }
+
+    // Converts the given sort value into a form that can be stored in the
+    // token and compared against the index.
+    private static Object toSeekValue(Object value) {
+        if (value instanceof String ||
+                value instanceof Number) {
+            return value;
+
+        } else if (value instanceof Date) {
+            return ((Date) value).getTime();
+
+        } else if (value instanceof UUID ||
+                value instanceof Enum) {
+            return value.toString();
+
+        } else if (value instanceof Recordable) {
+            return ((Recordable) value).getState().getId().toString();
+
+        } else {
+            return null;
+        }
+    }
+
+    /** Returns the opaque token that represents this position. */
+    public String encode() {
+        Map<String, Object> json = new LinkedHashMap<String, Object>();
+
+        json.put(SORTERS_KEY, sorters);
+
+        if (values != null && id != null) {
+            json.put(VALUES_KEY, values);
+            json.put(ID_KEY, id.toString());
+        }
+
+        if (skip > 0) {
+            json.put(SKIP_KEY, skip);
+        }
+
+        String base64 = DatatypeConverter.printBase64Binary(ObjectUtils.toJson(json).getBytes(StringUtils.UTF_8));
+        int end = base64.length();
+
+        while (end > 0 && base64.charAt(end - 1) == '=') {
+            -- end;
+        }
+
+        return base64.substring(0, end).replace('+', '-').replace('/', '_');
+    }
+
+    @Override
+    public String toString() {
+        return String.format("{values=%s, id=%s, skip=%s}", values, id, skip);
+    }
+}
@@ -0,0 +1,142 @@
+package com.psddev.dari.db;
+
+import java.util.Map;
+import java.util.UUID;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalListener;
+import com.google.common.cache.RemovalNotification;
+import com.psddev.dari.util.Stats;
+
+/**
+ * Process-wide cache of the unserialized object data used by
+ * {@link SqlDatabase} when {@link SqlDatabase#isCacheData} is
+ * {@code true}.
+ *
+ * <p>Unlike {@link CachingDatabase}, which only lives as long as a
+ * request, the entries here are shared across all requests. Each entry
+ * is validated against the update date in the {@code RecordUpdate} table
+ * that's read along with the object, so a stale entry is never used,
+ * and the data is copied on every read so that changes to one object
+ * don't leak into the others.</p>
+ */
+class SqlDataCache {
+
+    public static final long DEFAULT_MAXIMUM_SIZE = 10000L;
+
+    private static final Stats STATS = new Stats("SQL Data Cache");
+    private static final String HIT_STATS_OPERATION = "Hit";
+    private static final String MISS_STATS_OPERATION = "Miss";
+    private static final String STALE_STATS_OPERATION = "Stale";
+    private static final String EVICTION_STATS_OPERATION = "Eviction";
+
+    private final long maximumSize;
+    private final Cache<UUID, Entry> entries;
+
+    /**
+     * Creates an instance that holds at most the given
+     * {@code maximumSize} number of objects.
+     */
+    public SqlDataCache(long maximumSize) {
+        this.maximumSize = maximumSize;
+        this.entries = CacheBuilder.newBuilder().
+                maximumSize(maximumSize).
+                removalListener(new RemovalListener<UUID, Entry>() {
+
+                    @Override
+                    public void onRemoval(RemovalNotification<UUID, Entry> notification) {
+                        if (notification.wasEvicted()) {
+                            STATS.startTimer().stop(EVICTION_STATS_OPERATION);
+                        }
+                    }
+                }).
+                build();
+    }
+
+    /** Returns the maximum number of objects that can be cached. */
+    public long getMaximumSize() {
+        return maximumSize;
+    }
+
+    /** Returns the approximate number of objects currently cached. */
+    public long getSize() {
+        return entries.size();
+    }
+
+    /**
+     * Returns the entry for the object with the given {@code id} if it
+     * was cached at the given {@code updateDate}.
+     *
+     * @return May be {@code null}.
+     */
+    public Entry get(UUID id, double updateDate) {
+        Stats.Timer timer = STATS.startTimer();
+        Entry entry = entries.getIfPresent(id);
+
+        if (entry == null) {
+            timer.stop(MISS_STATS_OPERATION);
+            return null;
+
+        } else if (entry.updateDate != updateDate) {
+            entries.asMap().remove(id, entry);
+            timer.stop(STALE_STATS_OPERATION);
+            return null;
+
+        } else {
+            timer.stop(HIT_STATS_OPERATION);
+            return entry;
+        }
+    }
+
+    /**
+     * Caches the given {@code data} and its unserialized {@code values}
+     * for the object with the given {@code id} as of the given
+     * {@code updateDate}.
+     */
+    public void put(UUID id, double updateDate, byte[] data, Map<String, Object> values) {
+        if (id == null || updateDate == 0.0) {
+            return;
+        }
+
+        Entry old = entries.getIfPresent(id);
+
+        if (old == null || old.updateDate < updateDate) {
+            entries.put(id, new Entry(updateDate, data, SqlDatabase.cloneDataJson(values)));
+        }
+    }
+
+    /** Removes the object with the given {@code id}. */
+    public void invalidate(UUID id) {
+        entries.invalidate(id);
+    }
+
+    /** Removes all objects. */
+    public void invalidateAll() {
+        entries.invalidateAll();
+    }
+
+    /** Cached data of an object. */
+    public static class Entry {
+
+        private final double updateDate;
+        private final byte[] data;
+        private final Map<String, Object> values;
+
+        private Entry(double updateDate, byte[] data, Map<String, Object> values) {
+            this.updateDate = updateDate;
+            this.data = data;
+            this.values = values;
+        }
+
+        /** Returns the raw data as stored in the database. */
+        public byte[] getData() {
+            return data;
+        }
+
+        /** Returns a copy of the unserialized data. */
+        public Map<String, Object> getValues() {
+            return SqlDatabase.cloneDataJson(values);
+        }
+    }
+}
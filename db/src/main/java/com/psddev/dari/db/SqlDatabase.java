@@ -8,6 +8,7 @@ import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
 import java.lang.annotation.Target;
 import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
 import java.sql.BatchUpdateException;
 import java.sql.Connection;
 import java.sql.DatabaseMetaData;
@@ -38,8 +39,8 @@ import java.util.NoSuchElementException;
 import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.TimeUnit;
-import java.util.regex.Matcher;
 
 import javax.sql.DataSource;
 
@@ -66,7 +67,7 @@ import com.psddev.dari.util.TypeDefinition;
 import com.psddev.dari.util.UuidUtils;
 
 /** Database backed by a SQL engine. */
-public class SqlDatabase extends AbstractDatabase<Connection> {
+public class SqlDatabase extends AbstractDatabase<Connection> implements EnvironmentChangeNotifier {
 
     public static final String DATA_SOURCE_SETTING = "dataSource";
     public static final String JDBC_DRIVER_CLASS_SETTING = "jdbcDriverClass";
@@ -87,7 +88,9 @@ public class SqlDatabase extends AbstractDatabase<Connection> {
     public static final String VENDOR_CLASS_SETTING = "vendorClass";
     public static final String COMPRESS_DATA_SUB_SETTING = "compressData";
     public static final String CACHE_DATA_SUB_SETTING = "cacheData";
+    public static final String DATA_CACHE_SIZE_SUB_SETTING = "dataCacheSize";
     public static final String ENABLE_REPLICATION_CACHE_SUB_SETTING = "enableReplicationCache";
+    public static final String ENABLE_ENVIRONMENT_NOTIFICATION_SUB_SETTING = "enableEnvironmentNotification";
 
     public static final String RECORD_TABLE = "Record";
     public static final String RECORD_UPDATE_TABLE = "RecordUpdate";
@@ -117,6 +120,7 @@ public class SqlDatabase extends AbstractDatabase<Connection> {
     public static final String ORIGINAL_DATA_EXTRA = "sql.originalData";
 
     public static final String SUB_DATA_COLUMN_ALIAS_PREFIX = "subData_";
+    private static final String RAW_DATA_COLUMN_ALIAS = "rawData";
 
     private static final Logger LOGGER = LoggerFactory.getLogger(SqlDatabase.class);
     private static final String SHORT_NAME = "SQL";
@@ -145,9 +149,28 @@ public class SqlDatabase extends AbstractDatabase<Connection> {
     private volatile boolean compressData;
     private volatile boolean cacheData;
     private volatile boolean enableReplicationCache;
+    private volatile boolean enableEnvironmentNotification;
 
     private transient volatile Cache<UUID, Object[]> replicationCache = CacheBuilder.newBuilder().maximumSize(10000).build();
     private transient volatile MySQLBinaryLogReader mysqlBinaryLogReader;
+    private final transient List<EnvironmentChangeNotifier.Listener> environmentChangeListeners = new CopyOnWriteArrayList<EnvironmentChangeNotifier.Listener>();
+
+    private final transient EnvironmentChangeNotifier.Listener environmentChangeDispatcher = new EnvironmentChangeNotifier.Listener() {
+
+        @Override
+        public void changed(UUID id, UUID typeId) {
+            for (EnvironmentChangeNotifier.Listener listener : environmentChangeListeners) {
+                listener.changed(id, typeId);
+            }
+        }
+
+        @Override
+        public void changedAll() {
+            for (EnvironmentChangeNotifier.Listener listener : environmentChangeListeners) {
+                listener.changedAll();
+            }
+        }
+    };
 
     /**
      * Quotes the given {@code identifier} so that it's safe to use
@@ -359,6 +382,32 @@ public class SqlDatabase extends AbstractDatabase<Connection> {
         this.cacheData = cacheData;
     }
 
+    /**
+     * Returns the maximum number of objects that are kept in the data
+     * cache shared across all requests when {@link #isCacheData} is
+     * {@code true}.
+     */
+    public long getDataCacheSize() {
+        return dataCache.getMaximumSize();
+    }
+
+    /**
+     * Sets the maximum number of objects that are kept in the data
+     * cache. Changing it discards all objects in the existing cache.
+     */
+    public void setDataCacheSize(long dataCacheSize) {
+        if (dataCacheSize != dataCache.getMaximumSize()) {
+            dataCache = new SqlDataCache(dataCacheSize);
+        }
+    }
+
+    /**
+     * Invalidates all entries in the data cache.
+     */
+    public void invalidateDataCache() {
+        dataCache.invalidateAll();
+    }
+
     public boolean isEnableReplicationCache() {
         return enableReplicationCache;
     }
@@ -367,6 +416,42 @@ public class SqlDatabase extends AbstractDatabase<Connection> {
         this.enableReplicationCache = enableReplicationCache;
     }
 
+    /**
+     * Returns {@code true} if the changes to the types and the globals
+     * should be pushed to the environment using the MySQL binary log
+     * instead of being polled. The changes that can't be parsed from the
+     * binary log, which is common when it's statement-based, make the
+     * environment fall back to polling for a while.
+     */
+    public boolean isEnableEnvironmentNotification() {
+        return enableEnvironmentNotification;
+    }
+
+    public void setEnableEnvironmentNotification(boolean enableEnvironmentNotification) {
+        this.enableEnvironmentNotification = enableEnvironmentNotification;
+    }
+
+    // --- EnvironmentChangeNotifier support ---
+
+    @Override
+    public boolean isEnvironmentChangeNotifying() {
+        MySQLBinaryLogReader reader = mysqlBinaryLogReader;
+
+        return isEnableEnvironmentNotification() &&
+                reader != null &&
+                reader.isNotifying();
+    }
+
+    @Override
+    public void addEnvironmentChangeListener(EnvironmentChangeNotifier.Listener listener) {
+        environmentChangeListeners.add(listener);
+    }
+
+    @Override
+    public void removeEnvironmentChangeListener(EnvironmentChangeNotifier.Listener listener) {
+        environmentChangeListeners.remove(listener);
+    }
+
     /**
      * Returns {@code true} if the {@link #RECORD_TABLE} in this database
      * has the {@link #IN_ROW_INDEX_COLUMN}.
@@ -692,6 +777,15 @@ public class SqlDatabase extends AbstractDatabase<Connection> {
         return new SqlQuery(this, query).groupStatement(groupFields);
     }
 
+    /**
+     * Builds an SQL statement that can be used to get the count, minimum,
+     * maximum, and sum of the values in the given {@code aggregateField},
+     * grouped by the values of the given {@code groupFields}.
+     */
+    public String buildGroupedAggregateStatement(Query<?> query, String aggregateField, String... groupFields) {
+        return new SqlQuery(this, query).groupedAggregateStatement(aggregateField, groupFields);
+    }
+
     public String buildGroupedMetricStatement(Query<?> query, String metricFieldName, String... groupFields) {
         return new SqlQuery(this, query).groupedMetricSql(metricFieldName, groupFields);
     }
@@ -776,6 +870,11 @@ public class SqlDatabase extends AbstractDatabase<Connection> {
 
     @SuppressWarnings("unchecked")
     protected static Map<String, Object> unserializeData(byte[] dataBytes) {
+        return (Map<String, Object>) ObjectUtils.fromJson(uncompressData(dataBytes));
+    }
+
+    // Returns the JSON in the given dataBytes, uncompressing it if necessary.
+    static byte[] uncompressData(byte[] dataBytes) {
         char format = '\0';
 
         while (true) {
@@ -785,7 +884,7 @@ public class SqlDatabase extends AbstractDatabase<Connection> {
                 dataBytes = Snappy.uncompress(dataBytes, 1, dataBytes.length - 1);
 
             } else if (format == '{') {
-                return (Map<String, Object>) ObjectUtils.fromJson(dataBytes);
+                return dataBytes;
 
             } else {
                 break;
@@ -796,7 +895,7 @@ public class SqlDatabase extends AbstractDatabase<Connection> {
                 "Unknown format! ([%s])", format));
     }
 
-    private final transient Cache<String, byte[]> dataCache = CacheBuilder.newBuilder().maximumSize(10000).build();
+    private transient volatile SqlDataCache dataCache = new SqlDataCache(SqlDataCache.DEFAULT_MAXIMUM_SIZE);
 
     private class ConnectionRef {
 
@@ -833,13 +932,17 @@ public class SqlDatabase extends AbstractDatabase<Connection> {
 
         if (!objectState.isReferenceOnly()) {
             byte[] data = null;
+            Map<String, Object> values = null;
 
             if (isCacheData()) {
                 UUID id = objectState.getId();
-                String key = id + "/" + resultSet.getDouble(3);
-                data = dataCache.getIfPresent(key);
+                SqlDataCache.Entry cached = dataCache.get(id, resultSet.getDouble(3));
+
+                if (cached != null) {
+                    data = cached.getData();
+                    values = cached.getValues();
 
-                if (data == null) {
+                } else {
                     SqlVendor vendor = getVendor();
                     StringBuilder sqlQuery = new StringBuilder();
 
@@ -871,7 +974,11 @@ public class SqlDatabase extends AbstractDatabase<Connection> {
 
                         if (result.next()) {
                             data = result.getBytes(1);
-                            dataCache.put(id + "/" + result.getDouble(2), data);
+
+                            if (data != null) {
+                                values = unserializeData(data);
+                                dataCache.put(id, result.getDouble(2), data, values);
+                            }
                         }
 
                     } catch (SQLException error) {
@@ -884,10 +991,14 @@ public class SqlDatabase extends AbstractDatabase<Connection> {
 
             } else {
                 data = resultSet.getBytes(3);
+
+                if (data != null) {
+                    values = unserializeData(data);
+                }
             }
 
-            if (data != null) {
-                objectState.setValues(unserializeData(data));
+            if (values != null) {
+                objectState.setValues(values);
                 Boolean returnOriginal = ObjectUtils.to(Boolean.class, query.getOptions().get(RETURN_ORIGINAL_DATA_QUERY_OPTION));
                 if (returnOriginal == null) {
                     returnOriginal = Boolean.FALSE;
@@ -1091,7 +1202,7 @@ public class SqlDatabase extends AbstractDatabase<Connection> {
     }
 
     @SuppressWarnings("unchecked")
-    private static Map<String, Object> cloneDataJson(Map<String, Object> dataJson) {
+    static Map<String, Object> cloneDataJson(Map<String, Object> dataJson) {
         return (Map<String, Object>) cloneDataJsonRecursively(dataJson);
     }
 
@@ -1337,15 +1448,81 @@ public class SqlDatabase extends AbstractDatabase<Connection> {
         };
     }
 
+    /**
+     * Returns an iterable that reads the raw rows matching the given
+     * {@code query} without creating any objects, which is much faster
+     * when the data is only going to be copied elsewhere.
+     */
+    public Iterable<RawRow> readRawIterable(Query<?> query, final int fetchSize) {
+        final Query<?> rawQuery = query.clone();
+
+        // The data isn't normally selected when it's cached.
+        if (isCacheData()) {
+            StringBuilder extraColumns = new StringBuilder();
+            String oldExtraColumns = ObjectUtils.to(String.class, rawQuery.getOptions().get(EXTRA_COLUMNS_QUERY_OPTION));
+
+            if (oldExtraColumns != null) {
+                extraColumns.append(oldExtraColumns);
+                extraColumns.append(", ");
+            }
+
+            extraColumns.append("r.");
+            getVendor().appendIdentifier(extraColumns, DATA_COLUMN);
+            extraColumns.append(" AS ");
+            extraColumns.append(RAW_DATA_COLUMN_ALIAS);
+            rawQuery.getOptions().put(EXTRA_COLUMNS_QUERY_OPTION, extraColumns.toString());
+        }
+
+        final String sqlQuery = buildSelectStatement(rawQuery);
+
+        return new Iterable<RawRow>() {
+            @Override
+            public Iterator<RawRow> iterator() {
+                return new SqlRawIterator(sqlQuery, fetchSize, rawQuery);
+            }
+        };
+    }
+
+    /** Row as stored in the {@code Record} table. */
+    public static class RawRow {
+
+        private final UUID id;
+        private final UUID typeId;
+        private final byte[] data;
+
+        public RawRow(UUID id, UUID typeId, byte[] data) {
+            this.id = id;
+            this.typeId = typeId;
+            this.data = data;
+        }
+
+        public UUID getId() {
+            return id;
+        }
+
+        public UUID getTypeId() {
+            return typeId;
+        }
+
+        /**
+         * Returns the data as uncompressed JSON bytes.
+         *
+         * @return May be {@code null}.
+         */
+        public byte[] getData() {
+            return data;
+        }
+    }
+
     private class SqlIterator<T> implements java.io.Closeable, Iterator<T> {
 
         private final String sqlQuery;
-        private final Query<T> query;
+        protected final Query<T> query;
         private final ConnectionRef extraConnectionRef;
 
         private final Connection connection;
         private final Statement statement;
-        private final ResultSet result;
+        protected final ResultSet result;
 
         private boolean hasNext = true;
 
@@ -1398,7 +1575,7 @@ public class SqlDatabase extends AbstractDatabase<Connection> {
             }
 
             try {
-                T object = createSavedObjectWithResultSet(result, query, extraConnectionRef);
+                T object = createNext();
                 moveToNext();
                 return object;
 
@@ -1408,6 +1585,10 @@ public class SqlDatabase extends AbstractDatabase<Connection> {
             }
         }
 
+        protected T createNext() throws SQLException {
+            return createSavedObjectWithResultSet(result, query, extraConnectionRef);
+        }
+
         @Override
         public void remove() {
             throw new UnsupportedOperationException();
@@ -1419,6 +1600,30 @@ public class SqlDatabase extends AbstractDatabase<Connection> {
         }
     }
 
+    private class SqlRawIterator extends SqlIterator<RawRow> {
+
+        private int dataColumn;
+
+        @SuppressWarnings("unchecked")
+        public SqlRawIterator(String sqlQuery, int fetchSize, Query<?> query) {
+            super(sqlQuery, fetchSize, (Query<RawRow>) query);
+        }
+
+        @Override
+        protected RawRow createNext() throws SQLException {
+            if (dataColumn == 0) {
+                dataColumn = isCacheData() ? result.findColumn(RAW_DATA_COLUMN_ALIAS) : 3;
+            }
+
+            byte[] data = result.getBytes(dataColumn);
+
+            return new RawRow(
+                    ObjectUtils.to(UUID.class, result.getObject(1)),
+                    ObjectUtils.to(UUID.class, result.getObject(2)),
+                    data != null ? uncompressData(data) : null);
+        }
+    }
+
     /**
      * Fills the placeholders in the given {@code sqlQuery} with the given
      * {@code parameters}.
@@ -1676,19 +1881,27 @@ public class SqlDatabase extends AbstractDatabase<Connection> {
         }
 
         setCacheData(ObjectUtils.to(boolean.class, settings.get(CACHE_DATA_SUB_SETTING)));
+
+        Long dataCacheSize = ObjectUtils.to(Long.class, settings.get(DATA_CACHE_SIZE_SUB_SETTING));
+        if (dataCacheSize != null) {
+            setDataCacheSize(dataCacheSize);
+        }
+
         setEnableReplicationCache(ObjectUtils.to(boolean.class, settings.get(ENABLE_REPLICATION_CACHE_SUB_SETTING)));
+        setEnableEnvironmentNotification(ObjectUtils.to(boolean.class, settings.get(ENABLE_ENVIRONMENT_NOTIFICATION_SUB_SETTING)));
 
-        if (isEnableReplicationCache() &&
+        if ((isEnableReplicationCache() || isEnableEnvironmentNotification()) &&
                 vendor instanceof SqlVendor.MySQL &&
                 (mysqlBinaryLogReader == null ||
                 !mysqlBinaryLogReader.isRunning())) {
             try {
                 LOGGER.info("Starting MySQL binary log reader");
-                mysqlBinaryLogReader = new MySQLBinaryLogReader(replicationCache, ObjectUtils.firstNonNull(getReadDataSource(), getDataSource()));
+                mysqlBinaryLogReader = new MySQLBinaryLogReader(replicationCache, environmentChangeDispatcher, ObjectUtils.firstNonNull(getReadDataSource(), getDataSource()));
                 mysqlBinaryLogReader.start();
 
             } catch (IllegalArgumentException error) {
                 setEnableReplicationCache(false);
+                setEnableEnvironmentNotification(false);
                 LOGGER.warn("Can't start MySQL binary log reader!", error);
             }
         }
@@ -2051,6 +2264,10 @@ public class SqlDatabase extends AbstractDatabase<Connection> {
 
     @Override
     public <T> PaginatedResult<T> readPartial(final Query<T> query, long offset, int limit) {
+        if (query.getOptions().containsKey(Query.CONTINUATION_QUERY_OPTION)) {
+            return readPartialAfter(query, limit);
+        }
+
         List<T> objects = selectListWithOptions(
                 vendor.rewriteQueryWithLimitClause(buildSelectStatement(query), limit + 1, offset),
                 query);
@@ -2081,16 +2298,66 @@ public class SqlDatabase extends AbstractDatabase<Connection> {
         }
     }
 
+    /**
+     * Reads the page after the continuation in the given {@code query} by
+     * seeking past the last object on the previous page, so that the
+     * database doesn't have to read and discard all the previous rows.
+     */
+    private <T> PaginatedResult<T> readPartialAfter(Query<T> query, int limit) {
+        final SqlContinuation continuation = SqlContinuation.parse(
+                query,
+                ObjectUtils.to(String.class, query.getOptions().get(Query.CONTINUATION_QUERY_OPTION)));
+
+        final Query<T> seekQuery = continuation.createSeekQuery(query, vendor.isNullSortedFirst());
+        List<T> objects = selectListWithOptions(
+                vendor.rewriteQueryWithLimitClause(buildSelectStatement(seekQuery), limit + 1, continuation.getSkip()),
+                seekQuery);
+
+        int size = objects.size();
+        final boolean hasNext = size > limit;
+
+        if (hasNext) {
+            objects.remove(size - 1);
+        }
+
+        final String next = hasNext ? continuation.next(query, objects).encode() : null;
+        final Query<T> countQuery = query.clone();
+
+        countQuery.getOptions().remove(Query.CONTINUATION_QUERY_OPTION);
+
+        return new PaginatedResult<T>(0L, limit, 0L, objects) {
+
+            private Long count;
+
+            @Override
+            public long getCount() {
+                if (count == null) {
+                    count = readCount(countQuery);
+                }
+                return count;
+            }
+
+            @Override
+            public boolean hasNext() {
+                return hasNext;
+            }
+
+            @Override
+            public String getContinuation() {
+                return next;
+            }
+        };
+    }
+
     @Override
     public <T> PaginatedResult<Grouping<T>> readPartialGrouped(Query<T> query, long offset, int limit, String... fields) {
-        for (String field : fields) {
-            Matcher groupingMatcher = Query.RANGE_PATTERN.matcher(field);
-            if (groupingMatcher.find()) {
-                throw new UnsupportedOperationException("SqlDatabase does not support group by numeric range");
-            }
+        GroupingRange[] ranges = new GroupingRange[fields.length];
+        for (int i = 0, length = fields.length; i < length; ++ i) {
+            ranges[i] = GroupingRange.parse(fields[i]);
         }
 
         List<Grouping<T>> groupings = new ArrayList<Grouping<T>>();
+        Map<String, Map<List<Object>, AbstractGrouping.Aggregate>> aggregates = new HashMap<String, Map<List<Object>, AbstractGrouping.Aggregate>>();
         String sqlQuery = buildGroupStatement(query, fields);
         Connection connection = null;
         Statement statement = null;
@@ -2114,22 +2381,22 @@ public class SqlDatabase extends AbstractDatabase<Connection> {
                 SqlGrouping<T> grouping;
                 ResultSetMetaData meta = result.getMetaData();
                 String aggregateColumnName = meta.getColumnName(1);
-                if ("_count".equals(aggregateColumnName)) {
+                if ("_count".equalsIgnoreCase(aggregateColumnName)) {
                     long count = ObjectUtils.to(long.class, result.getObject(1));
                     for (int j = 0; j < fieldsLength; ++ j) {
                         keys.add(result.getObject(j + 2));
                     }
-                    grouping = new SqlGrouping<T>(keys, query, fields, count, groupings);
+                    grouping = new SqlGrouping<T>(keys, query, fields, count, groupings, aggregates);
                 } else {
                     Double amount = ObjectUtils.to(Double.class, result.getObject(1));
                     for (int j = 0; j < fieldsLength; ++ j) {
                         keys.add(result.getObject(j + 3));
                     }
                     long count = 0L;
-                    if (meta.getColumnName(2).equals("_count")) {
+                    if ("_count".equalsIgnoreCase(meta.getColumnName(2))) {
                         count = ObjectUtils.to(long.class, result.getObject(2));
                     }
-                    grouping = new SqlGrouping<T>(keys, query, fields, count, groupings);
+                    grouping = new SqlGrouping<T>(keys, query, fields, count, groupings, aggregates);
                     if (amount == null) {
                         amount = 0d;
                     }
@@ -2142,6 +2409,15 @@ public class SqlDatabase extends AbstractDatabase<Connection> {
             List<Integer> removes = new ArrayList<Integer>();
 
             for (int i = 0; i < fieldsLength; ++ i) {
+                GroupingRange range = ranges[i];
+                if (range != null) {
+                    for (int j = 0; j < groupingsSize; ++ j) {
+                        List<Object> keys = groupings.get(j).getKeys();
+                        keys.set(i, range.getBucket(ObjectUtils.to(Long.class, keys.get(i))));
+                    }
+                    continue;
+                }
+
                 Query.MappedKey key = query.mapEmbeddedKey(getEnvironment(), fields[i]);
                 ObjectField field = key.getSubQueryKeyField();
                 if (field == null) {
@@ -2203,10 +2479,16 @@ public class SqlDatabase extends AbstractDatabase<Connection> {
 
         private final List<Grouping<T>> groupings;
 
-        public SqlGrouping(List<Object> keys, Query<T> query, String[] fields, long count, List<Grouping<T>> groupings) {
+        private final List<Object> rawKeys;
+
+        private final Map<String, Map<List<Object>, Aggregate>> aggregates;
+
+        public SqlGrouping(List<Object> keys, Query<T> query, String[] fields, long count, List<Grouping<T>> groupings, Map<String, Map<List<Object>, Aggregate>> aggregates) {
             super(keys, query, fields);
             this.count = count;
             this.groupings = groupings;
+            this.rawKeys = toRawGroupingKeys(keys);
+            this.aggregates = aggregates;
         }
 
         @Override
@@ -2290,9 +2572,61 @@ public class SqlDatabase extends AbstractDatabase<Connection> {
 
         // --- AbstractGrouping support ---
 
+        // Calculates the aggregates for all groupings from the same query
+        // at once, since they're usually all displayed together.
         @Override
         protected Aggregate createAggregate(String field) {
-            throw new UnsupportedOperationException();
+            Map<List<Object>, Aggregate> aggregatesByKeys = aggregates.get(field);
+
+            if (aggregatesByKeys == null) {
+                aggregatesByKeys = new HashMap<List<Object>, Aggregate>();
+                Query.MappedKey mappedKey = query.mapEmbeddedKey(getEnvironment(), field);
+                ObjectField objectField = mappedKey.getField();
+                String sqlQuery = buildGroupedAggregateStatement(query, field, fields);
+                Connection connection = null;
+                Statement statement = null;
+                ResultSet result = null;
+
+                try {
+                    connection = openQueryConnection(query);
+                    statement = connection.createStatement();
+                    result = executeQueryBeforeTimeout(statement, sqlQuery, getQueryReadTimeout(query));
+
+                    while (result.next()) {
+                        Aggregate aggregate = new Aggregate();
+                        Object minimum = result.getObject(3);
+                        Object maximum = result.getObject(4);
+
+                        if (objectField != null) {
+                            String itemType = objectField.getInternalItemType();
+                            minimum = StateValueUtils.toJavaValue(query.getDatabase(), null, objectField, itemType, minimum);
+                            maximum = StateValueUtils.toJavaValue(query.getDatabase(), null, objectField, itemType, maximum);
+                        }
+
+                        aggregate.setNonNullCount(ObjectUtils.to(long.class, result.getObject(2)));
+                        aggregate.setMinimum(minimum);
+                        aggregate.setMaximum(maximum);
+                        aggregate.setSum(result.getDouble(5));
+
+                        List<Object> keys = new ArrayList<Object>();
+                        for (int j = 0, length = fields.length; j < length; ++ j) {
+                            keys.add(result.getObject(j + 6));
+                        }
+                        aggregatesByKeys.put(toRawGroupingKeys(keys), aggregate);
+                    }
+
+                } catch (SQLException ex) {
+                    throw createQueryException(ex, sqlQuery, query);
+
+                } finally {
+                    closeResources(query, connection, statement, result);
+                }
+
+                aggregates.put(field, aggregatesByKeys);
+            }
+
+            Aggregate aggregate = aggregatesByKeys.get(rawKeys);
+            return aggregate != null ? aggregate : new Aggregate();
         }
 
         @Override
@@ -2301,6 +2635,28 @@ public class SqlDatabase extends AbstractDatabase<Connection> {
         }
     }
 
+    // Copies the raw grouping keys so that they can be compared across
+    // result sets. Numbers are compared by their values, and binary values,
+    // such as IDs, by their contents.
+    private static List<Object> toRawGroupingKeys(List<Object> keys) {
+        List<Object> rawKeys = new ArrayList<Object>();
+
+        for (int i = 0, size = keys.size(); i < size; ++ i) {
+            Object key = keys.get(i);
+
+            if (key instanceof byte[]) {
+                key = ByteBuffer.wrap((byte[]) key);
+
+            } else if (key instanceof Number) {
+                key = ((Number) key).doubleValue();
+            }
+
+            rawKeys.add(key);
+        }
+
+        return rawKeys;
+    }
+
     /**
      * Invalidates all entries in the replication cache.
      */
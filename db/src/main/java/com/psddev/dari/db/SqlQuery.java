@@ -49,6 +49,8 @@ class SqlQuery {
     private String extraSourceColumns;
     private final List<String> orderBySelectColumns = new ArrayList<String>();
     private final Map<String, String> groupBySelectColumnAliases = new LinkedHashMap<String, String>();
+    private final Map<String, GroupingRange> groupRanges = new HashMap<String, GroupingRange>();
+    private String groupAggregateField;
     private final List<Join> joins = new ArrayList<Join>();
     private final Map<Query<?>, String> subQueries = new LinkedHashMap<Query<?>, String>();
     private final Map<Query<?>, SqlQuery> subSqlQueries = new HashMap<Query<?>, SqlQuery>();
@@ -1054,7 +1056,11 @@ class SqlQuery {
         Map<String, SqlQuery> groupSubSqlQueries = new HashMap<String, SqlQuery>();
         if (groupFields != null) {
             for (String groupField : groupFields) {
-                Query.MappedKey mappedKey = query.mapEmbeddedKey(database.getEnvironment(), groupField);
+                GroupingRange range = GroupingRange.parse(groupField);
+                if (range != null) {
+                    groupRanges.put(groupField, range);
+                }
+                Query.MappedKey mappedKey = query.mapEmbeddedKey(database.getEnvironment(), range != null ? range.getField() : groupField);
                 if (mappedKey.getField() != null) {
                     if (mappedKey.getField().isMetric()) {
                         if (Query.METRIC_DIMENSION_ATTRIBUTE.equals(mappedKey.getHashAttribute())) {
@@ -1090,6 +1096,14 @@ class SqlQuery {
             }
         }
 
+        String aggregateValueField = null;
+        if (groupAggregateField != null) {
+            Query.MappedKey mappedKey = query.mapEmbeddedKey(database.getEnvironment(), groupAggregateField);
+            mappedKeys.put(groupAggregateField, mappedKey);
+            selectIndex(groupAggregateField, mappedKey);
+            aggregateValueField = getJoin(groupAggregateField).getValueField(groupAggregateField, null);
+        }
+
         StringBuilder statementBuilder = new StringBuilder();
         StringBuilder groupBy = new StringBuilder();
         initializeClauses();
@@ -1110,6 +1124,16 @@ class SqlQuery {
         statementBuilder.append(')');
         statementBuilder.append(' ');
         vendor.appendIdentifier(statementBuilder, "_count");
+        if (aggregateValueField != null) {
+            statementBuilder.append(", COUNT(").append(aggregateValueField).append(") ");
+            vendor.appendIdentifier(statementBuilder, "_nonNullCount");
+            statementBuilder.append(", MIN(").append(aggregateValueField).append(") ");
+            vendor.appendIdentifier(statementBuilder, "_minimum");
+            statementBuilder.append(", MAX(").append(aggregateValueField).append(") ");
+            vendor.appendIdentifier(statementBuilder, "_maximum");
+            statementBuilder.append(", SUM(").append(aggregateValueField).append(") ");
+            vendor.appendIdentifier(statementBuilder, "_sum");
+        }
         int columnNum = 0;
         for (Map.Entry<String, Join> entry : groupJoins.entrySet()) {
             statementBuilder.append(", ");
@@ -1118,14 +1142,14 @@ class SqlQuery {
                     statementBuilder.append(subSqlSelectField);
                 }
             } else {
-                statementBuilder.append(entry.getValue().getValueField(entry.getKey(), null));
+                statementBuilder.append(getGroupValueField(entry.getKey(), entry.getValue()));
             }
             statementBuilder.append(' ');
             String columnAlias = null;
             if (!entry.getValue().queryKey.equals(Query.ID_KEY) && !entry.getValue().queryKey.equals(Query.DIMENSION_KEY)) { // Special case for id and dimensionId
                 // These column names just need to be unique if we put this statement in a subquery
                 columnAlias = "value" + columnNum;
-                groupBySelectColumnAliases.put(entry.getValue().getValueField(entry.getKey(), null), columnAlias);
+                groupBySelectColumnAliases.put(getGroupValueField(entry.getKey(), entry.getValue()), columnAlias);
             }
             ++columnNum;
             if (columnAlias != null) {
@@ -1153,7 +1177,7 @@ class SqlQuery {
                     groupBy.append(subSqlSelectField);
                 }
             } else {
-                groupBy.append(entry.getValue().getValueField(entry.getKey(), null));
+                groupBy.append(getGroupValueField(entry.getKey(), entry.getValue()));
             }
             groupBy.append(", ");
         }
@@ -1188,7 +1212,7 @@ class SqlQuery {
                 if (i++ > 0) {
                     statementBuilder.append(", ");
                 }
-                statementBuilder.append(entry.getValue().getValueField(entry.getKey(), null));
+                statementBuilder.append(getGroupValueField(entry.getKey(), entry.getValue()));
             }
 
         } else {
@@ -1204,6 +1228,51 @@ class SqlQuery {
         }
     }
 
+    /**
+     * Returns an SQL statement that can be used to get the count, minimum,
+     * maximum, and sum of the values in the given {@code aggregateField},
+     * grouped by the values of the given {@code groupFields}.
+     */
+    public String groupedAggregateStatement(String aggregateField, String[] groupFields) {
+        groupAggregateField = aggregateField;
+        return groupStatement(groupFields);
+    }
+
+    // Returns the expression that the given groupField should be grouped
+    // by. For the numeric ranges, it's the index of the bucket that
+    // matches GroupingRange#getIndex.
+    private String getGroupValueField(String groupField, Join join) {
+        String valueField = join.getValueField(groupField, null);
+        GroupingRange range = groupRanges.get(groupField);
+
+        if (range == null) {
+            return valueField;
+        }
+
+        double start = range.getStart();
+        long lastWindow = range.getLastWindow();
+        StringBuilder rangeBuilder = new StringBuilder();
+
+        rangeBuilder.append("(CASE WHEN ");
+        rangeBuilder.append(valueField);
+        rangeBuilder.append(" < ");
+        vendor.appendValue(rangeBuilder, start);
+        rangeBuilder.append(lastWindow >= 0 ? " THEN -1" : " THEN NULL");
+        rangeBuilder.append(" WHEN ");
+        rangeBuilder.append(valueField);
+        rangeBuilder.append(" >= ");
+        vendor.appendValue(rangeBuilder, start + lastWindow * range.getGap());
+        rangeBuilder.append(" THEN NULL ELSE FLOOR((");
+        rangeBuilder.append(valueField);
+        rangeBuilder.append(" - ");
+        vendor.appendValue(rangeBuilder, start);
+        rangeBuilder.append(") / ");
+        vendor.appendValue(rangeBuilder, range.getGap());
+        rangeBuilder.append(") END)");
+
+        return rangeBuilder.toString();
+    }
+
     /**
      * Returns an SQL statement that can be used to get the sum
      * of the specified Metric {@code metricFieldName} grouped by the values
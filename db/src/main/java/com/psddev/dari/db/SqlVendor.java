@@ -237,6 +237,71 @@ public class SqlVendor {
         return true;
     }
 
+    /**
+     * Returns {@code true} if {@code NULL}s are sorted before all other
+     * values in an ascending order.
+     */
+    public boolean isNullSortedFirst() {
+        return true;
+    }
+
+    /**
+     * Returns {@code true} if this vendor supports the session level named
+     * locks through {@link #tryNativeLock} and {@link #releaseNativeLock}.
+     * {@link DistributedLock} only uses them if
+     * {@value DistributedLock#NATIVE_SETTING} is {@code true}.
+     */
+    public boolean supportsNativeLocks() {
+        return false;
+    }
+
+    /**
+     * Tries to acquire the named lock identified by the given {@code id}
+     * without waiting. The lock is held until it's released through
+     * {@link #releaseNativeLock} or the given {@code connection} is
+     * closed.
+     *
+     * @throws UnsupportedOperationException If
+     *         {@link #supportsNativeLocks} is {@code false}.
+     */
+    public boolean tryNativeLock(Connection connection, UUID id) throws SQLException {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Releases the named lock identified by the given {@code id} that was
+     * acquired through {@link #tryNativeLock} using the given
+     * {@code connection}.
+     *
+     * @throws UnsupportedOperationException If
+     *         {@link #supportsNativeLocks} is {@code false}.
+     */
+    public void releaseNativeLock(Connection connection, UUID id) throws SQLException {
+        throw new UnsupportedOperationException();
+    }
+
+    // Executes the given lock function with the given parameter and
+    // returns whether it succeeded.
+    protected boolean executeLockFunction(Connection connection, String sql, Object parameter) throws SQLException {
+        PreparedStatement statement = connection.prepareStatement(sql);
+
+        try {
+            statement.setObject(1, parameter);
+
+            ResultSet result = statement.executeQuery();
+
+            try {
+                return result.next() && result.getBoolean(1);
+
+            } finally {
+                result.close();
+            }
+
+        } finally {
+            statement.close();
+        }
+    }
+
     public void appendIdentifier(StringBuilder builder, String identifier) {
         builder.append('"');
         builder.append(identifier.replace("\"", "\"\""));
@@ -820,6 +885,21 @@ public class SqlVendor {
 
         private static final Logger LOGGER = LoggerFactory.getLogger(MySQL.class);
 
+        @Override
+        public boolean supportsNativeLocks() {
+            return true;
+        }
+
+        @Override
+        public boolean tryNativeLock(Connection connection, UUID id) throws SQLException {
+            return executeLockFunction(connection, "SELECT GET_LOCK(?, 0)", "dari." + id);
+        }
+
+        @Override
+        public void releaseNativeLock(Connection connection, UUID id) throws SQLException {
+            executeLockFunction(connection, "SELECT RELEASE_LOCK(?)", "dari." + id);
+        }
+
         @Override
         public void setTransactionIsolation(Connection connection) throws SQLException {
             if (statementReplication == null) {
@@ -1324,6 +1404,30 @@ public class SqlVendor {
 
     public static class PostgreSQL extends SqlVendor {
 
+        @Override
+        public boolean isNullSortedFirst() {
+            return false;
+        }
+
+        @Override
+        public boolean supportsNativeLocks() {
+            return true;
+        }
+
+        @Override
+        public boolean tryNativeLock(Connection connection, UUID id) throws SQLException {
+            return executeLockFunction(connection, "SELECT pg_try_advisory_lock(?)", getAdvisoryLockKey(id));
+        }
+
+        @Override
+        public void releaseNativeLock(Connection connection, UUID id) throws SQLException {
+            executeLockFunction(connection, "SELECT pg_advisory_unlock(?)", getAdvisoryLockKey(id));
+        }
+
+        private long getAdvisoryLockKey(UUID id) {
+            return id.getMostSignificantBits() ^ id.getLeastSignificantBits();
+        }
+
         @Override
         protected String getSetUpResourcePath() {
             return "postgres/schema-12.sql";
@@ -1654,6 +1758,11 @@ public class SqlVendor {
 
     public static class Oracle extends SqlVendor {
 
+        @Override
+        public boolean isNullSortedFirst() {
+            return false;
+        }
+
         @Override
         public void appendIdentifier(StringBuilder builder, String identifier) {
             builder.append(identifier.replace("\"", "\"\""));
@@ -36,6 +36,7 @@ import com.psddev.dari.util.ObjectUtils;
 import com.psddev.dari.util.Profiler;
 import com.psddev.dari.util.StorageItem;
 import com.psddev.dari.util.StringUtils;
+import com.psddev.dari.util.TypeAccessor;
 import com.psddev.dari.util.TypeDefinition;
 import com.psddev.dari.util.UuidUtils;
 
@@ -1602,6 +1603,8 @@ public class State implements Map<String, Object> {
                 continue;
             }
 
+            TypeAccessor<?> accessor = TypeDefinition.getInstance(objectClass).getAccessor();
+
             for (ObjectField field : type.getFields()) {
                 Field javaField = field.getJavaField(objectClass);
                 if (javaField == null ||
@@ -1609,11 +1612,7 @@ public class State implements Map<String, Object> {
                     continue;
                 }
 
-                try {
-                    rawValues.put(field.getInternalName(), javaField.get(object));
-                } catch (IllegalAccessException ex) {
-                    throw new IllegalStateException(ex);
-                }
+                rawValues.put(field.getInternalName(), accessor.get(object, javaField));
             }
         }
     }
@@ -1665,58 +1664,54 @@ public class State implements Map<String, Object> {
             return;
         }
 
-        try {
-            Type javaFieldType = javaField.getGenericType();
-
-            if ((!javaField.getType().isPrimitive() &&
-                    !Number.class.isAssignableFrom(javaField.getType())) &&
-                    (javaFieldType instanceof Class ||
-                    ((value instanceof StateValueList ||
-                    value instanceof StateValueMap ||
-                    value instanceof StateValueSet) &&
-                    ObjectField.RECORD_TYPE.equals(field.getInternalItemType())))) {
-                try {
-                    javaField.set(object, value);
-                    return;
-
-                } catch (IllegalArgumentException error) {
-                    // Ignore since it will be retried below.
-                }
-            }
+        TypeAccessor<?> accessor = TypeDefinition.getInstance(object.getClass()).getAccessor();
+        Type javaFieldType = javaField.getGenericType();
 
+        if ((!javaField.getType().isPrimitive() &&
+                !Number.class.isAssignableFrom(javaField.getType())) &&
+                (javaFieldType instanceof Class ||
+                ((value instanceof StateValueList ||
+                value instanceof StateValueMap ||
+                value instanceof StateValueSet) &&
+                ObjectField.RECORD_TYPE.equals(field.getInternalItemType())))) {
             try {
-                if (javaFieldType instanceof TypeVariable) {
-                    javaField.set(object, value);
+                accessor.set(object, javaField, value);
+                return;
 
-                } else if (javaFieldType instanceof Class &&
-                        ((Class<?>) javaFieldType).isPrimitive()) {
-                    javaField.set(object, ObjectUtils.to(javaFieldType, value));
+            } catch (IllegalArgumentException error) {
+                // Ignore since it will be retried below.
+            }
+        }
 
-                } else {
-                    javaField.set(object, CONVERTER.convert(javaFieldType, value));
-                }
+        try {
+            if (javaFieldType instanceof TypeVariable) {
+                accessor.set(object, javaField, value);
 
-            } catch (RuntimeException error) {
-                Throwable cause;
+            } else if (javaFieldType instanceof Class &&
+                    ((Class<?>) javaFieldType).isPrimitive()) {
+                accessor.set(object, javaField, ObjectUtils.to(javaFieldType, value));
 
-                if (error instanceof ConversionException) {
-                    cause = error.getCause();
+            } else {
+                accessor.set(object, javaField, CONVERTER.convert(javaFieldType, value));
+            }
 
-                    if (cause == null) {
-                        cause = error;
-                    }
+        } catch (RuntimeException error) {
+            Throwable cause;
 
-                } else {
+            if (error instanceof ConversionException) {
+                cause = error.getCause();
+
+                if (cause == null) {
                     cause = error;
                 }
 
-                rawValues.put("dari.trash." + key, value);
-                rawValues.put("dari.trashError." + key, cause.getClass().getName());
-                rawValues.put("dari.trashErrorMessage." + key, cause.getMessage());
+            } else {
+                cause = error;
             }
 
-        } catch (IllegalAccessException error) {
-            throw new IllegalStateException(error);
+            rawValues.put("dari.trash." + key, value);
+            rawValues.put("dari.trashError." + key, cause.getClass().getName());
+            rawValues.put("dari.trashErrorMessage." + key, cause.getMessage());
         }
     }
 
@@ -1733,17 +1728,15 @@ public class State implements Map<String, Object> {
                 continue;
             }
 
+            TypeAccessor<?> accessor = TypeDefinition.getInstance(objectClass).getAccessor();
+
             for (ObjectField field : type.getFields()) {
                 Field javaField = field.getJavaField(objectClass);
                 if (javaField == null) {
                     continue;
                 }
 
-                try {
-                    javaField.set(object, ObjectUtils.to(javaField.getGenericType(), null));
-                } catch (IllegalAccessException ex) {
-                    throw new IllegalStateException(ex);
-                }
+                accessor.set(object, javaField, ObjectUtils.to(javaField.getGenericType(), null));
             }
         }
     }
@@ -1791,12 +1784,7 @@ public class State implements Map<String, Object> {
                 continue;
             }
 
-            Object value;
-            try {
-                value = javaField.get(object);
-            } catch (IllegalAccessException ex) {
-                throw new IllegalStateException(ex);
-            }
+            Object value = TypeDefinition.getInstance(objectClass).getAccessor().get(object, javaField);
 
             rawValues.put(field.getInternalName(), value);
             return value;
@@ -1,5 +1,6 @@
 package com.psddev.dari.db;
 
+import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
@@ -13,7 +14,10 @@ import javax.servlet.http.HttpServletResponse;
 
 import com.psddev.dari.util.AsyncQueue;
 import com.psddev.dari.util.DebugFilter;
+import com.psddev.dari.util.LocalStorageItem;
+import com.psddev.dari.util.ObjectUtils;
 import com.psddev.dari.util.StorageItem;
+import com.psddev.dari.util.StorageItemMigration;
 import com.psddev.dari.util.TaskExecutor;
 import com.psddev.dari.util.WebPageContext;
 
@@ -38,7 +42,31 @@ public class StorageDebugServlet extends HttpServlet {
         final List<ObjectType> types = new ArrayList<ObjectType>(selectedDatabase.getEnvironment().getTypes());
         Collections.sort(types, new ObjectFieldComparator("internalName", false));
 
-        if (wp.isFormPost()) {
+        IllegalArgumentException migrationError = null;
+
+        if (wp.isFormPost() && "migrate".equals(wp.param(String.class, "action"))) {
+            try {
+                StorageItemMigration migration = new StorageItemMigration(
+                        wp.param(String.class, "source"),
+                        wp.param(String.class, "destination"));
+
+                migration.setParallelism(wp.param(int.class, "parallelism"));
+                migration.setVerify(wp.param(boolean.class, "verify"));
+
+                String checkpoint = wp.param(String.class, "checkpoint");
+                if (!ObjectUtils.isBlank(checkpoint)) {
+                    migration.setCheckpointFile(new File(checkpoint));
+                }
+
+                migration.start(StorageItemMigration.Static.listLocalItems(migration.getSource()));
+                wp.redirect(null);
+                return;
+
+            } catch (IllegalArgumentException error) {
+                migrationError = error;
+            }
+
+        } else if (wp.isFormPost()) {
             UUID selectedTypeId = wp.param(UUID.class, "typeId");
             ObjectType selectedType = null;
             for (ObjectType type : types) {
@@ -75,11 +103,15 @@ public class StorageDebugServlet extends HttpServlet {
 
         final List<TaskExecutor> copyExecutors = new ArrayList<TaskExecutor>();
         for (TaskExecutor executor : TaskExecutor.Static.getAll()) {
-            if (executor.getName().startsWith(COPIER_PREFIX)) {
+            String name = executor.getName();
+            if (name.startsWith(COPIER_PREFIX) ||
+                    name.startsWith(StorageItemMigration.EXECUTOR_PREFIX)) {
                 copyExecutors.add(executor);
             }
         }
 
+        final IllegalArgumentException finalMigrationError = migrationError;
+
         new DebugFilter.PageWriter(getServletContext(), request, response) { {
             startPage("Database", "Storage Item Bulk Operations");
 
@@ -143,6 +175,70 @@ public class StorageDebugServlet extends HttpServlet {
                     writeEnd();
                 writeEnd();
 
+                writeStart("h2");
+                    writeHtml("Migrate");
+                writeEnd();
+
+                writeStart("p");
+                    writeHtml("Use this to copy all files in a local storage to another storage without going through the objects that reference them.");
+                writeEnd();
+
+                if (finalMigrationError != null) {
+                    writeStart("div", "class", "alert alert-error");
+                        writeObject(finalMigrationError);
+                    writeEnd();
+                }
+
+                writeStart("form", "action", "", "class", "form-horizontal", "method", "post");
+                    writeElement("input", "name", "action", "type", "hidden", "value", "migrate");
+
+                    writeStart("div", "class", "control-group");
+                        writeStart("label", "class", "control-label", "id", wp.createId()).writeHtml("Source").writeEnd();
+                        writeStart("div", "class", "controls");
+                            writeStart("select", "class", "span2", "id", wp.getId(), "name", "source");
+                                for (String name : StorageItem.Static.getStorages()) {
+                                    if (StorageItem.Static.createIn(name) instanceof LocalStorageItem) {
+                                        writeStart("option", "value", name).writeHtml(name).writeEnd();
+                                    }
+                                }
+                            writeEnd();
+                        writeEnd();
+                    writeEnd();
+
+                    writeStart("div", "class", "control-group");
+                        writeStart("label", "class", "control-label", "id", wp.createId()).writeHtml("Destination").writeEnd();
+                        writeStart("div", "class", "controls");
+                            writeStart("select", "class", "span2", "id", wp.getId(), "name", "destination");
+                                for (String name : StorageItem.Static.getStorages()) {
+                                    writeStart("option", "value", name).writeHtml(name).writeEnd();
+                                }
+                            writeEnd();
+                        writeEnd();
+                    writeEnd();
+
+                    writeStart("div", "class", "control-group");
+                        writeStart("label", "class", "control-label", "id", wp.createId()).writeHtml("Parallelism").writeEnd();
+                        writeStart("div", "class", "controls");
+                            writeElement("input", "class", "span2", "id", wp.getId(), "name", "parallelism", "type", "text", "value", StorageItemMigration.DEFAULT_PARALLELISM);
+                        writeEnd();
+                    writeEnd();
+
+                    writeStart("div", "class", "control-group");
+                        writeStart("label", "class", "control-label", "id", wp.createId()).writeHtml("Checkpoint File").writeEnd();
+                        writeStart("div", "class", "controls");
+                            writeElement("input", "class", "span6", "id", wp.getId(), "name", "checkpoint", "type", "text");
+                            writeStart("label", "class", "checkbox", "style", "margin-top: 5px;");
+                                writeElement("input", "name", "verify", "type", "checkbox", "checked", "checked");
+                                writeHtml("Verify checksums?");
+                            writeEnd();
+                        writeEnd();
+                    writeEnd();
+
+                    writeStart("div", "class", "form-actions");
+                        writeElement("input", "type", "submit", "class", "btn btn-success", "value", "Start");
+                    writeEnd();
+                writeEnd();
+
                 if (!copyExecutors.isEmpty()) {
                     writeStart("h3").writeHtml("Ongoing Tasks").writeEnd();
                     writeStart("ul");
@@ -0,0 +1,121 @@
+package com.psddev.dari.db;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.FieldNode;
+import org.objectweb.asm.tree.MethodNode;
+
+import com.psddev.dari.util.ClassEnhancer;
+import com.psddev.dari.util.ObjectUtils;
+import com.psddev.dari.util.TypeAccessor;
+
+/**
+ * Lets the {@linkplain com.psddev.dari.util.TypeDefinition#getAccessor
+ * generated accessors} read and write the private fields directly by
+ * adding the static methods named with
+ * {@link TypeAccessor#FIELD_GETTER_PREFIX} and
+ * {@link TypeAccessor#FIELD_SETTER_PREFIX} to the model classes. If the
+ * project uses Apache Maven to manage the build and inherits from
+ * {@code com.psddev:dari-parent}, this enhancer is automatically applied
+ * to all model classes.
+ *
+ * <p>Note that this is an optional performance optimization. It's always
+ * safe not to enable it.</p>
+ *
+ * @see <a href="http://maven.apache.org/">Apache Maven</a>
+ */
+public class TypeAccessorEnhancer extends ClassEnhancer {
+
+    private String enhancedClassName;
+    private final List<FieldNode> privateFields = new ArrayList<FieldNode>();
+
+    // --- ClassEnhancer support ---
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public boolean canEnhance(ClassReader reader) {
+        enhancedClassName = reader.getClassName();
+
+        if ((reader.getAccess() & Opcodes.ACC_INTERFACE) != 0) {
+            return false;
+        }
+
+        Class<?> objectClass = ObjectUtils.getClassByName(enhancedClassName.replace('/', '.'));
+
+        if (objectClass == null ||
+                !Recordable.class.isAssignableFrom(objectClass)) {
+            return false;
+        }
+
+        ClassNode node = new ClassNode();
+
+        reader.accept(node, ClassReader.SKIP_CODE | ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES);
+
+        for (MethodNode method : (List<MethodNode>) node.methods) {
+            if (method.name.startsWith(TypeAccessor.FIELD_GETTER_PREFIX)) {
+                return false;
+            }
+        }
+
+        for (FieldNode field : (List<FieldNode>) node.fields) {
+            if ((field.access & Opcodes.ACC_PRIVATE) != 0 &&
+                    (field.access & (Opcodes.ACC_STATIC | Opcodes.ACC_SYNTHETIC)) == 0) {
+                privateFields.add(field);
+            }
+        }
+
+        return !privateFields.isEmpty();
+    }
+
+    @Override
+    public void visitEnd() {
+        String ownerDesc = "L" + enhancedClassName + ";";
+
+        for (FieldNode field : privateFields) {
+            Type fieldType = Type.getType(field.desc);
+
+            // static F dari$get$field(D object) { return object.field; }
+            MethodVisitor getter = super.visitMethod(
+                    Opcodes.ACC_STATIC | Opcodes.ACC_SYNTHETIC,
+                    TypeAccessor.FIELD_GETTER_PREFIX + field.name,
+                    "(" + ownerDesc + ")" + field.desc,
+                    null,
+                    null);
+
+            getter.visitCode();
+            getter.visitVarInsn(Opcodes.ALOAD, 0);
+            getter.visitFieldInsn(Opcodes.GETFIELD, enhancedClassName, field.name, field.desc);
+            getter.visitInsn(fieldType.getOpcode(Opcodes.IRETURN));
+            getter.visitMaxs(0, 0);
+            getter.visitEnd();
+
+            if ((field.access & Opcodes.ACC_FINAL) != 0) {
+                continue;
+            }
+
+            // static void dari$set$field(D object, F value) { object.field = value; }
+            MethodVisitor setter = super.visitMethod(
+                    Opcodes.ACC_STATIC | Opcodes.ACC_SYNTHETIC,
+                    TypeAccessor.FIELD_SETTER_PREFIX + field.name,
+                    "(" + ownerDesc + field.desc + ")V",
+                    null,
+                    null);
+
+            setter.visitCode();
+            setter.visitVarInsn(Opcodes.ALOAD, 0);
+            setter.visitVarInsn(fieldType.getOpcode(Opcodes.ILOAD), 1);
+            setter.visitFieldInsn(Opcodes.PUTFIELD, enhancedClassName, field.name, field.desc);
+            setter.visitInsn(Opcodes.RETURN);
+            setter.visitMaxs(0, 0);
+            setter.visitEnd();
+        }
+
+        super.visitEnd();
+    }
+}
@@ -0,0 +1,219 @@
+package com.psddev.dari.db;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.psddev.dari.util.SparseSet;
+
+public class AggregateDatabaseOutboxTest {
+
+    private static final long TIMEOUT = 10000L;
+
+    private static TestDatabase DEFAULT_TEST_DATABASE;
+    private static TestDatabase SECONDARY_TEST_DATABASE;
+
+    private AggregateDatabase aggregate;
+    private SecondaryDatabase secondary;
+
+    @BeforeClass
+    public static void beforeClass() {
+        DEFAULT_TEST_DATABASE = DatabaseTestUtils.getSqlTestDatabase();
+        SECONDARY_TEST_DATABASE = DatabaseTestUtils.getSqlTestDatabase();
+    }
+
+    @AfterClass
+    public static void afterClass() {
+        if (DEFAULT_TEST_DATABASE != null) {
+            DEFAULT_TEST_DATABASE.close();
+        }
+
+        if (SECONDARY_TEST_DATABASE != null) {
+            SECONDARY_TEST_DATABASE.close();
+        }
+    }
+
+    @Before
+    public void before() {
+        Database defaultDelegate = DEFAULT_TEST_DATABASE.get();
+
+        secondary = new SecondaryDatabase();
+        aggregate = new AggregateDatabase();
+        aggregate.setEnvironment(defaultDelegate.getEnvironment());
+        aggregate.setDefaultDelegate(defaultDelegate);
+        aggregate.addDelegate(defaultDelegate, new SparseSet("+/"));
+        aggregate.addDelegate(secondary, new SparseSet("+/"));
+        aggregate.setOutbox(new AggregateDatabaseOutbox(aggregate));
+    }
+
+    @After
+    public void after() throws InterruptedException {
+        aggregate.getOutbox().stop();
+
+        // Leave nothing behind for the next test.
+        secondary.failing = false;
+        makeDue();
+        aggregate.getOutbox().notifyCommitted();
+        awaitEntries(0);
+    }
+
+    private Item save(String name) {
+        Item item = new Item();
+
+        item.name = name;
+        item.getState().setDatabase(aggregate);
+        item.save();
+        return item;
+    }
+
+    private List<AggregateDatabaseOutbox.Entry> findEntries() {
+        return Query.
+                from(AggregateDatabaseOutbox.Entry.class).
+                where("delegateName = ?", secondary.getName()).
+                using(aggregate.getDefaultDelegate()).
+                noCache().
+                master().
+                selectAll();
+    }
+
+    // Skips the retry delay of all waiting entries.
+    private void makeDue() {
+        for (AggregateDatabaseOutbox.Entry entry : findEntries()) {
+            entry.setNextAttemptTime(0L);
+            aggregate.getDefaultDelegate().saveUnsafely(entry.getState());
+        }
+    }
+
+    private void awaitEntries(int size) throws InterruptedException {
+        long end = System.currentTimeMillis() + TIMEOUT;
+
+        while (findEntries().size() != size) {
+            if (System.currentTimeMillis() > end) {
+                fail(String.format("Expected %s entries but found %s!", size, findEntries().size()));
+            }
+
+            Thread.sleep(20L);
+        }
+    }
+
+    private void awaitAttempts(int attempts) throws InterruptedException {
+        long end = System.currentTimeMillis() + TIMEOUT;
+
+        while (true) {
+            List<AggregateDatabaseOutbox.Entry> entries = findEntries();
+
+            if (entries.size() == 1 && entries.get(0).getAttempts() == attempts) {
+                return;
+
+            } else if (System.currentTimeMillis() > end) {
+                fail(String.format("Expected an entry after %s attempts!", attempts));
+            }
+
+            Thread.sleep(20L);
+        }
+    }
+
+    @Test
+    public void enqueueAndDrain() throws InterruptedException {
+        Item item = save("enqueueAndDrain");
+
+        awaitEntries(0);
+
+        assertTrue(secondary.written.contains(item.getId()));
+        assertTrue(Query.from(Item.class).where("_id = ?", item.getId()).using(SECONDARY_TEST_DATABASE.get()).noCache().hasMoreThan(0));
+        assertEquals(Long.valueOf(0L), aggregate.getOutbox().getBacklogs().get(secondary.getName()));
+    }
+
+    @Test
+    public void retryThenSuccess() throws InterruptedException {
+        secondary.failing = true;
+
+        Item item = save("retryThenSuccess");
+
+        awaitAttempts(1);
+        assertFalse(secondary.written.contains(item.getId()));
+        assertTrue(findEntries().get(0).getLastError() != null);
+
+        secondary.failing = false;
+        makeDue();
+        aggregate.getOutbox().notifyCommitted();
+        awaitEntries(0);
+
+        assertTrue(secondary.written.contains(item.getId()));
+    }
+
+    @Test
+    public void givesUpAfterMaximumAttempts() throws InterruptedException {
+        aggregate.getOutbox().setMaximumAttempts(2);
+        secondary.failing = true;
+
+        Item item = save("givesUpAfterMaximumAttempts");
+
+        awaitAttempts(1);
+        makeDue();
+        aggregate.getOutbox().notifyCommitted();
+        awaitEntries(0);
+
+        assertFalse(secondary.written.contains(item.getId()));
+    }
+
+    @Test
+    public void restartRecovery() throws InterruptedException {
+        secondary.failing = true;
+
+        Item item = save("restartRecovery");
+
+        awaitAttempts(1);
+
+        // As if the VM restarted while the entry was waiting to be
+        // retried.
+        aggregate.getOutbox().stop();
+        aggregate.setOutbox(new AggregateDatabaseOutbox(aggregate));
+        secondary.failing = false;
+        makeDue();
+        aggregate.getOutbox().start(0.1);
+        awaitEntries(0);
+
+        assertTrue(secondary.written.contains(item.getId()));
+    }
+
+    // Records the delivered writes and fails them on demand.
+    private static class SecondaryDatabase extends ForwardingDatabase {
+
+        public final Set<UUID> written = Collections.newSetFromMap(new ConcurrentHashMap<UUID, Boolean>());
+        public volatile boolean failing;
+
+        public SecondaryDatabase() {
+            setDelegate(SECONDARY_TEST_DATABASE.get());
+        }
+
+        @Override
+        public void saveUnsafely(State state) {
+            if (failing) {
+                throw new IllegalStateException("Secondary is down!");
+            }
+
+            super.saveUnsafely(state);
+            written.add(state.getId());
+        }
+    }
+
+    public static class Item extends Record {
+
+        @Indexed
+        public String name;
+    }
+}
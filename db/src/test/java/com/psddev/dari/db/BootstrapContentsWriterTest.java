@@ -0,0 +1,131 @@
+package com.psddev.dari.db;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.psddev.dari.util.ObjectUtils;
+
+public class BootstrapContentsWriterTest {
+
+    private static TestDatabase TEST_DATABASE;
+    private static Database DATABASE;
+
+    @BeforeClass
+    public static void beforeClass() {
+        TEST_DATABASE = DatabaseTestUtils.getSqlTestDatabase();
+        DATABASE = TEST_DATABASE.get();
+
+        List<Author> authors = new ArrayList<Author>();
+
+        for (int i = 0; i < 3; ++ i) {
+            Author author = new Author();
+            author.name = "author " + i;
+            author.getState().setDatabase(DATABASE);
+            author.save();
+            authors.add(author);
+        }
+
+        SqlDatabase sql = (SqlDatabase) DATABASE;
+
+        try {
+            for (int i = 0; i < 10; ++ i) {
+                sql.setCompressData(i % 2 == 0);
+
+                Article article = new Article();
+                article.title = "article " + i;
+                article.author = authors.get(i % 3);
+                article.getState().setDatabase(DATABASE);
+                article.save();
+            }
+
+        } finally {
+            sql.setCompressData(false);
+        }
+    }
+
+    @AfterClass
+    public static void afterClass() {
+        if (TEST_DATABASE != null) {
+            TEST_DATABASE.close();
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<Map<String, Object>> export() throws Exception {
+        BootstrapPackage pkg = new BootstrapPackage();
+        StringWriter writer = new StringWriter();
+
+        pkg.setName("test");
+        pkg.setTypes(new HashSet<ObjectType>(Collections.singleton(DATABASE.getEnvironment().getTypeByClass(Article.class))));
+        BootstrapPackage.Static.writeContents(DATABASE, pkg, new HashSet<ObjectType>(), writer, "test");
+
+        String contents = writer.toString();
+        List<Map<String, Object>> rows = new ArrayList<Map<String, Object>>();
+
+        assertTrue(contents.endsWith("\n"));
+
+        for (String line : contents.substring(contents.indexOf("\n\n") + 2).split("\n")) {
+            rows.add((Map<String, Object>) ObjectUtils.fromJson(line));
+        }
+
+        return rows;
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void rows() throws Exception {
+        int articles = 0;
+
+        for (Map<String, Object> row : export()) {
+            if (Article.class.getName().equals(row.get("_type"))) {
+                Map<String, Object> author = (Map<String, Object>) row.get("author");
+
+                assertTrue(((String) row.get("title")).startsWith("article "));
+                assertEquals(Author.class.getName(), author.get("_type"));
+                ++ articles;
+            }
+        }
+
+        assertEquals(10, articles);
+    }
+
+    @Test
+    public void followReferences() throws Exception {
+        List<String> authorNames = new ArrayList<String>();
+
+        for (Map<String, Object> row : export()) {
+            if (Author.class.getName().equals(row.get("_type"))) {
+                authorNames.add((String) row.get("name"));
+            }
+        }
+
+        Collections.sort(authorNames);
+        assertEquals(3, authorNames.size());
+        assertEquals("author 0", authorNames.get(0));
+        assertEquals("author 2", authorNames.get(2));
+    }
+
+    public static class Article extends Record {
+
+        public String title;
+
+        @BootstrapFollowReferences
+        public Author author;
+    }
+
+    public static class Author extends Record {
+
+        public String name;
+    }
+}
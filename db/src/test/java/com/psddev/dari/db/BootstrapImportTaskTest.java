@@ -0,0 +1,207 @@
+package com.psddev.dari.db;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringWriter;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.psddev.dari.util.IoUtils;
+import com.psddev.dari.util.ObjectUtils;
+import com.psddev.dari.util.StringUtils;
+
+public class BootstrapImportTaskTest {
+
+    private static final int ITEM_COUNT = 3000;
+    private static final String FILENAME = BootstrapImportTaskTest.class.getName() + ".json";
+
+    private static TestDatabase SOURCE_TEST_DATABASE;
+    private static byte[] CONTENTS;
+
+    private TestDatabase targetTestDatabase;
+    private TestDatabase otherTestDatabase;
+
+    @BeforeClass
+    public static void beforeClass() throws IOException {
+        SOURCE_TEST_DATABASE = DatabaseTestUtils.getSqlTestDatabase();
+        Database source = SOURCE_TEST_DATABASE.get();
+
+        for (int i = 0; i < ITEM_COUNT; ++ i) {
+            Item item = new Item();
+            item.name = "item " + i;
+            item.getState().setDatabase(source);
+            item.save();
+        }
+
+        BootstrapPackage pkg = new BootstrapPackage();
+        StringWriter writer = new StringWriter();
+
+        pkg.setName("test");
+        pkg.setTypes(new HashSet<ObjectType>(Collections.singleton(source.getEnvironment().getTypeByClass(Item.class))));
+        BootstrapPackage.Static.writeContents(source, pkg, new HashSet<ObjectType>(), writer, "test");
+        CONTENTS = writer.toString().getBytes(StringUtils.UTF_8);
+    }
+
+    @AfterClass
+    public static void afterClass() {
+        if (SOURCE_TEST_DATABASE != null) {
+            SOURCE_TEST_DATABASE.close();
+        }
+    }
+
+    @After
+    public void after() {
+        for (TestDatabase testDatabase : new TestDatabase[] { targetTestDatabase, otherTestDatabase }) {
+            if (testDatabase != null) {
+                new BootstrapImportTask(testDatabase.get(), FILENAME, null, false, 1, 10).getCheckpointFile().delete();
+                testDatabase.close();
+            }
+        }
+    }
+
+    private BootstrapImportTask run(Database database, InputStream input, boolean resume) {
+        BootstrapImportTask importer = new BootstrapImportTask(database, FILENAME, input, false, 1, 10);
+
+        importer.setNumParsers(2);
+        importer.setResume(resume);
+        importer.run();
+        return importer;
+    }
+
+    private void assertAllImported(Database database) {
+        List<Item> items = Query.from(Item.class).using(database).noCache().selectAll();
+
+        assertEquals(ITEM_COUNT, items.size());
+
+        for (Item item : items) {
+            assertTrue(item.name.startsWith("item "));
+        }
+    }
+
+    // Fails the import after most of the rows have been read.
+    private BootstrapImportTask interrupt(Database database) {
+        BootstrapImportTask importer = run(database, new FailingInputStream(CONTENTS, CONTENTS.length * 9 / 10), false);
+        File checkpoint = importer.getCheckpointFile();
+
+        assertTrue(importer.getLastException() instanceof IOException);
+        assertTrue(checkpoint.exists());
+        return importer;
+    }
+
+    private long readCheckpointLine(File checkpoint) throws IOException {
+        return ObjectUtils.to(long.class, IoUtils.toString(checkpoint, StringUtils.UTF_8).trim().split("\\s+")[1]);
+    }
+
+    @Test
+    public void importAll() {
+        targetTestDatabase = DatabaseTestUtils.getSqlTestDatabase();
+        Database target = targetTestDatabase.get();
+        BootstrapImportTask importer = run(target, new ByteArrayInputStream(CONTENTS), false);
+
+        assertNull(importer.getLastException());
+        assertEquals(ITEM_COUNT, importer.getProgressIndex());
+        assertFalse(importer.getCheckpointFile().exists());
+        assertAllImported(target);
+    }
+
+    @Test
+    public void resumeAfterFailure() throws IOException {
+        targetTestDatabase = DatabaseTestUtils.getSqlTestDatabase();
+        Database target = targetTestDatabase.get();
+        BootstrapImportTask failed = interrupt(target);
+        long checkpointLine = readCheckpointLine(failed.getCheckpointFile());
+
+        assertTrue(checkpointLine > 0);
+        assertTrue(checkpointLine < ITEM_COUNT);
+
+        BootstrapImportTask resumed = run(target, new ByteArrayInputStream(CONTENTS), true);
+
+        assertNull(resumed.getLastException());
+        assertEquals(ITEM_COUNT - checkpointLine, resumed.getProgressIndex());
+        assertFalse(resumed.getCheckpointFile().exists());
+        assertAllImported(target);
+    }
+
+    @Test
+    public void noResumeByDefault() {
+        targetTestDatabase = DatabaseTestUtils.getSqlTestDatabase();
+        Database target = targetTestDatabase.get();
+
+        interrupt(target);
+
+        BootstrapImportTask importer = run(target, new ByteArrayInputStream(CONTENTS), false);
+
+        assertEquals(ITEM_COUNT, importer.getProgressIndex());
+        assertAllImported(target);
+    }
+
+    @Test
+    public void noResumeIntoOtherDatabase() {
+        targetTestDatabase = DatabaseTestUtils.getSqlTestDatabase();
+        otherTestDatabase = DatabaseTestUtils.getSqlTestDatabase();
+        Database other = otherTestDatabase.get();
+
+        interrupt(targetTestDatabase.get());
+
+        BootstrapImportTask importer = run(other, new ByteArrayInputStream(CONTENTS), true);
+
+        assertNull(importer.getLastException());
+        assertEquals(ITEM_COUNT, importer.getProgressIndex());
+        assertAllImported(other);
+    }
+
+    private static class FailingInputStream extends FilterInputStream {
+
+        private long remaining;
+
+        public FailingInputStream(byte[] bytes, long failAfter) {
+            super(new ByteArrayInputStream(bytes));
+            this.remaining = failAfter;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (remaining <= 0) {
+                throw new IOException("Simulated failure!");
+            }
+
+            -- remaining;
+            return super.read();
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            if (remaining <= 0) {
+                throw new IOException("Simulated failure!");
+            }
+
+            int read = super.read(buffer, offset, (int) Math.min(length, remaining));
+
+            if (read > 0) {
+                remaining -= read;
+            }
+
+            return read;
+        }
+    }
+
+    public static class Item extends Record {
+
+        @Indexed
+        public String name;
+    }
+}
@@ -0,0 +1,213 @@
+package com.psddev.dari.db;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.psddev.dari.util.CollectionUtils;
+import com.psddev.dari.util.Settings;
+import com.psddev.dari.util.TaskExecutor;
+
+public class CachingDatabaseFilterTest {
+
+    private static final int ITEM_COUNT = 10;
+    private static final String SETTINGS_NAME = CachingDatabaseFilterTest.class.getName();
+
+    private static TestDatabase TEST_DATABASE;
+    private static Database DATABASE;
+    private static Map<UUID, UUID> IDS;
+
+    private final Map<String, Object> overrides = new HashMap<String, Object>();
+
+    @BeforeClass
+    public static void beforeClass() {
+        TEST_DATABASE = DatabaseTestUtils.getSqlTestDatabase();
+        DATABASE = TEST_DATABASE.get();
+        IDS = new HashMap<UUID, UUID>();
+
+        for (int i = 0; i < ITEM_COUNT; ++ i) {
+            Item item = new Item();
+            item.name = "item " + i;
+            item.getState().setDatabase(DATABASE);
+            item.save();
+            IDS.put(item.getId(), item.getState().getTypeId());
+        }
+    }
+
+    @AfterClass
+    public static void afterClass() {
+        if (TEST_DATABASE != null) {
+            TEST_DATABASE.close();
+        }
+    }
+
+    @After
+    public void after() {
+        Settings.removePermanentOverrides(SETTINGS_NAME);
+    }
+
+    private void setBatchSize(int batchSize) {
+        CollectionUtils.putByPath(overrides, "dari/cachingFilterPreloadBatchSize", batchSize);
+        Settings.putPermanentOverrides(SETTINGS_NAME, overrides);
+    }
+
+    private CachingDatabase createCaching() {
+        CachingDatabase caching = new CachingDatabase();
+
+        caching.setDelegate(DATABASE);
+        return caching;
+    }
+
+    private void await(CachingDatabaseFilter.Preload preload) throws Exception {
+        for (Future<?> future : preload.getFutures()) {
+            try {
+                future.get(10, TimeUnit.SECONDS);
+
+            } catch (CancellationException error) {
+                // Cancelled by finish, so nothing to wait for.
+            }
+        }
+    }
+
+    private void assertBatchSize(int batchSize, int batches) throws Exception {
+        setBatchSize(batchSize);
+
+        CachingDatabase caching = createCaching();
+        CachingDatabaseFilter.Preload preload = new CachingDatabaseFilter.Preload(DATABASE, caching, IDS);
+
+        preload.start();
+        await(preload);
+
+        assertEquals(batches, preload.getFutures().size());
+        assertEquals(IDS.keySet(), caching.getObjectCache().keySet());
+    }
+
+    @Test
+    public void batchSize() throws Exception {
+        assertBatchSize(3, 4);
+    }
+
+    @Test
+    public void batchSizeZero() throws Exception {
+        assertBatchSize(0, ITEM_COUNT);
+    }
+
+    @Test
+    public void batchSizeNegative() throws Exception {
+        assertBatchSize(-5, ITEM_COUNT);
+    }
+
+    @Test
+    public void keepsAlreadyCached() throws Exception {
+        CachingDatabase caching = createCaching();
+        UUID id = IDS.keySet().iterator().next();
+        Object read = Query.from(Item.class).where("_id = ?", id).using(DATABASE).first();
+        CachingDatabaseFilter.Preload preload = new CachingDatabaseFilter.Preload(DATABASE, caching, IDS);
+
+        caching.getObjectCache().put(id, read);
+        preload.start();
+        await(preload);
+
+        assertSame(read, caching.getObjectCache().get(id));
+        assertEquals(IDS.keySet(), caching.getObjectCache().keySet());
+    }
+
+    @Test
+    public void nothingAfterFinish() throws Exception {
+        BlockingDatabase blocking = new BlockingDatabase();
+        CachingDatabase caching = createCaching();
+        CachingDatabaseFilter.Preload preload = new CachingDatabaseFilter.Preload(blocking, caching, IDS);
+
+        preload.start();
+        assertTrue(blocking.started.await(10, TimeUnit.SECONDS));
+        preload.finish();
+        blocking.release.countDown();
+        await(preload);
+
+        assertTrue(caching.getObjectCache().isEmpty());
+    }
+
+    @Test
+    public void nothingStaleAfterFlush() throws Exception {
+        BlockingDatabase blocking = new BlockingDatabase();
+        CachingDatabase caching = createCaching();
+        CachingDatabaseFilter.Preload preload = new CachingDatabaseFilter.Preload(blocking, caching, IDS);
+
+        preload.start();
+        assertTrue(blocking.started.await(10, TimeUnit.SECONDS));
+        caching.flush();
+        blocking.release.countDown();
+        await(preload);
+
+        assertTrue(caching.getObjectCache().isEmpty());
+    }
+
+    @Test
+    public void droppedWhenBusy() throws Exception {
+        String executorName = CachingDatabaseFilterTest.class.getName() + " Preloads";
+
+        CollectionUtils.putByPath(overrides, TaskExecutor.SETTING_PREFIX + "/" + executorName + "/" + TaskExecutor.MAXIMUM_SIZE_SUB_SETTING, 1);
+        setBatchSize(ITEM_COUNT / 2);
+
+        BlockingDatabase blocking = new BlockingDatabase();
+        CachingDatabase caching = createCaching();
+        CachingDatabaseFilter.Preload preload = new CachingDatabaseFilter.Preload(blocking, caching, IDS, executorName);
+
+        // The only thread is taken by the first batch, so the second one
+        // is dropped instead of waiting.
+        preload.start();
+        blocking.release.countDown();
+        await(preload);
+
+        assertEquals(1, preload.getFutures().size());
+        assertEquals(ITEM_COUNT / 2, caching.getObjectCache().size());
+    }
+
+    // Blocks the reads after they've fetched the objects until released.
+    private static class BlockingDatabase extends ForwardingDatabase {
+
+        public final CountDownLatch started = new CountDownLatch(1);
+        public final CountDownLatch release = new CountDownLatch(1);
+
+        public BlockingDatabase() {
+            setDelegate(DATABASE);
+        }
+
+        @Override
+        public <T> List<T> readAll(Query<T> query) {
+            List<T> all = new ArrayList<T>(super.readAll(query));
+
+            started.countDown();
+
+            try {
+                release.await(10, TimeUnit.SECONDS);
+
+            } catch (InterruptedException error) {
+                Thread.currentThread().interrupt();
+            }
+
+            return all;
+        }
+    }
+
+    public static class Item extends Record {
+
+        @Indexed
+        public String name;
+    }
+}
@@ -0,0 +1,149 @@
+package com.psddev.dari.db;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.Color;
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.psddev.dari.util.HuslColorSpace;
+
+public class ColorDistributionTest {
+
+    private static int[] createRandomColors(int count, long seed) {
+        Random random = new Random(seed);
+        int[] colors = new int[count * 3];
+
+        for (int i = 0; i < count; ++ i) {
+            colors[i * 3] = random.nextInt(360);
+            colors[i * 3 + 1] = random.nextInt(101);
+            colors[i * 3 + 2] = random.nextInt(101);
+        }
+
+        return colors;
+    }
+
+    private static int sum(int[] values) {
+        int sum = 0;
+
+        for (int value : values) {
+            sum += value;
+        }
+
+        return sum;
+    }
+
+    @Test
+    public void samplePixelsLimited() {
+        BufferedImage image = new BufferedImage(200, 100, BufferedImage.TYPE_INT_RGB);
+        int[] red = HuslColorSpace.Static.fromRGBtoHUSL(255, 0, 0);
+
+        for (int x = 0; x < 200; ++ x) {
+            for (int y = 0; y < 100; ++ y) {
+                image.setRGB(x, y, Color.RED.getRGB());
+            }
+        }
+
+        int[] colors = ColorDistribution.Static.samplePixels(image, 1000);
+
+        assertEquals(1000 * 3, colors.length);
+
+        for (int i = 0; i < 1000; ++ i) {
+            assertArrayEquals(red, Arrays.copyOfRange(colors, i * 3, i * 3 + 3));
+        }
+    }
+
+    @Test
+    public void samplePixelsAll() {
+        BufferedImage image = new BufferedImage(10, 10, BufferedImage.TYPE_INT_RGB);
+
+        for (int x = 0; x < 10; ++ x) {
+            image.setRGB(x, 0, Color.BLUE.getRGB());
+        }
+
+        int[] colors = ColorDistribution.Static.samplePixels(image, 1000);
+
+        assertEquals(100 * 3, colors.length);
+        assertArrayEquals(HuslColorSpace.Static.fromRGBtoHUSL(0, 0, 255), Arrays.copyOfRange(colors, 0, 3));
+        assertArrayEquals(HuslColorSpace.Static.fromRGBtoHUSL(0, 0, 0), Arrays.copyOfRange(colors, 297, 300));
+    }
+
+    @Test
+    public void findClustersDeterministic() {
+        int[] colors = createRandomColors(5000, 1L);
+        int[] centers1 = new int[15];
+        int[] centers2 = new int[15];
+        int[] sizes1 = ColorDistribution.Static.findClusters(colors, centers1, 5, 20, 42L);
+        int[] sizes2 = ColorDistribution.Static.findClusters(colors.clone(), centers2, 5, 20, 42L);
+
+        assertArrayEquals(sizes1, sizes2);
+        assertArrayEquals(centers1, centers2);
+        assertEquals(5000, sum(sizes1));
+    }
+
+    @Test
+    public void findClustersIterationCap() {
+        int[] colors = new int[] {
+                10, 50, 50,
+                20, 50, 50,
+                200, 50, 50,
+                210, 50, 50 };
+
+        // Without any iterations, the centers are the initial picks and
+        // all colors are left in the first cluster.
+        int[] centers = new int[6];
+        int[] sizes = ColorDistribution.Static.findClusters(colors, centers, 2, 0, 0L);
+
+        assertArrayEquals(new int[] { 4, 0 }, sizes);
+
+        for (int c = 0; c < 2; ++ c) {
+            assertTrue(Arrays.asList(10, 20, 200, 210).contains(centers[c * 3]));
+        }
+
+        // With enough iterations, the centers converge to the means.
+        sizes = ColorDistribution.Static.findClusters(colors, centers, 2, 20, 0L);
+        int[] hues = new int[] { centers[0], centers[3] };
+
+        Arrays.sort(hues);
+        assertArrayEquals(new int[] { 15, 205 }, hues);
+        assertArrayEquals(new int[] { 2, 2 }, sizes);
+    }
+
+    @Test
+    public void findClustersEmpty() {
+        int[] sizes = ColorDistribution.Static.findClusters(new int[0], new int[15], 5, 20, 0L);
+
+        assertArrayEquals(new int[5], sizes);
+    }
+
+    @Test
+    public void findClustersMoreClustersThanColors() {
+        int[] colors = new int[300];
+
+        for (int i = 0; i < 100; ++ i) {
+            colors[i * 3] = 120;
+            colors[i * 3 + 1] = 80;
+            colors[i * 3 + 2] = 40;
+        }
+
+        int[] centers = new int[15];
+        int[] sizes = ColorDistribution.Static.findClusters(colors, centers, 5, 20, 0L);
+        int nonEmpty = 0;
+
+        for (int c = 0; c < 5; ++ c) {
+            assertArrayEquals(new int[] { 120, 80, 40 }, Arrays.copyOfRange(centers, c * 3, c * 3 + 3));
+
+            if (sizes[c] > 0) {
+                ++ nonEmpty;
+            }
+        }
+
+        assertEquals(1, nonEmpty);
+        assertEquals(100, sum(sizes));
+    }
+}
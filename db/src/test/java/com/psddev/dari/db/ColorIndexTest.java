@@ -0,0 +1,144 @@
+package com.psddev.dari.db;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.psddev.dari.util.CollectionUtils;
+import com.psddev.dari.util.Settings;
+import com.psddev.dari.util.StorageItem;
+
+public class ColorIndexTest {
+
+    private static final String SETTINGS_NAME = ColorIndexTest.class.getName();
+
+    private static TestDatabase TEST_DATABASE;
+    private static ColorIndex INDEX;
+
+    private static UUID RED;
+    private static UUID MOSTLY_RED;
+    private static UUID BLUE;
+
+    @BeforeClass
+    public static void beforeClass() {
+        Map<String, Object> overrides = new HashMap<String, Object>();
+
+        CollectionUtils.putByPath(overrides, ColorIndex.REFRESH_INTERVAL_SETTING, 0L);
+        Settings.putPermanentOverrides(SETTINGS_NAME, overrides);
+
+        TEST_DATABASE = DatabaseTestUtils.getSqlTestDatabase();
+        INDEX = ColorIndex.getInstance(TEST_DATABASE.get());
+        INDEX.getSize();
+
+        RED = save(createDistribution(12, 100, 60, 1.0, 265, 100, 40, 0.0)).getId();
+        MOSTLY_RED = save(createDistribution(12, 100, 60, 0.7, 265, 100, 40, 0.3)).getId();
+        BLUE = save(createDistribution(12, 100, 60, 0.0, 265, 100, 40, 1.0)).getId();
+    }
+
+    @AfterClass
+    public static void afterClass() {
+        Settings.removePermanentOverrides(SETTINGS_NAME);
+
+        if (TEST_DATABASE != null) {
+            TEST_DATABASE.close();
+        }
+    }
+
+    private static ColorDistribution createDistribution(
+            int hue1, int saturation1, int lightness1, double percentage1,
+            int hue2, int saturation2, int lightness2, double percentage2) {
+
+        ColorDistribution distribution = new ColorDistribution();
+
+        distribution.getState().setDatabase(TEST_DATABASE.get());
+        distribution.getState().put(ColorDistribution.Static.getBucket(hue1, saturation1, lightness1), percentage1);
+        distribution.getState().put(ColorDistribution.Static.getBucket(hue2, saturation2, lightness2), percentage2);
+        return distribution;
+    }
+
+    private static Image create(ColorDistribution distribution) {
+        Image image = new Image();
+
+        image.getState().setDatabase(TEST_DATABASE.get());
+        image.as(ColorDistribution.Data.class).setDistribution(distribution);
+        return image;
+    }
+
+    private static Image save(ColorDistribution distribution) {
+        Image image = create(distribution);
+
+        image.save();
+        return image;
+    }
+
+    @Test
+    public void findSimilar() {
+        List<ColorIndex.Match> matches = INDEX.findSimilar(createDistribution(12, 100, 60, 0.75, 265, 100, 40, 0.25), 2);
+
+        assertEquals(2, matches.size());
+        assertEquals(MOSTLY_RED, matches.get(0).getId());
+        assertEquals(RED, matches.get(1).getId());
+    }
+
+    @Test
+    public void findDominant() {
+        List<ColorIndex.Match> matches = INDEX.findDominant(265, 100, 40, 0.5, 10);
+
+        assertEquals(1, matches.size());
+        assertEquals(BLUE, matches.get(0).getId());
+    }
+
+    @Test
+    public void saveAndDelete() {
+        Image image = save(createDistribution(12, 100, 60, 0.6, 265, 100, 40, 0.4));
+
+        assertEquals(3, INDEX.findDominant(12, 100, 60, 0.5, 10).size());
+
+        image.as(ColorDistribution.Data.class).setDistribution(createDistribution(12, 100, 60, 0.1, 265, 100, 40, 0.9));
+        image.save();
+        assertEquals(2, INDEX.findDominant(12, 100, 60, 0.5, 10).size());
+        assertEquals(2, INDEX.findDominant(265, 100, 40, 0.5, 10).size());
+
+        image.delete();
+        assertEquals(1, INDEX.findDominant(265, 100, 40, 0.5, 10).size());
+    }
+
+    @Test
+    public void refresh() {
+        // As if the object was saved in another VM.
+        INDEX.remove(BLUE);
+        assertEquals(0, INDEX.findDominant(265, 100, 40, 0.5, 10).size());
+
+        INDEX.refresh(BLUE);
+        assertEquals(1, INDEX.findDominant(265, 100, 40, 0.5, 10).size());
+    }
+
+    @Test
+    public void reload() {
+        UUID stale = new Image().getId();
+
+        // As if the object was deleted in another VM.
+        INDEX.update(stale, createDistribution(12, 100, 60, 0.0, 265, 100, 40, 1.0));
+        assertEquals(2, INDEX.findDominant(265, 100, 40, 0.5, 10).size());
+
+        INDEX.reload();
+        assertEquals(1, INDEX.findDominant(265, 100, 40, 0.5, 10).size());
+        assertTrue(INDEX.getSize() >= 3);
+    }
+
+    public static class Image extends Record implements ColorImage {
+
+        @Override
+        public StorageItem getColorImage() {
+            return null;
+        }
+    }
+}
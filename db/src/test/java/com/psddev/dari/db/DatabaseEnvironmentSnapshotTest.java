@@ -0,0 +1,129 @@
+package com.psddev.dari.db;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.psddev.dari.util.CollectionUtils;
+import com.psddev.dari.util.IoUtils;
+import com.psddev.dari.util.Settings;
+import com.psddev.dari.util.UuidUtils;
+
+public class DatabaseEnvironmentSnapshotTest {
+
+    private static final String SETTINGS_NAME = DatabaseEnvironmentSnapshotTest.class.getName();
+
+    private File directory;
+    private TestDatabase testDatabase;
+
+    @Before
+    public void before() throws IOException {
+        Map<String, Object> overrides = new HashMap<String, Object>();
+
+        directory = File.createTempFile("dari-environment-snapshot", "");
+        directory.delete();
+        directory.mkdirs();
+
+        CollectionUtils.putByPath(overrides, DatabaseEnvironment.SNAPSHOT_DIRECTORY_SETTING, directory.getPath());
+        Settings.putPermanentOverrides(SETTINGS_NAME, overrides);
+
+        testDatabase = DatabaseTestUtils.getSqlTestDatabase();
+    }
+
+    @After
+    public void after() throws IOException {
+        Settings.removePermanentOverrides(SETTINGS_NAME);
+
+        if (testDatabase != null) {
+            testDatabase.close();
+        }
+
+        File[] files = directory.listFiles();
+
+        if (files != null) {
+            for (File file : files) {
+                IoUtils.delete(file);
+            }
+        }
+
+        IoUtils.delete(directory);
+    }
+
+    private static Map<String, Object> createReference(ObjectType type) {
+        Map<String, Object> reference = new HashMap<String, Object>();
+
+        reference.put(StateValueUtils.REFERENCE_KEY, type.getId().toString());
+        reference.put(StateValueUtils.TYPE_KEY, type.getState().getTypeId().toString());
+        return reference;
+    }
+
+    @Test
+    public void resolveNestedReferences() {
+        ObjectType type = new ObjectType();
+        ObjectType missing = new ObjectType();
+        Map<UUID, ObjectType> types = new HashMap<UUID, ObjectType>();
+        Map<String, Object> embedded = new HashMap<String, Object>();
+        Map<String, Object> values = new HashMap<String, Object>();
+
+        type.getState().setTypeId(UuidUtils.createSequentialUuid());
+        missing.getState().setTypeId(type.getState().getTypeId());
+        types.put(type.getId(), type);
+
+        embedded.put("type", createReference(type));
+        embedded.put("name", "embedded");
+        values.put("type", createReference(type));
+        values.put("list", Arrays.asList(createReference(type), embedded));
+        values.put("missing", createReference(missing));
+
+        Map<String, Object> resolved = DatabaseEnvironment.resolveSnapshotReferences(types, values);
+        List<?> list = (List<?>) resolved.get("list");
+        Map<?, ?> resolvedEmbedded = (Map<?, ?>) list.get(1);
+
+        assertSame(type, resolved.get("type"));
+        assertSame(type, list.get(0));
+        assertSame(type, resolvedEmbedded.get("type"));
+        assertEquals("embedded", resolvedEmbedded.get("name"));
+        assertEquals(createReference(missing), resolved.get("missing"));
+    }
+
+    @Test
+    public void restoreNestedReferences() {
+        Database database = testDatabase.get();
+        ObjectType itemType = database.getEnvironment().getTypeByClass(Item.class);
+        State globals = database.getEnvironment().getGlobals();
+        Map<String, Object> nested = new HashMap<String, Object>();
+
+        nested.put("types", Arrays.asList(itemType));
+        globals.put("snapshotTest", nested);
+        globals.save();
+
+        // Fully loads from the database and writes the snapshot.
+        new DatabaseEnvironment(database).getTypes();
+        assertEquals(1, directory.listFiles().length);
+
+        DatabaseEnvironment restored = new DatabaseEnvironment(database);
+        Map<?, ?> restoredNested = (Map<?, ?>) restored.getGlobals().get("snapshotTest");
+        List<?> restoredTypes = (List<?>) restoredNested.get("types");
+
+        assertEquals(itemType.getId(), ((ObjectType) restoredTypes.get(0)).getId());
+        assertEquals(Item.class.getName(), restored.getTypeById(itemType.getId()).getObjectClassName());
+    }
+
+    public static class Item extends Record {
+
+        @Indexed
+        public String name;
+    }
+}
@@ -0,0 +1,136 @@
+package com.psddev.dari.db;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import com.psddev.dari.util.Stats;
+
+/**
+ * Measures the number of master database queries per acquired
+ * {@link DistributedLock} and the acquisition latency under contention
+ * against an in-memory H2 database.
+ *
+ * <p>The threads are spread across several {@link SqlDatabase} instances
+ * that share the same H2 database, so that they contend both within a VM
+ * and across simulated VMs. Run it with:</p>
+ *
+ * <pre>java com.psddev.dari.db.DistributedLockBenchmark [locksPerThread]</pre>
+ */
+public class DistributedLockBenchmark {
+
+    private static final int[] THREAD_COUNTS = { 1, 2, 4, 8, 16, 32, 64 };
+    private static final int MAXIMUM_VMS = 4;
+
+    public static void main(String[] arguments) throws Exception {
+        int locksPerThread = arguments.length > 0 ? Integer.parseInt(arguments[0]) : 20;
+        List<SqlDatabase> databases = new ArrayList<SqlDatabase>();
+
+        for (int i = 0; i < MAXIMUM_VMS; ++ i) {
+            Map<String, Object> settings = new HashMap<String, Object>();
+            SqlDatabase database = new SqlDatabase();
+
+            settings.put(SqlDatabase.JDBC_URL_SETTING, "jdbc:h2:mem:distributedLockBenchmark;DB_CLOSE_DELAY=-1");
+            database.setName("vm" + i);
+            database.doInitialize(null, settings);
+            databases.add(database);
+        }
+
+        Query.from(Object.class).using(databases.get(0)).first();
+
+        System.out.println("threads\tlocks/s\tqueries/lock\tmean ms\tp99 ms");
+
+        for (int threadCount : THREAD_COUNTS) {
+            run(databases.subList(0, Math.min(threadCount, MAXIMUM_VMS)), threadCount, locksPerThread);
+        }
+
+        for (SqlDatabase database : databases) {
+            database.close();
+        }
+
+        System.exit(0);
+    }
+
+    private static void run(final List<SqlDatabase> databases, int threadCount, final int locksPerThread) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+        List<Future<long[]>> futures = new ArrayList<Future<long[]>>();
+        long queriesBefore = getMasterQueries();
+        long start = System.nanoTime();
+
+        for (int t = 0; t < threadCount; ++ t) {
+            final Database database = databases.get(t % databases.size());
+
+            futures.add(executor.submit(new Callable<long[]>() {
+
+                @Override
+                public long[] call() throws Exception {
+                    long[] latencies = new long[locksPerThread];
+
+                    for (int i = 0; i < locksPerThread; ++ i) {
+                        DistributedLock lock = DistributedLock.Static.getInstance(database, "benchmark");
+                        long lockStart = System.nanoTime();
+
+                        lock.lock();
+                        latencies[i] = System.nanoTime() - lockStart;
+
+                        try {
+                            Thread.sleep(1);
+
+                        } finally {
+                            lock.unlock();
+                        }
+                    }
+
+                    return latencies;
+                }
+            }));
+        }
+
+        long[] latencies = new long[threadCount * locksPerThread];
+        int index = 0;
+
+        for (Future<long[]> future : futures) {
+            for (long latency : future.get()) {
+                latencies[index] = latency;
+                ++ index;
+            }
+        }
+
+        double seconds = (System.nanoTime() - start) / 1e9;
+        long queries = getMasterQueries() - queriesBefore;
+        double sum = 0.0;
+
+        executor.shutdown();
+        Arrays.sort(latencies);
+
+        for (long latency : latencies) {
+            sum += latency;
+        }
+
+        System.out.println(String.format(
+                "%d\t%.1f\t%.2f\t%.2f\t%.2f",
+                threadCount,
+                latencies.length / seconds,
+                (double) queries / latencies.length,
+                sum / latencies.length / 1e6,
+                latencies[(int) (latencies.length * 0.99)] / 1e6));
+    }
+
+    private static long getMasterQueries() {
+        for (Stats stats : Stats.Static.getAll()) {
+            if (DistributedLock.STATS_NAME.equals(stats.getName())) {
+                Stats.Measurement measurement = stats.getMeasurements().get(DistributedLock.MASTER_QUERY_STATS_OPERATION);
+
+                return measurement != null ? measurement.getOverallTotalCount() : 0L;
+            }
+        }
+
+        return 0L;
+    }
+}
@@ -0,0 +1,207 @@
+package com.psddev.dari.db;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.psddev.dari.util.CollectionUtils;
+import com.psddev.dari.util.Settings;
+import com.psddev.dari.util.StringUtils;
+import com.psddev.dari.util.UuidUtils;
+
+public class DistributedLockTest {
+
+    private static final String SETTINGS_NAME = DistributedLockTest.class.getName();
+    private static final long LEASE_DURATION = 1000L;
+
+    private static TestDatabase TEST_DATABASE;
+    private static Database DATABASE;
+
+    @BeforeClass
+    public static void beforeClass() {
+        Map<String, Object> overrides = new HashMap<String, Object>();
+
+        CollectionUtils.putByPath(overrides, DistributedLock.LEASE_DURATION_SETTING, LEASE_DURATION);
+        Settings.putPermanentOverrides(SETTINGS_NAME, overrides);
+
+        TEST_DATABASE = DatabaseTestUtils.getSqlTestDatabase();
+        DATABASE = TEST_DATABASE.get();
+
+        Query.from(Object.class).using(DATABASE).first();
+    }
+
+    @AfterClass
+    public static void afterClass() {
+        Settings.removePermanentOverrides(SETTINGS_NAME);
+
+        if (TEST_DATABASE != null) {
+            TEST_DATABASE.close();
+        }
+    }
+
+    @Test(expected = DistributedLock.ReentrantException.class)
+    public void reentrant() {
+        DistributedLock lock = DistributedLock.Static.getInstance(DATABASE, "reentrant");
+
+        lock.lock();
+
+        try {
+            lock.lock();
+
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Test
+    public void mutualExclusion() throws Exception {
+        final AtomicInteger inside = new AtomicInteger();
+        final AtomicInteger overlaps = new AtomicInteger();
+        final int[] counter = new int[1];
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        List<Future<Void>> futures = new ArrayList<Future<Void>>();
+
+        try {
+            for (int t = 0; t < 8; ++ t) {
+                futures.add(executor.submit(new Callable<Void>() {
+
+                    @Override
+                    public Void call() {
+                        for (int i = 0; i < 10; ++ i) {
+                            DistributedLock lock = DistributedLock.Static.getInstance(DATABASE, "mutualExclusion");
+
+                            lock.lock();
+
+                            try {
+                                if (inside.incrementAndGet() > 1) {
+                                    overlaps.incrementAndGet();
+                                }
+
+                                int value = counter[0];
+
+                                Thread.yield();
+                                counter[0] = value + 1;
+                                inside.decrementAndGet();
+
+                            } finally {
+                                lock.unlock();
+                            }
+                        }
+
+                        return null;
+                    }
+                }));
+            }
+
+            for (Future<Void> future : futures) {
+                future.get(30, TimeUnit.SECONDS);
+            }
+
+        } finally {
+            executor.shutdownNow();
+        }
+
+        assertEquals(0, overlaps.get());
+        assertEquals(80, counter[0]);
+    }
+
+    @Test
+    public void localTryLock() throws Exception {
+        final DistributedLock lock = DistributedLock.Static.getInstance(DATABASE, "localTryLock");
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+
+        lock.lock();
+
+        try {
+            assertFalse(executor.submit(new Callable<Boolean>() {
+
+                @Override
+                public Boolean call() throws InterruptedException {
+                    return lock.tryLock(100, TimeUnit.MILLISECONDS);
+                }
+            }).get());
+
+        } finally {
+            lock.unlock();
+            executor.shutdownNow();
+        }
+    }
+
+    // A separate instance with the same key acts like another VM, since it
+    // doesn't share the local lock.
+    @Test
+    public void leaseRenewed() throws Exception {
+        DistributedLock lock = DistributedLock.Static.getInstance(DATABASE, "leaseRenewed");
+        DistributedLock other = new DistributedLock(DATABASE, "leaseRenewed");
+
+        lock.lock();
+
+        try {
+            assertFalse(other.tryLock());
+            Thread.sleep(LEASE_DURATION * 2);
+            assertFalse(other.tryLock());
+
+        } finally {
+            lock.unlock();
+        }
+
+        assertTrue(other.tryLock());
+        other.unlock();
+    }
+
+    // Takes the lease away as if another VM stole it after it expired.
+    @Test
+    public void leaseLost() throws Exception {
+        DistributedLock lock = DistributedLock.Static.getInstance(DATABASE, "leaseLost");
+
+        lock.lock();
+
+        try {
+            State key = State.getInstance(Query.from(Object.class).where("_id = ?", UuidUtils.fromBytes(StringUtils.md5("leaseLost"))).using(DATABASE).noCache().first());
+
+            key.put("lockId", "stolen");
+            key.saveImmediately();
+            Thread.sleep(LEASE_DURATION + 200L);
+            assertTrue(lock.isLost());
+
+        } finally {
+            try {
+                lock.unlock();
+                fail();
+
+            } catch (DistributedLock.LostException error) {
+                // Expected.
+            }
+        }
+
+        assertTrue(lock.tryLock());
+        assertFalse(lock.isLost());
+        lock.unlock();
+    }
+
+    @Test
+    public void backoff() {
+        for (int attempt = 0; attempt < 100; ++ attempt) {
+            long backoff = DistributedLock.calculateBackoff(attempt);
+
+            assertTrue(backoff >= 10L);
+            assertTrue(backoff <= 250L);
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package com.psddev.dari.db;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.lang.reflect.Method;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Measures grouping by numeric ranges in the database against the
+ * in-memory grouping in {@link AbstractDatabase}, using an in-memory H2
+ * database. Run it with:
+ *
+ * <pre>java com.psddev.dari.db.GroupingRangeBenchmark [rows]</pre>
+ *
+ * <p>The allocated bytes are read from the HotSpot specific
+ * {@code com.sun.management.ThreadMXBean}, and are reported as -1 if
+ * it's not available. Since H2 runs in the same thread, they include
+ * the allocations in the database.</p>
+ */
+public class GroupingRangeBenchmark {
+
+    private static final String[] RANGES = { "price(0,1000,10)", "price(0,1000,250)" };
+    private static final int BATCH_SIZE = 1000;
+
+    public static void main(String[] arguments) throws Exception {
+        int rows = arguments.length > 0 ? Integer.parseInt(arguments[0]) : 1000000;
+        Map<String, Object> settings = new HashMap<String, Object>();
+        SqlDatabase database = new SqlDatabase();
+
+        settings.put(SqlDatabase.JDBC_URL_SETTING, "jdbc:h2:mem:groupingRangeBenchmark;DB_CLOSE_DELAY=-1");
+        database.setName("groupingRangeBenchmark");
+        database.doInitialize(null, settings);
+        Query.from(Item.class).using(database).first();
+
+        Random random = new Random(0L);
+        long start = System.nanoTime();
+
+        for (int i = 0; i < rows; i += BATCH_SIZE) {
+            database.beginWrites();
+
+            try {
+                for (int j = i, last = Math.min(i + BATCH_SIZE, rows); j < last; ++ j) {
+                    Item item = new Item();
+                    item.price = random.nextInt(100000) / 100.0;
+                    item.getState().setDatabase(database);
+                    item.save();
+                }
+
+                database.commitWrites();
+
+            } finally {
+                database.endWrites();
+            }
+        }
+
+        System.out.println(String.format("Saved %d rows in %.1fs", rows, (System.nanoTime() - start) / 1e9));
+        System.out.println("database\trange\tgroups\tcount ms\tcount MB\tsum ms");
+
+        Database inMemory = new ReadThroughDatabase(database);
+
+        for (int round = 0; round < 2; ++ round) {
+            for (String range : RANGES) {
+                run("sql", database, range);
+                run("in-memory", inMemory, range);
+            }
+        }
+
+        database.close();
+        System.exit(0);
+    }
+
+    // The in-memory sums scan all rows once per grouping, so they're only
+    // measured with the coarse range.
+    private static void run(String label, Database database, String range) {
+        long allocated = getAllocatedBytes();
+        long start = System.nanoTime();
+        List<Grouping<Item>> groupings = Query.from(Item.class).using(database).groupBy(range);
+        double countDuration = (System.nanoTime() - start) / 1e6;
+
+        allocated = allocated < 0 ? -1 : getAllocatedBytes() - allocated;
+        String sumDuration = "-";
+
+        if (groupings.size() <= 10 || database instanceof SqlDatabase) {
+            start = System.nanoTime();
+
+            for (Grouping<Item> grouping : groupings) {
+                grouping.getSum("price");
+            }
+
+            sumDuration = String.format("%.0f", (System.nanoTime() - start) / 1e6);
+        }
+
+        System.out.println(String.format(
+                "%s\t%s\t%d\t%.0f\t%.1f\t%s",
+                label,
+                range,
+                groupings.size(),
+                countDuration,
+                allocated < 0 ? -1.0 : allocated / 1048576.0,
+                sumDuration));
+    }
+
+    private static long getAllocatedBytes() {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+
+        try {
+            Method method = threads.getClass().getMethod("getThreadAllocatedBytes", long.class);
+
+            method.setAccessible(true);
+            return (Long) method.invoke(threads, Thread.currentThread().getId());
+
+        } catch (Exception error) {
+            return -1;
+        }
+    }
+
+    public static class Item extends Record {
+
+        @Indexed
+        public double price;
+    }
+}
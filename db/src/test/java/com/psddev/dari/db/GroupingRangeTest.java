@@ -0,0 +1,177 @@
+package com.psddev.dari.db;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.psddev.dari.util.ObjectUtils;
+
+public class GroupingRangeTest {
+
+    private static final int ITEM_COUNT = 500;
+
+    private static TestDatabase TEST_DATABASE;
+    private static SqlDatabase DATABASE;
+    private static Database IN_MEMORY;
+
+    @BeforeClass
+    public static void beforeClass() {
+        TEST_DATABASE = DatabaseTestUtils.getSqlTestDatabase();
+        DATABASE = (SqlDatabase) TEST_DATABASE.get();
+        IN_MEMORY = new ReadThroughDatabase(DATABASE);
+
+        Random random = new Random(0L);
+
+        for (int i = 0; i < ITEM_COUNT; ++ i) {
+            Item item = new Item();
+            item.name = "item " + (i % 3);
+            item.price = random.nextInt(1200) / 10.0 - 10.0;
+            item.quantity = i % 7 == 0 ? null : random.nextInt(50);
+            item.getState().setDatabase(DATABASE);
+            item.save();
+        }
+    }
+
+    @AfterClass
+    public static void afterClass() {
+        if (TEST_DATABASE != null) {
+            TEST_DATABASE.close();
+        }
+    }
+
+    // Same as the window scan that the in-memory grouping used to do.
+    private static Double scanBucket(double start, double end, double gap, double value) {
+        for (double window = start; window <= end; window += gap) {
+            if (value < window) {
+                return window - gap;
+            }
+        }
+        return null;
+    }
+
+    @Test
+    public void bucketsMatchWindowScan() {
+        GroupingRange range = GroupingRange.parse("price(0,100,10)");
+
+        for (double value = -25.0; value <= 125.0; value += 0.5) {
+            assertEquals("value " + value, scanBucket(0, 100, 10, value), range.getBucket(value));
+        }
+    }
+
+    @Test
+    public void bucketsEdges() {
+        GroupingRange range = GroupingRange.parse("price(0, 100, 10)");
+
+        assertEquals("price", range.getField());
+        assertEquals(-10.0, range.getBucket(-1000), 0.0);
+        assertEquals(0.0, range.getBucket(0), 0.0);
+        assertEquals(90.0, range.getBucket(99.9), 0.0);
+        assertNull(range.getBucket(100));
+        assertNull(range.getBucket((Object) null));
+        assertNull(range.getBucket("foo"));
+        assertNull(GroupingRange.parse("price"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void zeroGap() {
+        GroupingRange.parse("price(0,100,0)");
+    }
+
+    @Test
+    public void sqlMatchesInMemory() {
+        assertGroupings("price(0,100,10)");
+    }
+
+    @Test
+    public void sqlMatchesInMemoryWithFraction() {
+        assertGroupings("price(-5,55,2.5)");
+    }
+
+    @Test
+    public void sqlMatchesInMemoryWithOtherField() {
+        assertGroupings("name", "price(0,100,25)");
+    }
+
+    @Test
+    public void sqlMatchesInMemoryWithPredicate() {
+        Map<List<Object>, Grouping<Item>> expected = groupingsByKeys(Query.from(Item.class).where("name = ?", "item 1").using(IN_MEMORY).groupBy("quantity(0,50,5)"));
+        Map<List<Object>, Grouping<Item>> actual = groupingsByKeys(Query.from(Item.class).where("name = ?", "item 1").using(DATABASE).groupBy("quantity(0,50,5)"));
+
+        // SQL grouping leaves out the objects without the value.
+        expected.remove(Collections.singletonList(null));
+        assertCounts(expected, actual);
+    }
+
+    @Test
+    public void aggregates() {
+        Map<List<Object>, Grouping<Item>> expected = groupingsByKeys(Query.from(Item.class).using(IN_MEMORY).groupBy("price(0,100,20)"));
+        Map<List<Object>, Grouping<Item>> actual = groupingsByKeys(Query.from(Item.class).using(DATABASE).groupBy("price(0,100,20)"));
+
+        assertCounts(expected, actual);
+
+        for (Map.Entry<List<Object>, Grouping<Item>> entry : expected.entrySet()) {
+            Grouping<Item> expectedGrouping = entry.getValue();
+            Grouping<Item> actualGrouping = actual.get(entry.getKey());
+
+            for (String field : new String[] { "price", "quantity" }) {
+                assertEquals(expectedGrouping.getNonNullCount(field), actualGrouping.getNonNullCount(field));
+                assertEquals(expectedGrouping.getSum(field), actualGrouping.getSum(field), 1e-6);
+                assertEquals(ObjectUtils.to(Double.class, expectedGrouping.getMinimum(field)), ObjectUtils.to(Double.class, actualGrouping.getMinimum(field)));
+                assertEquals(ObjectUtils.to(Double.class, expectedGrouping.getMaximum(field)), ObjectUtils.to(Double.class, actualGrouping.getMaximum(field)));
+            }
+        }
+    }
+
+    @Test
+    public void itemsQuery() {
+        for (Grouping<Item> grouping : Query.from(Item.class).using(DATABASE).groupBy("price(0,100,10)")) {
+            assertEquals(grouping.getCount(), grouping.createItemsQuery().using(DATABASE).count());
+        }
+    }
+
+    private void assertGroupings(String... fields) {
+        assertCounts(
+                groupingsByKeys(Query.from(Item.class).using(IN_MEMORY).groupBy(fields)),
+                groupingsByKeys(Query.from(Item.class).using(DATABASE).groupBy(fields)));
+    }
+
+    private static void assertCounts(Map<List<Object>, Grouping<Item>> expected, Map<List<Object>, Grouping<Item>> actual) {
+        assertEquals(expected.keySet(), actual.keySet());
+
+        for (Map.Entry<List<Object>, Grouping<Item>> entry : expected.entrySet()) {
+            assertEquals(entry.getKey().toString(), entry.getValue().getCount(), actual.get(entry.getKey()).getCount());
+        }
+    }
+
+    private static Map<List<Object>, Grouping<Item>> groupingsByKeys(List<Grouping<Item>> groupings) {
+        Map<List<Object>, Grouping<Item>> map = new HashMap<List<Object>, Grouping<Item>>();
+
+        for (Grouping<Item> grouping : groupings) {
+            map.put(new ArrayList<Object>(grouping.getKeys()), grouping);
+        }
+
+        return map;
+    }
+
+    public static class Item extends Record {
+
+        @Indexed
+        public String name;
+
+        @Indexed
+        public double price;
+
+        @Indexed
+        public Integer quantity;
+    }
+}
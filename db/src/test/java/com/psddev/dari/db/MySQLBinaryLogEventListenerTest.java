@@ -0,0 +1,236 @@
+package com.psddev.dari.db;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.github.shyiko.mysql.binlog.event.Event;
+import com.github.shyiko.mysql.binlog.event.EventData;
+import com.github.shyiko.mysql.binlog.event.EventHeaderV4;
+import com.github.shyiko.mysql.binlog.event.EventType;
+import com.github.shyiko.mysql.binlog.event.TableMapEventData;
+import com.github.shyiko.mysql.binlog.event.WriteRowsEventData;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.psddev.dari.db.shyiko.DariQueryEventData;
+import com.psddev.dari.util.StringUtils;
+import com.psddev.dari.util.UuidUtils;
+
+public class MySQLBinaryLogEventListenerTest {
+
+    private static final String CATALOG = "test";
+
+    private Cache<UUID, Object[]> cache;
+    private RecordingListener changes;
+    private MySQLBinaryLogEventListener listener;
+
+    @Before
+    public void before() {
+        cache = CacheBuilder.newBuilder().build();
+        changes = new RecordingListener();
+        listener = new MySQLBinaryLogEventListener(cache, changes, CATALOG);
+    }
+
+    private static Event event(EventType type, EventData data) {
+        EventHeaderV4 header = new EventHeaderV4();
+
+        header.setEventType(type);
+        return new Event(header, data);
+    }
+
+    private static Event query(String sql) {
+        DariQueryEventData data = new DariQueryEventData();
+
+        data.setDatabase(CATALOG);
+        data.setStatement(sql.getBytes(StringUtils.ISO_8859_1));
+        return event(EventType.QUERY, data);
+    }
+
+    private void transaction(Event... events) {
+        listener.onEvent(query("BEGIN"));
+
+        for (Event event : events) {
+            listener.onEvent(event);
+        }
+
+        listener.onEvent(query("COMMIT"));
+    }
+
+    private static String hex(UUID id) {
+        return "X'" + StringUtils.hex(UuidUtils.toBytes(id)) + "'";
+    }
+
+    // Escapes the bytes the same way as MySQL does in a statement-based
+    // binary log.
+    private static String binary(byte[] bytes) {
+        StringBuilder binary = new StringBuilder("_binary'");
+
+        for (byte b : bytes) {
+            if (b == 0) {
+                binary.append("\\0");
+
+            } else if (b == '\'' || b == '\\') {
+                binary.append('\\');
+                binary.append((char) b);
+
+            } else {
+                binary.append((char) (b & 0xff));
+            }
+        }
+
+        binary.append('\'');
+        return binary.toString();
+    }
+
+    private static String insert(UUID id, String idValue, UUID typeId) {
+        return "INSERT INTO `Record` (`id`,`typeId`,`data`) VALUES (" + idValue + "," + hex(typeId) + ",_binary'{\\\"a\\\":1}')";
+    }
+
+    private Object[] cached(UUID id) {
+        Object[] value = new Object[] { null, new byte[0], null };
+
+        cache.put(id, value);
+        return value;
+    }
+
+    @Test
+    public void statementInsert() {
+        UUID id = UuidUtils.createSequentialUuid();
+        UUID typeId = UuidUtils.createSequentialUuid();
+
+        transaction(query(insert(id, hex(id), typeId)));
+
+        assertEquals(Arrays.asList(Arrays.asList(id, typeId)), changes.changed);
+        assertEquals(0, changes.changedAll);
+        assertTrue(listener.isNotifying());
+    }
+
+    @Test
+    public void statementInsertEscapedId() {
+        byte[] idBytes = new byte[16];
+
+        idBytes[3] = '\'';
+        idBytes[4] = '\\';
+        idBytes[5] = ')';
+        idBytes[6] = ',';
+        idBytes[15] = 'x';
+
+        UUID id = UuidUtils.fromBytes(idBytes);
+        UUID typeId = UuidUtils.createSequentialUuid();
+
+        transaction(query(insert(id, binary(idBytes), typeId)));
+
+        assertEquals(Arrays.asList(Arrays.asList(id, typeId)), changes.changed);
+        assertTrue(listener.isNotifying());
+    }
+
+    @Test
+    public void statementUpdate() {
+        UUID id = UuidUtils.createSequentialUuid();
+        UUID typeId = UuidUtils.createSequentialUuid();
+        UUID otherId = UuidUtils.createSequentialUuid();
+        Object[] other = cached(otherId);
+
+        cached(id);
+        transaction(query("UPDATE `Record` SET `typeId` = " + hex(typeId) + ", `data` = _binary'{\\\"a\\\":1}' WHERE `id` = " + hex(id)));
+
+        Object[] updated = cache.getIfPresent(id);
+
+        assertArrayEquals(UuidUtils.toBytes(typeId), (byte[]) updated[0]);
+        assertEquals("{\"a\":1}", new String((byte[]) updated[1], StringUtils.UTF_8));
+        assertTrue(other == cache.getIfPresent(otherId));
+        assertEquals(Arrays.asList(Arrays.asList(id, typeId)), changes.changed);
+        assertEquals(0, changes.changedAll);
+    }
+
+    @Test
+    public void statementDelete() {
+        UUID id = UuidUtils.createSequentialUuid();
+        UUID otherId = UuidUtils.createSequentialUuid();
+
+        cached(id);
+        cached(otherId);
+        transaction(query("DELETE FROM `Record` WHERE `id` = " + hex(id)));
+
+        assertNull(cache.getIfPresent(id));
+        assertTrue(cache.getIfPresent(otherId) != null);
+        assertEquals(Arrays.asList(Arrays.asList(id, null)), changes.changed);
+        assertEquals(0, changes.changedAll);
+    }
+
+    @Test
+    public void unparsedFallsBackToPolling() {
+        UUID id = UuidUtils.createSequentialUuid();
+        UUID typeId = UuidUtils.createSequentialUuid();
+
+        cached(UuidUtils.createSequentialUuid());
+        transaction(
+                query("UPDATE `Record` SET `data` = X'00' WHERE `typeId` = " + hex(typeId)),
+                query(insert(id, hex(id), typeId)));
+
+        assertEquals(0, cache.size());
+        assertEquals(0, changes.changedAll);
+        assertEquals(Arrays.asList(Arrays.asList(id, typeId)), changes.changed);
+        assertFalse(listener.isNotifying());
+    }
+
+    @Test
+    public void otherTablesIgnored() {
+        cached(UuidUtils.createSequentialUuid());
+        transaction(query("INSERT INTO `RecordString4` (`id`,`typeId`,`symbolId`,`value`) VALUES (X'00',X'00',1,'x')"));
+
+        assertEquals(1, cache.size());
+        assertTrue(changes.changed.isEmpty());
+        assertEquals(0, changes.changedAll);
+        assertTrue(listener.isNotifying());
+    }
+
+    @Test
+    public void rowBasedWrite() {
+        UUID id = UuidUtils.createSequentialUuid();
+        UUID typeId = UuidUtils.createSequentialUuid();
+        TableMapEventData tableMap = new TableMapEventData();
+        WriteRowsEventData write = new WriteRowsEventData();
+        List<Serializable[]> rows = new ArrayList<Serializable[]>();
+
+        tableMap.setTableId(1L);
+        tableMap.setDatabase(CATALOG);
+        tableMap.setTable(SqlDatabase.RECORD_TABLE);
+        write.setTableId(1L);
+        rows.add(new Serializable[] { UuidUtils.toBytes(id), UuidUtils.toBytes(typeId), new byte[0] });
+        write.setRows(rows);
+
+        transaction(event(EventType.TABLE_MAP, tableMap), event(EventType.WRITE_ROWS, write));
+
+        assertEquals(Arrays.asList(Arrays.asList(id, typeId)), changes.changed);
+        assertEquals(0, changes.changedAll);
+        assertTrue(listener.isNotifying());
+    }
+
+    private static class RecordingListener implements EnvironmentChangeNotifier.Listener {
+
+        public final List<List<UUID>> changed = new ArrayList<List<UUID>>();
+        public int changedAll;
+
+        @Override
+        public void changed(UUID id, UUID typeId) {
+            changed.add(Arrays.asList(id, typeId));
+        }
+
+        @Override
+        public void changedAll() {
+            ++ changedAll;
+        }
+    }
+}
@@ -0,0 +1,196 @@
+package com.psddev.dari.db;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+import com.psddev.dari.util.ObjectUtils;
+import com.psddev.dari.util.PaginatedResult;
+
+/**
+ * Measures {@link Query#selectFiltered} with a {@link PredicateQueryFilter},
+ * whose indexed parts are pushed into the query, against the same
+ * predicate evaluated completely in memory, using an in-memory H2
+ * database. Run it with:
+ *
+ * <pre>java com.psddev.dari.db.PredicateQueryFilterBenchmark [rows]</pre>
+ *
+ * <p>The bytes are the sizes of the JSON data of the objects that were
+ * read, which is roughly what had to be deserialized.</p>
+ */
+public class PredicateQueryFilterBenchmark {
+
+    private static final int BATCH_SIZE = 1000;
+    private static final int LIMIT = 20;
+
+    private static final String[] PREDICATES = {
+            "category = 3",
+            "category = 3 and note = 'even'",
+            "rank > 90 and note = 'even' and body != missing",
+            "note = 'even'" };
+
+    public static void main(String[] arguments) throws Exception {
+        int rows = arguments.length > 0 ? Integer.parseInt(arguments[0]) : 100000;
+        Map<String, Object> settings = new HashMap<String, Object>();
+        SqlDatabase database = new SqlDatabase();
+
+        settings.put(SqlDatabase.JDBC_URL_SETTING, "jdbc:h2:mem:predicateQueryFilterBenchmark;DB_CLOSE_DELAY=-1");
+        database.setName("predicateQueryFilterBenchmark");
+        database.doInitialize(null, settings);
+        Query.from(Item.class).using(database).first();
+
+        for (int i = 0; i < rows; i += BATCH_SIZE) {
+            database.beginWrites();
+
+            try {
+                for (int j = i, last = Math.min(i + BATCH_SIZE, rows); j < last; ++ j) {
+                    Item item = new Item();
+                    item.category = j % 50;
+                    item.rank = j % 100;
+                    item.note = (j / 7) % 2 == 0 ? "even" : "odd";
+                    item.body = "Lorem ipsum dolor sit amet, consectetur adipiscing elit " + j;
+                    item.getState().setDatabase(database);
+                    item.save();
+                }
+
+                database.commitWrites();
+
+            } finally {
+                database.endWrites();
+            }
+        }
+
+        CountingDatabase counting = new CountingDatabase();
+
+        counting.setDelegate(database);
+        System.out.println("filter\tpredicate\titems\trows read\trows/item\tbytes/item\tms");
+
+        for (int round = 0; round < 2; ++ round) {
+            for (String predicateString : PREDICATES) {
+                final Predicate predicate = PredicateParser.Static.parse(predicateString);
+
+                run("in-memory", counting, predicateString, new QueryFilter<Item>() {
+
+                    @Override
+                    public boolean include(Item item) {
+                        return PredicateParser.Static.evaluate(item, predicate);
+                    }
+                });
+
+                run("pushed", counting, predicateString, new PredicateQueryFilter<Item>(predicate));
+            }
+        }
+
+        database.close();
+        System.exit(0);
+    }
+
+    private static void run(String label, CountingDatabase database, String predicateString, QueryFilter<Item> filter) {
+        database.reset();
+
+        long start = System.nanoTime();
+        int items = Query.from(Item.class).using(database).selectFiltered(0, LIMIT, filter).getItems().size();
+        double duration = (System.nanoTime() - start) / 1e6;
+
+        System.out.println(String.format(
+                "%s\t%s\t%d\t%d\t%.1f\t%.0f\t%.0f",
+                label,
+                predicateString,
+                items,
+                database.rows,
+                items > 0 ? (double) database.rows / items : 0.0,
+                items > 0 ? (double) database.bytes / items : 0.0,
+                duration));
+    }
+
+    private static class CountingDatabase extends ForwardingDatabase {
+
+        public long rows;
+        public long bytes;
+
+        public void reset() {
+            rows = 0;
+            bytes = 0;
+        }
+
+        private void count(Object item) {
+            ++ rows;
+
+            if (item != null) {
+                bytes += ObjectUtils.toJson(State.getInstance(item).getSimpleValues()).length();
+            }
+        }
+
+        @Override
+        public <T> PaginatedResult<T> readPartial(Query<T> query, long offset, int limit) {
+            PaginatedResult<T> result = super.readPartial(query, offset, limit);
+
+            for (T item : result.getItems()) {
+                count(item);
+            }
+
+            return result;
+        }
+
+        // The iterator must stay closeable so that selectFiltered can
+        // release the underlying result set.
+        @Override
+        public <T> Iterable<T> readIterable(Query<T> query, int fetchSize) {
+            final Iterable<T> iterable = super.readIterable(query, fetchSize);
+
+            return new Iterable<T>() {
+
+                @Override
+                public Iterator<T> iterator() {
+                    final Iterator<T> iterator = iterable.iterator();
+
+                    return new CloseableIterator<T>() {
+
+                        @Override
+                        public void close() throws IOException {
+                            if (iterator instanceof Closeable) {
+                                ((Closeable) iterator).close();
+                            }
+                        }
+
+                        @Override
+                        public boolean hasNext() {
+                            return iterator.hasNext();
+                        }
+
+                        @Override
+                        public T next() {
+                            T item = iterator.next();
+
+                            count(item);
+                            return item;
+                        }
+
+                        @Override
+                        public void remove() {
+                            iterator.remove();
+                        }
+                    };
+                }
+            };
+        }
+    }
+
+    private interface CloseableIterator<T> extends Iterator<T>, Closeable {
+    }
+
+    public static class Item extends Record {
+
+        @Indexed
+        public int category;
+
+        @Indexed
+        public int rank;
+
+        public String note;
+
+        public String body;
+    }
+}
@@ -0,0 +1,222 @@
+package com.psddev.dari.db;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.List;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.psddev.dari.util.PaginatedResult;
+
+public class PredicateQueryFilterTest {
+
+    private static final int ITEM_COUNT = 300;
+
+    private static TestDatabase TEST_DATABASE;
+    private static Database DATABASE;
+
+    @BeforeClass
+    public static void beforeClass() {
+        TEST_DATABASE = DatabaseTestUtils.getSqlTestDatabase();
+        DATABASE = TEST_DATABASE.get();
+
+        for (int i = 0; i < ITEM_COUNT; ++ i) {
+            Item item = new Item();
+            item.name = "item " + (i % 7);
+            item.rank = i % 5 == 0 ? null : i % 11;
+            item.note = i % 3 == 0 ? "even" : "odd";
+            item.getState().setDatabase(DATABASE);
+            item.save();
+        }
+    }
+
+    @AfterClass
+    public static void afterClass() {
+        if (TEST_DATABASE != null) {
+            TEST_DATABASE.close();
+        }
+    }
+
+    private static Query<Item> from(Database database) {
+        return Query.from(Item.class).using(database).sortAscending("name").sortAscending(Query.ID_KEY);
+    }
+
+    // Compares against the same predicate evaluated completely in memory.
+    private void assertEquivalent(String predicateString, Object... parameters) {
+        final Predicate predicate = PredicateParser.Static.parse(predicateString, parameters);
+        QueryFilter<Item> inMemory = new QueryFilter<Item>() {
+
+            @Override
+            public boolean include(Item item) {
+                return PredicateParser.Static.evaluate(item, predicate);
+            }
+        };
+
+        for (long offset : new long[] { 0L, 3L, 40L, 500L }) {
+            for (int limit : new int[] { 1, 10, 100 }) {
+                PaginatedResult<Item> expected = from(DATABASE).selectFiltered(offset, limit, inMemory);
+                PaginatedResult<Item> actual = from(DATABASE).selectFiltered(offset, limit, new PredicateQueryFilter<Item>(predicate));
+                String message = predicateString + " at " + offset + "/" + limit;
+
+                assertEquals(message, expected.getItems(), actual.getItems());
+                assertEquals(message, expected.getCount(), actual.getCount());
+                assertEquals(message, expected.hasNext(), actual.hasNext());
+            }
+        }
+    }
+
+    @Test
+    public void equivalentPushed() {
+        assertEquivalent("name = ? and rank > ?", "item 3", 4);
+    }
+
+    @Test
+    public void equivalentResidual() {
+        assertEquivalent("note = ?", "even");
+    }
+
+    @Test
+    public void equivalentMixed() {
+        assertEquivalent("rank >= ? and note = ?", 7, "odd");
+    }
+
+    @Test
+    public void equivalentNothingMatches() {
+        assertEquivalent("name = ? and note = ?", "missing", "even");
+    }
+
+    @Test
+    public void split() {
+        PredicateSplitter splitter = PredicateSplitter.split(
+                from(DATABASE),
+                PredicateParser.Static.parse("name = ? and note = ? and (rank = ? or note = ?)", "item 1", "odd", 2, "even"));
+
+        assertEquals(PredicateParser.Static.parse("name = ?", "item 1"), splitter.getPushed());
+        assertEquals(PredicateParser.Static.parse("note = ? and (rank = ? or note = ?)", "odd", 2, "even"), splitter.getResidual());
+    }
+
+    @Test
+    public void splitUnknownDatabase() {
+        Predicate predicate = PredicateParser.Static.parse("name = ?", "item 1");
+        PredicateSplitter splitter = PredicateSplitter.split(from(new ReadThroughDatabase(DATABASE)), predicate);
+
+        assertNull(splitter.getPushed());
+        assertEquals(predicate, splitter.getResidual());
+    }
+
+    @Test
+    public void fewerRowsRead() {
+        CountingDatabase counting = new CountingDatabase();
+        Predicate predicate = PredicateParser.Static.parse("name = ? and note = ?", "item 2", "even");
+
+        counting.setDelegate(DATABASE);
+
+        List<Item> items = from(counting).selectFiltered(0, 5, new PredicateQueryFilter<Item>(predicate)).getItems();
+
+        assertEquals(6, items.size());
+        assertTrue("read " + counting.read, counting.read < ITEM_COUNT / 7);
+    }
+
+    @Test
+    public void wrappedFilter() {
+        QueryFilter<Item> evenRank = new QueryFilter<Item>() {
+
+            @Override
+            public boolean include(Item item) {
+                return item.rank != null && item.rank % 2 == 0;
+            }
+        };
+
+        PaginatedResult<Item> result = from(DATABASE).selectFiltered(0, 1000, new PredicateQueryFilter<Item>(PredicateParser.Static.parse("name = ?", "item 4"), evenRank));
+
+        assertTrue(result.getItems().size() > 0);
+
+        for (Item item : result.getItems()) {
+            assertEquals("item 4", item.name);
+            assertEquals(0, item.rank % 2);
+        }
+    }
+
+    @Test
+    public void fetchSize() {
+        assertEquals(15, Query.Static.getFilteredFetchSize(10, 0, 0));
+        assertEquals(10, Query.Static.getFilteredFetchSize(1, 100, 100));
+        assertEquals(5000, Query.Static.getFilteredFetchSize(10, 100000, 0));
+        assertTrue(Query.Static.getFilteredFetchSize(10, 99, 9) > 100);
+    }
+
+    private static class CountingDatabase extends ForwardingDatabase {
+
+        public long read;
+
+        @Override
+        public <T> PaginatedResult<T> readPartial(Query<T> query, long offset, int limit) {
+            PaginatedResult<T> result = super.readPartial(query, offset, limit);
+
+            read += result.getItems().size();
+            return result;
+        }
+
+        @Override
+        public <T> Iterable<T> readIterable(Query<T> query, int fetchSize) {
+            final Iterable<T> iterable = super.readIterable(query, fetchSize);
+
+            return new Iterable<T>() {
+
+                @Override
+                public Iterator<T> iterator() {
+                    final Iterator<T> iterator = iterable.iterator();
+
+                    return new CloseableIterator<T>() {
+
+                        @Override
+                        public void close() throws IOException {
+                            if (iterator instanceof Closeable) {
+                                ((Closeable) iterator).close();
+                            }
+                        }
+
+                        @Override
+                        public boolean hasNext() {
+                            return iterator.hasNext();
+                        }
+
+                        @Override
+                        public T next() {
+                            T item = iterator.next();
+
+                            ++ read;
+                            return item;
+                        }
+
+                        @Override
+                        public void remove() {
+                            iterator.remove();
+                        }
+                    };
+                }
+            };
+        }
+    }
+
+    private interface CloseableIterator<T> extends Iterator<T>, Closeable {
+    }
+
+    public static class Item extends Record {
+
+        @Indexed
+        public String name;
+
+        @Indexed
+        public Integer rank;
+
+        public String note;
+    }
+}
@@ -0,0 +1,51 @@
+package com.psddev.dari.db;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// Code that QueryJvmAnalyzerTest expects to be warned about, one
+// anti-pattern per method.
+public class QueryJvmAnalyzerFixture {
+
+    public static class Item extends Record {
+
+        @Indexed
+        private String name;
+
+        private String note;
+
+        public String getName() {
+            return name;
+        }
+
+        public String getNote() {
+            return note;
+        }
+
+        public Item getParent() {
+            return Query.from(Item.class).where("name = ?", "parent").first();
+        }
+    }
+
+    public List<Item> queryInLoop(List<String> names) {
+        List<Item> items = new ArrayList<Item>();
+
+        for (String name : names) {
+            items.add(Query.from(Item.class).where("name = ?", name).first());
+        }
+
+        return items;
+    }
+
+    public List<Item> selectAllWithoutPredicate() {
+        return Query.from(Item.class).selectAll();
+    }
+
+    public Item sortByUnindexed() {
+        return Query.from(Item.class).where("name = ?", "a").sortAscending("note").first();
+    }
+
+    public List<Item> clean(List<String> names) {
+        return Query.from(Item.class).where("name = ?", names).sortAscending("name").select(0, 10).getItems();
+    }
+}
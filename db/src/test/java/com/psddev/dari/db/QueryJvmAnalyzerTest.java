@@ -0,0 +1,108 @@
+package com.psddev.dari.db;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.psddev.dari.util.sa.Jvm;
+import com.psddev.dari.util.sa.JvmMethodListener;
+import com.psddev.dari.util.sa.JvmObject;
+
+public class QueryJvmAnalyzerTest {
+
+    private static TestDatabase TEST_DATABASE;
+    private static final List<String> WARNINGS = new ArrayList<String>();
+
+    @BeforeClass
+    public static void beforeClass() throws Exception {
+        TEST_DATABASE = DatabaseTestUtils.getSqlTestDatabase();
+        Database database = TEST_DATABASE.get();
+
+        Query.from(QueryJvmAnalyzerFixture.Item.class).using(database).first();
+        Database.Static.overrideDefault(database);
+
+        try {
+            Jvm jvm = new Jvm();
+            JvmMethodListener listener = new JvmMethodListener() {
+
+                @Override
+                public void onInvocation(
+                        Method callingMethod,
+                        int callingLine,
+                        Method calledMethod,
+                        int calledLine,
+                        JvmObject calledObject,
+                        List<JvmObject> calledArguments,
+                        JvmObject returnedObject,
+                        boolean inLoop) {
+
+                    for (String warning : QueryJvmAnalyzer.Static.findPerformanceWarnings(callingMethod, calledMethod, calledObject.resolve(), inLoop)) {
+                        WARNINGS.add(callingMethod.getName() + ": " + warning);
+                    }
+                }
+            };
+
+            for (Method method : Query.class.getDeclaredMethods()) {
+                if (QueryJvmAnalyzer.EXECUTION_METHOD_NAMES.contains(method.getName())) {
+                    jvm.addMethodListener(method, listener);
+                }
+            }
+
+            jvm.analyze(QueryJvmAnalyzerFixture.class);
+            jvm.analyze(QueryJvmAnalyzerFixture.Item.class);
+
+        } finally {
+            Database.Static.restoreDefault();
+        }
+    }
+
+    @AfterClass
+    public static void afterClass() {
+        if (TEST_DATABASE != null) {
+            TEST_DATABASE.close();
+        }
+    }
+
+    private static boolean hasWarning(String method, String message) {
+        for (String warning : WARNINGS) {
+            if (warning.startsWith(method + ": ") && warning.contains(message)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    @Test
+    public void queryInLoop() {
+        assertTrue(WARNINGS.toString(), hasWarning("queryInLoop", "inside a loop"));
+        assertFalse(WARNINGS.toString(), hasWarning("sortByUnindexed", "inside a loop"));
+    }
+
+    @Test
+    public void queryInGetter() {
+        assertTrue(WARNINGS.toString(), hasWarning("getParent", "inside the getter [getParent]"));
+    }
+
+    @Test
+    public void selectAllWithoutPredicate() {
+        assertTrue(WARNINGS.toString(), hasWarning("selectAllWithoutPredicate", "without a predicate"));
+    }
+
+    @Test
+    public void sortByUnindexed() {
+        assertTrue(WARNINGS.toString(), hasWarning("sortByUnindexed", "Sorting by [note]"));
+    }
+
+    @Test
+    public void clean() {
+        assertFalse(WARNINGS.toString(), hasWarning("clean", ""));
+    }
+}
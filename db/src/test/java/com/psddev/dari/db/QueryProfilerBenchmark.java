@@ -0,0 +1,67 @@
+package com.psddev.dari.db;
+
+import java.util.Collections;
+import java.util.List;
+
+import com.psddev.dari.util.Profiler;
+
+/**
+ * Measures the overhead that {@link ProfilingDatabase} and
+ * {@link QueryProfilingDatabase} add to each query, using a delegate that
+ * returns immediately. Run it with:
+ *
+ * <pre>java com.psddev.dari.db.QueryProfilerBenchmark [calls]</pre>
+ */
+public class QueryProfilerBenchmark {
+
+    private static final double[] SAMPLE_RATES = { 0.0, 0.01, 0.1, 1.0 };
+
+    public static void main(String[] arguments) {
+        int calls = arguments.length > 0 ? Integer.parseInt(arguments[0]) : 200000;
+        Database delegate = new ForwardingDatabase() {
+
+            @Override
+            public <T> List<T> readAll(Query<T> query) {
+                return Collections.emptyList();
+            }
+        };
+
+        ProfilingDatabase profiling = new ProfilingDatabase();
+
+        profiling.setDelegate(delegate);
+
+        System.out.println("database\tns/call");
+
+        for (int round = 0; round < 2; ++ round) {
+            run("none", delegate, calls);
+
+            Profiler.Static.setThreadProfiler(new Profiler());
+
+            try {
+                run("ProfilingDatabase", profiling, calls);
+
+            } finally {
+                Profiler.Static.setThreadProfiler(null);
+            }
+
+            for (double sampleRate : SAMPLE_RATES) {
+                QueryProfilingDatabase sampling = new QueryProfilingDatabase();
+
+                sampling.setDelegate(delegate);
+                sampling.setProfiler(new QueryProfiler());
+                sampling.setSampleRate(sampleRate);
+                run("QueryProfilingDatabase " + sampleRate, sampling, calls);
+            }
+        }
+    }
+
+    private static void run(String label, Database database, int calls) {
+        long start = System.nanoTime();
+
+        for (int i = 0; i < calls; ++ i) {
+            database.readAll(Query.fromGroup("benchmark").where("name = ? and date > ?", i, i).sortAscending("date"));
+        }
+
+        System.out.println(String.format("%s\t%.0f", label, (double) (System.nanoTime() - start) / calls));
+    }
+}
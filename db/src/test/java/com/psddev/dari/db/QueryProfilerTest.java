@@ -0,0 +1,95 @@
+package com.psddev.dari.db;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+public class QueryProfilerTest {
+
+    @Test
+    public void fingerprintIgnoresValues() {
+        assertEquals(
+                QueryProfiler.getFingerprint(Query.fromGroup("foo").where("name = ?", "a").sortAscending("date")),
+                QueryProfiler.getFingerprint(Query.fromGroup("foo").where("name = ?", Collections.nCopies(5, "b")).sortAscending("date")));
+    }
+
+    @Test
+    public void fingerprintShape() {
+        Query<Object> query = Query.fromGroup("foo").
+                where("name = ? or (date > ? and tag = missing)", "a", 1, null).
+                sortDescending("date");
+
+        assertEquals("foo where (name equalsany ? or (date greaterthan ? and tag equalsany missing)) sort descending date", QueryProfiler.getFingerprint(query));
+    }
+
+    @Test
+    public void fingerprintDiffers() {
+        String fingerprint = QueryProfiler.getFingerprint(Query.fromGroup("foo").where("name = ?", "a"));
+
+        assertFalse(fingerprint.equals(QueryProfiler.getFingerprint(Query.fromGroup("foo").where("name != ?", "a"))));
+        assertFalse(fingerprint.equals(QueryProfiler.getFingerprint(Query.fromGroup("bar").where("name = ?", "a"))));
+        assertFalse(fingerprint.equals(QueryProfiler.getFingerprint(Query.fromGroup("foo").where("name = ?", "a").sortAscending("name"))));
+    }
+
+    @Test
+    public void sampled() {
+        int sampled = 0;
+
+        for (int i = 0; i < 100000; ++ i) {
+            if (QueryProfiler.isSampled(0.1)) {
+                ++ sampled;
+            }
+        }
+
+        assertTrue(sampled > 9000 && sampled < 11000);
+        assertFalse(QueryProfiler.isSampled(0.0));
+        assertTrue(QueryProfiler.isSampled(1.0));
+    }
+
+    @Test
+    public void record() {
+        QueryProfiler profiler = new QueryProfiler();
+        QueryProfilingDatabase database = new QueryProfilingDatabase();
+
+        database.setProfiler(profiler);
+        database.setSampleRate(1.0);
+        database.setDelegate(new ForwardingDatabase() {
+
+            @Override
+            public <T> List<T> readAll(Query<T> query) {
+                return Collections.nCopies(3, null);
+            }
+
+            @Override
+            public long readCount(Query<?> query) {
+                return 0L;
+            }
+        });
+
+        for (int i = 0; i < 10; ++ i) {
+            database.readAll(Query.fromGroup("foo").where("name = ?", i));
+        }
+
+        database.readCount(Query.fromGroup("bar"));
+
+        List<QueryProfiler.Entry> top = profiler.getTopEntries(QueryProfiler.Sort.COUNT, 10);
+        QueryProfiler.Entry first = top.get(0);
+
+        assertEquals(2, top.size());
+        assertEquals(ProfilingDatabase.READ_ALL_EVENT_NAME, first.getOperation());
+        assertEquals("foo where name equalsany ?", first.getFingerprint());
+        assertEquals(10L, first.getDurations().getCount());
+        assertEquals(30L, first.getRows());
+        assertEquals(1, first.getCallers().size());
+        assertEquals(10L, (long) first.getCallers().get(0).getValue());
+        assertTrue(first.getCallers().get(0).getKey().startsWith(QueryProfilerTest.class.getName() + ".record"));
+
+        profiler.reset();
+        assertTrue(profiler.getTopEntries(null, 10).isEmpty());
+    }
+}
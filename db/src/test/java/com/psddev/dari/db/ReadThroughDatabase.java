@@ -0,0 +1,49 @@
+package com.psddev.dari.db;
+
+import java.util.Date;
+import java.util.Map;
+
+import com.psddev.dari.util.PaginatedResult;
+
+/**
+ * Reads the objects through the delegate but leaves everything else, such
+ * as the grouping, to the in-memory implementations in
+ * {@link AbstractDatabase}.
+ */
+class ReadThroughDatabase extends AbstractDatabase<Void> {
+
+    private final Database delegate;
+
+    public ReadThroughDatabase(Database delegate) {
+        this.delegate = delegate;
+        setEnvironment(delegate.getEnvironment());
+    }
+
+    @Override
+    public Void openConnection() {
+        return null;
+    }
+
+    @Override
+    public void closeConnection(Void connection) {
+    }
+
+    @Override
+    protected void doInitialize(String settingsKey, Map<String, Object> settings) {
+    }
+
+    @Override
+    public <T> PaginatedResult<T> readPartial(Query<T> query, long offset, int limit) {
+        return delegate.readPartial(query.clone().using(delegate), offset, limit);
+    }
+
+    @Override
+    public Date readLastUpdate(Query<?> query) {
+        return delegate.readLastUpdate(query.clone().using(delegate));
+    }
+
+    @Override
+    public <T> Iterable<T> readIterable(Query<T> query, int fetchSize) {
+        return delegate.readIterable(query.clone().using(delegate), fetchSize);
+    }
+}
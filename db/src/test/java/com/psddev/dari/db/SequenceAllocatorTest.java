@@ -0,0 +1,137 @@
+package com.psddev.dari.db;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class SequenceAllocatorTest {
+
+    private static TestDatabase TEST_DATABASE;
+    private static Database DATABASE;
+
+    @BeforeClass
+    public static void beforeClass() {
+        TEST_DATABASE = DatabaseTestUtils.getSqlTestDatabase();
+        DATABASE = TEST_DATABASE.get();
+
+        Query.from(Sequence.class).using(DATABASE).first();
+    }
+
+    @AfterClass
+    public static void afterClass() {
+        if (TEST_DATABASE != null) {
+            TEST_DATABASE.close();
+        }
+    }
+
+    // Each allocator acts like a separate VM, and another thread gets the
+    // numbers one at a time the old way.
+    @Test
+    public void unique() throws Exception {
+        final String name = "unique";
+        ExecutorService executor = Executors.newFixedThreadPool(17);
+        List<Future<List<Long>>> futures = new ArrayList<Future<List<Long>>>();
+
+        try {
+            for (int v = 0; v < 4; ++ v) {
+                final SequenceAllocator allocator = new SequenceAllocator(DATABASE, name, 0L, 50);
+
+                for (int t = 0; t < 4; ++ t) {
+                    futures.add(executor.submit(new Callable<List<Long>>() {
+
+                        @Override
+                        public List<Long> call() {
+                            List<Long> values = new ArrayList<Long>();
+
+                            for (int i = 0; i < 250; ++ i) {
+                                values.add(allocator.next());
+                            }
+
+                            return values;
+                        }
+                    }));
+                }
+            }
+
+            futures.add(executor.submit(new Callable<List<Long>>() {
+
+                @Override
+                public List<Long> call() {
+                    List<Long> values = new ArrayList<Long>();
+                    Sequence sequence = Sequence.Static.findOrCreate(DATABASE, name, 0L);
+
+                    for (int i = 0; i < 20; ++ i) {
+                        values.add((long) sequence.next());
+                    }
+
+                    return values;
+                }
+            }));
+
+            Set<Long> unique = new HashSet<Long>();
+            int count = 0;
+
+            for (Future<List<Long>> future : futures) {
+                for (Long value : future.get(60, TimeUnit.SECONDS)) {
+                    assertTrue(value > 0L);
+                    unique.add(value);
+                    ++ count;
+                }
+            }
+
+            assertEquals(4 * 4 * 250 + 20, count);
+            assertEquals(count, unique.size());
+
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void increasingWithinVm() {
+        SequenceAllocator allocator = new SequenceAllocator(DATABASE, "increasing", 100L, 8);
+        long previous = 100L;
+
+        for (int i = 0; i < 50; ++ i) {
+            long value = allocator.next();
+
+            assertTrue(value > previous);
+            previous = value;
+        }
+    }
+
+    @Test
+    public void gaps() {
+        SequenceAllocator allocator = new SequenceAllocator(DATABASE, "gaps", 0L, 10);
+
+        assertEquals(1L, allocator.next());
+        allocator.recordGaps();
+
+        assertEquals(9.0, Sequence.Static.findOrCreate(DATABASE, "gaps", 0L).getGaps(), 0.0);
+        assertEquals(11L, new SequenceAllocator(DATABASE, "gaps", 0L, 10).next());
+    }
+
+    @Test
+    public void releaseAll() {
+        SequenceAllocator allocator = SequenceAllocator.getInstance(DATABASE, "releaseAll", 0L, 10);
+
+        assertEquals(1L, allocator.next());
+        SequenceAllocator.releaseAll();
+
+        assertEquals(9.0, Sequence.Static.findOrCreate(DATABASE, "releaseAll", 0L).getGaps(), 0.0);
+        assertTrue(allocator != SequenceAllocator.getInstance(DATABASE, "releaseAll", 0L, 10));
+    }
+}
@@ -0,0 +1,86 @@
+package com.psddev.dari.db;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Measures the throughput of {@link Sequence} numbers handed out one at a
+ * time through the database against the ones handed out from blocks by
+ * {@link SequenceAllocator}, using an in-memory H2 database. Run it with:
+ *
+ * <pre>java com.psddev.dari.db.SequenceBenchmark [numbersPerThread]</pre>
+ */
+public class SequenceBenchmark {
+
+    private static final int[] THREAD_COUNTS = { 1, 4, 16, 64 };
+    private static final int[] BLOCK_SIZES = { 1, 100, 1000 };
+
+    public static void main(String[] arguments) throws Exception {
+        int numbersPerThread = arguments.length > 0 ? Integer.parseInt(arguments[0]) : 200;
+        Map<String, Object> settings = new HashMap<String, Object>();
+        SqlDatabase database = new SqlDatabase();
+
+        settings.put(SqlDatabase.JDBC_URL_SETTING, "jdbc:h2:mem:sequenceBenchmark;DB_CLOSE_DELAY=-1");
+        database.setName("sequenceBenchmark");
+        database.doInitialize(null, settings);
+        Query.from(Sequence.class).using(database).first();
+
+        System.out.println("block\tthreads\tnumbers/s");
+
+        for (int blockSize : BLOCK_SIZES) {
+            for (int threadCount : THREAD_COUNTS) {
+                run(database, blockSize, threadCount, numbersPerThread);
+            }
+        }
+
+        database.close();
+        System.exit(0);
+    }
+
+    private static void run(final Database database, int blockSize, int threadCount, final int numbersPerThread) throws Exception {
+        final String name = "benchmark" + blockSize + "x" + threadCount;
+        final SequenceAllocator allocator = blockSize > 1 ? new SequenceAllocator(database, name, 0L, blockSize) : null;
+        ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+        List<Future<Void>> futures = new ArrayList<Future<Void>>();
+        long start = System.nanoTime();
+
+        for (int t = 0; t < threadCount; ++ t) {
+            futures.add(executor.submit(new Callable<Void>() {
+
+                @Override
+                public Void call() {
+                    for (int i = 0; i < numbersPerThread; ++ i) {
+                        if (allocator != null) {
+                            allocator.next();
+
+                        } else {
+                            Sequence.Static.findOrCreate(database, name, 0L).next();
+                        }
+                    }
+
+                    return null;
+                }
+            }));
+        }
+
+        for (Future<Void> future : futures) {
+            future.get();
+        }
+
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        executor.shutdown();
+
+        System.out.println(String.format(
+                "%d\t%d\t%.1f",
+                blockSize,
+                threadCount,
+                threadCount * numbersPerThread / seconds));
+    }
+}
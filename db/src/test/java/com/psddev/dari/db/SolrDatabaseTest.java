@@ -0,0 +1,63 @@
+package com.psddev.dari.db;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.apache.solr.client.solrj.request.UpdateRequest;
+import org.apache.solr.common.params.SolrParams;
+import org.apache.solr.common.params.UpdateParams;
+import org.junit.Test;
+
+public class SolrDatabaseTest {
+
+    @Test
+    public void normalCommit() {
+        assertNull(SolrDatabase.createCommitRequest(false, true));
+    }
+
+    @Test
+    public void softCommit() {
+        UpdateRequest commit = SolrDatabase.createCommitRequest(true, true);
+        SolrParams params = commit.getParams();
+
+        assertEquals("true", params.get(UpdateParams.COMMIT));
+        assertEquals("true", params.get(UpdateParams.WAIT_SEARCHER));
+        assertEquals("true", params.get(SolrDatabase.SOFT_COMMIT_PARAMETER));
+        assertNull(params.get(SolrDatabase.OPEN_SEARCHER_PARAMETER));
+    }
+
+    @Test
+    public void hardCommitWithoutSearcher() {
+        UpdateRequest commit = SolrDatabase.createCommitRequest(false, false);
+        SolrParams params = commit.getParams();
+
+        assertEquals("true", params.get(UpdateParams.COMMIT));
+        assertEquals("false", params.get(SolrDatabase.OPEN_SEARCHER_PARAMETER));
+        assertNull(params.get(SolrDatabase.SOFT_COMMIT_PARAMETER));
+    }
+
+    @Test
+    public void hardCommitNext() {
+        assertTrue(SolrDatabase.isHardCommitNext(false, false));
+        assertTrue(SolrDatabase.isHardCommitNext(false, true));
+        assertFalse(SolrDatabase.isHardCommitNext(true, false));
+        assertTrue(SolrDatabase.isHardCommitNext(true, true));
+    }
+
+    @Test
+    public void openSearcherNext() {
+        // Soft commits disabled, so always a normal commit.
+        assertTrue(SolrDatabase.isOpenSearcherNext(false, true, false));
+        assertTrue(SolrDatabase.isOpenSearcherNext(false, true, true));
+
+        // Soft commits always open a searcher.
+        assertTrue(SolrDatabase.isOpenSearcherNext(true, false, false));
+        assertTrue(SolrDatabase.isOpenSearcherNext(true, false, true));
+
+        // Hard commit due only to make the soft commits durable.
+        assertFalse(SolrDatabase.isOpenSearcherNext(true, true, false));
+        assertTrue(SolrDatabase.isOpenSearcherNext(true, true, true));
+    }
+}
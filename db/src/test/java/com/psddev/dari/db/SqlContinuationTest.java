@@ -0,0 +1,133 @@
+package com.psddev.dari.db;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.psddev.dari.util.PaginatedResult;
+
+public class SqlContinuationTest {
+
+    private static TestDatabase TEST_DATABASE;
+    private static Database DATABASE;
+
+    @BeforeClass
+    public static void beforeClass() {
+        TEST_DATABASE = DatabaseTestUtils.getSqlTestDatabase();
+        DATABASE = TEST_DATABASE.get();
+
+        for (int i = 0; i < 47; ++ i) {
+            Item item = new Item();
+            item.name = "item " + (i % 7);
+            item.rank = i % 5 == 0 ? null : i % 11;
+            item.getState().setDatabase(DATABASE);
+            item.save();
+        }
+    }
+
+    @AfterClass
+    public static void afterClass() {
+        if (TEST_DATABASE != null) {
+            TEST_DATABASE.close();
+        }
+    }
+
+    private Query<Item> from() {
+        return Query.from(Item.class).using(DATABASE);
+    }
+
+    // Reads all pages using the continuations and makes sure that they're
+    // in the same order as the equivalent offset based pagination.
+    private void assertPages(Query<Item> query, int limit) {
+        List<Item> expected = new ArrayList<Item>(query.clone().sortAscending(Query.ID_KEY).selectAll());
+        List<Item> actual = new ArrayList<Item>();
+        String continuation = null;
+
+        for (int pages = 0; pages < 100; ++ pages) {
+            PaginatedResult<Item> result = query.selectAfter(continuation, limit);
+
+            actual.addAll(result.getItems());
+            continuation = result.getContinuation();
+
+            if (!result.hasNext()) {
+                assertNull(continuation);
+                break;
+            }
+        }
+
+        assertEquals(expected, actual);
+    }
+
+    @Test
+    public void unsorted() {
+        assertPages(from(), 10);
+    }
+
+    @Test
+    public void ascending() {
+        assertPages(from().sortAscending("name"), 10);
+    }
+
+    @Test
+    public void descending() {
+        assertPages(from().sortDescending("name"), 6);
+    }
+
+    @Test
+    public void missingAscending() {
+        assertPages(from().sortAscending("rank"), 4);
+    }
+
+    @Test
+    public void missingDescending() {
+        assertPages(from().sortDescending("rank"), 4);
+    }
+
+    @Test
+    public void multiple() {
+        assertPages(from().sortAscending("name").sortDescending("rank"), 3);
+    }
+
+    @Test
+    public void filtered() {
+        assertPages(from().where("rank > 3").sortDescending("name"), 5);
+    }
+
+    @Test
+    public void lastPage() {
+        PaginatedResult<Item> result = from().selectAfter(null, 100);
+
+        assertEquals(47, result.getItems().size());
+        assertEquals(47, result.getCount());
+        assertFalse(result.hasNext());
+        assertNull(result.getContinuation());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void differentSorters() {
+        String continuation = from().sortAscending("name").selectAfter(null, 10).getContinuation();
+
+        from().sortDescending("name").selectAfter(continuation, 10);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void invalid() {
+        from().selectAfter("invalid", 10);
+    }
+
+    public static class Item extends Record {
+
+        @Indexed
+        public String name;
+
+        @Indexed
+        public Integer rank;
+    }
+}
@@ -0,0 +1,103 @@
+package com.psddev.dari.db;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import org.junit.Test;
+
+import com.psddev.dari.util.UuidUtils;
+
+public class SqlDataCacheTest {
+
+    private Map<String, Object> createValues(String name) {
+        Map<String, Object> values = new LinkedHashMap<String, Object>();
+        List<Object> tags = new ArrayList<Object>();
+
+        tags.add("tag");
+        values.put("name", name);
+        values.put("tags", tags);
+        return values;
+    }
+
+    @Test
+    public void hit() {
+        SqlDataCache cache = new SqlDataCache(10);
+        UUID id = UuidUtils.createSequentialUuid();
+
+        cache.put(id, 1.0, new byte[0], createValues("foo"));
+
+        SqlDataCache.Entry entry = cache.get(id, 1.0);
+
+        assertNotNull(entry);
+        assertEquals(createValues("foo"), entry.getValues());
+    }
+
+    @Test
+    public void stale() {
+        SqlDataCache cache = new SqlDataCache(10);
+        UUID id = UuidUtils.createSequentialUuid();
+
+        cache.put(id, 1.0, new byte[0], createValues("foo"));
+
+        assertNull(cache.get(id, 2.0));
+        assertNull(cache.get(id, 1.0));
+    }
+
+    @Test
+    public void olderIgnored() {
+        SqlDataCache cache = new SqlDataCache(10);
+        UUID id = UuidUtils.createSequentialUuid();
+
+        cache.put(id, 2.0, new byte[0], createValues("new"));
+        cache.put(id, 1.0, new byte[0], createValues("old"));
+
+        assertEquals("new", cache.get(id, 2.0).getValues().get("name"));
+    }
+
+    @Test
+    public void missingUpdateDate() {
+        SqlDataCache cache = new SqlDataCache(10);
+        UUID id = UuidUtils.createSequentialUuid();
+
+        cache.put(id, 0.0, new byte[0], createValues("foo"));
+
+        assertNull(cache.get(id, 0.0));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void copyOnRead() {
+        SqlDataCache cache = new SqlDataCache(10);
+        UUID id = UuidUtils.createSequentialUuid();
+        Map<String, Object> values = createValues("foo");
+
+        cache.put(id, 1.0, new byte[0], values);
+        values.put("name", "changed before read");
+
+        Map<String, Object> read = cache.get(id, 1.0).getValues();
+
+        read.put("name", "changed after read");
+        ((List<Object>) read.get("tags")).add("another");
+
+        assertEquals(createValues("foo"), cache.get(id, 1.0).getValues());
+    }
+
+    @Test
+    public void bounded() {
+        SqlDataCache cache = new SqlDataCache(10);
+
+        for (int i = 0; i < 100; ++ i) {
+            cache.put(UuidUtils.createSequentialUuid(), 1.0, new byte[0], createValues("foo"));
+        }
+
+        assertTrue(cache.getSize() <= 10);
+    }
+}
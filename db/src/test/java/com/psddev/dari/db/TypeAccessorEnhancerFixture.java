@@ -0,0 +1,10 @@
+package com.psddev.dari.db;
+
+// Model that TypeAccessorEnhancerTest enhances. It's a top-level class so
+// that the enhanced copy can be defined in another class loader.
+public class TypeAccessorEnhancerFixture extends Record {
+
+    private String name;
+    private long count;
+    private final String kind = "item";
+}
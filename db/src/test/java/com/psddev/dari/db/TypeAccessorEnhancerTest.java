@@ -0,0 +1,95 @@
+package com.psddev.dari.db;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.util.Collections;
+
+import org.junit.Test;
+
+import com.psddev.dari.util.ClassEnhancer;
+import com.psddev.dari.util.IoUtils;
+import com.psddev.dari.util.TypeAccessor;
+import com.psddev.dari.util.TypeDefinition;
+
+public class TypeAccessorEnhancerTest {
+
+    private static byte[] readBytecode(Class<?> objectClass) throws IOException {
+        InputStream input = objectClass.getResourceAsStream("/" + objectClass.getName().replace('.', '/') + ".class");
+
+        try {
+            return IoUtils.toByteArray(input);
+
+        } finally {
+            input.close();
+        }
+    }
+
+    private static byte[] enhance(byte[] bytecode) {
+        return ClassEnhancer.Static.enhance(
+                bytecode,
+                Collections.<Class<? extends ClassEnhancer>>singleton(TypeAccessorEnhancer.class));
+    }
+
+    @Test
+    public void addFieldMethods() throws Exception {
+        byte[] enhanced = enhance(readBytecode(TypeAccessorEnhancerFixture.class));
+
+        assertNotNull(enhanced);
+        assertNull(enhance(enhanced));
+
+        Class<?> itemClass = new EnhancedClassLoader().define(TypeAccessorEnhancerFixture.class.getName(), enhanced);
+
+        assertNotNull(itemClass.getDeclaredMethod(TypeAccessor.FIELD_GETTER_PREFIX + "name", itemClass));
+        assertNotNull(itemClass.getDeclaredMethod(TypeAccessor.FIELD_SETTER_PREFIX + "name", itemClass, String.class));
+        assertNotNull(itemClass.getDeclaredMethod(TypeAccessor.FIELD_GETTER_PREFIX + "count", itemClass));
+        assertNotNull(itemClass.getDeclaredMethod(TypeAccessor.FIELD_SETTER_PREFIX + "count", itemClass, long.class));
+        assertNotNull(itemClass.getDeclaredMethod(TypeAccessor.FIELD_GETTER_PREFIX + "kind", itemClass));
+
+        for (Method method : itemClass.getDeclaredMethods()) {
+            assertFalse(method.getName().equals(TypeAccessor.FIELD_SETTER_PREFIX + "kind"));
+        }
+
+        TypeDefinition<?> definition = TypeDefinition.getInstance(itemClass);
+        Object item = definition.newInstance();
+        TypeAccessor<?> accessor = definition.getAccessor();
+        Field name = definition.getField("name");
+        Field count = definition.getField("count");
+
+        accessor.set(item, name, "foo");
+        accessor.set(item, count, 2L);
+
+        assertEquals("foo", name.get(item));
+        assertEquals(2L, count.get(item));
+        assertEquals("foo", accessor.get(item, name));
+        assertEquals(2L, accessor.get(item, count));
+        assertEquals("item", accessor.get(item, definition.getField("kind")));
+    }
+
+    @Test
+    public void skipNonRecordable() throws IOException {
+        assertNull(enhance(readBytecode(NotRecordable.class)));
+    }
+
+    private static class EnhancedClassLoader extends ClassLoader {
+
+        public EnhancedClassLoader() {
+            super(TypeAccessorEnhancerTest.class.getClassLoader());
+        }
+
+        public Class<?> define(String name, byte[] bytecode) {
+            return defineClass(name, bytecode, 0, bytecode.length);
+        }
+    }
+
+    public static class NotRecordable {
+
+        private String name;
+    }
+}
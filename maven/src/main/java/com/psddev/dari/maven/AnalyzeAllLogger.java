@@ -10,6 +10,8 @@ public class AnalyzeAllLogger extends JvmLogger {
 
     private final Log log;
     private boolean hasErrors;
+    private boolean hasWarnings;
+    private boolean hasPerformanceWarnings;
 
     public AnalyzeAllLogger(Log log) {
         this.log = log;
@@ -19,6 +21,14 @@ public class AnalyzeAllLogger extends JvmLogger {
         return hasErrors;
     }
 
+    public boolean hasWarnings() {
+        return hasWarnings;
+    }
+
+    public boolean hasPerformanceWarnings() {
+        return hasPerformanceWarnings;
+    }
+
     @Override
     public void info(Method method, int line, String message) {
         log.info(format(method, line, message));
@@ -26,9 +36,18 @@ public class AnalyzeAllLogger extends JvmLogger {
 
     @Override
     public void warn(Method method, int line, String message) {
+        hasWarnings = true;
+
         log.warn(format(method, line, message));
     }
 
+    @Override
+    public void warnPerformance(Method method, int line, String message) {
+        hasPerformanceWarnings = true;
+
+        warn(method, line, message);
+    }
+
     @Override
     public void error(Method method, int line, String message) {
         hasErrors = true;
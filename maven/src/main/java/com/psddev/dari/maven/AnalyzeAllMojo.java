@@ -28,6 +28,15 @@ public class AnalyzeAllMojo extends AbstractMojo {
      */
     protected MavenProject project;
 
+    /**
+     * Fails the build on performance warnings, such as queries inside
+     * loops, as well as on errors. Other warnings, such as the queries
+     * that can't be analyzed, never fail the build.
+     *
+     * @parameter expression="${dari.analyze.failOnWarnings}" default-value="false"
+     */
+    protected boolean failOnWarnings;
+
     @Override
     public void execute() throws MojoExecutionException, MojoFailureException {
         ClassLoader loader = ObjectUtils.getCurrentClassLoader();
@@ -82,8 +91,13 @@ public class AnalyzeAllMojo extends AbstractMojo {
                 // Interrupted most likely by user so move on.
             }
 
-            if (thread.getLogger().hasErrors()) {
+            AnalyzeAllLogger logger = thread.getLogger();
+
+            if (logger.hasErrors()) {
                 throw new MojoFailureException("");
+
+            } else if (failOnWarnings && logger.hasPerformanceWarnings()) {
+                throw new MojoFailureException("Found performance warnings! Set dari.analyze.failOnWarnings to false to only warn.");
             }
 
         } finally {
@@ -0,0 +1,47 @@
+package com.psddev.dari.maven;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.apache.maven.plugin.AbstractMojo;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.project.MavenProject;
+
+import com.psddev.dari.util.ClassFinder;
+
+/**
+ * Writes the class index that {@link ClassFinder} reads instead of
+ * scanning the project classes at runtime.
+ *
+ * @goal index-classes
+ * @phase process-classes
+ */
+public class IndexClassesMojo extends AbstractMojo {
+
+    /**
+     * @parameter expression="${project}"
+     * @required
+     * @readonly
+     */
+    protected MavenProject project;
+
+    @Override
+    public void execute() throws MojoExecutionException {
+        File directory = new File(project.getBuild().getOutputDirectory());
+
+        if (!directory.isDirectory()) {
+            return;
+        }
+
+        try {
+            int count = ClassFinder.Static.writeIndex(directory);
+
+            getLog().info(String.format("Indexed %d classes in [%s]", count, directory));
+
+        } catch (IOException error) {
+            throw new MojoExecutionException(
+                    String.format("Can't write the class index in [%s]!", directory),
+                    error);
+        }
+    }
+}
@@ -1,22 +1,38 @@
 package com.psddev.dari.util;
 
+import java.io.BufferedReader;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.net.URLClassLoader;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.jar.Attributes;
 import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
 import java.util.jar.JarInputStream;
 import java.util.jar.Manifest;
 import java.util.regex.Pattern;
 
 import javax.tools.JavaFileObject;
 
+import org.objectweb.asm.ClassReader;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -24,7 +40,22 @@ import com.google.common.cache.CacheBuilder;
 import com.google.common.cache.CacheLoader;
 import com.google.common.cache.LoadingCache;
 
-/** For finding classes that are compatible with an arbitrary class. */
+/**
+ * For finding classes that are compatible with an arbitrary class.
+ *
+ * <p>JAR files and directories that contain a class index at
+ * {@value #INDEX_PATH} (see {@link Static#writeIndex}) are read from the
+ * index instead of being scanned, and only the classes whose hierarchy
+ * can reach the base class are loaded. Directories are always scanned in
+ * {@linkplain Settings#isDebug debug mode} since classes may be compiled
+ * into them on the fly.</p>
+ *
+ * <p>The index is written by the {@code index-classes} goal of
+ * {@code dari-maven-plugin}, which {@code dari-parent} binds. Everything
+ * without an index, such as the classes of a project that inherits from
+ * {@code dari-grandparent} without declaring the plugin, is scanned
+ * instead.</p>
+ */
 public class ClassFinder {
 
     /**
@@ -33,9 +64,18 @@ public class ClassFinder {
      */
     public static final String INCLUDE_ATTRIBUTE = "Dari-ClassFinder-Include";
 
+    /**
+     * Path to the class index within a JAR file or a class directory.
+     * Each line contains a class name followed by the names of its
+     * direct super class and interfaces, all separated by spaces.
+     */
+    public static final String INDEX_PATH = "META-INF/dari/class-index.txt";
+
     private static final String CLASS_FILE_SUFFIX = JavaFileObject.Kind.CLASS.extension;
     private static final Logger LOGGER = LoggerFactory.getLogger(ClassFinder.class);
 
+    private final Map<String, Map<String, List<String>>> jarIndexes = new ConcurrentHashMap<String, Map<String, List<String>>>();
+
     private Set<String> classLoaderExclusions = new HashSet<String>(Arrays.asList(
             "sun.misc.Launcher$ExtClassLoader",
             "sun.misc.Launcher$AppClassLoader",
@@ -61,11 +101,13 @@ public class ClassFinder {
      */
     public <T> Set<Class<? extends T>> find(ClassLoader loader, Class<T> baseClass) {
         Set<String> classNames = new HashSet<String>();
+        Map<String, List<String>> hierarchy = new HashMap<String, List<String>>();
+
         for (ClassLoader l = loader; l != null; l = l.getParent()) {
             if (l instanceof URLClassLoader &&
                     !getClassLoaderExclusions().contains(l.getClass().getName())) {
                 for (URL url : ((URLClassLoader) l).getURLs()) {
-                    processUrl(classNames, url);
+                    processUrl(classNames, hierarchy, url);
                 }
             }
         }
@@ -74,13 +116,24 @@ public class ClassFinder {
         if (!ObjectUtils.isBlank(classPath)) {
             for (String path : StringUtils.split(classPath, Pattern.quote(File.pathSeparator))) {
                 try {
-                    processUrl(classNames, new File(path).toURI().toURL());
+                    processUrl(classNames, hierarchy, new File(path).toURI().toURL());
                 } catch (MalformedURLException error) {
                     // Ignore JARs in the class path that can't be found.
                 }
             }
         }
 
+        if (!hierarchy.isEmpty()) {
+            String baseClassName = baseClass.getName();
+            Map<String, Boolean> compatibles = new HashMap<String, Boolean>();
+
+            for (String className : hierarchy.keySet()) {
+                if (isCompatible(loader, baseClass, baseClassName, hierarchy, compatibles, className)) {
+                    classNames.add(className);
+                }
+            }
+        }
+
         Set<Class<? extends T>> classes = new HashSet<Class<? extends T>>();
         for (String className : classNames) {
             try {
@@ -102,13 +155,73 @@ public class ClassFinder {
         return classes;
     }
 
+    /**
+     * Returns {@code true} if the class with the given {@code className}
+     * may be compatible with the given {@code baseClass} based on the
+     * given indexed {@code hierarchy}. Classes outside the index are
+     * loaded to check.
+     */
+    private boolean isCompatible(
+            ClassLoader loader,
+            Class<?> baseClass,
+            String baseClassName,
+            Map<String, List<String>> hierarchy,
+            Map<String, Boolean> compatibles,
+            String className) {
+
+        if (baseClassName.equals(className)) {
+            return true;
+        }
+
+        Boolean compatible = compatibles.get(className);
+
+        if (compatible != null) {
+            return compatible;
+        }
+
+        List<String> superNames = hierarchy.get(className);
+        compatible = Boolean.FALSE;
+        compatibles.put(className, compatible);
+
+        if (superNames == null) {
+            try {
+                compatible = baseClass.isAssignableFrom(Class.forName(className, false, loader));
+
+            } catch (ClassNotFoundException error) {
+                // Ignore classes that can't be found by name.
+
+            } catch (NoClassDefFoundError error) {
+                // Ignore classes that can't be somehow resolved at runtime.
+            }
+
+        } else {
+            for (String superName : superNames) {
+                if (isCompatible(loader, baseClass, baseClassName, hierarchy, compatibles, superName)) {
+                    compatible = Boolean.TRUE;
+                    break;
+                }
+            }
+        }
+
+        compatibles.put(className, compatible);
+        return compatible;
+    }
+
     /**
      * Processes the given {@code url} and adds all associated class
-     * files to the given {@code classNames}.
+     * files to the given {@code classNames}, or to the given
+     * {@code hierarchy} if the {@code url} has a class index.
      */
-    private void processUrl(Set<String> classNames, URL url) {
+    private void processUrl(Set<String> classNames, Map<String, List<String>> hierarchy, URL url) {
 
         if (url.getPath().endsWith(".jar")) {
+            Map<String, List<String>> index = readJarIndex(url);
+
+            if (index != null) {
+                hierarchy.putAll(index);
+                return;
+            }
+
             try {
                 InputStream urlInput = url.openStream();
                 try {
@@ -145,11 +258,104 @@ public class ClassFinder {
         } else {
             File file = IoUtils.toFile(url, StringUtils.UTF_8);
             if (file != null && file.isDirectory()) {
+                File indexFile = new File(file, INDEX_PATH);
+
+                if (indexFile.isFile() && !Settings.isDebug()) {
+                    try {
+                        hierarchy.putAll(readIndex(new FileInputStream(indexFile)));
+                        return;
+
+                    } catch (IOException error) {
+                        LOGGER.debug(String.format(
+                                "Can't read [%s] so scanning [%s] instead!", indexFile, file),
+                                error);
+                    }
+                }
+
                 processFile(classNames, file, "");
             }
         }
     }
 
+    /**
+     * Reads the class index in the JAR file at the given {@code url},
+     * caching the result since JAR files don't change at runtime.
+     *
+     * @return {@code null} if the JAR file isn't local or doesn't
+     *         contain an index.
+     */
+    private Map<String, List<String>> readJarIndex(URL url) {
+        String key = url.toString();
+        Map<String, List<String>> index = jarIndexes.get(key);
+
+        if (index != null) {
+            return index.isEmpty() ? null : index;
+        }
+
+        File file = IoUtils.toFile(url, StringUtils.UTF_8);
+
+        if (file == null || !file.isFile()) {
+            return null;
+        }
+
+        index = Collections.emptyMap();
+
+        try {
+            JarFile jar = new JarFile(file);
+
+            try {
+                Manifest manifest = jar.getManifest();
+                Attributes attributes = manifest != null ? manifest.getMainAttributes() : null;
+                JarEntry entry = jar.getJarEntry(INDEX_PATH);
+
+                if (entry != null &&
+                        attributes != null &&
+                        Boolean.parseBoolean(attributes.getValue(INCLUDE_ATTRIBUTE))) {
+                    index = readIndex(jar.getInputStream(entry));
+                }
+
+            } finally {
+                jar.close();
+            }
+
+        } catch (IOException error) {
+            LOGGER.debug(String.format(
+                    "Can't read the class index in [%s]!", url),
+                    error);
+        }
+
+        jarIndexes.put(key, index);
+        return index.isEmpty() ? null : index;
+    }
+
+    /** Reads the class index from the given {@code input} and closes it. */
+    private static Map<String, List<String>> readIndex(InputStream input) throws IOException {
+        Map<String, List<String>> index = new HashMap<String, List<String>>();
+        Reader reader = new InputStreamReader(input, StringUtils.UTF_8);
+
+        try {
+            BufferedReader lineReader = new BufferedReader(reader);
+
+            for (String line; (line = lineReader.readLine()) != null;) {
+                line = line.trim();
+
+                if (line.length() == 0 || line.startsWith("#")) {
+                    continue;
+                }
+
+                String[] names = line.split(" ");
+                index.put(names[0], names.length > 1 ?
+                        Arrays.asList(names).subList(1, names.length) :
+                        Collections.<String>emptyList());
+            }
+
+        } finally {
+            reader.close();
+        }
+
+        return index;
+    }
+
     /**
      * Processes the given {@code path} under the given {@code root} and
      * adds all associated class files to the given {@code classNames}.
@@ -194,6 +400,94 @@ public class ClassFinder {
                     }
                 });
 
+        /**
+         * Writes the class index for all class files in the given
+         * {@code directory} to {@value ClassFinder#INDEX_PATH} within it,
+         * reading the class files directly so that none of them are
+         * loaded.
+         *
+         * @param directory Can't be {@code null}.
+         * @return Number of classes in the index.
+         */
+        public static int writeIndex(File directory) throws IOException {
+            ErrorUtils.errorIfNull(directory, "directory");
+
+            Map<String, List<String>> index = new TreeMap<String, List<String>>();
+
+            indexFile(index, directory);
+
+            File indexFile = new File(directory, INDEX_PATH);
+            IoUtils.createParentDirectories(indexFile);
+
+            Writer writer = new OutputStreamWriter(new FileOutputStream(indexFile), StringUtils.UTF_8);
+
+            try {
+                for (Map.Entry<String, List<String>> entry : index.entrySet()) {
+                    writer.write(entry.getKey());
+
+                    for (String superName : entry.getValue()) {
+                        writer.write(' ');
+                        writer.write(superName);
+                    }
+
+                    writer.write('\n');
+                }
+
+            } finally {
+                writer.close();
+            }
+
+            return index.size();
+        }
+
+        private static void indexFile(Map<String, List<String>> index, File file) throws IOException {
+            if (file.isDirectory()) {
+                File[] children = file.listFiles();
+
+                if (children != null) {
+                    for (File child : children) {
+                        indexFile(index, child);
+                    }
+                }
+
+            } else if (file.getName().endsWith(CLASS_FILE_SUFFIX)) {
+                InputStream input = new FileInputStream(file);
+
+                try {
+                    ClassReader reader = new ClassReader(input);
+                    List<String> superNames = new ArrayList<String>();
+                    String superName = reader.getSuperName();
+
+                    if (superName != null) {
+                        superNames.add(superName.replace('/', '.'));
+                    }
+
+                    for (String interfaceName : reader.getInterfaces()) {
+                        superNames.add(interfaceName.replace('/', '.'));
+                    }
+
+                    index.put(reader.getClassName().replace('/', '.'), superNames);
+
+                } finally {
+                    input.close();
+                }
+            }
+        }
+
+        /**
+         * Writes the class index for each class directory given in the
+         * {@code arguments}.
+         */
+        public static void main(String[] arguments) throws IOException {
+            for (String argument : arguments) {
+                File directory = new File(argument);
+
+                if (directory.isDirectory()) {
+                    LOGGER.info("Indexed {} classes in [{}]", writeIndex(directory), directory);
+                }
+            }
+        }
+
         static {
             CodeUtils.addRedefineClassesListener(new CodeUtils.RedefineClassesListener() {
                 @Override
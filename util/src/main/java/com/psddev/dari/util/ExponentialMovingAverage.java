@@ -2,8 +2,6 @@ package com.psddev.dari.util;
 
 import java.util.concurrent.atomic.AtomicLong;
 
-import com.google.common.util.concurrent.AtomicDouble;
-
 /**
  * Exponential moving average.
  *
@@ -16,7 +14,7 @@ public class ExponentialMovingAverage {
     private final double alpha;
 
     private final AtomicLong tickOffset;
-    private final AtomicDouble total;
+    private final StripedDouble total;
     private volatile double currentAverage;
 
     /**
@@ -38,7 +36,7 @@ public class ExponentialMovingAverage {
         tick = (long) (measureInterval * 1e9);
         alpha = 1 - Math.exp(-tick / (averageInterval * 1e9));
         tickOffset = new AtomicLong(System.nanoTime() / tick);
-        total = new AtomicDouble();
+        total = new StripedDouble();
     }
 
     // Updates the average if it's past time to measure.
@@ -49,7 +47,7 @@ public class ExponentialMovingAverage {
 
         if (offsetDiff > 0L &&
                 tickOffset.compareAndSet(oldOffset, newOffset)) {
-            double oldAverage = total.getAndSet(0.0) / tick;
+            double oldAverage = total.sumThenReset() / tick;
 
             for (long i = 0L, size = offsetDiff - 1L; i < size; ++ i) {
                 currentAverage += alpha * (0L - currentAverage);
@@ -67,7 +65,7 @@ public class ExponentialMovingAverage {
      */
     public double updateAt(long time, double amount) {
         tick(time);
-        total.addAndGet(amount);
+        total.add(amount);
         return currentAverage * 1e9;
     }
 
@@ -12,6 +12,7 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.ListIterator;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import javax.servlet.ServletContext;
 import javax.servlet.http.HttpServletRequest;
@@ -27,6 +28,9 @@ public class HtmlWriter extends Writer {
         GRID_PADDING = gp.toString();
     }
 
+    private static final Map<Class<?>, Boolean> ESCAPE_HTML_OVERRIDDENS = new ConcurrentHashMap<Class<?>, Boolean>();
+
+    private final boolean escapeHtmlOverridden = isEscapeHtmlOverridden(getClass());
     private Writer delegate;
     private Boolean selfClosing;
     private final Map<Class<?>, HtmlFormatter<Object>> defaultFormatters = new HashMap<Class<?>, HtmlFormatter<Object>>();
@@ -134,6 +138,46 @@ public class HtmlWriter extends Writer {
         return StringUtils.escapeHtml(string);
     }
 
+    // Returns true if the given class or one of its super classes below
+    // this one overrides #escapeHtml, so its result must be used instead
+    // of escaping straight to the delegate.
+    private static boolean isEscapeHtmlOverridden(Class<?> writerClass) {
+        Boolean overridden = ESCAPE_HTML_OVERRIDDENS.get(writerClass);
+
+        if (overridden == null) {
+            overridden = Boolean.FALSE;
+
+            for (Class<?> c = writerClass; !HtmlWriter.class.equals(c); c = c.getSuperclass()) {
+                try {
+                    c.getDeclaredMethod("escapeHtml", String.class);
+                    overridden = Boolean.TRUE;
+                    break;
+
+                } catch (NoSuchMethodException error) {
+                    // Keep looking in the super class.
+                }
+            }
+
+            ESCAPE_HTML_OVERRIDDENS.put(writerClass, overridden);
+        }
+
+        return overridden;
+    }
+
+    // Escapes the given string and writes it to the given delegate.
+    private void writeEscapedHtml(Writer delegate, String string) throws IOException {
+        if (escapeHtmlOverridden) {
+            String escaped = escapeHtml(string);
+
+            if (escaped != null) {
+                delegate.write(escaped);
+            }
+
+        } else {
+            StringUtils.escapeHtml(delegate, string);
+        }
+    }
+
     /**
      * Writes the given {@code object} as a string without any escaping.
      *
@@ -184,9 +228,9 @@ public class HtmlWriter extends Writer {
 
                 if (!ObjectUtils.isBlank(name) && value != null) {
                     delegate.write(' ');
-                    delegate.write(escapeHtml(name));
+                    writeEscapedHtml(delegate, name);
                     delegate.write("=\"");
-                    delegate.write(escapeHtml(value.toString()));
+                    writeEscapedHtml(delegate, value.toString());
                     delegate.write('"');
                 }
             }
@@ -309,7 +353,7 @@ public class HtmlWriter extends Writer {
      * {@code null}, the given {@code defaultUnescapedHtml}.
      */
     public HtmlWriter writeHtmlOrDefault(Object unescapedHtml, String defaultUnescapedHtml) throws IOException {
-        getDelegate().write(escapeHtml(unescapedHtml == null ? defaultUnescapedHtml : unescapedHtml.toString()));
+        writeEscapedHtml(getDelegate(), unescapedHtml == null ? defaultUnescapedHtml : unescapedHtml.toString());
         return this;
     }
 
@@ -0,0 +1,213 @@
+package com.psddev.dari.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Histogram of non-negative values, usually durations in nanoseconds,
+ * that's cheap to update from many threads at once.
+ *
+ * <p>The values are counted in logarithmic buckets with 8 sub-buckets
+ * for each power of two, so that the percentiles are accurate to within
+ * about 6% regardless of the magnitude, and the counts are striped by
+ * thread like {@link StripedLong}. Values larger than about 4.8 hours in
+ * nanoseconds are counted in the last bucket.</p>
+ */
+public class LatencyHistogram {
+
+    private static final int SUB_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BITS;
+    private static final int MAXIMUM_EXPONENT = 43;
+    private static final long MAXIMUM_VALUE = (1L << (MAXIMUM_EXPONENT + 1)) - 1;
+
+    /** Number of buckets in each histogram. */
+    static final int BUCKETS = indexOf(MAXIMUM_VALUE) + 1;
+
+    private static final int SUM_OFFSET = BUCKETS;
+    private static final int STRIDE = BUCKETS + 8;
+    private static final int DEFAULT_MAXIMUM_STRIPES = 8;
+
+    private final int stripes;
+    private final AtomicLongArray cells;
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * Creates an instance that uses up to {@code maximumStripes} stripes.
+     * Fewer stripes use less memory but contend more.
+     */
+    public LatencyHistogram(int maximumStripes) {
+        int s = 1;
+
+        while (s < StripedLong.getStripes() && s < maximumStripes) {
+            s <<= 1;
+        }
+
+        this.stripes = s;
+        this.cells = new AtomicLongArray(s * STRIDE);
+    }
+
+    /** Creates an instance that uses the default number of stripes. */
+    public LatencyHistogram() {
+        this(DEFAULT_MAXIMUM_STRIPES);
+    }
+
+    /** Returns the index of the bucket that counts the given {@code value}. */
+    static int indexOf(long value) {
+        if (value < SUB_BUCKETS) {
+            return value > 0 ? (int) value : 0;
+        }
+
+        if (value > MAXIMUM_VALUE) {
+            value = MAXIMUM_VALUE;
+        }
+
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+
+        return (exponent - SUB_BITS + 1) * SUB_BUCKETS + (int) ((value >>> (exponent - SUB_BITS)) & (SUB_BUCKETS - 1));
+    }
+
+    /** Returns the smallest value that's counted in the bucket at the given {@code index}. */
+    static long lowerBoundOf(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+
+        int shift = index / SUB_BUCKETS - 1;
+
+        return ((long) (SUB_BUCKETS + index % SUB_BUCKETS)) << shift;
+    }
+
+    /** Returns the largest value that's counted in the bucket at the given {@code index}. */
+    static long upperBoundOf(int index) {
+        return index + 1 < BUCKETS ? lowerBoundOf(index + 1) - 1 : MAXIMUM_VALUE;
+    }
+
+    /** Records the given {@code value}. */
+    public void record(long value) {
+        if (value < 0) {
+            value = 0;
+        }
+
+        int offset = StripedLong.getStripeIndex(stripes) * STRIDE;
+
+        cells.getAndIncrement(offset + indexOf(value));
+        cells.getAndAdd(offset + SUM_OFFSET, value);
+
+        for (long m; value > (m = max.get());) {
+            if (max.compareAndSet(m, value)) {
+                break;
+            }
+        }
+    }
+
+    /** Returns a copy of the current counts. */
+    public Snapshot getSnapshot() {
+        return collect(false);
+    }
+
+    /** Returns a copy of the current counts and resets them to zero. */
+    public Snapshot getSnapshotThenReset() {
+        return collect(true);
+    }
+
+    private Snapshot collect(boolean reset) {
+        long[] counts = new long[BUCKETS];
+        long sum = 0L;
+
+        for (int s = 0; s < stripes; ++ s) {
+            int offset = s * STRIDE;
+
+            for (int i = 0; i < BUCKETS; ++ i) {
+                counts[i] += reset ? cells.getAndSet(offset + i, 0L) : cells.get(offset + i);
+            }
+
+            sum += reset ? cells.getAndSet(offset + SUM_OFFSET, 0L) : cells.get(offset + SUM_OFFSET);
+        }
+
+        return new Snapshot(counts, sum, reset ? max.getAndSet(0L) : max.get());
+    }
+
+    /** Immutable copy of the counts in a {@link LatencyHistogram}. */
+    public static class Snapshot {
+
+        private final long[] counts;
+        private final long count;
+        private final long sum;
+        private final long max;
+
+        Snapshot(long[] counts, long sum, long max) {
+            long count = 0L;
+
+            for (long c : counts) {
+                count += c;
+            }
+
+            this.counts = counts;
+            this.count = count;
+            this.sum = sum;
+            this.max = max;
+        }
+
+        /** Returns the number of recorded values. */
+        public long getCount() {
+            return count;
+        }
+
+        /** Returns the sum of all recorded values. */
+        public long getSum() {
+            return sum;
+        }
+
+        /** Returns the largest recorded value. */
+        public long getMax() {
+            return max;
+        }
+
+        /** Returns the mean of all recorded values, or {@code 0.0} if there aren't any. */
+        public double getMean() {
+            return count > 0 ? (double) sum / count : 0.0;
+        }
+
+        /**
+         * Returns an estimate of the value below which the given
+         * {@code percentile} of the recorded values fall.
+         *
+         * @param percentile Between {@code 0.0} and {@code 100.0}.
+         */
+        public long getPercentile(double percentile) {
+            if (count == 0) {
+                return 0L;
+            }
+
+            long rank = (long) Math.ceil(count * Math.min(Math.max(percentile, 0.0), 100.0) / 100.0);
+            long seen = 0L;
+
+            if (rank < 1) {
+                rank = 1;
+            }
+
+            for (int i = 0; i < BUCKETS; ++ i) {
+                seen += counts[i];
+
+                if (seen >= rank) {
+                    long lower = lowerBoundOf(i);
+
+                    return Math.min(lower + (upperBoundOf(i) - lower) / 2, max);
+                }
+            }
+
+            return max;
+        }
+
+        /** Returns a snapshot that combines this one with the given {@code other}. */
+        public Snapshot add(Snapshot other) {
+            long[] combined = new long[BUCKETS];
+
+            for (int i = 0; i < BUCKETS; ++ i) {
+                combined[i] = counts[i] + other.counts[i];
+            }
+
+            return new Snapshot(combined, sum + other.sum, Math.max(max, other.max));
+        }
+    }
+}
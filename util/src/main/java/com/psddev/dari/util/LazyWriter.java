@@ -2,7 +2,6 @@ package com.psddev.dari.util;
 
 import java.io.IOException;
 import java.io.Writer;
-import java.util.Locale;
 
 import javax.servlet.http.HttpServletRequest;
 
@@ -14,11 +13,14 @@ public class LazyWriter extends Writer {
 
     private static final String ATTRIBUTE_PREFIX = LazyWriter.class.getName() + ".";
     private static final String IN_BODY_ATTRIBUTE = ATTRIBUTE_PREFIX + "inBody";
+    private static final int CHUNK_SIZE = 1024;
 
     private final HttpServletRequest request;
     private final Writer delegate;
     private final StringBuilder lazy = new StringBuilder();
     private final StringBuilder pending = new StringBuilder();
+    private final char[] stringChunk = new char[CHUNK_SIZE];
+    private final char[] builderChunk = new char[CHUNK_SIZE];
 
     private boolean inString;
     private boolean stringEscaping;
@@ -47,12 +49,19 @@ public class LazyWriter extends Writer {
                 Boolean.TRUE.equals(request.getAttribute(IN_BODY_ATTRIBUTE)));
     }
 
+    /**
+     * Parses the given {@code buffer} chunk for the points where the lazy
+     * writes can go. The plain text between the tags, the strings and the
+     * comments are skipped over in runs, and the parsed characters are
+     * written straight from the {@code buffer} whenever possible.
+     */
     @Override
     public void write(char[] buffer, int offset, int length) throws IOException {
-        for (length += offset; offset < length; ++ offset) {
-            char letter = buffer[offset];
+        int end = offset + length;
+        int pendingStart = offset;
 
-            pending.append(letter);
+        for (int i = offset; i < end; ++ i) {
+            char letter = buffer[i];
 
             if (inString) {
                 if (stringEscaping) {
@@ -63,6 +72,9 @@ public class LazyWriter extends Writer {
 
                 } else if (letter == stringStartLetter) {
                     inString = false;
+
+                } else {
+                    i = skip(buffer, i + 1, end, '\\', stringStartLetter);
                 }
 
             } else if (commentStarting) {
@@ -78,6 +90,9 @@ public class LazyWriter extends Writer {
             } else if (inSingleComment) {
                 if (letter == '\r' || letter == '\n') {
                     inSingleComment = false;
+
+                } else {
+                    i = skip(buffer, i + 1, end, '\r', '\n');
                 }
 
             } else if (inMultiComment) {
@@ -90,6 +105,7 @@ public class LazyWriter extends Writer {
 
                 } else {
                     multiCommentEnding = false;
+                    i = skip(buffer, i + 1, end, '*', '*');
                 }
 
             } else if (letter == '<') {
@@ -109,21 +125,19 @@ public class LazyWriter extends Writer {
                 }
 
                 if (endTag) {
-                    String tagNameLc = tagName.toString().toLowerCase(Locale.ENGLISH);
-
-                    if ("script".equals(tagNameLc) || "style".equals(tagNameLc)) {
+                    if (isTagName("script") || isTagName("style")) {
                         inScriptOrStyle = true;
 
-                    } else if ("/script".equals(tagNameLc) || "/style".equals(tagNameLc)) {
+                    } else if (isTagName("/script") || isTagName("/style")) {
                         inScriptOrStyle = false;
 
-                    } else if ("textarea".equals(tagNameLc)) {
+                    } else if (isTagName("textarea")) {
                         inTextarea = true;
 
-                    } else if ("/textarea".equals(tagNameLc)) {
+                    } else if (isTagName("/textarea")) {
                         inTextarea = false;
 
-                    } else if ("body".equals(tagNameLc)) {
+                    } else if (isTagName("body")) {
                         inBody = true;
 
                         if (request != null) {
@@ -132,9 +146,11 @@ public class LazyWriter extends Writer {
                     }
 
                     writePending();
+                    delegate.write(buffer, pendingStart, i + 1 - pendingStart);
+                    pendingStart = i + 1;
 
                     if (isInBody() && lazy.length() > 0) {
-                        delegate.append(lazy);
+                        write(lazy);
                         lazy.setLength(0);
                     }
 
@@ -153,8 +169,69 @@ public class LazyWriter extends Writer {
                 } else if (letter == '/') {
                     commentStarting = true;
                 }
+
+            } else {
+                i = skip(buffer, i + 1, end, '<', '<');
+            }
+        }
+
+        if (pendingStart < end) {
+            pending.append(buffer, pendingStart, end - pendingStart);
+        }
+    }
+
+    // Returns the index just before the first of the given letters at or
+    // after the given start, so that the loop visits it next.
+    private static int skip(char[] buffer, int start, int end, char letter1, char letter2) {
+        for (; start < end; ++ start) {
+            char letter = buffer[start];
+
+            if (letter == letter1 || letter == letter2) {
+                break;
+            }
+        }
+
+        return start - 1;
+    }
+
+    // Compares the tag name without creating a lower case copy.
+    private boolean isTagName(String lowerCaseName) {
+        int length = lowerCaseName.length();
+
+        if (tagName.length() != length) {
+            return false;
+        }
+
+        for (int i = 0; i < length; ++ i) {
+            if (Character.toLowerCase(tagName.charAt(i)) != lowerCaseName.charAt(i)) {
+                return false;
             }
         }
+
+        return true;
+    }
+
+    // Writes the given builder to the delegate without converting it to
+    // a string.
+    private void write(StringBuilder builder) throws IOException {
+        int length = builder.length();
+
+        for (int offset = 0; offset < length; offset += builderChunk.length) {
+            int chunkLength = Math.min(builderChunk.length, length - offset);
+
+            builder.getChars(offset, offset + chunkLength, builderChunk, 0);
+            delegate.write(builderChunk, 0, chunkLength);
+        }
+    }
+
+    @Override
+    public void write(String string, int offset, int length) throws IOException {
+        for (int end = offset + length; offset < end; offset += stringChunk.length) {
+            int chunkLength = Math.min(stringChunk.length, end - offset);
+
+            string.getChars(offset, offset + chunkLength, stringChunk, 0);
+            write(stringChunk, 0, chunkLength);
+        }
     }
 
     public void writeLazily(String string) throws IOException {
@@ -171,7 +248,7 @@ public class LazyWriter extends Writer {
             return;
         }
 
-        delegate.append(pending);
+        write(pending);
         pending.setLength(0);
     }
 
@@ -85,6 +85,18 @@ public class PaginatedResult<E> {
         return getOffset() + getLimit();
     }
 
+    /**
+     * Returns the token that can be passed back to the source of this
+     * result to get the next page without skipping over all the previous
+     * items.
+     *
+     * @return {@code null} if the source doesn't support it or if there
+     *         aren't any more items.
+     */
+    public String getContinuation() {
+        return null;
+    }
+
     public long getLastOffset() {
         long count = getCount();
         return count - count % getLimit();
@@ -0,0 +1,444 @@
+package com.psddev.dari.util;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.FileObject;
+import javax.tools.ForwardingJavaFileManager;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileManager;
+import javax.tools.JavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.StandardLocation;
+import javax.tools.ToolProvider;
+
+import org.objectweb.asm.ClassReader;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Incrementally compiles the Java source files in a set of directories
+ * into a class output directory.
+ *
+ * <p>Each {@link #compile} finds the source files that changed since the
+ * previous call by polling their modified times, and compiles them along
+ * with the source files of the classes that depend on them. The
+ * dependencies are read from the constant pools of the compiled classes,
+ * so the constants that javac inlines aren't tracked.</p>
+ */
+class SourceCompiler {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(SourceCompiler.class);
+    private static final int CONSTANT_UTF8 = 1;
+    private static final int CONSTANT_CLASS = 7;
+    private static final Pattern DESCRIPTOR_CLASS_PATTERN = Pattern.compile("L([^;<>\\[\\.]+)[;<]");
+
+    private final List<File> sourceDirectories;
+    private final File classOutput;
+    private Map<File, Long> sourceModifieds;
+    private final Set<File> failedSources = new HashSet<File>();
+    private final Map<String, Set<String>> dependenciesByClass = new HashMap<String, Set<String>>();
+    private final Map<String, Set<String>> dependentsByClass = new HashMap<String, Set<String>>();
+
+    /**
+     * Creates an instance that compiles the sources in the given
+     * {@code sourceDirectories} into the given {@code classOutput}.
+     *
+     * @param sourceDirectories Can't be {@code null}.
+     * @param classOutput Can't be {@code null}.
+     */
+    public SourceCompiler(Collection<File> sourceDirectories, File classOutput) {
+        this.sourceDirectories = new ArrayList<File>(sourceDirectories);
+        this.classOutput = classOutput;
+    }
+
+    /**
+     * Compiles the source files that changed since the previous call and
+     * their dependents. The first call only remembers the current state of
+     * the sources and the compiled classes.
+     *
+     * @return Never {@code null}.
+     */
+    public synchronized Result compile() throws IOException {
+        Result result = new Result();
+        Map<File, Long> newSourceModifieds = new HashMap<File, Long>();
+
+        for (File sourceDirectory : sourceDirectories) {
+            findSources(sourceDirectory, newSourceModifieds);
+        }
+
+        if (sourceModifieds == null) {
+            sourceModifieds = newSourceModifieds;
+
+            indexClasses(classOutput);
+            return result;
+        }
+
+        Set<File> changed = new LinkedHashSet<File>();
+
+        for (Map.Entry<File, Long> entry : newSourceModifieds.entrySet()) {
+            File source = entry.getKey();
+
+            if (!entry.getValue().equals(sourceModifieds.get(source))) {
+                changed.add(source);
+            }
+        }
+
+        sourceModifieds = newSourceModifieds;
+        changed.retainAll(newSourceModifieds.keySet());
+
+        if (changed.isEmpty()) {
+            return result;
+        }
+
+        // Sources that failed to compile before are retried with the
+        // changes, since they might depend on them.
+        Set<File> sources = new LinkedHashSet<File>(changed);
+
+        failedSources.retainAll(newSourceModifieds.keySet());
+        sources.addAll(failedSources);
+
+        for (File source : changed) {
+            String className = getClassName(source);
+            Set<String> dependents = className != null ? dependentsByClass.get(className) : null;
+
+            if (dependents != null) {
+                for (String dependent : dependents) {
+                    File dependentSource = getSource(dependent);
+
+                    if (dependentSource != null) {
+                        sources.add(dependentSource);
+                    }
+                }
+            }
+        }
+
+        LOGGER.info("Recompiling {}", sources);
+
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        StandardJavaFileManager standardFileManager = compiler.getStandardFileManager(null, null, null);
+        final Set<String> outputClassNames = new LinkedHashSet<String>();
+
+        try {
+            standardFileManager.setLocation(StandardLocation.SOURCE_PATH, sourceDirectories);
+            standardFileManager.setLocation(StandardLocation.CLASS_OUTPUT, Collections.singleton(classOutput));
+            standardFileManager.setLocation(StandardLocation.CLASS_PATH, getClassPaths());
+
+            JavaFileManager fileManager = new ForwardingJavaFileManager<JavaFileManager>(standardFileManager) {
+
+                @Override
+                public JavaFileObject getJavaFileForOutput(Location location, String className, JavaFileObject.Kind kind, FileObject sibling) throws IOException {
+                    if (kind == JavaFileObject.Kind.CLASS) {
+                        outputClassNames.add(className);
+                    }
+
+                    return super.getJavaFileForOutput(location, className, kind, sibling);
+                }
+            };
+
+            DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<JavaFileObject>();
+
+            result.sources.addAll(sources);
+
+            if (!compiler.getTask(null, fileManager, diagnostics, Arrays.asList("-g"), null, standardFileManager.getJavaFileObjectsFromFiles(sources)).call()) {
+                failedSources.addAll(sources);
+                result.diagnostics = diagnostics.getDiagnostics();
+
+                for (Diagnostic<? extends JavaFileObject> d : result.diagnostics) {
+                    LOGGER.warn("Failed to compile: {}", d.getSource());
+                }
+
+                return result;
+            }
+
+            failedSources.clear();
+
+        } finally {
+            standardFileManager.close();
+        }
+
+        Set<Class<? extends ClassEnhancer>> enhancerClasses = ClassFinder.Static.findClasses(ClassEnhancer.class);
+
+        for (String className : outputClassNames) {
+            removeDependencies(getTopLevelClassName(className));
+        }
+
+        for (String className : outputClassNames) {
+            File outputFile = new File(classOutput, className.replace('.', File.separatorChar) + ".class");
+            byte[] bytecode = IoUtils.toByteArray(outputFile);
+            byte[] enhancedBytecode = ClassEnhancer.Static.enhance(bytecode, enhancerClasses);
+
+            if (enhancedBytecode != null) {
+                bytecode = enhancedBytecode;
+                OutputStream output = new FileOutputStream(outputFile);
+
+                try {
+                    output.write(bytecode);
+
+                } finally {
+                    output.close();
+                }
+            }
+
+            indexClass(bytecode);
+            result.bytecodes.put(className, bytecode);
+            result.modifieds.put(className, new Date(outputFile.lastModified()));
+        }
+
+        return result;
+    }
+
+    /**
+     * Returns the names of the top-level classes that depend on the given
+     * top-level {@code className}.
+     *
+     * @return Never {@code null}.
+     */
+    public synchronized Set<String> getDependents(String className) {
+        Set<String> dependents = dependentsByClass.get(className);
+
+        return dependents != null ? new HashSet<String>(dependents) : Collections.<String>emptySet();
+    }
+
+    private void findSources(File file, Map<File, Long> sourceModifieds) {
+        if (file.isDirectory()) {
+            File[] children = file.listFiles();
+
+            if (children != null) {
+                for (File child : children) {
+                    findSources(child, sourceModifieds);
+                }
+            }
+
+        } else if (file.getName().endsWith(".java")) {
+            sourceModifieds.put(file, file.lastModified());
+        }
+    }
+
+    // Returns the name of the top-level class in the given source file.
+    private String getClassName(File source) {
+        String path = source.getPath();
+
+        for (File sourceDirectory : sourceDirectories) {
+            String directoryPath = sourceDirectory.getPath() + File.separator;
+
+            if (path.startsWith(directoryPath)) {
+                return path.substring(directoryPath.length(), path.length() - 5).replace(File.separatorChar, '.');
+            }
+        }
+
+        return null;
+    }
+
+    private File getSource(String className) {
+        String path = className.replace('.', File.separatorChar) + ".java";
+
+        for (File sourceDirectory : sourceDirectories) {
+            File source = new File(sourceDirectory, path);
+
+            if (sourceModifieds.containsKey(source)) {
+                return source;
+            }
+        }
+
+        return null;
+    }
+
+    // Compiler can't use the current class loader so try to guess all of
+    // its class paths.
+    private Set<File> getClassPaths() {
+        Set<File> classPaths = new LinkedHashSet<File>();
+
+        classPaths.add(classOutput);
+
+        for (ClassLoader loader = ObjectUtils.getCurrentClassLoader();
+                loader != null;
+                loader = loader.getParent()) {
+            if (loader instanceof URLClassLoader) {
+                for (URL url : ((URLClassLoader) loader).getURLs()) {
+                    File file = IoUtils.toFile(url, StringUtils.UTF_8);
+
+                    if (file != null) {
+                        classPaths.add(file);
+                    }
+                }
+            }
+        }
+
+        return classPaths;
+    }
+
+    private void indexClasses(File file) throws IOException {
+        if (file.isDirectory()) {
+            File[] children = file.listFiles();
+
+            if (children != null) {
+                for (File child : children) {
+                    indexClasses(child);
+                }
+            }
+
+        } else if (file.getName().endsWith(".class")) {
+            try {
+                indexClass(IoUtils.toByteArray(file));
+
+            } catch (RuntimeException error) {
+                LOGGER.debug(String.format("Can't read [%s]!", file), error);
+            }
+        }
+    }
+
+    // Records the classes that the given bytecode refers to, either
+    // directly or through the field and method descriptors.
+    private void indexClass(byte[] bytecode) {
+        ClassReader reader = new ClassReader(bytecode);
+        String className = getTopLevelClassName(reader.getClassName());
+        Set<String> dependencies = dependenciesByClass.get(className);
+
+        if (dependencies == null) {
+            dependencies = new HashSet<String>();
+            dependenciesByClass.put(className, dependencies);
+        }
+
+        for (int i = 1, count = reader.readUnsignedShort(8); i < count; ++ i) {
+            int offset = reader.getItem(i);
+
+            if (offset == 0) {
+                continue;
+            }
+
+            int tag = reader.b[offset - 1];
+
+            if (tag == CONSTANT_CLASS) {
+                addDependency(className, dependencies, readUtf8Item(reader, reader.getItem(reader.readUnsignedShort(offset))));
+
+            } else if (tag == CONSTANT_UTF8) {
+                String utf8 = readUtf8Item(reader, offset);
+
+                if (utf8.indexOf(';') > -1) {
+                    for (Matcher matcher = DESCRIPTOR_CLASS_PATTERN.matcher(utf8); matcher.find();) {
+                        addDependency(className, dependencies, matcher.group(1));
+                    }
+                }
+            }
+        }
+    }
+
+    // Class names are ASCII in practice, so the differences between the
+    // modified UTF-8 in the class files and the standard one don't matter.
+    private static String readUtf8Item(ClassReader reader, int offset) {
+        return new String(reader.b, offset + 2, reader.readUnsignedShort(offset), StringUtils.UTF_8);
+    }
+
+    private void removeDependencies(String className) {
+        Set<String> dependencies = dependenciesByClass.remove(className);
+
+        if (dependencies != null) {
+            for (String dependency : dependencies) {
+                Set<String> dependents = dependentsByClass.get(dependency);
+
+                if (dependents != null) {
+                    dependents.remove(className);
+                }
+            }
+        }
+    }
+
+    private void addDependency(String className, Set<String> dependencies, String internalName) {
+        if (internalName == null || internalName.startsWith("[") || internalName.startsWith("java/")) {
+            return;
+        }
+
+        String dependency = getTopLevelClassName(internalName);
+
+        if (dependency.equals(className) || !dependencies.add(dependency)) {
+            return;
+        }
+
+        Set<String> dependents = dependentsByClass.get(dependency);
+
+        if (dependents == null) {
+            dependents = new HashSet<String>();
+            dependentsByClass.put(dependency, dependents);
+        }
+
+        dependents.add(className);
+    }
+
+    private static String getTopLevelClassName(String internalName) {
+        int dollarAt = internalName.indexOf('$');
+
+        if (dollarAt > -1) {
+            internalName = internalName.substring(0, dollarAt);
+        }
+
+        return internalName.replace('/', '.');
+    }
+
+    /** Result of a {@link SourceCompiler#compile}. */
+    public static class Result {
+
+        private final List<File> sources = new ArrayList<File>();
+        private List<Diagnostic<? extends JavaFileObject>> diagnostics;
+        private final Map<String, byte[]> bytecodes = new LinkedHashMap<String, byte[]>();
+        private final Map<String, Date> modifieds = new LinkedHashMap<String, Date>();
+
+        /**
+         * Returns the source files that were compiled.
+         *
+         * @return Never {@code null}.
+         */
+        public List<File> getSources() {
+            return sources;
+        }
+
+        /**
+         * Returns the diagnostics if the compilation failed.
+         *
+         * @return {@code null} if the compilation succeeded or didn't run.
+         */
+        public List<Diagnostic<? extends JavaFileObject>> getDiagnostics() {
+            return diagnostics;
+        }
+
+        /**
+         * Returns the bytecodes of the compiled classes, keyed by their
+         * binary names.
+         *
+         * @return Never {@code null}.
+         */
+        public Map<String, byte[]> getBytecodes() {
+            return bytecodes;
+        }
+
+        /**
+         * Returns the modified times of the compiled classes, keyed by
+         * their binary names.
+         *
+         * @return Never {@code null}.
+         */
+        public Map<String, Date> getModifieds() {
+            return modifieds;
+        }
+    }
+}
@@ -4,7 +4,6 @@ import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
 import java.io.StringWriter;
@@ -13,22 +12,18 @@ import java.lang.instrument.Instrumentation;
 import java.lang.reflect.Method;
 import java.net.HttpURLConnection;
 import java.net.URL;
-import java.net.URLClassLoader;
 import java.net.URLConnection;
 import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.Collections;
 import java.util.Comparator;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
-import java.util.TreeMap;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
 import java.util.concurrent.TimeUnit;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -41,11 +36,7 @@ import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import javax.servlet.http.HttpServletResponseWrapper;
 import javax.tools.Diagnostic;
-import javax.tools.DiagnosticCollector;
-import javax.tools.JavaCompiler;
 import javax.tools.JavaFileObject;
-import javax.tools.StandardJavaFileManager;
-import javax.tools.StandardLocation;
 import javax.tools.ToolProvider;
 
 import org.slf4j.Logger;
@@ -106,6 +97,10 @@ public class SourceFilter extends AbstractFilter {
     public static final String RELOADER_CONTEXT_PATH_PARAMETER = "contextPath";
     public static final String RELOADER_REQUEST_PATH_PARAMETER = "requestPath";
 
+    /** Setting key for the number of seconds between the checks for the changed Java source files. */
+    public static final String POLL_INTERVAL_SETTING = "dari/sourceFilterPollInterval";
+    public static final double DEFAULT_POLL_INTERVAL = 0.5;
+
     private static final Logger LOGGER = LoggerFactory.getLogger(SourceFilter.class);
 
     private static final String CLASSES_PATH = "/WEB-INF/classes/";
@@ -123,12 +118,14 @@ public class SourceFilter extends AbstractFilter {
 
     private File classOutput;
     private final Set<File> javaSourcesSet = new HashSet<File>();
-    private Map<JavaFileObject, Long> javaSourceFileModifieds;
+    private volatile SourceCompiler sourceCompiler;
+    private volatile Task sourceCompilerTask;
+    private volatile List<Diagnostic<? extends JavaFileObject>> diagnostics;
     private final Map<String, File> webappSourcesMap = new HashMap<String, File>();
     private final Map<File, Long> webappSourceFileModifieds = new ConcurrentHashMap<File, Long>();
-    private final Map<String, Date> changedClassTimes = new TreeMap<String, Date>();
+    private final Map<String, Date> changedClassTimes = new ConcurrentSkipListMap<String, Date>();
 
-    private final Map<Class<?>, List<AnalysisResult>> analysisResultsByClass = new TreeMap<Class<?>, List<AnalysisResult>>(new Comparator<Class<?>>() {
+    private final Map<Class<?>, List<AnalysisResult>> analysisResultsByClass = new ConcurrentSkipListMap<Class<?>, List<AnalysisResult>>(new Comparator<Class<?>>() {
 
         @Override
         public int compare(Class<?> x, Class<?> y) {
@@ -167,6 +164,23 @@ public class SourceFilter extends AbstractFilter {
         for (String contextPath : JspUtils.getEmbeddedSettings(context).keySet()) {
             processWarBuildProperties(context, contextPath);
         }
+
+        if (!javaSourcesSet.isEmpty() && !Settings.isProduction()) {
+            sourceCompiler = new SourceCompiler(javaSourcesSet, classOutput);
+            sourceCompilerTask = new Task(null, "Source Compiler") {
+
+                {
+                    setSafeToStop(true);
+                }
+
+                @Override
+                protected void doTask() throws IOException {
+                    compileJavaSourceFiles();
+                }
+            };
+
+            sourceCompilerTask.scheduleWithFixedDelay(0.0, Settings.getOrDefault(double.class, POLL_INTERVAL_SETTING, DEFAULT_POLL_INTERVAL));
+        }
     }
 
     /**
@@ -217,9 +231,17 @@ public class SourceFilter extends AbstractFilter {
 
     @Override
     protected void doDestroy() {
+        Task task = sourceCompilerTask;
+
+        if (task != null) {
+            task.stop();
+            sourceCompilerTask = null;
+        }
+
+        sourceCompiler = null;
+        diagnostics = null;
         classOutput = null;
         javaSourcesSet.clear();
-        javaSourceFileModifieds = null;
         webappSourcesMap.clear();
         webappSourceFileModifieds.clear();
         changedClassTimes.clear();
@@ -330,7 +352,7 @@ public class SourceFilter extends AbstractFilter {
             return;
         }
 
-        List<Diagnostic<? extends JavaFileObject>> diagnostics = compileJavaSourceFiles();
+        List<Diagnostic<? extends JavaFileObject>> diagnostics = this.diagnostics;
         boolean requiresReload;
         boolean hasBackgroundTasks;
 
@@ -691,196 +713,77 @@ public class SourceFilter extends AbstractFilter {
         }
     }, 1, TimeUnit.SECONDS);
 
-    // Compile any Java source files that's changed and redefine them
-    // in place if possible.
-    private synchronized List<Diagnostic<? extends JavaFileObject>> compileJavaSourceFiles() throws IOException {
-        if (javaSourcesSet.isEmpty()) {
-            return null;
-        }
+    // Compiles any Java source files that's changed and redefines them
+    // in place if possible. Runs in the background so that the requests
+    // never wait for the compiler.
+    private synchronized void compileJavaSourceFiles() throws IOException {
+        SourceCompiler compiler = sourceCompiler;
 
-        boolean firstRun;
+        if (compiler == null) {
+            return;
+        }
 
-        if (javaSourceFileModifieds == null) {
-            firstRun = true;
-            javaSourceFileModifieds = new HashMap<JavaFileObject, Long>();
+        SourceCompiler.Result result = compiler.compile();
 
-        } else {
-            firstRun = false;
+        if (result.getSources().isEmpty()) {
+            return;
         }
 
-        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
-        StandardJavaFileManager fileManager = compiler.getStandardFileManager(null, null, null);
-        Map<JavaFileObject, Long> newSourceFiles = new HashMap<JavaFileObject, Long>();
-        Map<String, Date> newChangedClassTimes = new HashMap<String, Date>();
-        List<ClassDefinition> toBeRedefined = new ArrayList<ClassDefinition>();
-        List<Diagnostic<? extends JavaFileObject>> diagnostics = null;
+        List<Diagnostic<? extends JavaFileObject>> newDiagnostics = result.getDiagnostics();
 
-        try {
-            fileManager.setLocation(StandardLocation.SOURCE_PATH, javaSourcesSet);
-            fileManager.setLocation(StandardLocation.CLASS_OUTPUT, Collections.singleton(classOutput));
+        if (newDiagnostics != null) {
+            diagnostics = newDiagnostics.isEmpty() ? null : newDiagnostics;
+            return;
+        }
 
-            // Find all source files that's changed.
-            for (JavaFileObject sourceFile : fileManager.list(
-                    StandardLocation.SOURCE_PATH,
-                    "",
-                    Collections.singleton(JavaFileObject.Kind.SOURCE),
-                    true)) {
+        diagnostics = null;
 
-                // On first run, assume nothing has changed.
-                if (firstRun) {
-                    javaSourceFileModifieds.put(sourceFile, sourceFile.getLastModified());
+        Map<String, Date> newChangedClassTimes = new HashMap<String, Date>(result.getModifieds());
+        List<ClassDefinition> toBeRedefined = new ArrayList<ClassDefinition>();
 
-                } else {
-                    Long oldModified = javaSourceFileModifieds.get(sourceFile);
-                    long newModified = sourceFile.getLastModified();
+        for (Map.Entry<String, byte[]> entry : result.getBytecodes().entrySet()) {
+            Class<?> outputClass = ObjectUtils.getClassByName(entry.getKey());
 
-                    if (oldModified == null || oldModified != newModified) {
-                        newSourceFiles.put(sourceFile, newModified);
-                    }
-                }
+            if (outputClass != null) {
+                toBeRedefined.add(new ClassDefinition(outputClass, entry.getValue()));
             }
+        }
 
-            if (!newSourceFiles.isEmpty()) {
-                LOGGER.info("Recompiling {}", newSourceFiles.keySet());
-
-                // Compiler can't use the current class loader so try to
-                // guess all of its class paths.
-                Set<File> classPaths = new LinkedHashSet<File>();
-
-                for (ClassLoader loader = ObjectUtils.getCurrentClassLoader();
-                        loader != null;
-                        loader = loader.getParent()) {
-                    if (loader instanceof URLClassLoader) {
-                        for (URL url : ((URLClassLoader) loader).getURLs()) {
-                            File file = IoUtils.toFile(url, StringUtils.UTF_8);
-
-                            if (file != null) {
-                                classPaths.add(file);
-                            }
-                        }
-                    }
-                }
-
-                fileManager.setLocation(StandardLocation.CLASS_PATH, classPaths);
-
-                // Remember the current class file modified times for later
-                // when we need to figure out what changed.
-                Map<JavaFileObject, Long> outputFileModifieds = new HashMap<JavaFileObject, Long>();
-
-                for (JavaFileObject outputFile : fileManager.list(
-                        StandardLocation.CLASS_OUTPUT,
-                        "",
-                        Collections.singleton(JavaFileObject.Kind.CLASS),
-                        true)) {
-                    outputFileModifieds.put(outputFile, outputFile.getLastModified());
-                }
-
-                DiagnosticCollector<JavaFileObject> diagnosticsCollector = new DiagnosticCollector<JavaFileObject>();
-
-                if (!compiler.getTask(null, fileManager, diagnosticsCollector, Arrays.asList("-g"), null, newSourceFiles.keySet()).call()) {
-                    diagnostics = diagnosticsCollector.getDiagnostics();
-
-                    for (Diagnostic<? extends JavaFileObject> d : diagnostics) {
-                        LOGGER.warn("Failed to compile: {}", d.getSource());
-                    }
-
-                    return diagnostics;
-
-                } else {
-                    javaSourceFileModifieds.putAll(newSourceFiles);
-
-                    Set<Class<? extends ClassEnhancer>> enhancerClasses = ClassFinder.Static.findClasses(ClassEnhancer.class);
-
-                    // Process any class files that's changed.
-                    for (JavaFileObject outputFile : fileManager.list(
-                            StandardLocation.CLASS_OUTPUT,
-                            "",
-                            Collections.singleton(JavaFileObject.Kind.CLASS),
-                            true)) {
-                        Long oldModified = outputFileModifieds.get(outputFile);
-                        long newModified = outputFile.getLastModified();
-
-                        if (oldModified != null && oldModified == newModified) {
-                            continue;
-                        }
-
-                        // Enhance the bytecode.
-                        InputStream input = outputFile.openInputStream();
-                        byte[] bytecode;
-
-                        try {
-                            bytecode = IoUtils.toByteArray(input);
-
-                        } finally {
-                            input.close();
-                        }
-
-                        byte[] enhancedBytecode = ClassEnhancer.Static.enhance(bytecode, enhancerClasses);
-
-                        if (enhancedBytecode != null) {
-                            bytecode = enhancedBytecode;
-                        }
-
-                        OutputStream output = outputFile.openOutputStream();
-
-                        try {
-                            output.write(bytecode);
-
-                        } finally {
-                            output.close();
-                        }
-
-                        String outputClassName = fileManager.inferBinaryName(StandardLocation.CLASS_OUTPUT, outputFile);
-                        Class<?> outputClass = ObjectUtils.getClassByName(outputClassName);
-
-                        newChangedClassTimes.put(outputClassName, new Date(newModified));
-
-                        if (outputClass != null) {
-                            toBeRedefined.add(new ClassDefinition(outputClass, bytecode));
-                        }
-                    }
-
-                    // Try to redefine the classes in place.
-                    List<ClassDefinition> failures = CodeUtils.redefineClasses(toBeRedefined);
-                    List<Class<?>> toBeAnalyzed = new ArrayList<Class<?>>();
-
-                    toBeRedefined.removeAll(failures);
+        // Try to redefine the classes in place.
+        List<ClassDefinition> failures = CodeUtils.redefineClasses(toBeRedefined);
+        List<Class<?>> toBeAnalyzed = new ArrayList<Class<?>>();
 
-                    for (ClassDefinition success : toBeRedefined) {
-                        Class<?> c = success.getDefinitionClass();
+        toBeRedefined.removeAll(failures);
 
-                        newChangedClassTimes.remove(c.getName());
-                        toBeAnalyzed.add(c);
-                        analysisResultsByClass.remove(c);
-                    }
+        for (ClassDefinition success : toBeRedefined) {
+            Class<?> c = success.getDefinitionClass();
 
-                    if (!toBeAnalyzed.isEmpty()) {
-                        JvmAnalyzer.Static.analyze(toBeAnalyzed, new AnalysisResultLogger());
-                    }
+            newChangedClassTimes.remove(c.getName());
+            toBeAnalyzed.add(c);
+            analysisResultsByClass.remove(c);
+        }
 
-                    if (!failures.isEmpty() && LOGGER.isInfoEnabled()) {
-                        StringBuilder messageBuilder = new StringBuilder();
+        if (!toBeAnalyzed.isEmpty()) {
+            JvmAnalyzer.Static.analyze(toBeAnalyzed, new AnalysisResultLogger());
+        }
 
-                        messageBuilder.append("Can't redefine [");
+        if (!failures.isEmpty() && LOGGER.isInfoEnabled()) {
+            StringBuilder messageBuilder = new StringBuilder();
 
-                        for (ClassDefinition failure : failures) {
-                            messageBuilder.append(failure.getDefinitionClass().getName());
-                            messageBuilder.append(", ");
-                        }
+            messageBuilder.append("Can't redefine [");
 
-                        messageBuilder.setLength(messageBuilder.length() - 2);
-                        messageBuilder.append("]!");
-                    }
-                }
+            for (ClassDefinition failure : failures) {
+                messageBuilder.append(failure.getDefinitionClass().getName());
+                messageBuilder.append(", ");
             }
 
-        } finally {
-            fileManager.close();
+            messageBuilder.setLength(messageBuilder.length() - 2);
+            messageBuilder.append("]!");
+            LOGGER.info(messageBuilder.toString());
         }
 
         // Remember all classes that's changed but not yet redefined.
         changedClassTimes.putAll(newChangedClassTimes);
-        return diagnostics != null && !diagnostics.isEmpty() ? diagnostics : null;
     }
 
     // Copies the webapp source associated with the given request.
@@ -8,11 +8,11 @@ import java.util.List;
 import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 import com.google.common.cache.CacheBuilder;
 import com.google.common.cache.CacheLoader;
 import com.google.common.cache.LoadingCache;
-import com.google.common.util.concurrent.AtomicDouble;
 
 /**
  * Gathers statistics about arbitrary operations.
@@ -35,11 +35,15 @@ import com.google.common.util.concurrent.AtomicDouble;
  * </pre></blockquote></p>
  *
  * <p>Measurements will automatically be displayed through {@link
- * StatsDebugServlet}, which is typically available at {@code /_debug/stats}.
+ * StatsDebugServlet}, which is typically available at {@code /_debug/stats},
+ * and exported in the Prometheus text format through {@link
+ * StatsMetricsServlet}, which is typically available at
+ * {@code /_debug/stats-metrics}.
  */
 public class Stats {
 
     private static final List<WeakReference<Stats>> STATS_REFERENCES = new ArrayList<WeakReference<Stats>>();
+    private static final int HISTOGRAM_STRIPES = 4;
 
     {
         STATS_REFERENCES.add(new WeakReference<Stats>(this));
@@ -50,6 +54,8 @@ public class Stats {
     private final double measureInterval;
     private final List<Double> averageIntervals;
     private final long start;
+    private final long histogramSlotDuration;
+    private final int histogramSlots;
     private final Measurement totalMeasurement;
 
     private final LoadingCache<String, Measurement> measurements = CacheBuilder.
@@ -92,6 +98,12 @@ public class Stats {
         this.measureInterval = measureInterval;
         this.averageIntervals = Collections.unmodifiableList(newAverageIntervals);
         this.start = System.currentTimeMillis();
+
+        double smallestInterval = Collections.min(newAverageIntervals);
+        double largestInterval = Collections.max(newAverageIntervals);
+
+        this.histogramSlotDuration = (long) (smallestInterval * 1e9);
+        this.histogramSlots = (int) Math.ceil(largestInterval / smallestInterval);
         this.totalMeasurement = getMeasurements().get("Total");
     }
 
@@ -157,7 +169,21 @@ public class Stats {
      * @see Timer#stop
      */
     public Timer startTimer() {
-        return new Timer();
+        return new Timer(System.nanoTime());
+    }
+
+    /**
+     * Starts timing an operation that began at the given {@code startTime},
+     * such as the wait of an item that was queued earlier, possibly by
+     * another VM.
+     *
+     * @param startTime In milliseconds, as from
+     *        {@link System#currentTimeMillis}.
+     * @return Never {@code null}.
+     * @see Timer#stop
+     */
+    public Timer startTimer(long startTime) {
+        return new Timer(System.nanoTime() - (System.currentTimeMillis() - startTime) * 1000000L);
     }
 
     /**
@@ -181,7 +207,11 @@ public class Stats {
     /** Timer for measuring the duration of an operation. */
     public class Timer {
 
-        private final long start = System.nanoTime();
+        private final long start;
+
+        private Timer(long start) {
+            this.start = start;
+        }
 
         /**
          * Stops timing and names the given {@code operation}.
@@ -208,8 +238,8 @@ public class Stats {
                 return 0.0;
 
             } else {
-                getTotalMeasurement().update(end, duration, count);
-                getMeasurements().get(operation).update(end, duration, count);
+                totalMeasurement.update(end, duration, count);
+                measurements.getUnchecked(operation).update(end, duration, count);
                 return duration;
             }
         }
@@ -219,11 +249,19 @@ public class Stats {
      * Specific measurement of an operation within {@link Stats}.
      * Most methods may return a {@link Double#NaN} when the measurement
      * isn't available.
+     *
+     * <p>Besides the moving averages, the durations are counted in a
+     * {@link LatencyHistogram} that's rolled over at the smallest average
+     * interval, so that the percentiles are available over each of the
+     * average intervals.</p>
      */
     public class Measurement {
 
-        private final AtomicLong totalCount = new AtomicLong();
-        private final AtomicDouble totalDuration = new AtomicDouble();
+        private final StripedLong totalCount = new StripedLong();
+        private final StripedDouble totalDuration = new StripedDouble();
+        private final LatencyHistogram durationHistogram = new LatencyHistogram(HISTOGRAM_STRIPES);
+        private final AtomicLong histogramOffset = new AtomicLong(System.nanoTime() / histogramSlotDuration);
+        private final AtomicReferenceArray<HistogramSlot> previousHistograms = new AtomicReferenceArray<HistogramSlot>(histogramSlots);
         private final List<ExponentialMovingAverage> countAverages = new ArrayList<ExponentialMovingAverage>();
         private final List<ExponentialMovingAverage> durationAverages = new ArrayList<ExponentialMovingAverage>();
 
@@ -239,7 +277,7 @@ public class Stats {
 
         /** Returns the overall total count. */
         public long getOverallTotalCount() {
-            return totalCount.get();
+            return totalCount.sum();
         }
 
         /** Returns the overall count average. */
@@ -247,9 +285,18 @@ public class Stats {
             return getOverallTotalCount() / getUptime();
         }
 
+        /**
+         * Returns the overall total duration.
+         *
+         * @return In seconds.
+         */
+        public double getOverallTotalDuration() {
+            return totalDuration.sum();
+        }
+
         /** Returns the overall duration average. */
         public double getOverallDurationAverage() {
-            return totalDuration.get() / getOverallTotalCount();
+            return totalDuration.sum() / getOverallTotalCount();
         }
 
         /**
@@ -288,6 +335,78 @@ public class Stats {
                     countAverages.get(intervalIndex).getAverages().subIterable(begin, end));
         }
 
+        /**
+         * Returns the histogram of the durations, in nanoseconds, over the
+         * interval identified by the given {@code intervalIndex}.
+         *
+         * @return Never {@code null}.
+         */
+        public LatencyHistogram.Snapshot getDurationHistogram(int intervalIndex) {
+            long offset = rollHistogram(System.nanoTime());
+            int slots = (int) Math.round(getAverageIntervals().get(intervalIndex) * 1e9 / histogramSlotDuration);
+            LatencyHistogram.Snapshot snapshot = durationHistogram.getSnapshot();
+
+            for (int i = 1; i <= slots && i <= histogramSlots; ++ i) {
+                HistogramSlot slot = previousHistograms.get(getHistogramSlotIndex(offset - i));
+
+                if (slot != null && slot.offset == offset - i) {
+                    snapshot = snapshot.add(slot.snapshot);
+                }
+            }
+
+            return snapshot;
+        }
+
+        /**
+         * Returns the duration below which the given {@code percentile} of
+         * the durations over the interval identified by the given
+         * {@code intervalIndex} fall.
+         *
+         * @param percentile Between {@code 0.0} and {@code 100.0}.
+         * @return In seconds.
+         */
+        public double getDurationPercentile(int intervalIndex, double percentile) {
+            LatencyHistogram.Snapshot snapshot = getDurationHistogram(intervalIndex);
+
+            return snapshot.getCount() > 0 ? snapshot.getPercentile(percentile) / 1e9 : Double.NaN;
+        }
+
+        /**
+         * Returns the longest duration over the interval identified by the
+         * given {@code intervalIndex}.
+         *
+         * @return In seconds.
+         */
+        public double getDurationMax(int intervalIndex) {
+            LatencyHistogram.Snapshot snapshot = getDurationHistogram(intervalIndex);
+
+            return snapshot.getCount() > 0 ? snapshot.getMax() / 1e9 : Double.NaN;
+        }
+
+        private int getHistogramSlotIndex(long offset) {
+            int index = (int) (offset % histogramSlots);
+
+            return index < 0 ? index + histogramSlots : index;
+        }
+
+        // Moves the current histogram into the previous ones if it's past
+        // the slot duration, and returns the current offset.
+        private long rollHistogram(long time) {
+            long oldOffset = histogramOffset.get();
+            long newOffset = time / histogramSlotDuration;
+
+            if (newOffset > oldOffset &&
+                    histogramOffset.compareAndSet(oldOffset, newOffset)) {
+                LatencyHistogram.Snapshot snapshot = durationHistogram.getSnapshotThenReset();
+
+                if (snapshot.getCount() > 0) {
+                    previousHistograms.set(getHistogramSlotIndex(oldOffset), new HistogramSlot(oldOffset, snapshot));
+                }
+            }
+
+            return newOffset;
+        }
+
         /**
          * Updates all count and duration averages based on the given
          * {@code end} and {@code duration}.
@@ -301,8 +420,10 @@ public class Stats {
          * {@code end}, {@code duration} and {@code count}.
          */
         protected void update(long end, double duration, long count) {
-            totalCount.addAndGet(count);
-            totalDuration.addAndGet(duration);
+            totalCount.add(count);
+            totalDuration.add(duration);
+            rollHistogram(end);
+            durationHistogram.record((long) (duration * 1e9));
 
             for (ExponentialMovingAverage countAverage : countAverages) {
                 countAverage.updateAt(end, count);
@@ -314,6 +435,17 @@ public class Stats {
         }
     }
 
+    private static class HistogramSlot {
+
+        public final long offset;
+        public final LatencyHistogram.Snapshot snapshot;
+
+        public HistogramSlot(long offset, LatencyHistogram.Snapshot snapshot) {
+            this.offset = offset;
+            this.snapshot = snapshot;
+        }
+    }
+
     private static class DurationIterable implements Iterable<Double> {
 
         private final Iterable<Double> durations;
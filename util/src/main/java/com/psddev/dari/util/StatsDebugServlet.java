@@ -239,6 +239,23 @@ public class StatsDebugServlet extends HttpServlet {
                         writeEnd();
                     writeEnd();
 
+                    writeStart("h3").writeHtml("Latency Percentiles").writeEnd();
+                    writeStart("table", "class", "table table-condensed");
+                        writeStart("thead");
+                            writeStart("tr");
+                                writeStart("th").writeHtml("Operation").writeEnd();
+                                for (double averageInterval : stats.getAverageIntervals()) {
+                                    writeStart("th", "colspan", 4).writeHtml("Over ").writeObject((int) averageInterval).writeHtml("s (p50, p95, p99, max)").writeEnd();
+                                }
+                            writeEnd();
+                        writeEnd();
+                        writeStart("tbody");
+                            for (Map.Entry<String, Stats.Measurement> entry : stats.getMeasurements().entrySet()) {
+                                writeStatsPercentiles(stats, entry.getKey(), entry.getValue());
+                            }
+                        writeEnd();
+                    writeEnd();
+
                     if (i.hasNext()) {
                         writeElement("hr");
                     }
@@ -264,6 +281,26 @@ public class StatsDebugServlet extends HttpServlet {
                 writeEnd();
             }
 
+            // Writes the duration percentiles of individual stats measurement.
+            private void writeStatsPercentiles(Stats stats, String operation, Stats.Measurement measurement) throws IOException {
+                writeStart("tr");
+                    writeStart("th").writeHtml(operation).writeEnd();
+                    for (int i = 0, size = stats.getAverageIntervals().size(); i < size; ++ i) {
+                        LatencyHistogram.Snapshot snapshot = measurement.getDurationHistogram(i);
+
+                        if (snapshot.getCount() == 0) {
+                            writeStart("td", "colspan", 4).writeStart("span", "class", "label").writeHtml("N/A").writeEnd().writeEnd();
+
+                        } else {
+                            writeStart("td").writeObject(snapshot.getPercentile(50.0) / 1e6).writeHtml("ms").writeEnd();
+                            writeStart("td").writeObject(snapshot.getPercentile(95.0) / 1e6).writeHtml("ms").writeEnd();
+                            writeStart("td").writeObject(snapshot.getPercentile(99.0) / 1e6).writeHtml("ms").writeEnd();
+                            writeStart("td").writeObject(snapshot.getMax() / 1e6).writeHtml("ms").writeEnd();
+                        }
+                    }
+                writeEnd();
+            }
+
             private void writeCountAndDuration(Stats stats, String operation, int intervalIndex, double count, double duration) throws IOException {
                 boolean link = intervalIndex >= 0;
                 String statsName = stats.getName();
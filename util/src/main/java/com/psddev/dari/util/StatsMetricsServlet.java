@@ -0,0 +1,141 @@
+package com.psddev.dari.util;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.List;
+import java.util.Map;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Servlet that exports all {@link Stats} in the Prometheus text format,
+ * so that they can be scraped by a monitoring system.
+ *
+ * <p>Each operation is labeled with the stats name and the operation
+ * name, and the duration percentiles are reported over each of the
+ * average intervals.</p>
+ */
+@DebugFilter.Path("stats-metrics")
+@SuppressWarnings("serial")
+public class StatsMetricsServlet extends HttpServlet {
+
+    public static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    private static final double[] QUANTILES = { 0.5, 0.95, 0.99 };
+
+    @Override
+    protected void doGet(
+            HttpServletRequest request,
+            HttpServletResponse response)
+            throws IOException, ServletException {
+
+        response.setContentType(CONTENT_TYPE);
+        writeMetrics(response.getWriter(), Stats.Static.getAll());
+    }
+
+    /** Writes the given {@code statsInstances} to the given {@code writer}. */
+    static void writeMetrics(Writer writer, List<Stats> statsInstances) throws IOException {
+        writeHeader(writer, "dari_stats_count_total", "counter", "Number of events per stats operation.");
+
+        for (Stats stats : statsInstances) {
+            for (Map.Entry<String, Stats.Measurement> entry : stats.getMeasurements().entrySet()) {
+                writeSample(writer, "dari_stats_count_total", stats, entry.getKey(), null, null, entry.getValue().getOverallTotalCount());
+            }
+        }
+
+        writeHeader(writer, "dari_stats_duration_seconds_total", "counter", "Total duration per stats operation.");
+
+        for (Stats stats : statsInstances) {
+            for (Map.Entry<String, Stats.Measurement> entry : stats.getMeasurements().entrySet()) {
+                writeSample(writer, "dari_stats_duration_seconds_total", stats, entry.getKey(), null, null, entry.getValue().getOverallTotalDuration());
+            }
+        }
+
+        writeHeader(writer, "dari_stats_duration_seconds", "gauge", "Duration percentiles per stats operation over rolling windows.");
+
+        for (Stats stats : statsInstances) {
+            List<Double> intervals = stats.getAverageIntervals();
+
+            for (Map.Entry<String, Stats.Measurement> entry : stats.getMeasurements().entrySet()) {
+                for (int i = 0, size = intervals.size(); i < size; ++ i) {
+                    LatencyHistogram.Snapshot snapshot = entry.getValue().getDurationHistogram(i);
+
+                    if (snapshot.getCount() == 0) {
+                        continue;
+                    }
+
+                    double interval = intervals.get(i);
+                    String window = (interval == Math.rint(interval) ? String.valueOf((long) interval) : String.valueOf(interval)) + "s";
+
+                    for (double quantile : QUANTILES) {
+                        writeSample(writer, "dari_stats_duration_seconds", stats, entry.getKey(), window, String.valueOf(quantile), snapshot.getPercentile(quantile * 100.0) / 1e9);
+                    }
+
+                    writeSample(writer, "dari_stats_duration_seconds", stats, entry.getKey(), window, "1.0", snapshot.getMax() / 1e9);
+                }
+            }
+        }
+
+        writer.flush();
+    }
+
+    private static void writeHeader(Writer writer, String metric, String type, String help) throws IOException {
+        writer.write("# HELP ");
+        writer.write(metric);
+        writer.write(' ');
+        writer.write(help);
+        writer.write("\n# TYPE ");
+        writer.write(metric);
+        writer.write(' ');
+        writer.write(type);
+        writer.write('\n');
+    }
+
+    private static void writeSample(Writer writer, String metric, Stats stats, String operation, String window, String quantile, double value) throws IOException {
+        if (Double.isNaN(value)) {
+            return;
+        }
+
+        writer.write(metric);
+        writer.write("{stats=\"");
+        writeLabelValue(writer, stats.getName());
+        writer.write("\",operation=\"");
+        writeLabelValue(writer, operation);
+
+        if (window != null) {
+            writer.write("\",window=\"");
+            writer.write(window);
+        }
+
+        if (quantile != null) {
+            writer.write("\",quantile=\"");
+            writer.write(quantile);
+        }
+
+        writer.write("\"} ");
+        writer.write(value == Math.rint(value) && Math.abs(value) < 1e15 ? String.valueOf((long) value) : String.valueOf(value));
+        writer.write('\n');
+    }
+
+    private static void writeLabelValue(Writer writer, String value) throws IOException {
+        for (int i = 0, length = value.length(); i < length; ++ i) {
+            char c = value.charAt(i);
+
+            if (c == '\\') {
+                writer.write("\\\\");
+
+            } else if (c == '"') {
+                writer.write("\\\"");
+
+            } else if (c == '\n') {
+                writer.write("\\n");
+
+            } else {
+                writer.write(c);
+            }
+        }
+    }
+}
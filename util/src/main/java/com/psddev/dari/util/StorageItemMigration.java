@@ -0,0 +1,539 @@
+package com.psddev.dari.util;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Bulk copies storage items from one storage to another using a pool of
+ * {@link AsyncConsumer}s.
+ *
+ * <p>Each item is streamed from the source to the destination without
+ * buffering the whole data in memory, optionally verified using an MD5
+ * checksum, and retried on failure. Completed paths can be recorded in a
+ * {@linkplain #setCheckpointFile checkpoint file} so that an interrupted
+ * migration can be resumed without copying the same items again.</p>
+ */
+public class StorageItemMigration {
+
+    public static final int DEFAULT_PARALLELISM = 5;
+    public static final int DEFAULT_MAXIMUM_RETRIES = 3;
+    public static final String EXECUTOR_PREFIX = "Storage Item Migration: ";
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(StorageItemMigration.class);
+    private static final String CHARSET = "UTF-8";
+
+    private final String source;
+    private final String destination;
+    private int parallelism = DEFAULT_PARALLELISM;
+    private int maximumRetries = DEFAULT_MAXIMUM_RETRIES;
+    private boolean verify = true;
+    private File checkpointFile;
+
+    private final Set<String> completedPaths = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    private final Object checkpointLock = new Object();
+    private Writer checkpointWriter;
+    private final AtomicInteger runningCopiers = new AtomicInteger();
+
+    private final AtomicLong copyCount = new AtomicLong();
+    private final AtomicLong skipCount = new AtomicLong();
+    private final AtomicLong retryCount = new AtomicLong();
+    private final AtomicLong failureCount = new AtomicLong();
+    private final AtomicLong byteCount = new AtomicLong();
+    private volatile long startTime;
+
+    /**
+     * Creates an instance that copies items in the given {@code source}
+     * storage to the given {@code destination} storage.
+     *
+     * @param source Can't be blank.
+     * @param destination Can't be blank. Can't be the same as the
+     *        {@code source}, since saving an item over itself truncates
+     *        the data before it's read.
+     */
+    public StorageItemMigration(String source, String destination) {
+        if (ObjectUtils.isBlank(source)) {
+            throw new IllegalArgumentException("Source can't be blank!");
+        }
+        if (ObjectUtils.isBlank(destination)) {
+            throw new IllegalArgumentException("Destination can't be blank!");
+        }
+        if (source.equals(destination)) {
+            throw new IllegalArgumentException(String.format(
+                    "Can't migrate [%s] to itself!", source));
+        }
+
+        this.source = source;
+        this.destination = destination;
+    }
+
+    public String getSource() {
+        return source;
+    }
+
+    public String getDestination() {
+        return destination;
+    }
+
+    /** Returns the number of items that are copied concurrently. */
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * Sets the number of items that are copied concurrently.
+     *
+     * @param parallelism If less than or equal to {@code 0}, it will be
+     *        set to {@value #DEFAULT_PARALLELISM} instead.
+     */
+    public void setParallelism(int parallelism) {
+        this.parallelism = parallelism > 0 ? parallelism : DEFAULT_PARALLELISM;
+    }
+
+    public int getMaximumRetries() {
+        return maximumRetries;
+    }
+
+    public void setMaximumRetries(int maximumRetries) {
+        this.maximumRetries = maximumRetries >= 0 ? maximumRetries : 0;
+    }
+
+    /**
+     * Returns {@code true} if the destination data should be read back
+     * and compared against the checksum of the source data.
+     */
+    public boolean isVerify() {
+        return verify;
+    }
+
+    public void setVerify(boolean verify) {
+        this.verify = verify;
+    }
+
+    public File getCheckpointFile() {
+        return checkpointFile;
+    }
+
+    /**
+     * Sets the file that records the paths of all items that were
+     * copied successfully. If the file already exists, the paths in it
+     * are skipped.
+     *
+     * @param checkpointFile If {@code null}, no checkpoints are recorded.
+     */
+    public void setCheckpointFile(File checkpointFile) {
+        this.checkpointFile = checkpointFile;
+    }
+
+    /** Returns the name of the executor that runs all migration tasks. */
+    public String getExecutor() {
+        return EXECUTOR_PREFIX + source + " to " + destination;
+    }
+
+    public long getCopyCount() {
+        return copyCount.get();
+    }
+
+    public long getSkipCount() {
+        return skipCount.get();
+    }
+
+    public long getRetryCount() {
+        return retryCount.get();
+    }
+
+    public long getFailureCount() {
+        return failureCount.get();
+    }
+
+    public long getByteCount() {
+        return byteCount.get();
+    }
+
+    /** Returns the copy throughput in bytes per second. */
+    public double getByteRate() {
+        long start = startTime;
+        if (start <= 0) {
+            return 0.0;
+        }
+
+        double duration = (System.nanoTime() - start) / 1e9;
+        return duration > 0.0 ? byteCount.get() / duration : 0.0;
+    }
+
+    /**
+     * Starts copying all given {@code items} in the background.
+     *
+     * @param items Can't be {@code null}.
+     * @return All tasks that copy the items. Never {@code null}.
+     */
+    public List<Task> start(Iterable<StorageItem> items) throws IOException {
+        if (items == null) {
+            throw new IllegalArgumentException("Items can't be null!");
+        }
+
+        openCheckpoint();
+        startTime = System.nanoTime();
+
+        String executor = getExecutor();
+        AsyncQueue<StorageItem> queue = new AsyncQueue<StorageItem>();
+        List<Task> tasks = new ArrayList<Task>();
+
+        AsyncProducer<StorageItem> producer = AsyncProducer.Static.inExecutorFromIterableIntoQueue(executor, items, queue);
+        queue.closeAutomatically();
+        tasks.add(producer);
+
+        for (int i = 0; i < parallelism; ++ i) {
+            tasks.add(new Copier(executor, queue));
+        }
+
+        runningCopiers.set(parallelism);
+
+        for (Task task : tasks) {
+            task.submit();
+        }
+
+        return tasks;
+    }
+
+    private void openCheckpoint() throws IOException {
+        completedPaths.clear();
+
+        if (checkpointFile == null) {
+            return;
+        }
+
+        if (checkpointFile.exists()) {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(checkpointFile), CHARSET));
+
+            try {
+                for (String line; (line = reader.readLine()) != null;) {
+                    if (line.length() > 0) {
+                        completedPaths.add(line);
+                    }
+                }
+
+            } finally {
+                reader.close();
+            }
+        }
+
+        IoUtils.createParentDirectories(checkpointFile);
+
+        synchronized (checkpointLock) {
+            checkpointWriter = new OutputStreamWriter(new FileOutputStream(checkpointFile, true), CHARSET);
+        }
+    }
+
+    private void writeCheckpoint(String path) throws IOException {
+        synchronized (checkpointLock) {
+            if (checkpointWriter != null) {
+                checkpointWriter.write(path);
+                checkpointWriter.write('\n');
+                checkpointWriter.flush();
+            }
+        }
+    }
+
+    private void closeCheckpoint() {
+        synchronized (checkpointLock) {
+            if (checkpointWriter != null) {
+                IoUtils.closeQuietly(checkpointWriter);
+                checkpointWriter = null;
+            }
+        }
+    }
+
+    /**
+     * Copies the given {@code item} to the destination storage, retrying
+     * up to the {@linkplain #getMaximumRetries maximum number of times}.
+     *
+     * @return {@code null} if the given {@code item} isn't in the source
+     *         storage or has already been copied.
+     */
+    protected StorageItem copy(StorageItem item) throws IOException {
+        String path = item.getPath();
+
+        if (!source.equals(item.getStorage()) ||
+                ObjectUtils.isBlank(path) ||
+                completedPaths.contains(path)) {
+            skipCount.incrementAndGet();
+            return null;
+        }
+
+        IOException lastError = null;
+
+        for (int attempt = 0; attempt <= maximumRetries; ++ attempt) {
+            if (attempt > 0) {
+                retryCount.incrementAndGet();
+            }
+
+            try {
+                StorageItem newItem = copyOnce(item);
+
+                completedPaths.add(path);
+                writeCheckpoint(path);
+                copyCount.incrementAndGet();
+                return newItem;
+
+            } catch (IOException error) {
+                lastError = error;
+            }
+        }
+
+        failureCount.incrementAndGet();
+        throw lastError;
+    }
+
+    private StorageItem copyOnce(StorageItem item) throws IOException {
+        StorageItem sourceItem = StorageItem.Static.createIn(source);
+        sourceItem.setPath(item.getPath());
+
+        MessageDigest sourceDigest = createDigest();
+        CountingInputStream sourceData = new CountingInputStream(sourceItem.getData());
+        StorageItem newItem = StorageItem.Static.createIn(destination);
+
+        newItem.setPath(item.getPath());
+        newItem.setContentType(item.getContentType());
+        newItem.setMetadata(item.getMetadata());
+        newItem.setData(new DigestInputStream(sourceData, sourceDigest));
+        newItem.save();
+        byteCount.addAndGet(sourceData.getCount());
+
+        if (verify) {
+            StorageItem verifyItem = StorageItem.Static.createIn(destination);
+            MessageDigest destinationDigest = createDigest();
+
+            verifyItem.setPath(item.getPath());
+
+            InputStream destinationData = new DigestInputStream(verifyItem.getData(), destinationDigest);
+
+            try {
+                byte[] buffer = new byte[4096];
+                while (destinationData.read(buffer) > -1) {
+                }
+
+            } finally {
+                destinationData.close();
+            }
+
+            if (!Arrays.equals(sourceDigest.digest(), destinationDigest.digest())) {
+                throw new IOException(String.format(
+                        "Checksum mismatch after copying [%s] from [%s] to [%s]!",
+                        item.getPath(), source, destination));
+            }
+        }
+
+        return newItem;
+    }
+
+    private static MessageDigest createDigest() {
+        try {
+            return MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException error) {
+            throw new IllegalStateException(error);
+        }
+    }
+
+    private String createProgress() {
+        return String.format(
+                "%,d copied, %,d skipped, %,d retried, %,d failed; %,.1f KB/s",
+                copyCount.get(),
+                skipCount.get(),
+                retryCount.get(),
+                failureCount.get(),
+                getByteRate() / 1024.0);
+    }
+
+    private class Copier extends AsyncConsumer<StorageItem> {
+
+        public Copier(String executor, AsyncQueue<StorageItem> input) {
+            super(executor, input);
+        }
+
+        @Override
+        protected void consume(StorageItem item) throws IOException {
+            try {
+                copy(item);
+            } finally {
+                setProgress(createProgress());
+            }
+        }
+
+        @Override
+        protected void handleError(StorageItem item, Exception error) {
+            LOGGER.warn(String.format(
+                    "Can't copy [%s] from [%s] to [%s]!",
+                    item.getPath(), source, destination),
+                    error);
+        }
+
+        @Override
+        protected void finished() {
+            try {
+                super.finished();
+            } finally {
+                if (runningCopiers.decrementAndGet() <= 0) {
+                    closeCheckpoint();
+                }
+            }
+        }
+    }
+
+    private static class CountingInputStream extends FilterInputStream {
+
+        private long count;
+
+        public CountingInputStream(InputStream input) {
+            super(input);
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b > -1) {
+                ++ count;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            int read = super.read(buffer, offset, length);
+            if (read > 0) {
+                count += read;
+            }
+            return read;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            count += skipped;
+            return skipped;
+        }
+    }
+
+    /** {@link StorageItemMigration} utility methods. */
+    public static final class Static {
+
+        /**
+         * Returns all items in the given local {@code storage} by walking
+         * its root path lazily.
+         *
+         * @param storage Must be backed by {@link LocalStorageItem}.
+         * @return Never {@code null}.
+         * @throws IllegalArgumentException If the given {@code storage}
+         *         isn't backed by {@link LocalStorageItem}.
+         */
+        public static Iterable<StorageItem> listLocalItems(final String storage) {
+            StorageItem item = StorageItem.Static.createIn(storage);
+
+            if (!(item instanceof LocalStorageItem)) {
+                throw new IllegalArgumentException(String.format(
+                        "[%s] isn't a local storage!", storage));
+            }
+
+            final File root = new File(((LocalStorageItem) item).getRootPath());
+
+            return new Iterable<StorageItem>() {
+
+                @Override
+                public Iterator<StorageItem> iterator() {
+                    return new LocalItemIterator(storage, root);
+                }
+            };
+        }
+    }
+
+    private static class LocalItemIterator implements Iterator<StorageItem> {
+
+        private final String storage;
+        private final String rootPath;
+        private final LinkedList<File> pending = new LinkedList<File>();
+        private File next;
+
+        public LocalItemIterator(String storage, File root) {
+            this.storage = storage;
+            this.rootPath = root.getAbsolutePath();
+            pending.add(root);
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (next == null && !pending.isEmpty()) {
+                File file = pending.removeFirst();
+
+                if (file.isDirectory()) {
+                    File[] children = file.listFiles();
+
+                    if (children != null) {
+                        Arrays.sort(children);
+                        pending.addAll(0, Arrays.asList(children));
+                    }
+
+                } else if (file.isFile()) {
+                    next = file;
+                }
+            }
+
+            return next != null;
+        }
+
+        @Override
+        public StorageItem next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+
+            // Cleared first so that a failure below moves past the file
+            // instead of making the producer retry it forever.
+            File file = next;
+            next = null;
+
+            String path = file.getAbsolutePath().substring(rootPath.length()).replace(File.separatorChar, '/');
+            StorageItem item = StorageItem.Static.createIn(storage);
+
+            while (path.startsWith("/")) {
+                path = path.substring(1);
+            }
+
+            item.setPath(path);
+            item.setContentType(ObjectUtils.getContentType(path));
+            return item;
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
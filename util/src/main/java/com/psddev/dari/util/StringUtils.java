@@ -1,6 +1,8 @@
 package com.psddev.dari.util;
 
+import java.io.IOException;
 import java.io.UnsupportedEncodingException;
+import java.io.Writer;
 import java.lang.reflect.Array;
 import java.net.URLDecoder;
 import java.net.URLEncoder;
@@ -905,11 +907,154 @@ public final class StringUtils {
         return string == null ? null : StringEscapeUtils.escapeCsv(string);
     }
 
+    // Escapes for the characters up to 0xFF, in the same form as
+    // StringEscapeUtils#escapeHtml, except for the single quote that it
+    // doesn't escape. All characters above 0x7F are escaped.
+    private static final String[] HTML_ESCAPES = new String[0x100];
+
+    // HTML 4.0 entity names for the characters above 0xFF. The characters
+    // without one, including all above this range, use a numeric escape.
+    private static final String[] HTML_ENTITY_NAMES = new String[0x2700];
+
+    static {
+        for (int c = 0; c < HTML_ENTITY_NAMES.length; ++ c) {
+            String escaped = StringEscapeUtils.escapeHtml(String.valueOf((char) c));
+
+            if (c < HTML_ESCAPES.length) {
+                HTML_ESCAPES[c] = escaped.length() > 1 ? escaped : null;
+
+            } else if (!escaped.startsWith("&#")) {
+                HTML_ENTITY_NAMES[c] = escaped.substring(1, escaped.length() - 1);
+            }
+        }
+
+        HTML_ESCAPES['\''] = "&#39;";
+    }
+
+    private static String getHtmlEntityName(char letter) {
+        return letter < HTML_ENTITY_NAMES.length ? HTML_ENTITY_NAMES[letter] : null;
+    }
+
+    // Returns the index of the first character at or after the given
+    // start that needs escaping, or -1 if there isn't one.
+    private static int indexOfHtmlEscape(String string, int start) {
+        for (int length = string.length(); start < length; ++ start) {
+            char letter = string.charAt(start);
+
+            if (letter > 0xFF || HTML_ESCAPES[letter] != null) {
+                return start;
+            }
+        }
+
+        return -1;
+    }
+
+    /**
+     * Escapes the given {@code string} so that it's safe to use in an HTML
+     * page. All characters above {@code 0x7F} are escaped too, using the
+     * HTML 4.0 entity names if available.
+     *
+     * @param string If {@code null}, returns {@code null}.
+     * @return The given {@code string} itself if nothing needed escaping.
+     */
     public static String escapeHtml(String string) {
-        return string == null ? null : StringUtils.replaceAll(
-                StringEscapeUtils.escapeHtml(string),
-                "\\x22", "&#34;",  // double quote
-                "\\x27", "&#39;"); // single quote
+        if (string == null) {
+            return null;
+        }
+
+        int escapeAt = indexOfHtmlEscape(string, 0);
+
+        if (escapeAt < 0) {
+            return string;
+        }
+
+        StringBuilder escaped = new StringBuilder(string.length() + 16);
+        int runStart = 0;
+
+        do {
+            char letter = string.charAt(escapeAt);
+
+            escaped.append(string, runStart, escapeAt);
+
+            if (letter <= 0xFF) {
+                escaped.append(HTML_ESCAPES[letter]);
+
+            } else {
+                String name = getHtmlEntityName(letter);
+
+                if (name != null) {
+                    escaped.append('&').append(name).append(';');
+
+                } else {
+                    escaped.append("&#").append((int) letter).append(';');
+                }
+            }
+
+            runStart = escapeAt + 1;
+            escapeAt = indexOfHtmlEscape(string, runStart);
+        } while (escapeAt > -1);
+
+        escaped.append(string, runStart, string.length());
+        return escaped.toString();
+    }
+
+    /**
+     * Escapes the given {@code string} like {@link #escapeHtml(String)} and
+     * writes it to the given {@code writer}. The runs of characters that
+     * don't need escaping are written directly, so this doesn't create any
+     * intermediate strings.
+     *
+     * @param writer Can't be {@code null}.
+     * @param string If {@code null}, writes nothing.
+     */
+    public static void escapeHtml(Writer writer, String string) throws IOException {
+        if (string == null) {
+            return;
+        }
+
+        int runStart = 0;
+
+        for (int escapeAt; (escapeAt = indexOfHtmlEscape(string, runStart)) > -1; runStart = escapeAt + 1) {
+            char letter = string.charAt(escapeAt);
+
+            if (escapeAt > runStart) {
+                writer.write(string, runStart, escapeAt - runStart);
+            }
+
+            if (letter <= 0xFF) {
+                writer.write(HTML_ESCAPES[letter]);
+
+            } else {
+                String name = getHtmlEntityName(letter);
+
+                if (name != null) {
+                    writer.write('&');
+                    writer.write(name);
+                    writer.write(';');
+
+                } else {
+                    writer.write("&#");
+
+                    int divisor = 100;
+
+                    while (divisor * 10 <= letter) {
+                        divisor *= 10;
+                    }
+
+                    for (; divisor > 0; divisor /= 10) {
+                        writer.write('0' + letter / divisor % 10);
+                    }
+
+                    writer.write(';');
+                }
+            }
+        }
+
+        int length = string.length();
+
+        if (runStart < length) {
+            writer.write(string, runStart, length - runStart);
+        }
     }
 
     public static String escapeJava(String string) {
@@ -0,0 +1,60 @@
+package com.psddev.dari.util;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Double sum that's spread across several cells so that the threads
+ * updating it rarely contend on the same memory. This is the
+ * {@code double} counterpart to {@link StripedLong}.
+ */
+public class StripedDouble {
+
+    private static final int PADDING = 8;
+
+    private final int stripes = StripedLong.getStripes();
+    private final AtomicLongArray cells = new AtomicLongArray(stripes * PADDING);
+
+    /** Adds the given {@code delta} to the sum. */
+    public void add(double delta) {
+        int index = StripedLong.getStripeIndex(stripes) * PADDING;
+
+        while (true) {
+            long oldBits = cells.get(index);
+            long newBits = Double.doubleToRawLongBits(Double.longBitsToDouble(oldBits) + delta);
+
+            if (cells.compareAndSet(index, oldBits, newBits)) {
+                return;
+            }
+        }
+    }
+
+    /** Returns the sum across all cells. */
+    public double sum() {
+        double sum = 0.0;
+
+        for (int i = 0, length = cells.length(); i < length; i += PADDING) {
+            sum += Double.longBitsToDouble(cells.get(i));
+        }
+
+        return sum;
+    }
+
+    /**
+     * Resets all cells to zero and returns the sum before the reset.
+     * Updates that happen concurrently may be lost.
+     */
+    public double sumThenReset() {
+        double sum = 0.0;
+
+        for (int i = 0, length = cells.length(); i < length; i += PADDING) {
+            sum += Double.longBitsToDouble(cells.getAndSet(i, 0L));
+        }
+
+        return sum;
+    }
+
+    @Override
+    public String toString() {
+        return String.valueOf(sum());
+    }
+}
@@ -0,0 +1,84 @@
+package com.psddev.dari.util;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Long sum that's spread across several cells so that the threads
+ * updating it rarely contend on the same memory, similar to
+ * {@code java.util.concurrent.atomic.LongAdder} in Java 8.
+ *
+ * <p>Each thread always updates the same cell, chosen by its ID, and the
+ * cells are padded apart so that they don't share a cache line. Reading
+ * the sum adds up all the cells, so it's more expensive than updating
+ * it.</p>
+ */
+public class StripedLong {
+
+    private static final int PADDING = 8;
+    private static final int STRIPES;
+
+    static {
+        int stripes = 1;
+
+        while (stripes < Runtime.getRuntime().availableProcessors() * 2 && stripes < 64) {
+            stripes <<= 1;
+        }
+
+        STRIPES = stripes;
+    }
+
+    private final AtomicLongArray cells = new AtomicLongArray(STRIPES * PADDING);
+
+    /** Returns the index of the stripe that the current thread uses. */
+    static int getStripeIndex(int stripes) {
+        long id = Thread.currentThread().getId();
+        int hash = (int) (id ^ (id >>> 32)) * 0x9E3779B9;
+
+        return (hash ^ (hash >>> 16)) & (stripes - 1);
+    }
+
+    /** Returns the number of stripes that each instance uses. */
+    static int getStripes() {
+        return STRIPES;
+    }
+
+    /** Adds the given {@code delta} to the sum. */
+    public void add(long delta) {
+        cells.getAndAdd(getStripeIndex(STRIPES) * PADDING, delta);
+    }
+
+    /** Adds one to the sum. */
+    public void increment() {
+        add(1L);
+    }
+
+    /** Returns the sum across all cells. */
+    public long sum() {
+        long sum = 0L;
+
+        for (int i = 0, length = cells.length(); i < length; i += PADDING) {
+            sum += cells.get(i);
+        }
+
+        return sum;
+    }
+
+    /**
+     * Resets all cells to zero and returns the sum before the reset.
+     * Updates that happen concurrently may be lost.
+     */
+    public long sumThenReset() {
+        long sum = 0L;
+
+        for (int i = 0, length = cells.length(); i < length; i += PADDING) {
+            sum += cells.getAndSet(i, 0L);
+        }
+
+        return sum;
+    }
+
+    @Override
+    public String toString() {
+        return String.valueOf(sum());
+    }
+}
@@ -75,6 +75,60 @@ public class TaskDebugServlet extends HttpServlet {
                                 "value", "Stop All");
                     writeEnd();
 
+                    long completeCount = executor.getCompleteCount();
+
+                    writeStart("table", "class", "table table-condensed");
+                        writeStart("thead");
+                            writeStart("tr");
+                                writeStart("th").writeHtml("Threads").writeEnd();
+                                writeStart("th").writeHtml("Active").writeEnd();
+                                writeStart("th").writeHtml("Queue").writeEnd();
+                                writeStart("th").writeHtml("Submitted").writeEnd();
+                                writeStart("th").writeHtml("Completed").writeEnd();
+                                writeStart("th").writeHtml("Rejected").writeEnd();
+                                writeStart("th").writeHtml("Wait").writeEnd();
+                                writeStart("th").writeHtml("Run").writeEnd();
+                            writeEnd();
+                        writeEnd();
+
+                        writeStart("tbody");
+                            writeStart("tr");
+                                writeStart("td");
+                                    writeObject(executor.getPoolSize());
+                                    writeHtml(" (largest ").writeObject(executor.getLargestPoolSize());
+                                    writeHtml(", ").writeObject(executor.getCoreSize());
+                                    writeHtml(" to ").writeObject(executor.getMaximumSize());
+                                    writeHtml(")");
+                                writeEnd();
+                                writeStart("td").writeObject(executor.getActiveCount()).writeEnd();
+                                writeStart("td");
+                                    writeObject(executor.getQueueSize());
+                                    writeHtml(" (largest ").writeObject(executor.getLargestQueueSize());
+                                    writeHtml(" of ").writeObject(executor.getQueueCapacity());
+                                    writeHtml(")");
+                                writeEnd();
+                                writeStart("td").writeObject(executor.getSubmitCount()).writeEnd();
+                                writeStart("td").writeObject(completeCount).writeEnd();
+                                writeStart("td");
+                                    writeObject(executor.getRejectCount());
+                                    writeHtml(" (").writeHtml(executor.getRejectionPolicy()).writeHtml(")");
+                                writeEnd();
+                                writeStart("td");
+                                    if (completeCount > 0) {
+                                        writeStart("strong").writeObject(executor.getTotalWaitDuration() / 1e6 / completeCount).writeEnd();
+                                        writeHtml(" ms/task");
+                                    }
+                                writeEnd();
+                                writeStart("td");
+                                    if (completeCount > 0) {
+                                        writeStart("strong").writeObject(executor.getTotalRunDuration() / 1e6 / completeCount).writeEnd();
+                                        writeHtml(" ms/task");
+                                    }
+                                writeEnd();
+                            writeEnd();
+                        writeEnd();
+                    writeEnd();
+
                     List<Object> tasks = executor.getTasks();
                     if (tasks.isEmpty()) {
                         writeStart("p", "class", "alert alert-info");
@@ -7,10 +7,13 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.Callable;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
-import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.ScheduledThreadPoolExecutor;
@@ -19,6 +22,7 @@ import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 
 import org.slf4j.Logger;
@@ -26,16 +30,74 @@ import org.slf4j.LoggerFactory;
 
 /**
  * {@link ScheduledExecutorService} optimized for use with {@link Task}.
+ *
+ * <p>The tasks run in a bounded thread pool, configured per executor
+ * name with the following sub-settings under
+ * {@code dari/taskExecutor/{name}}, falling back to the ones under
+ * {@value #DEFAULT_SETTING}:</p>
+ *
+ * <ul>
+ * <li>{@value #CORE_SIZE_SUB_SETTING} - Number of threads to keep even
+ * when idle. Defaults to {@value #DEFAULT_CORE_SIZE}.</li>
+ * <li>{@value #MAXIMUM_SIZE_SUB_SETTING} - Maximum number of threads.
+ * Defaults to {@value #DEFAULT_MAXIMUM_SIZE}.</li>
+ * <li>{@value #QUEUE_CAPACITY_SUB_SETTING} - Number of tasks that can
+ * wait for a thread. Like {@link ThreadPoolExecutor}, new threads beyond
+ * the core size are only started when the queue is full. Defaults to
+ * {@value #DEFAULT_QUEUE_CAPACITY}, which hands each task directly to a
+ * thread.</li>
+ * <li>{@value #REJECTION_POLICY_SUB_SETTING} - What to do when all
+ * threads are busy and the queue is full. See {@link RejectionPolicy}.
+ * Defaults to {@link RejectionPolicy#BLOCK}, or to the policy given to
+ * {@link Static#getInstance(String, RejectionPolicy)}, which only the
+ * setting for the executor by name overrides.</li>
+ * <li>{@value #SCHEDULED_SIZE_SUB_SETTING} - Number of threads that run
+ * the scheduled tasks. Defaults to {@value #DEFAULT_SCHEDULED_SIZE}.</li>
+ * </ul>
+ *
+ * <p>Tasks that run forever, such as {@link AsyncConsumer}, hold on to
+ * a thread, so the maximum size must be larger than the number of those
+ * tasks in the executor. Otherwise, the submissions wait for a thread
+ * with the default policy, and {@link RejectionPolicy#CALLER_RUNS} would
+ * take over the submitting thread for good.</p>
  */
 public final class TaskExecutor implements ScheduledExecutorService {
 
+    /** Setting key prefix for the settings of each executor by name. */
+    public static final String SETTING_PREFIX = "dari/taskExecutor";
+
+    /** Setting key for the settings that apply to all executors. */
+    public static final String DEFAULT_SETTING = "dari/defaultTaskExecutor";
+
+    public static final String CORE_SIZE_SUB_SETTING = "coreSize";
+    public static final String MAXIMUM_SIZE_SUB_SETTING = "maximumSize";
+    public static final String QUEUE_CAPACITY_SUB_SETTING = "queueCapacity";
+    public static final String REJECTION_POLICY_SUB_SETTING = "rejectionPolicy";
+    public static final String SCHEDULED_SIZE_SUB_SETTING = "scheduledSize";
+
+    public static final int DEFAULT_CORE_SIZE = 0;
+    public static final int DEFAULT_MAXIMUM_SIZE = 256;
+    public static final int DEFAULT_QUEUE_CAPACITY = 0;
+    public static final int DEFAULT_SCHEDULED_SIZE = 5;
+
+    private static final long KEEP_ALIVE_SECONDS = 60L;
+    private static final long BLOCK_CHECK_MILLISECONDS = 100L;
     private static final Logger LOGGER = LoggerFactory.getLogger(TaskExecutor.class);
 
     private final String name;
-    private final ExecutorService executor;
-    private final ScheduledExecutorService scheduledExecutor;
+    private final int queueCapacity;
+    private final RejectionPolicy rejectionPolicy;
+    private final BoundedExecutor executor;
+    private final ScheduledThreadPoolExecutor scheduledExecutor;
     private final List<WeakReference<Object>> tasks = new ArrayList<WeakReference<Object>>();
 
+    private final StripedLong submitCount = new StripedLong();
+    private final StripedLong completeCount = new StripedLong();
+    private final StripedLong waitDuration = new StripedLong();
+    private final StripedLong runDuration = new StripedLong();
+    private final AtomicLong rejectCount = new AtomicLong();
+    private final AtomicInteger largestQueueSize = new AtomicInteger();
+
     /**
      * Creates an instance with the given {@code name}. This should only
      * be called within {@link Static#getInstance} which makes sure that
@@ -45,16 +107,74 @@ public final class TaskExecutor implements ScheduledExecutorService {
      *         {@code null}.
      */
     protected TaskExecutor(String name) {
+        this(name, (RejectionPolicy) null);
+    }
+
+    private TaskExecutor(String name, RejectionPolicy rejectionPolicy) {
+        this(name,
+                getSetting(name, CORE_SIZE_SUB_SETTING, DEFAULT_CORE_SIZE),
+                getSetting(name, MAXIMUM_SIZE_SUB_SETTING, DEFAULT_MAXIMUM_SIZE),
+                getSetting(name, QUEUE_CAPACITY_SUB_SETTING, DEFAULT_QUEUE_CAPACITY),
+                rejectionPolicy != null ?
+                        toRejectionPolicy(Settings.get(SETTING_PREFIX + "/" + name + "/" + REJECTION_POLICY_SUB_SETTING), rejectionPolicy) :
+                        toRejectionPolicy(getSetting(name, REJECTION_POLICY_SUB_SETTING), RejectionPolicy.BLOCK),
+                getSetting(name, SCHEDULED_SIZE_SUB_SETTING, DEFAULT_SCHEDULED_SIZE));
+    }
+
+    TaskExecutor(
+            String name,
+            int coreSize,
+            int maximumSize,
+            int queueCapacity,
+            RejectionPolicy rejectionPolicy,
+            int scheduledSize) {
+
         if (name == null) {
             throw new IllegalArgumentException("Name can't be null!");
         }
 
-        LOGGER.info("Creating [{}]", name);
+        if (maximumSize < 1 || coreSize < 0 || coreSize > maximumSize) {
+            throw new IllegalArgumentException(String.format(
+                    "Core size [%s] must be between 0 and maximum size [%s], which must be positive!",
+                    coreSize, maximumSize));
+        }
+
+        if (queueCapacity < 0) {
+            throw new IllegalArgumentException(String.format(
+                    "Queue capacity [%s] can't be negative!", queueCapacity));
+        }
+
+        LOGGER.info("Creating [{}] with {} to {} threads, queue capacity {} and {} rejection policy", new Object[] {
+                name, coreSize, maximumSize, queueCapacity, rejectionPolicy });
 
         TaskThreadFactory threadFactory = new TaskThreadFactory(name);
+        BlockingQueue<Runnable> queue = queueCapacity > 0 ?
+                new LinkedBlockingQueue<Runnable>(queueCapacity) :
+                new SynchronousQueue<Runnable>();
+
         this.name = name;
-        this.executor = new ThreadPoolExecutor(0, Integer.MAX_VALUE, 0, TimeUnit.NANOSECONDS, new SynchronousQueue<Runnable>(), threadFactory);
-        this.scheduledExecutor = new ScheduledThreadPoolExecutor(5, threadFactory);
+        this.queueCapacity = queueCapacity;
+        this.rejectionPolicy = rejectionPolicy != null ? rejectionPolicy : RejectionPolicy.BLOCK;
+        this.executor = new BoundedExecutor(coreSize, maximumSize, queue, threadFactory);
+        this.scheduledExecutor = new ScheduledThreadPoolExecutor(Math.max(scheduledSize, 1), threadFactory);
+    }
+
+    private static int getSetting(String name, String subSetting, int defaultValue) {
+        Object value = getSetting(name, subSetting);
+
+        return value != null ? ObjectUtils.to(int.class, value) : defaultValue;
+    }
+
+    private static RejectionPolicy toRejectionPolicy(Object value, RejectionPolicy defaultValue) {
+        RejectionPolicy policy = value != null ? ObjectUtils.to(RejectionPolicy.class, value.toString().toUpperCase()) : null;
+
+        return policy != null ? policy : defaultValue;
+    }
+
+    private static Object getSetting(String name, String subSetting) {
+        Object value = Settings.get(SETTING_PREFIX + "/" + name + "/" + subSetting);
+
+        return value != null ? value : Settings.get(DEFAULT_SETTING + "/" + subSetting);
     }
 
     /** Returns the unique name of this task executor. */
@@ -79,6 +199,83 @@ public final class TaskExecutor implements ScheduledExecutorService {
         return tasks;
     }
 
+    /** Returns the number of threads that are kept even when idle. */
+    public int getCoreSize() {
+        return executor.getCorePoolSize();
+    }
+
+    /** Returns the maximum number of threads. */
+    public int getMaximumSize() {
+        return executor.getMaximumPoolSize();
+    }
+
+    /** Returns the number of threads currently in the pool. */
+    public int getPoolSize() {
+        return executor.getPoolSize();
+    }
+
+    /** Returns the largest number of threads that were in the pool. */
+    public int getLargestPoolSize() {
+        return executor.getLargestPoolSize();
+    }
+
+    /** Returns the approximate number of threads running tasks. */
+    public int getActiveCount() {
+        return executor.getActiveCount();
+    }
+
+    /** Returns the number of tasks that can wait for a thread. */
+    public int getQueueCapacity() {
+        return queueCapacity;
+    }
+
+    /** Returns the number of tasks waiting for a thread. */
+    public int getQueueSize() {
+        return executor.getQueue().size();
+    }
+
+    /** Returns the largest number of tasks that waited for a thread. */
+    public int getLargestQueueSize() {
+        return largestQueueSize.get();
+    }
+
+    /** Returns what happens when all threads are busy and the queue is full. */
+    public RejectionPolicy getRejectionPolicy() {
+        return rejectionPolicy;
+    }
+
+    /** Returns the number of tasks submitted, excluding the scheduled ones. */
+    public long getSubmitCount() {
+        return submitCount.sum();
+    }
+
+    /** Returns the number of tasks that finished running. */
+    public long getCompleteCount() {
+        return completeCount.sum();
+    }
+
+    /**
+     * Returns the number of tasks that were rejected because all threads
+     * were busy and the queue was full, regardless of what the
+     * {@linkplain #getRejectionPolicy rejection policy} did with them.
+     */
+    public long getRejectCount() {
+        return rejectCount.get();
+    }
+
+    /**
+     * Returns the total number of nanoseconds that the finished tasks
+     * waited between being submitted and starting to run.
+     */
+    public long getTotalWaitDuration() {
+        return waitDuration.sum();
+    }
+
+    /** Returns the total number of nanoseconds that the finished tasks ran. */
+    public long getTotalRunDuration() {
+        return runDuration.sum();
+    }
+
     /** Tries to pause all tasks currently running in this executor. */
     public void pauseTasks() {
         for (Object task : getTasks()) {
@@ -213,7 +410,9 @@ public final class TaskExecutor implements ScheduledExecutorService {
 
         stopTasks();
         List<Runnable> remaining = new ArrayList<Runnable>();
-        remaining.addAll(executor.shutdownNow());
+        for (Runnable runnable : executor.shutdownNow()) {
+            remaining.add(runnable instanceof MeasuredRunnable ? ((MeasuredRunnable) runnable).delegate : runnable);
+        }
         remaining.addAll(scheduledExecutor.shutdownNow());
         return remaining;
     }
@@ -242,6 +441,127 @@ public final class TaskExecutor implements ScheduledExecutorService {
         executor.execute(runnable);
     }
 
+    /**
+     * What {@link TaskExecutor} does with a task when all threads are busy
+     * and the queue is full.
+     */
+    public enum RejectionPolicy {
+
+        /** Throws {@link RejectedExecutionException}. */
+        ABORT,
+
+        /**
+         * Runs the task in the thread that submitted it, which slows down
+         * the submissions until the pool catches up. Shouldn't be used in
+         * an executor with tasks that run forever.
+         */
+        CALLER_RUNS,
+
+        /**
+         * Blocks the thread that submitted the task until there's room, or
+         * until the executor is shut down.
+         */
+        BLOCK
+    }
+
+    private class BoundedExecutor extends ThreadPoolExecutor {
+
+        public BoundedExecutor(int coreSize, int maximumSize, BlockingQueue<Runnable> queue, ThreadFactory threadFactory) {
+            super(coreSize, maximumSize, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, queue, threadFactory, new BoundedRejectionHandler());
+        }
+
+        @Override
+        public void execute(Runnable runnable) {
+            if (runnable == null) {
+                throw new NullPointerException();
+            }
+
+            submitCount.increment();
+            super.execute(new MeasuredRunnable(runnable));
+
+            if (queueCapacity > 0) {
+                int size = getQueue().size();
+
+                for (int largest; size > (largest = largestQueueSize.get());) {
+                    if (largestQueueSize.compareAndSet(largest, size)) {
+                        break;
+                    }
+                }
+            }
+        }
+    }
+
+    private class BoundedRejectionHandler implements RejectedExecutionHandler {
+
+        @Override
+        public void rejectedExecution(Runnable runnable, ThreadPoolExecutor executor) {
+            if (executor.isShutdown()) {
+                throw new RejectedExecutionException(String.format("[%s] is shut down!", name));
+            }
+
+            rejectCount.incrementAndGet();
+
+            switch (rejectionPolicy) {
+                case CALLER_RUNS :
+                    runnable.run();
+                    break;
+
+                case BLOCK :
+                    BlockingQueue<Runnable> queue = executor.getQueue();
+
+                    try {
+                        while (!queue.offer(runnable, BLOCK_CHECK_MILLISECONDS, TimeUnit.MILLISECONDS)) {
+                            if (executor.isShutdown()) {
+                                throw new RejectedExecutionException(String.format("[%s] is shut down!", name));
+                            }
+                        }
+
+                    } catch (InterruptedException error) {
+                        Thread.currentThread().interrupt();
+                        throw new RejectedExecutionException(String.format(
+                                "Interrupted while waiting for room in [%s]!", name), error);
+                    }
+
+                    // Shut down right as the task was queued, so it may never
+                    // run.
+                    if (executor.isShutdown() && queue.remove(runnable)) {
+                        throw new RejectedExecutionException(String.format("[%s] is shut down!", name));
+                    }
+                    break;
+
+                default :
+                    throw new RejectedExecutionException(String.format(
+                            "All %s threads in [%s] are busy and its queue is full!",
+                            executor.getMaximumPoolSize(), name));
+            }
+        }
+    }
+
+    private class MeasuredRunnable implements Runnable {
+
+        private final Runnable delegate;
+        private final long submitTime = System.nanoTime();
+
+        public MeasuredRunnable(Runnable delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public void run() {
+            long startTime = System.nanoTime();
+
+            waitDuration.add(startTime - submitTime);
+
+            try {
+                delegate.run();
+
+            } finally {
+                runDuration.add(System.nanoTime() - startTime);
+                completeCount.increment();
+            }
+        }
+    }
+
     /** {@link TaskExecutor} utility methods. */
     public static final class Static {
 
@@ -267,7 +587,20 @@ public final class TaskExecutor implements ScheduledExecutorService {
          *
          * @param name If blank, returns the default executor.
          */
-        public static synchronized TaskExecutor getInstance(String name) {
+        public static TaskExecutor getInstance(String name) {
+            return getInstance(name, null);
+        }
+
+        /**
+         * Returns the task executor with the given {@code name}, creating
+         * it with the given {@code rejectionPolicy} unless the setting for
+         * the executor by name says otherwise.
+         *
+         * @param name If blank, returns the default executor.
+         * @param rejectionPolicy If {@code null}, uses the settings. Only
+         *        applies when the executor is created.
+         */
+        public static synchronized TaskExecutor getInstance(String name, RejectionPolicy rejectionPolicy) {
             if (ObjectUtils.isBlank(name)) {
                 name = DEFAULT_INSTANCE_NAME;
             }
@@ -275,7 +608,7 @@ public final class TaskExecutor implements ScheduledExecutorService {
             WeakReference<TaskExecutor> reference = INSTANCES.get(name);
             TaskExecutor executor = reference != null ? reference.get() : null;
             if (executor == null) {
-                executor = new TaskExecutor(name);
+                executor = new TaskExecutor(name, rejectionPolicy);
                 INSTANCES.put(name, new WeakReference<TaskExecutor>(executor));
             }
 
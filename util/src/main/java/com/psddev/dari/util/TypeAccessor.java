@@ -0,0 +1,186 @@
+package com.psddev.dari.util;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Creates instances of a class and reads and writes their fields.
+ *
+ * <p>The instances returned by {@link TypeDefinition#getAccessor} are
+ * subclasses generated at runtime that construct the objects and access
+ * the fields directly in bytecode. Anything that can't be accessed that
+ * way falls back to the reflection based implementation in this class.</p>
+ *
+ * <p>Private fields can only be accessed directly if the declaring class
+ * provides the static methods named with {@link #FIELD_GETTER_PREFIX}
+ * and {@link #FIELD_SETTER_PREFIX}, which a {@link ClassEnhancer} can add
+ * at build time.</p>
+ *
+ * <p>Fields are identified by their index within
+ * {@link TypeDefinition#getAllFields}.</p>
+ */
+public class TypeAccessor<T> {
+
+    /**
+     * Prefix of the name of the non-private static method that returns
+     * the value of a private field, such as
+     * {@code static long dari$get$count(Foo foo)} for
+     * {@code private long count} in {@code Foo}.
+     */
+    public static final String FIELD_GETTER_PREFIX = "dari$get$";
+
+    /**
+     * Prefix of the name of the non-private static method that sets a
+     * private field, such as
+     * {@code static void dari$set$count(Foo foo, long count)} for
+     * {@code private long count} in {@code Foo}.
+     */
+    public static final String FIELD_SETTER_PREFIX = "dari$set$";
+
+    private final TypeDefinition<T> definition;
+    private final List<Field> fields;
+    private final Map<Field, Integer> generatedIndexes;
+
+    /** Creates an instance based on the given {@code definition}. */
+    public TypeAccessor(TypeDefinition<T> definition) {
+        this(definition, null);
+    }
+
+    /**
+     * Creates an instance based on the given {@code definition} for a
+     * subclass that accesses the fields at the given
+     * {@code generatedIndexes} directly.
+     *
+     * @param generatedIndexes May be {@code null}.
+     */
+    protected TypeAccessor(TypeDefinition<T> definition, int[] generatedIndexes) {
+        this.definition = definition;
+        this.fields = definition.getAllFields();
+        this.generatedIndexes = new HashMap<Field, Integer>();
+
+        if (generatedIndexes != null) {
+            for (int index : generatedIndexes) {
+                this.generatedIndexes.put(fields.get(index), index);
+            }
+        }
+    }
+
+    /** Returns the definition of the type that this accessor is for. */
+    public TypeDefinition<T> getDefinition() {
+        return definition;
+    }
+
+    /**
+     * Returns {@code true} if the given {@code field} is accessed
+     * directly instead of through the reflection.
+     */
+    boolean isGenerated(Field field) {
+        return generatedIndexes.containsKey(field);
+    }
+
+    /** Creates a new instance using the nullary constructor. */
+    public T newInstance() {
+        Constructor<T> constructor = definition.getConstructor();
+        if (constructor == null) {
+            throw new IllegalStateException(String.format(
+                    "Can't create an instance of [%s] without a nullary constructor!",
+                    definition.getObjectClass()));
+        }
+
+        try {
+            return constructor.newInstance();
+
+        } catch (IllegalAccessException ex) {
+            throw new IllegalStateException(ex);
+
+        } catch (InstantiationException ex) {
+            throw new IllegalStateException(String.format(
+                    "Can't instantiate an instance of [%s]!",
+                    definition.getObjectClass()), ex);
+
+        } catch (InvocationTargetException ex) {
+            Throwable cause = ex.getCause();
+            if (cause == null) {
+                cause = ex;
+            }
+            throw cause instanceof RuntimeException ?
+                    (RuntimeException) cause :
+                    new RuntimeException(cause.getMessage(), cause);
+        }
+    }
+
+    /**
+     * Returns the value of the field at the given {@code index} in the
+     * given {@code object}.
+     */
+    public Object get(Object object, int index) {
+        try {
+            return fields.get(index).get(object);
+
+        } catch (IllegalAccessException error) {
+            throw new IllegalStateException(error);
+        }
+    }
+
+    /**
+     * Sets the field at the given {@code index} in the given
+     * {@code object} to the given {@code value}.
+     *
+     * @throws IllegalArgumentException If the value can't be assigned to
+     *         the field.
+     */
+    public void set(Object object, int index, Object value) {
+        try {
+            fields.get(index).set(object, value);
+
+        } catch (IllegalAccessException error) {
+            throw new IllegalStateException(error);
+        }
+    }
+
+    /**
+     * Returns the value of the given {@code field} in the given
+     * {@code object}.
+     */
+    public Object get(Object object, Field field) {
+        Integer index = generatedIndexes.isEmpty() ? null : generatedIndexes.get(field);
+
+        if (index != null) {
+            return get(object, index);
+        }
+
+        try {
+            return field.get(object);
+
+        } catch (IllegalAccessException error) {
+            throw new IllegalStateException(error);
+        }
+    }
+
+    /**
+     * Sets the given {@code field} in the given {@code object} to the
+     * given {@code value}.
+     *
+     * @throws IllegalArgumentException If the value can't be assigned to
+     *         the field.
+     */
+    public void set(Object object, Field field, Object value) {
+        Integer index = generatedIndexes.isEmpty() ? null : generatedIndexes.get(field);
+
+        if (index != null) {
+            set(object, index, value);
+            return;
+        }
+
+        try {
+            field.set(object, value);
+
+        } catch (IllegalAccessException error) {
+            throw new IllegalStateException(error);
+        }
+    }
+}
@@ -0,0 +1,509 @@
+package com.psddev.dari.util;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.security.ProtectionDomain;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Generates {@link TypeAccessor} subclasses that construct objects and
+ * access their fields directly in bytecode.
+ *
+ * <p>The generated class is defined in the same class loader and package
+ * as the type so that it can access the non-private members, and the
+ * private fields whose declaring class provides the static methods named
+ * with {@link TypeAccessor#FIELD_GETTER_PREFIX} and
+ * {@link TypeAccessor#FIELD_SETTER_PREFIX}. Everything else is left to
+ * the reflection based implementation in the super class.</p>
+ */
+final class TypeAccessorGenerator {
+
+    /** Setting key for disabling the generation of the accessors. */
+    public static final String DISABLE_SETTING = "dari/disableGeneratedTypeAccessors";
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(TypeAccessorGenerator.class);
+    private static final String ACCESSOR_CLASS_SUFFIX = "$$DariAccessor";
+    private static final String ACCESSOR_INTERNAL_NAME = Type.getInternalName(TypeAccessor.class);
+    private static final AtomicLong COUNTER = new AtomicLong();
+
+    private static final Map<Class<?>, Class<?>> BOXED_CLASSES; static {
+        Map<Class<?>, Class<?>> m = new HashMap<Class<?>, Class<?>>();
+        m.put(boolean.class, Boolean.class);
+        m.put(byte.class, Byte.class);
+        m.put(char.class, Character.class);
+        m.put(double.class, Double.class);
+        m.put(float.class, Float.class);
+        m.put(int.class, Integer.class);
+        m.put(long.class, Long.class);
+        m.put(short.class, Short.class);
+        BOXED_CLASSES = m;
+    }
+
+    private static final Method DEFINE_CLASS_METHOD;
+
+    static {
+        Method defineClass = null;
+
+        try {
+            Method method = ClassLoader.class.getDeclaredMethod(
+                    "defineClass",
+                    String.class,
+                    byte[].class,
+                    int.class,
+                    int.class,
+                    ProtectionDomain.class);
+
+            method.setAccessible(true);
+            defineClass = method;
+
+        } catch (NoSuchMethodException error) {
+            LOGGER.debug("Can't find ClassLoader#defineClass!", error);
+
+        // SecurityException, or InaccessibleObjectException on the newer
+        // VMs that don't open java.lang.
+        } catch (RuntimeException error) {
+            LOGGER.debug("Can't access ClassLoader#defineClass!", error);
+        }
+
+        DEFINE_CLASS_METHOD = defineClass;
+    }
+
+    private TypeAccessorGenerator() {
+    }
+
+    /**
+     * Returns an accessor for the given {@code definition}, generating
+     * its class if possible.
+     *
+     * @return Never {@code null}.
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> TypeAccessor<T> generate(TypeDefinition<T> definition) {
+        Class<T> objectClass = definition.getObjectClass();
+        ClassLoader loader = objectClass.getClassLoader();
+        String className = objectClass.getName();
+
+        if (DEFINE_CLASS_METHOD == null ||
+                loader == null ||
+                objectClass.isArray() ||
+                objectClass.isPrimitive() ||
+                className.startsWith("java.") ||
+                Settings.get(boolean.class, DISABLE_SETTING)) {
+            return new TypeAccessor<T>(definition);
+        }
+
+        String accessorName = className + ACCESSOR_CLASS_SUFFIX + COUNTER.incrementAndGet();
+
+        try {
+            List<Field> fields = definition.getAllFields();
+            List<Integer> gettable = new ArrayList<Integer>();
+            List<Integer> settable = new ArrayList<Integer>();
+
+            for (int i = 0, size = fields.size(); i < size; ++ i) {
+                Field field = fields.get(i);
+                int mod = field.getModifiers();
+
+                if (Modifier.isStatic(mod)) {
+                    continue;
+
+                } else if (isFieldAccessible(field, objectClass)) {
+                    gettable.add(i);
+
+                    if (!Modifier.isFinal(mod)) {
+                        settable.add(i);
+                    }
+
+                } else if (findGetter(field, objectClass) != null) {
+                    gettable.add(i);
+
+                    if (findSetter(field, objectClass) != null) {
+                        settable.add(i);
+                    }
+                }
+            }
+
+            byte[] bytecode = createBytecode(definition, accessorName.replace('.', '/'), gettable, settable);
+            Class<?> accessorClass = (Class<?>) DEFINE_CLASS_METHOD.invoke(
+                    loader,
+                    accessorName,
+                    bytecode,
+                    0,
+                    bytecode.length,
+                    objectClass.getProtectionDomain());
+
+            return (TypeAccessor<T>) accessorClass.
+                    getConstructor(TypeDefinition.class, int[].class).
+                    newInstance(definition, toArray(gettable));
+
+        } catch (Exception error) {
+            LOGGER.debug(String.format("Can't generate the accessor for [%s]!", className), error);
+
+        } catch (LinkageError error) {
+            LOGGER.debug(String.format("Can't generate the accessor for [%s]!", className), error);
+        }
+
+        return new TypeAccessor<T>(definition);
+    }
+
+    private static byte[] createBytecode(
+            TypeDefinition<?> definition,
+            String internalName,
+            List<Integer> gettable,
+            List<Integer> settable) {
+
+        Class<?> objectClass = definition.getObjectClass();
+        List<Field> fields = definition.getAllFields();
+        ClassWriter writer = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+
+        // Class version 49 so that the stack map frames aren't required.
+        writer.visit(
+                Opcodes.V1_5,
+                Opcodes.ACC_PUBLIC | Opcodes.ACC_FINAL | Opcodes.ACC_SYNTHETIC,
+                internalName,
+                null,
+                ACCESSOR_INTERNAL_NAME,
+                null);
+
+        writeConstructor(writer);
+
+        if (isConstructorAccessible(objectClass)) {
+            writeNewInstance(writer, objectClass);
+        }
+
+        if (!gettable.isEmpty()) {
+            writeGet(writer, objectClass, fields, gettable);
+        }
+
+        if (!settable.isEmpty()) {
+            writeSet(writer, objectClass, fields, settable);
+        }
+
+        writer.visitEnd();
+        return writer.toByteArray();
+    }
+
+    // public <init>(TypeDefinition definition, int[] generatedIndexes) {
+    //     super(definition, generatedIndexes);
+    // }
+    private static void writeConstructor(ClassWriter writer) {
+        String desc = "(" + Type.getDescriptor(TypeDefinition.class) + "[I)V";
+        MethodVisitor mv = writer.visitMethod(Opcodes.ACC_PUBLIC, "<init>", desc, null, null);
+
+        mv.visitCode();
+        mv.visitVarInsn(Opcodes.ALOAD, 0);
+        mv.visitVarInsn(Opcodes.ALOAD, 1);
+        mv.visitVarInsn(Opcodes.ALOAD, 2);
+        mv.visitMethodInsn(Opcodes.INVOKESPECIAL, ACCESSOR_INTERNAL_NAME, "<init>", desc);
+        mv.visitInsn(Opcodes.RETURN);
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+    }
+
+    // public Object newInstance() { return new T(); }
+    private static void writeNewInstance(ClassWriter writer, Class<?> objectClass) {
+        String objectName = Type.getInternalName(objectClass);
+        MethodVisitor mv = writer.visitMethod(Opcodes.ACC_PUBLIC, "newInstance", "()Ljava/lang/Object;", null, null);
+
+        mv.visitCode();
+        mv.visitTypeInsn(Opcodes.NEW, objectName);
+        mv.visitInsn(Opcodes.DUP);
+        mv.visitMethodInsn(Opcodes.INVOKESPECIAL, objectName, "<init>", "()V");
+        mv.visitInsn(Opcodes.ARETURN);
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+    }
+
+    // public Object get(Object object, int index) {
+    //     switch (index) {
+    //         case 0: return box(((D) object).field0);
+    //         case 1: return box(D.dari$get$field1((D) object));
+    //         ...
+    //         default: return super.get(object, index);
+    //     }
+    // }
+    private static void writeGet(ClassWriter writer, Class<?> objectClass, List<Field> fields, List<Integer> indexes) {
+        MethodVisitor mv = writer.visitMethod(Opcodes.ACC_PUBLIC, "get", "(Ljava/lang/Object;I)Ljava/lang/Object;", null, null);
+        Label defaultLabel = new Label();
+        Label[] labels = createLabels(indexes.size());
+
+        mv.visitCode();
+        mv.visitVarInsn(Opcodes.ILOAD, 2);
+        mv.visitLookupSwitchInsn(defaultLabel, toArray(indexes), labels);
+
+        for (int i = 0, size = indexes.size(); i < size; ++ i) {
+            Field field = fields.get(indexes.get(i));
+            Class<?> fieldType = field.getType();
+            Method getter = isFieldAccessible(field, objectClass) ? null : findGetter(field, objectClass);
+            String declaringName = Type.getInternalName(field.getDeclaringClass());
+
+            mv.visitLabel(labels[i]);
+            mv.visitVarInsn(Opcodes.ALOAD, 1);
+            mv.visitTypeInsn(Opcodes.CHECKCAST, declaringName);
+
+            if (getter != null) {
+                mv.visitMethodInsn(Opcodes.INVOKESTATIC, declaringName, getter.getName(), Type.getMethodDescriptor(getter));
+
+            } else {
+                mv.visitFieldInsn(Opcodes.GETFIELD, declaringName, field.getName(), Type.getDescriptor(fieldType));
+            }
+
+            if (fieldType.isPrimitive()) {
+                Class<?> boxedType = BOXED_CLASSES.get(fieldType);
+                String boxedName = Type.getInternalName(boxedType);
+
+                mv.visitMethodInsn(Opcodes.INVOKESTATIC, boxedName, "valueOf", "(" + Type.getDescriptor(fieldType) + ")L" + boxedName + ";");
+            }
+
+            mv.visitInsn(Opcodes.ARETURN);
+        }
+
+        mv.visitLabel(defaultLabel);
+        mv.visitVarInsn(Opcodes.ALOAD, 0);
+        mv.visitVarInsn(Opcodes.ALOAD, 1);
+        mv.visitVarInsn(Opcodes.ILOAD, 2);
+        mv.visitMethodInsn(Opcodes.INVOKESPECIAL, ACCESSOR_INTERNAL_NAME, "get", "(Ljava/lang/Object;I)Ljava/lang/Object;");
+        mv.visitInsn(Opcodes.ARETURN);
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+    }
+
+    // public void set(Object object, int index, Object value) {
+    //     switch (index) {
+    //         case 0:
+    //             if (value == null || value instanceof F) {
+    //                 ((D) object).field0 = (F) value;
+    //                 return;
+    //             }
+    //             break;
+    //         case 1:
+    //             ...
+    //                 D.dari$set$field1((D) object, (F) value);
+    //         ...
+    //     }
+    //     super.set(object, index, value);
+    // }
+    //
+    // Values that need a conversion, such as the primitive widening, or
+    // that aren't assignable, are left to the reflection so that the
+    // result and the errors are the same.
+    private static void writeSet(ClassWriter writer, Class<?> objectClass, List<Field> fields, List<Integer> indexes) {
+        MethodVisitor mv = writer.visitMethod(Opcodes.ACC_PUBLIC, "set", "(Ljava/lang/Object;ILjava/lang/Object;)V", null, null);
+        Label defaultLabel = new Label();
+        Label[] labels = createLabels(indexes.size());
+
+        mv.visitCode();
+        mv.visitVarInsn(Opcodes.ILOAD, 2);
+        mv.visitLookupSwitchInsn(defaultLabel, toArray(indexes), labels);
+
+        for (int i = 0, size = indexes.size(); i < size; ++ i) {
+            Field field = fields.get(indexes.get(i));
+            Class<?> fieldType = field.getType();
+            Method setter = isFieldAccessible(field, objectClass) ? null : findSetter(field, objectClass);
+            String declaringName = Type.getInternalName(field.getDeclaringClass());
+            String fieldDesc = Type.getDescriptor(fieldType);
+            Label assign = new Label();
+
+            mv.visitLabel(labels[i]);
+
+            if (fieldType.isPrimitive()) {
+                String boxedName = Type.getInternalName(BOXED_CLASSES.get(fieldType));
+
+                mv.visitVarInsn(Opcodes.ALOAD, 3);
+                mv.visitTypeInsn(Opcodes.INSTANCEOF, boxedName);
+                mv.visitJumpInsn(Opcodes.IFEQ, defaultLabel);
+                mv.visitVarInsn(Opcodes.ALOAD, 1);
+                mv.visitTypeInsn(Opcodes.CHECKCAST, declaringName);
+                mv.visitVarInsn(Opcodes.ALOAD, 3);
+                mv.visitTypeInsn(Opcodes.CHECKCAST, boxedName);
+                mv.visitMethodInsn(Opcodes.INVOKEVIRTUAL, boxedName, fieldType.getName() + "Value", "()" + fieldDesc);
+
+            } else {
+                String typeName = Type.getInternalName(fieldType);
+
+                mv.visitVarInsn(Opcodes.ALOAD, 3);
+                mv.visitJumpInsn(Opcodes.IFNULL, assign);
+                mv.visitVarInsn(Opcodes.ALOAD, 3);
+                mv.visitTypeInsn(Opcodes.INSTANCEOF, typeName);
+                mv.visitJumpInsn(Opcodes.IFEQ, defaultLabel);
+                mv.visitLabel(assign);
+                mv.visitVarInsn(Opcodes.ALOAD, 1);
+                mv.visitTypeInsn(Opcodes.CHECKCAST, declaringName);
+                mv.visitVarInsn(Opcodes.ALOAD, 3);
+                mv.visitTypeInsn(Opcodes.CHECKCAST, typeName);
+            }
+
+            if (setter != null) {
+                mv.visitMethodInsn(Opcodes.INVOKESTATIC, declaringName, setter.getName(), Type.getMethodDescriptor(setter));
+
+            } else {
+                mv.visitFieldInsn(Opcodes.PUTFIELD, declaringName, field.getName(), fieldDesc);
+            }
+
+            mv.visitInsn(Opcodes.RETURN);
+        }
+
+        mv.visitLabel(defaultLabel);
+        mv.visitVarInsn(Opcodes.ALOAD, 0);
+        mv.visitVarInsn(Opcodes.ALOAD, 1);
+        mv.visitVarInsn(Opcodes.ILOAD, 2);
+        mv.visitVarInsn(Opcodes.ALOAD, 3);
+        mv.visitMethodInsn(Opcodes.INVOKESPECIAL, ACCESSOR_INTERNAL_NAME, "set", "(Ljava/lang/Object;ILjava/lang/Object;)V");
+        mv.visitInsn(Opcodes.RETURN);
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+    }
+
+    private static Label[] createLabels(int size) {
+        Label[] labels = new Label[size];
+
+        for (int i = 0; i < size; ++ i) {
+            labels[i] = new Label();
+        }
+
+        return labels;
+    }
+
+    private static int[] toArray(List<Integer> list) {
+        int[] array = new int[list.size()];
+
+        for (int i = 0, size = array.length; i < size; ++ i) {
+            array[i] = list.get(i);
+        }
+
+        return array;
+    }
+
+    // Returns true if the nullary constructor can be called from a class
+    // in the same package without any checked exceptions.
+    private static boolean isConstructorAccessible(Class<?> objectClass) {
+        int mod = objectClass.getModifiers();
+
+        if (objectClass.isInterface() ||
+                Modifier.isAbstract(mod) ||
+                !isClassAccessible(objectClass, objectClass)) {
+            return false;
+        }
+
+        for (Constructor<?> constructor : objectClass.getDeclaredConstructors()) {
+            if (constructor.getParameterTypes().length == 0) {
+                return !Modifier.isPrivate(constructor.getModifiers()) &&
+                        constructor.getExceptionTypes().length == 0;
+            }
+        }
+
+        return false;
+    }
+
+    // Returns true if the given field can be accessed from a class in the
+    // same package as the given objectClass.
+    private static boolean isFieldAccessible(Field field, Class<?> objectClass) {
+        Class<?> declaringClass = field.getDeclaringClass();
+        int mod = field.getModifiers();
+
+        if (Modifier.isPrivate(mod) ||
+                !isClassAccessible(declaringClass, objectClass) ||
+                !isClassAccessible(field.getType(), objectClass)) {
+            return false;
+
+        } else if (Modifier.isPublic(mod)) {
+            return true;
+
+        } else {
+            return isSamePackage(declaringClass, objectClass);
+        }
+    }
+
+    // Returns the static method that returns the value of the given
+    // private field if it can be called from a class in the same package
+    // as the given objectClass.
+    private static Method findGetter(Field field, Class<?> objectClass) {
+        Class<?> declaringClass = field.getDeclaringClass();
+        Method getter = findFieldMethod(field, objectClass, TypeAccessor.FIELD_GETTER_PREFIX, declaringClass);
+
+        return getter != null && getter.getReturnType() == field.getType() ? getter : null;
+    }
+
+    // Returns the static method that sets the given private field if it
+    // can be called from a class in the same package as the given
+    // objectClass.
+    private static Method findSetter(Field field, Class<?> objectClass) {
+        Class<?> declaringClass = field.getDeclaringClass();
+        Method setter = findFieldMethod(field, objectClass, TypeAccessor.FIELD_SETTER_PREFIX, declaringClass, field.getType());
+
+        return setter != null && setter.getReturnType() == void.class ? setter : null;
+    }
+
+    private static Method findFieldMethod(Field field, Class<?> objectClass, String prefix, Class<?>... parameterTypes) {
+        Class<?> declaringClass = field.getDeclaringClass();
+
+        if (!Modifier.isPrivate(field.getModifiers()) ||
+                !isSamePackage(declaringClass, objectClass) ||
+                !isClassAccessible(declaringClass, objectClass) ||
+                !isClassAccessible(field.getType(), objectClass)) {
+            return null;
+        }
+
+        Method method;
+
+        try {
+            method = declaringClass.getDeclaredMethod(prefix + field.getName(), parameterTypes);
+
+        } catch (NoSuchMethodException error) {
+            return null;
+        }
+
+        int mod = method.getModifiers();
+
+        return Modifier.isStatic(mod) && !Modifier.isPrivate(mod) ? method : null;
+    }
+
+    private static boolean isClassAccessible(Class<?> checkClass, Class<?> objectClass) {
+        while (checkClass.isArray()) {
+            checkClass = checkClass.getComponentType();
+        }
+
+        if (checkClass.isPrimitive()) {
+            return true;
+        }
+
+        int mod = checkClass.getModifiers();
+
+        if (Modifier.isPrivate(mod)) {
+            return false;
+
+        } else if (!Modifier.isPublic(mod) &&
+                !isSamePackage(checkClass, objectClass)) {
+            return false;
+        }
+
+        Class<?> enclosingClass = checkClass.getEnclosingClass();
+
+        return enclosingClass == null || isClassAccessible(enclosingClass, objectClass);
+    }
+
+    private static boolean isSamePackage(Class<?> first, Class<?> second) {
+        return first.getClassLoader() == second.getClassLoader() &&
+                getPackageName(first).equals(getPackageName(second));
+    }
+
+    private static String getPackageName(Class<?> objectClass) {
+        String name = objectClass.getName();
+        int lastDotAt = name.lastIndexOf('.');
+
+        return lastDotAt > -1 ? name.substring(0, lastDotAt) : "";
+    }
+}
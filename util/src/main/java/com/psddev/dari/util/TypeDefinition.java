@@ -2,7 +2,6 @@ package com.psddev.dari.util;
 
 import java.lang.reflect.Constructor;
 import java.lang.reflect.Field;
-import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
 import java.lang.reflect.ParameterizedType;
@@ -282,34 +281,27 @@ public class TypeDefinition<T> {
 
     /** Creates a new instance. */
     public T newInstance() {
-        Constructor<T> constructor = getConstructor();
-        if (constructor == null) {
-            throw new IllegalStateException(String.format(
-                    "Can't create an instance of [%s] without a nullary constructor!",
-                    getObjectClass()));
-        }
-
-        try {
-            return constructor.newInstance();
+        return getAccessor().newInstance();
+    }
 
-        } catch (IllegalAccessException ex) {
-            throw new IllegalStateException(ex);
+    /**
+     * Returns the accessor that can be used to create new instances and
+     * to read and write the fields without going through the reflection
+     * where possible.
+     *
+     * @return Never {@code null}.
+     */
+    public TypeAccessor<T> getAccessor() {
+        return accessor.get();
+    }
 
-        } catch (InstantiationException ex) {
-            throw new IllegalStateException(String.format(
-                    "Can't instantiate an instance of [%s]!",
-                    getObjectClass()), ex);
+    private final transient Lazy<TypeAccessor<T>> accessor = new Lazy<TypeAccessor<T>>() {
 
-        } catch (InvocationTargetException ex) {
-            Throwable cause = ex.getCause();
-            if (cause == null) {
-                cause = ex;
-            }
-            throw cause instanceof RuntimeException ?
-                    (RuntimeException) cause :
-                    new RuntimeException(cause.getMessage(), cause);
+        @Override
+        protected TypeAccessor<T> create() {
+            return TypeAccessorGenerator.generate(TypeDefinition.this);
         }
-    }
+    };
 
     /** Returns an unmodifiable list of all the methods. */
     public List<Method> getAllMethods() {
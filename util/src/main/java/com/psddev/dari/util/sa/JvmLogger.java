@@ -24,6 +24,14 @@ public class JvmLogger {
     public void warn(Method method, int line, String message) {
     }
 
+    /**
+     * Logs a performance problem, such as a query inside a loop. Defaults
+     * to {@link #warn}.
+     */
+    public void warnPerformance(Method method, int line, String message) {
+        warn(method, line, message);
+    }
+
     public void error(Method method, int line, String message) {
     }
 }
@@ -5,12 +5,38 @@ import java.util.List;
 
 public abstract class JvmMethodListener {
 
-    public abstract void onInvocation(
+    /**
+     * Called when the method is invoked. Override
+     * {@link #onInvocation(Method, int, Method, int, JvmObject, List, JvmObject, boolean)}
+     * instead to find out whether the invocation is inside a loop.
+     */
+    public void onInvocation(
             Method callingMethod,
             int callingLine,
             Method calledMethod,
             int calledLine,
             JvmObject calledObject,
             List<JvmObject> calledArguments,
-            JvmObject returnedObject);
+            JvmObject returnedObject) {
+    }
+
+    /**
+     * Called when the method is invoked. By default, calls
+     * {@link #onInvocation(Method, int, Method, int, JvmObject, List, JvmObject)}.
+     *
+     * @param inLoop {@code true} if the invocation is inside a loop in
+     *        the calling method.
+     */
+    public void onInvocation(
+            Method callingMethod,
+            int callingLine,
+            Method calledMethod,
+            int calledLine,
+            JvmObject calledObject,
+            List<JvmObject> calledArguments,
+            JvmObject returnedObject,
+            boolean inLoop) {
+
+        onInvocation(callingMethod, callingLine, calledMethod, calledLine, calledObject, calledArguments, returnedObject);
+    }
 }
@@ -1,10 +1,14 @@
 package com.psddev.dari.util.sa;
 
 import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 
 import org.objectweb.asm.Label;
 import org.objectweb.asm.Type;
+import org.objectweb.asm.tree.AbstractInsnNode;
+import org.objectweb.asm.tree.JumpInsnNode;
 import org.objectweb.asm.tree.LabelNode;
 import org.objectweb.asm.tree.MethodNode;
 
@@ -16,6 +20,7 @@ class JvmMethodVisitor extends MethodNode {
     private final Method callingMethod;
     private final Map<Integer, Type> localTypes = new CompactMap<Integer, Type>();
     private final Map<Integer, String> localNames = new CompactMap<Integer, String>();
+    private List<int[]> loops;
 
     public JvmMethodVisitor(
             int access,
@@ -50,6 +55,36 @@ class JvmMethodVisitor extends MethodNode {
         return name != null ? name : "arg" + index;
     }
 
+    /**
+     * Returns {@code true} if the instruction at the given
+     * {@code instructionIndex} is between a backward jump and its target.
+     */
+    public boolean isInLoop(int instructionIndex) {
+        if (loops == null) {
+            loops = new ArrayList<int[]>();
+
+            for (int i = 0, size = instructions.size(); i < size; ++ i) {
+                AbstractInsnNode instruction = instructions.get(i);
+
+                if (instruction instanceof JumpInsnNode) {
+                    int target = instructions.indexOf(((JumpInsnNode) instruction).label);
+
+                    if (target <= i) {
+                        loops.add(new int[] { target, i });
+                    }
+                }
+            }
+        }
+
+        for (int[] loop : loops) {
+            if (loop[0] <= instructionIndex && instructionIndex <= loop[1]) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
     @Override
     public LabelNode getLabelNode(Label label) {
         return super.getLabelNode(label);
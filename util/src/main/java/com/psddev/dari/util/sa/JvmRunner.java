@@ -673,7 +673,8 @@ class JvmRunner implements MethodVisitor {
                             lastLine,
                             object,
                             calledArguments,
-                            returnedObject);
+                            returnedObject,
+                            parent.isInLoop(instructionIndex));
                 }
             }
         }
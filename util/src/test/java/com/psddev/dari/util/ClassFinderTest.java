@@ -0,0 +1,203 @@
+package com.psddev.dari.util;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.jar.Attributes;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ClassFinderTest {
+
+    public static class Base {
+    }
+
+    public static class Sub extends Base implements Runnable {
+
+        @Override
+        public void run() {
+        }
+    }
+
+    public static class Other {
+    }
+
+    private File directory;
+    private File jar;
+
+    @Before
+    public void before() throws IOException {
+        directory = File.createTempFile("dari-class-finder", "");
+        directory.delete();
+
+        for (Class<?> c : new Class<?>[] { Base.class, Sub.class, Other.class }) {
+            String path = c.getName().replace('.', '/') + ".class";
+            IoUtils.copy(new File(c.getClassLoader().getResource(path).getFile()), new File(directory, path));
+        }
+    }
+
+    @After
+    public void after() throws IOException {
+        delete(directory);
+
+        if (jar != null) {
+            IoUtils.delete(jar);
+        }
+    }
+
+    private void delete(File file) throws IOException {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        IoUtils.delete(file);
+    }
+
+    @Test
+    public void writeIndex() throws IOException {
+        Assert.assertEquals(3, ClassFinder.Static.writeIndex(directory));
+
+        String index = IoUtils.toString(new File(directory, ClassFinder.INDEX_PATH), StringUtils.UTF_8);
+
+        Assert.assertTrue(index.contains(Base.class.getName() + " java.lang.Object\n"));
+        Assert.assertTrue(index.contains(Sub.class.getName() + " " + Base.class.getName() + " java.lang.Runnable\n"));
+        Assert.assertTrue(index.contains(Other.class.getName() + " java.lang.Object\n"));
+    }
+
+    // Finds the subclasses in a loader that only sees the directory, with
+    // the class path hidden, so that the test classes don't show up on
+    // their own.
+    private Set<String> findIsolated(String baseClassName) throws ClassNotFoundException, IOException {
+        return findIsolated(directory.toURI().toURL(), baseClassName);
+    }
+
+    private Set<String> findIsolated(URL url, String baseClassName) throws ClassNotFoundException, IOException {
+        ClassLoader loader = new URLClassLoader(new URL[] { url }, null);
+        Class<?> baseClass = Class.forName(baseClassName, false, loader);
+        String classPath = System.getProperty("java.class.path");
+        Set<String> names = new HashSet<String>();
+
+        System.setProperty("java.class.path", "");
+
+        try {
+            for (Class<?> c : new ClassFinder().find(loader, baseClass)) {
+                names.add(c.getName());
+            }
+
+        } finally {
+            System.setProperty("java.class.path", classPath);
+        }
+
+        return names;
+    }
+
+    @Test
+    public void findWithoutIndex() throws ClassNotFoundException, IOException {
+        Assert.assertEquals(Collections.singleton(Sub.class.getName()), findIsolated(Base.class.getName()));
+    }
+
+    @Test
+    public void findWithIndex() throws ClassNotFoundException, IOException {
+        ClassFinder.Static.writeIndex(directory);
+
+        Assert.assertEquals(Collections.singleton(Sub.class.getName()), findIsolated(Base.class.getName()));
+        Assert.assertEquals(Collections.singleton(Sub.class.getName()), findIsolated(Runnable.class.getName()));
+    }
+
+    // Copies the directory, including the index if there is one, into a JAR
+    // file that ClassFinder is allowed to scan.
+    private URL writeJar() throws IOException {
+        Manifest manifest = new Manifest();
+
+        manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+        manifest.getMainAttributes().putValue(ClassFinder.INCLUDE_ATTRIBUTE, "true");
+
+        jar = File.createTempFile("dari-class-finder", ".jar");
+        JarOutputStream output = new JarOutputStream(new FileOutputStream(jar), manifest);
+
+        try {
+            writeJarEntries(output, directory, "");
+
+        } finally {
+            output.close();
+        }
+
+        return jar.toURI().toURL();
+    }
+
+    private void writeJarEntries(JarOutputStream output, File file, String name) throws IOException {
+        File[] children = file.listFiles();
+
+        if (children != null) {
+            for (File child : children) {
+                writeJarEntries(output, child, name + (name.length() > 0 ? "/" : "") + child.getName());
+            }
+
+        } else {
+            InputStream input = new FileInputStream(file);
+
+            try {
+                output.putNextEntry(new JarEntry(name));
+                IoUtils.copy(input, output);
+                output.closeEntry();
+
+            } finally {
+                input.close();
+            }
+        }
+    }
+
+    // Removes Sub from the index while leaving it in the directory, so
+    // that it's only found if the directory is scanned instead of its index
+    // being read.
+    private void removeSubFromIndex() throws IOException {
+        File indexFile = new File(directory, ClassFinder.INDEX_PATH);
+        String index = IoUtils.toString(indexFile, StringUtils.UTF_8);
+        Writer writer = new OutputStreamWriter(new FileOutputStream(indexFile), StringUtils.UTF_8);
+
+        try {
+            writer.write(index.replace(Sub.class.getName() + " " + Base.class.getName() + " java.lang.Runnable\n", ""));
+
+        } finally {
+            writer.close();
+        }
+    }
+
+    @Test
+    public void findOnlyIndexed() throws ClassNotFoundException, IOException {
+        ClassFinder.Static.writeIndex(directory);
+        removeSubFromIndex();
+
+        Assert.assertTrue(findIsolated(Base.class.getName()).isEmpty());
+    }
+
+    @Test
+    public void findInJarWithoutIndex() throws ClassNotFoundException, IOException {
+        Assert.assertEquals(Collections.singleton(Sub.class.getName()), findIsolated(writeJar(), Base.class.getName()));
+    }
+
+    @Test
+    public void findInJarOnlyIndexed() throws ClassNotFoundException, IOException {
+        ClassFinder.Static.writeIndex(directory);
+        removeSubFromIndex();
+
+        Assert.assertTrue(findIsolated(writeJar(), Base.class.getName()).isEmpty());
+    }
+}
@@ -0,0 +1,150 @@
+package com.psddev.dari.util;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.lang.reflect.Method;
+
+/**
+ * Measures the throughput and the allocation rate of escaping with
+ * {@link HtmlWriter} and of parsing with {@link LazyWriter} over a
+ * representative page fragment. Run it with:
+ *
+ * <pre>java com.psddev.dari.util.HtmlWriterBenchmark [seconds]</pre>
+ *
+ * <p>The allocated bytes are read from the HotSpot specific
+ * {@code com.sun.management.ThreadMXBean}, and are reported as -1 if
+ * it's not available.</p>
+ */
+public class HtmlWriterBenchmark {
+
+    private static final String[] TEXTS = {
+            "Breaking News",
+            "Local team wins the championship after a dramatic overtime finish",
+            "Q&A: What \"the new rules\" mean for you",
+            "Caf\u00e9 owners say they're ready \u2014 mostly",
+            "/articles/2014/05/local-team-wins-the-championship" };
+
+    private static final String PAGE;
+
+    static {
+        StringBuilder page = new StringBuilder();
+
+        page.append("<html><head><title>Example</title><script>var a = '<b>'; // comment\n</script></head><body>");
+
+        for (int i = 0; i < 50; ++ i) {
+            page.append("<div class=\"story\"><a href=\"/articles/").append(i).append("\">");
+            page.append(TEXTS[i % TEXTS.length]).append("</a><p>");
+            page.append("Lorem ipsum dolor sit amet, consectetur adipiscing elit, sed do eiusmod tempor incididunt ut labore.");
+            page.append("</p></div>\n");
+        }
+
+        page.append("</body></html>");
+        PAGE = page.toString();
+    }
+
+    public static void main(String[] arguments) throws Exception {
+        double seconds = arguments.length > 0 ? Double.parseDouble(arguments[0]) : 3.0;
+
+        System.out.println("operation\tops/s\tbytes/op");
+
+        for (int round = 0; round < 3; ++ round) {
+            run("escape", seconds, new Operation() {
+
+                private final HtmlWriter writer = new HtmlWriter(new NullWriter());
+
+                @Override
+                public void run() throws IOException {
+                    for (String text : TEXTS) {
+                        writer.writeStart("a", "href", TEXTS[4], "title", text);
+                            writer.writeHtml(text);
+                        writer.writeEnd();
+                    }
+                }
+            });
+
+            run("lazy", seconds, new Operation() {
+
+                private final char[] page = PAGE.toCharArray();
+
+                @Override
+                public void run() throws IOException {
+                    LazyWriter writer = new LazyWriter(null, new NullWriter());
+
+                    for (int i = 0; i < page.length; i += 512) {
+                        writer.write(page, i, Math.min(512, page.length - i));
+                    }
+
+                    writer.writeLazily("<span></span>");
+                    writer.writePending();
+                }
+            });
+        }
+    }
+
+    private static void run(String name, double seconds, Operation operation) throws Exception {
+        long end = System.nanoTime() + (long) (seconds * 1e9);
+        long allocatedBefore = getAllocatedBytes();
+        long start = System.nanoTime();
+        long count = 0;
+
+        while (System.nanoTime() < end) {
+            for (int i = 0; i < 100; ++ i) {
+                operation.run();
+            }
+
+            count += 100;
+        }
+
+        double elapsed = (System.nanoTime() - start) / 1e9;
+        long allocatedAfter = getAllocatedBytes();
+
+        System.out.printf("%s\t%.0f\t%d%n",
+                name,
+                count / elapsed,
+                allocatedBefore < 0 ? -1 : (allocatedAfter - allocatedBefore) / count);
+    }
+
+    private static long getAllocatedBytes() {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+
+        try {
+            Method method = threads.getClass().getMethod("getThreadAllocatedBytes", long.class);
+
+            method.setAccessible(true);
+            return (Long) method.invoke(threads, Thread.currentThread().getId());
+
+        } catch (Exception error) {
+            return -1;
+        }
+    }
+
+    private interface Operation {
+
+        void run() throws IOException;
+    }
+
+    private static class NullWriter extends Writer {
+
+        @Override
+        public void write(char[] buffer, int offset, int length) {
+        }
+
+        @Override
+        public void write(String string, int offset, int length) {
+        }
+
+        @Override
+        public void write(int letter) {
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package com.psddev.dari.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void bucketBounds() {
+        for (int i = 0; i < LatencyHistogram.BUCKETS; ++ i) {
+            long lower = LatencyHistogram.lowerBoundOf(i);
+            long upper = LatencyHistogram.upperBoundOf(i);
+
+            assertEquals(i, LatencyHistogram.indexOf(lower));
+            assertEquals(i, LatencyHistogram.indexOf(upper));
+
+            if (i > 0) {
+                assertEquals(LatencyHistogram.upperBoundOf(i - 1) + 1, lower);
+            }
+        }
+    }
+
+    @Test
+    public void percentiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+
+        for (long value = 1; value <= 10000; ++ value) {
+            histogram.record(value * 1000L);
+        }
+
+        LatencyHistogram.Snapshot snapshot = histogram.getSnapshot();
+
+        assertEquals(10000L, snapshot.getCount());
+        assertEquals(10000000L, snapshot.getMax());
+        assertEquals(5000500.0, snapshot.getMean(), 1.0);
+        assertWithin(5000000L, snapshot.getPercentile(50.0));
+        assertWithin(9500000L, snapshot.getPercentile(95.0));
+        assertWithin(9900000L, snapshot.getPercentile(99.0));
+        assertWithin(10000000L, snapshot.getPercentile(100.0));
+    }
+
+    private static void assertWithin(long expected, long actual) {
+        assertTrue(actual + " isn't close to " + expected, Math.abs(actual - expected) <= expected * 0.07);
+    }
+
+    @Test
+    public void reset() {
+        LatencyHistogram histogram = new LatencyHistogram();
+
+        histogram.record(5L);
+        histogram.record(-1L);
+        assertEquals(2L, histogram.getSnapshotThenReset().getCount());
+        assertEquals(0L, histogram.getSnapshot().getCount());
+        assertEquals(0L, histogram.getSnapshot().getPercentile(99.0));
+    }
+
+    @Test
+    public void add() {
+        LatencyHistogram x = new LatencyHistogram();
+        LatencyHistogram y = new LatencyHistogram();
+
+        x.record(10L);
+        y.record(1000L);
+
+        LatencyHistogram.Snapshot combined = x.getSnapshot().add(y.getSnapshot());
+
+        assertEquals(2L, combined.getCount());
+        assertEquals(1010L, combined.getSum());
+        assertEquals(1000L, combined.getMax());
+    }
+
+    @Test
+    public void concurrent() throws InterruptedException {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        final StripedLong sum = new StripedLong();
+        List<Thread> threads = new ArrayList<Thread>();
+
+        for (int t = 0; t < 8; ++ t) {
+            threads.add(new Thread() {
+
+                @Override
+                public void run() {
+                    for (int i = 0; i < 10000; ++ i) {
+                        histogram.record(i);
+                        sum.increment();
+                    }
+                }
+            });
+        }
+
+        for (Thread thread : threads) {
+            thread.start();
+        }
+
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertEquals(80000L, histogram.getSnapshot().getCount());
+        assertEquals(80000L, sum.sum());
+        assertEquals(80000L, sum.sumThenReset());
+        assertEquals(0L, sum.sum());
+    }
+}
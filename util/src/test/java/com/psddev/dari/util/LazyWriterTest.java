@@ -0,0 +1,86 @@
+package com.psddev.dari.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.StringWriter;
+
+import org.junit.Test;
+
+public class LazyWriterTest {
+
+    private static final String PAGE =
+            "<html><head><title>T</title>" +
+            "<script>var s = '<b>\\'</b>'; // <i>\n/* <u> */ var t = \"<p>\";</script>" +
+            "<style>a { content: '>' }</style></head>" +
+            "<body class=\"<x>\"><p>Text &amp; more</p>" +
+            "<textarea><p></textarea><div\n>Done</div></body></html>";
+
+    // Writes the page in chunks of the given size, and a lazy string
+    // after every given interval.
+    private String write(int lazyInterval, int chunkSize) throws IOException {
+        StringWriter output = new StringWriter();
+        LazyWriter writer = new LazyWriter(null, output);
+
+        for (int i = 0, length = PAGE.length(); i < length; i += lazyInterval) {
+            int end = Math.min(i + lazyInterval, length);
+
+            for (int j = i; j < end; j += chunkSize) {
+                writer.write(PAGE.toCharArray(), j, Math.min(chunkSize, end - j));
+            }
+
+            writer.writeLazily("[" + i + "]");
+        }
+
+        writer.writePending();
+        return output.toString();
+    }
+
+    private String strip(String output) {
+        return output.replaceAll("\\[\\d+\\]", "");
+    }
+
+    @Test
+    public void passThrough() throws IOException {
+        for (int chunkSize : new int[] { 1, 2, 3, 7, 16, 1000 }) {
+            assertEquals(PAGE, strip(write(chunkSize, chunkSize)));
+        }
+    }
+
+    @Test
+    public void lazyOnlyAfterTagsInBody() throws IOException {
+        String output = write(1, 1);
+
+        for (int i = 0; (i = output.indexOf('[', i)) > -1; ++ i) {
+            String before = strip(output.substring(0, i));
+
+            assertTrue(output, before.contains("<body"));
+            assertEquals(output, '>', before.charAt(before.length() - 1));
+        }
+    }
+
+    @Test
+    public void chunkSizeDoesNotMatter() throws IOException {
+        String expected = write(10, 1);
+
+        for (int chunkSize : new int[] { 2, 3, 7, 10 }) {
+            assertEquals(expected, write(10, chunkSize));
+        }
+    }
+
+    @Test
+    public void writeString() throws IOException {
+        StringWriter output = new StringWriter();
+        LazyWriter writer = new LazyWriter(null, output);
+        StringBuilder page = new StringBuilder();
+
+        while (page.length() < 5000) {
+            page.append(PAGE);
+        }
+
+        writer.write(page.toString());
+        writer.writePending();
+        assertEquals(page.toString(), output.toString());
+    }
+}
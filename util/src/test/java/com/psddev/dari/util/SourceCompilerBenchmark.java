@@ -0,0 +1,131 @@
+package com.psddev.dari.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Measures the latency of requests while the sources are changed and
+ * recompiled, comparing compiling on the request path, like
+ * {@link SourceFilter} used to, against compiling in the background.
+ * Run it with:
+ *
+ * <pre>java com.psddev.dari.util.SourceCompilerBenchmark [requestThreads] [seconds]</pre>
+ */
+public class SourceCompilerBenchmark {
+
+    public static void main(String[] arguments) throws Exception {
+        int threadCount = arguments.length > 0 ? Integer.parseInt(arguments[0]) : 4;
+        int seconds = arguments.length > 1 ? Integer.parseInt(arguments[1]) : 5;
+
+        System.out.println("mode\trequests\tp50 ms\tp99 ms\tmax ms");
+
+        for (int round = 0; round < 2; ++ round) {
+            run(false, threadCount, seconds);
+            run(true, threadCount, seconds);
+        }
+    }
+
+    private static void run(final boolean background, int threadCount, int seconds) throws Exception {
+        final File root = SourceCompilerTest.createTemporaryDirectory();
+        final File sources = new File(root, "src");
+        File classes = new File(root, "classes");
+
+        SourceCompilerTest.writeSources(sources, "0");
+        SourceCompilerTest.compileAll(sources, classes);
+
+        final SourceCompiler compiler = new SourceCompiler(Collections.singleton(sources), classes);
+        final AtomicBoolean running = new AtomicBoolean(true);
+        final List<List<Long>> latencies = new ArrayList<List<Long>>();
+        List<Thread> threads = new ArrayList<Thread>();
+
+        compiler.compile();
+
+        // Changes a source every 100 milliseconds, and compiles it too if
+        // in the background mode.
+        Thread changer = new Thread() {
+
+            @Override
+            public void run() {
+                try {
+                    for (int i = 1; running.get(); ++ i) {
+                        SourceCompilerTest.write(sources, "p/A.java", "package p; public class A { public static String value() { return \"" + i + "\"; } }");
+
+                        if (background) {
+                            compiler.compile();
+                        }
+
+                        Thread.sleep(100);
+                    }
+
+                } catch (InterruptedException error) {
+                    // Stop.
+
+                } catch (IOException error) {
+                    throw new IllegalStateException(error);
+                }
+            }
+        };
+
+        changer.start();
+
+        for (int t = 0; t < threadCount; ++ t) {
+            final List<Long> threadLatencies = new ArrayList<Long>();
+
+            latencies.add(threadLatencies);
+            threads.add(new Thread() {
+
+                @Override
+                public void run() {
+                    try {
+                        while (running.get()) {
+                            long start = System.nanoTime();
+
+                            if (!background) {
+                                compiler.compile();
+                            }
+
+                            // Stands in for the rest of the request.
+                            Thread.sleep(1);
+                            threadLatencies.add(System.nanoTime() - start);
+                        }
+
+                    } catch (InterruptedException error) {
+                        // Stop.
+
+                    } catch (IOException error) {
+                        throw new IllegalStateException(error);
+                    }
+                }
+            });
+        }
+
+        for (Thread thread : threads) {
+            thread.start();
+        }
+
+        Thread.sleep(seconds * 1000L);
+        running.set(false);
+        changer.join();
+
+        List<Long> all = new ArrayList<Long>();
+
+        for (int t = 0; t < threadCount; ++ t) {
+            threads.get(t).join();
+            all.addAll(latencies.get(t));
+        }
+
+        Collections.sort(all);
+        SourceCompilerTest.delete(root);
+
+        System.out.printf("%s\t%d\t%.1f\t%.1f\t%.1f%n",
+                background ? "background" : "request",
+                all.size(),
+                all.get(all.size() / 2) / 1e6,
+                all.get((int) (all.size() * 0.99)) / 1e6,
+                all.get(all.size() - 1) / 1e6);
+    }
+}
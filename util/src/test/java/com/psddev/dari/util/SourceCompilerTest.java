@@ -0,0 +1,190 @@
+package com.psddev.dari.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import javax.tools.JavaCompiler;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.StandardLocation;
+import javax.tools.ToolProvider;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class SourceCompilerTest {
+
+    private File root;
+    private File sources;
+    private File classes;
+    private SourceCompiler compiler;
+
+    @Before
+    public void before() throws IOException {
+        root = createTemporaryDirectory();
+        sources = new File(root, "src");
+        classes = new File(root, "classes");
+
+        writeSources(sources, "a");
+        compileAll(sources, classes);
+
+        compiler = new SourceCompiler(Collections.singleton(sources), classes);
+        compiler.compile();
+    }
+
+    @After
+    public void after() throws IOException {
+        delete(root);
+    }
+
+    static void delete(File file) throws IOException {
+        File[] children = file.listFiles();
+
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+
+        IoUtils.delete(file);
+    }
+
+    static File createTemporaryDirectory() throws IOException {
+        File directory = File.createTempFile("dari-source-compiler", "");
+
+        IoUtils.delete(directory);
+        IoUtils.createDirectories(directory);
+        return directory;
+    }
+
+    // A depends on nothing, B depends on A through a method call, C
+    // depends on B through a field type, and D is unrelated.
+    static void writeSources(File sources, String value) throws IOException {
+        write(sources, "p/A.java", "package p; public class A { public static String value() { return \"" + value + "\"; } }");
+        write(sources, "p/B.java", "package p; public class B { public String get() { return A.value(); } }");
+        write(sources, "p/C.java", "package p; public class C { private B b; }");
+        write(sources, "p/D.java", "package p; public class D { }");
+    }
+
+    static void write(File sources, String path, String content) throws IOException {
+        File file = new File(sources, path);
+        long oldModified = file.lastModified();
+
+        IoUtils.createParentDirectories(file);
+
+        OutputStream output = new FileOutputStream(file);
+
+        try {
+            output.write(content.getBytes(StringUtils.UTF_8));
+
+        } finally {
+            output.close();
+        }
+
+        // File systems with a coarse modified time could hide the change.
+        if (file.lastModified() <= oldModified) {
+            file.setLastModified(oldModified + 1000);
+        }
+    }
+
+    static void compileAll(File sources, File classes) throws IOException {
+        JavaCompiler javac = ToolProvider.getSystemJavaCompiler();
+        StandardJavaFileManager fileManager = javac.getStandardFileManager(null, null, null);
+
+        try {
+            IoUtils.createDirectories(classes);
+            fileManager.setLocation(StandardLocation.CLASS_OUTPUT, Collections.singleton(classes));
+            assertTrue(javac.getTask(null, fileManager, null, null, null, fileManager.getJavaFileObjects(
+                    new File(sources, "p/A.java"),
+                    new File(sources, "p/B.java"),
+                    new File(sources, "p/C.java"),
+                    new File(sources, "p/D.java"))).call());
+
+        } finally {
+            fileManager.close();
+        }
+    }
+
+    private Set<String> getNames(SourceCompiler.Result result) {
+        Set<String> names = new HashSet<String>();
+
+        for (File source : result.getSources()) {
+            names.add(source.getName());
+        }
+
+        return names;
+    }
+
+    @Test
+    public void unchanged() throws IOException {
+        assertTrue(compiler.compile().getSources().isEmpty());
+    }
+
+    @Test
+    public void dependents() {
+        assertEquals(new HashSet<String>(Arrays.asList("p.B")), compiler.getDependents("p.A"));
+        assertEquals(new HashSet<String>(Arrays.asList("p.C")), compiler.getDependents("p.B"));
+        assertTrue(compiler.getDependents("p.D").isEmpty());
+    }
+
+    @Test
+    public void recompileChangedAndDependents() throws IOException {
+        write(sources, "p/A.java", "package p; public class A { public static String value() { return \"b\"; } }");
+
+        SourceCompiler.Result result = compiler.compile();
+
+        assertNull(result.getDiagnostics());
+        assertEquals(new HashSet<String>(Arrays.asList("A.java", "B.java")), getNames(result));
+        assertNotNull(result.getBytecodes().get("p.A"));
+        assertNotNull(result.getBytecodes().get("p.B"));
+        assertTrue(compiler.compile().getSources().isEmpty());
+    }
+
+    @Test
+    public void updateDependencies() throws IOException {
+        write(sources, "p/D.java", "package p; public class D { public String get() { return A.value(); } }");
+        compiler.compile();
+
+        assertEquals(new HashSet<String>(Arrays.asList("p.B", "p.D")), compiler.getDependents("p.A"));
+
+        write(sources, "p/D.java", "package p; public class D { }");
+        compiler.compile();
+
+        assertEquals(new HashSet<String>(Arrays.asList("p.B")), compiler.getDependents("p.A"));
+    }
+
+    @Test
+    public void retryFailures() throws IOException {
+        write(sources, "p/A.java", "package p; public class A { public static String value() { return 1; } }");
+
+        SourceCompiler.Result failed = compiler.compile();
+
+        assertNotNull(failed.getDiagnostics());
+        assertTrue(failed.getBytecodes().isEmpty());
+
+        write(sources, "p/D.java", "package p; public class D { int d; }");
+
+        SourceCompiler.Result retried = compiler.compile();
+
+        assertTrue(getNames(retried).containsAll(Arrays.asList("A.java", "D.java")));
+        assertNotNull(retried.getDiagnostics());
+
+        write(sources, "p/A.java", "package p; public class A { public static String value() { return \"c\"; } }");
+
+        SourceCompiler.Result fixed = compiler.compile();
+
+        assertNull(fixed.getDiagnostics());
+        assertNotNull(fixed.getBytecodes().get("p.A"));
+    }
+}
@@ -0,0 +1,67 @@
+package com.psddev.dari.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Measures the throughput of {@link Stats.Timer#stop} when many threads
+ * stop timers on the same operation at once. Run it with:
+ *
+ * <pre>java com.psddev.dari.util.StatsBenchmark [threads] [stopsPerThread]</pre>
+ */
+public class StatsBenchmark {
+
+    public static void main(String[] arguments) throws InterruptedException {
+        int threadCount = arguments.length > 0 ? Integer.parseInt(arguments[0]) : 32;
+        int stopsPerThread = arguments.length > 1 ? Integer.parseInt(arguments[1]) : 200000;
+
+        System.out.println("threads\tstops/s\tns/stop");
+
+        for (int round = 0; round < 3; ++ round) {
+            run(1, stopsPerThread);
+            run(threadCount, stopsPerThread);
+        }
+    }
+
+    private static void run(int threadCount, final int stopsPerThread) throws InterruptedException {
+        final Stats stats = new Stats("Benchmark");
+        final CountDownLatch ready = new CountDownLatch(1);
+        List<Thread> threads = new ArrayList<Thread>();
+
+        for (int t = 0; t < threadCount; ++ t) {
+            Thread thread = new Thread() {
+
+                @Override
+                public void run() {
+                    try {
+                        ready.await();
+
+                    } catch (InterruptedException error) {
+                        return;
+                    }
+
+                    for (int i = 0; i < stopsPerThread; ++ i) {
+                        stats.startTimer().stop("Operation");
+                    }
+                }
+            };
+
+            thread.start();
+            threads.add(thread);
+        }
+
+        long start = System.nanoTime();
+
+        ready.countDown();
+
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        long elapsed = System.nanoTime() - start;
+        long stops = (long) threadCount * stopsPerThread;
+
+        System.out.println(String.format("%d\t%.0f\t%.1f", threadCount, stops / (elapsed / 1e9), (double) elapsed / stops));
+    }
+}
@@ -0,0 +1,79 @@
+package com.psddev.dari.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.StringWriter;
+import java.util.Collections;
+
+import org.junit.Test;
+
+public class StatsTest {
+
+    private static Stats createStats() {
+        return new Stats("Test \"Stats\"", 10.0, 0.1, 0.2, 1.0);
+    }
+
+    private static void record(Stats.Measurement measurement) {
+        for (int i = 1; i <= 100; ++ i) {
+            measurement.update(System.nanoTime(), i / 1e3, 1L);
+        }
+    }
+
+    @Test
+    public void percentiles() {
+        Stats stats = createStats();
+        Stats.Measurement measurement = stats.getMeasurements().get("Operation");
+
+        record(measurement);
+
+        assertEquals(100L, measurement.getOverallTotalCount());
+        assertEquals(5.05, measurement.getOverallTotalDuration(), 1e-9);
+        assertEquals(0.05, measurement.getDurationPercentile(1, 50.0), 0.004);
+        assertEquals(0.099, measurement.getDurationPercentile(1, 99.0), 0.007);
+        assertEquals(0.1, measurement.getDurationMax(1), 1e-9);
+    }
+
+    @Test
+    public void rollingWindows() throws InterruptedException {
+        Stats stats = createStats();
+        Stats.Measurement measurement = stats.getMeasurements().get("Operation");
+
+        record(measurement);
+        Thread.sleep(500);
+
+        assertEquals(0L, measurement.getDurationHistogram(0).getCount());
+        assertEquals(100L, measurement.getDurationHistogram(1).getCount());
+
+        Thread.sleep(1000);
+
+        assertEquals(0L, measurement.getDurationHistogram(1).getCount());
+        assertTrue(Double.isNaN(measurement.getDurationPercentile(1, 50.0)));
+        assertEquals(100L, measurement.getOverallTotalCount());
+    }
+
+    @Test
+    public void startTimerAt() {
+        Stats stats = createStats();
+        double duration = stats.startTimer(System.currentTimeMillis() - 2000L).stop("Operation", 3L);
+
+        assertEquals(2.0, duration, 0.5);
+        assertEquals(3L, stats.getMeasurements().get("Operation").getOverallTotalCount());
+    }
+
+    @Test
+    public void metrics() throws Exception {
+        Stats stats = createStats();
+        StringWriter writer = new StringWriter();
+
+        record(stats.getMeasurements().get("Operation"));
+        StatsMetricsServlet.writeMetrics(writer, Collections.singletonList(stats));
+
+        String metrics = writer.toString();
+
+        assertTrue(metrics.contains("# TYPE dari_stats_count_total counter\n"));
+        assertTrue(metrics.contains("dari_stats_count_total{stats=\"Test \\\"Stats\\\"\",operation=\"Operation\"} 100\n"));
+        assertTrue(metrics.contains("dari_stats_duration_seconds{stats=\"Test \\\"Stats\\\"\",operation=\"Operation\",window=\"1s\",quantile=\"1.0\"} 0.1\n"));
+        assertTrue(metrics.contains("window=\"1s\",quantile=\"0.99\"}"));
+    }
+}
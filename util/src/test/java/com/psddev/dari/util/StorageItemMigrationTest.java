@@ -0,0 +1,168 @@
+package com.psddev.dari.util;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class StorageItemMigrationTest {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final String OVERRIDES_NAME = StorageItemMigrationTest.class.getName();
+
+    private File root;
+    private File sourceRoot;
+    private File destinationRoot;
+
+    @Before
+    public void before() throws IOException {
+        root = File.createTempFile("dari-migration", "");
+        root.delete();
+        sourceRoot = new File(root, "source");
+        destinationRoot = new File(root, "destination");
+
+        IoUtils.createDirectories(sourceRoot);
+        IoUtils.createDirectories(destinationRoot);
+        configure();
+    }
+
+    private void configure() {
+        Map<String, Object> overrides = new HashMap<String, Object>();
+        CollectionUtils.putByPath(overrides, StorageItem.SETTING_PREFIX + "/migrationSource/class", LocalStorageItem.class.getName());
+        CollectionUtils.putByPath(overrides, StorageItem.SETTING_PREFIX + "/migrationSource/rootPath", sourceRoot.getAbsolutePath());
+        CollectionUtils.putByPath(overrides, StorageItem.SETTING_PREFIX + "/migrationDestination/class", LocalStorageItem.class.getName());
+        CollectionUtils.putByPath(overrides, StorageItem.SETTING_PREFIX + "/migrationDestination/rootPath", destinationRoot.getAbsolutePath());
+        Settings.putPermanentOverrides(OVERRIDES_NAME, overrides);
+    }
+
+    @After
+    public void after() throws IOException {
+        Settings.removePermanentOverrides(OVERRIDES_NAME);
+        delete(root);
+    }
+
+    private void delete(File file) throws IOException {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        IoUtils.delete(file);
+    }
+
+    private void write(File file, String content) throws IOException {
+        IoUtils.createParentDirectories(file);
+        FileOutputStream output = new FileOutputStream(file);
+        try {
+            output.write(content.getBytes(UTF_8));
+        } finally {
+            output.close();
+        }
+    }
+
+    private void run(StorageItemMigration migration) throws Exception {
+        List<Task> tasks = migration.start(StorageItemMigration.Static.listLocalItems("migrationSource"));
+        for (Task task : tasks) {
+            task.getFuture().get();
+        }
+    }
+
+    @Test
+    public void copyAll() throws Exception {
+        for (int i = 0; i < 20; ++ i) {
+            write(new File(sourceRoot, "a/" + i + ".txt"), "content " + i);
+        }
+
+        StorageItemMigration migration = new StorageItemMigration("migrationSource", "migrationDestination");
+        migration.setParallelism(4);
+        run(migration);
+
+        Assert.assertEquals(20, migration.getCopyCount());
+        Assert.assertEquals(0, migration.getFailureCount());
+
+        for (int i = 0; i < 20; ++ i) {
+            Assert.assertEquals("content " + i, IoUtils.toString(new File(destinationRoot, "a/" + i + ".txt"), UTF_8));
+        }
+    }
+
+    @Test
+    public void resumeFromCheckpoint() throws Exception {
+        File checkpoint = new File(root, "checkpoint.txt");
+
+        write(new File(sourceRoot, "first.txt"), "first");
+        write(checkpoint, "first.txt\n");
+        write(new File(sourceRoot, "second.txt"), "second");
+
+        StorageItemMigration migration = new StorageItemMigration("migrationSource", "migrationDestination");
+        migration.setCheckpointFile(checkpoint);
+        run(migration);
+
+        Assert.assertEquals(1, migration.getCopyCount());
+        Assert.assertEquals(1, migration.getSkipCount());
+        Assert.assertFalse(new File(destinationRoot, "first.txt").exists());
+        Assert.assertEquals("second", IoUtils.toString(new File(destinationRoot, "second.txt"), UTF_8));
+        Assert.assertEquals("first.txt\nsecond.txt\n", IoUtils.toString(checkpoint, UTF_8));
+    }
+
+    @Test
+    public void failedItemSkipped() throws Exception {
+        write(new File(sourceRoot, "first.txt"), "first");
+        write(new File(sourceRoot, "second.txt"), "second");
+
+        Iterator<StorageItem> iterator = StorageItemMigration.Static.listLocalItems("migrationSource").iterator();
+        Settings.removePermanentOverrides(OVERRIDES_NAME);
+        Assert.assertTrue(iterator.hasNext());
+
+        try {
+            iterator.next();
+            Assert.fail();
+
+        } catch (RuntimeException error) {
+            // Expected since the storage is no longer configured.
+        }
+
+        configure();
+        Assert.assertTrue(iterator.hasNext());
+        Assert.assertEquals("second.txt", iterator.next().getPath());
+        Assert.assertFalse(iterator.hasNext());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void sameStorage() {
+        new StorageItemMigration("migrationSource", "migrationSource");
+    }
+
+    @Test
+    public void localToLocalKeepsBytes() throws Exception {
+        byte[] data = new byte[100000];
+        new Random(0L).nextBytes(data);
+
+        File sourceFile = new File(sourceRoot, "binary.dat");
+        IoUtils.createParentDirectories(sourceFile);
+        FileOutputStream output = new FileOutputStream(sourceFile);
+        try {
+            output.write(data);
+        } finally {
+            output.close();
+        }
+
+        StorageItemMigration migration = new StorageItemMigration("migrationSource", "migrationDestination");
+        run(migration);
+
+        Assert.assertEquals(0, migration.getFailureCount());
+        Assert.assertEquals(data.length, migration.getByteCount());
+        Assert.assertArrayEquals(data, IoUtils.toByteArray(sourceFile));
+        Assert.assertArrayEquals(data, IoUtils.toByteArray(new File(destinationRoot, "binary.dat")));
+    }
+}
@@ -2,12 +2,17 @@ package com.psddev.dari.util;
 
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 
+import java.io.IOException;
+import java.io.StringWriter;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.Arrays;
 import java.util.Date;
 
+import org.apache.commons.lang.StringEscapeUtils;
 import org.junit.Ignore;
 import org.junit.Test;
 
@@ -571,4 +576,51 @@ public class StringUtilsTest {
 		assertEquals("http://test.com/a?b=", StringUtils.addQueryParameters("http://test.com/a", "b", ""));
 		assertEquals("http://test.com/a?b=&c=2", StringUtils.addQueryParameters("http://test.com/a", "b", "", "c", "2"));
 	}
+
+	/**
+	 * public static String escapeHtml(String string)
+	 * public static void escapeHtml(Writer writer, String string)
+	 */
+	private static String escapeHtmlLegacy(String string) {
+		return StringUtils.replaceAll(
+				StringEscapeUtils.escapeHtml(string),
+				"\\x22", "&#34;",
+				"\\x27", "&#39;");
+	}
+
+	@Test
+	public void escapeHtml_allCharacters() throws IOException {
+		for (int c = 0; c <= Character.MAX_VALUE; ++ c) {
+			String string = "a" + (char) c + "b";
+			String expected = escapeHtmlLegacy(string);
+			StringWriter writer = new StringWriter();
+
+			StringUtils.escapeHtml(writer, string);
+			assertEquals(expected, StringUtils.escapeHtml(string));
+			assertEquals(expected, writer.toString());
+		}
+	}
+
+	@Test
+	public void escapeHtml_mixed() throws IOException {
+		String string = "<a href=\"x?a=1&b='2'\">caf\u00e9 \u2014 \u4e2d</a>";
+		String expected = "&lt;a href=&quot;x?a=1&amp;b=&#39;2&#39;&quot;&gt;caf&eacute; &mdash; &#20013;&lt;/a&gt;";
+		StringWriter writer = new StringWriter();
+
+		StringUtils.escapeHtml(writer, string);
+		assertEquals(expected, escapeHtmlLegacy(string));
+		assertEquals(expected, StringUtils.escapeHtml(string));
+		assertEquals(expected, writer.toString());
+	}
+
+	@Test
+	public void escapeHtml_unchanged() throws IOException {
+		String string = "Nothing to escape here.";
+		StringWriter writer = new StringWriter();
+
+		StringUtils.escapeHtml(writer, null);
+		assertSame(string, StringUtils.escapeHtml(string));
+		assertNull(StringUtils.escapeHtml(null));
+		assertEquals("", writer.toString());
+	}
 }
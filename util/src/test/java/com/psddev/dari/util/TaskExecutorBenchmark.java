@@ -0,0 +1,70 @@
+package com.psddev.dari.util;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Measures the throughput of {@link TaskExecutor#execute} with each
+ * {@linkplain TaskExecutor.RejectionPolicy rejection policy} when one
+ * thread submits many short tasks as fast as possible, along with how
+ * far the outstanding tasks grow. Run it with:
+ *
+ * <pre>java com.psddev.dari.util.TaskExecutorBenchmark [tasks] [maximumSize] [queueCapacity]</pre>
+ */
+public class TaskExecutorBenchmark {
+
+    public static void main(String[] arguments) throws InterruptedException {
+        int tasks = arguments.length > 0 ? Integer.parseInt(arguments[0]) : 1000000;
+        int maximumSize = arguments.length > 1 ? Integer.parseInt(arguments[1]) : 8;
+        int queueCapacity = arguments.length > 2 ? Integer.parseInt(arguments[2]) : 1000;
+
+        System.out.println("policy\tqueue\ttasks/s\tns/task\toutstanding\tthreads");
+
+        for (int round = 0; round < 3; ++ round) {
+            run(TaskExecutor.RejectionPolicy.CALLER_RUNS, tasks, maximumSize, queueCapacity);
+            run(TaskExecutor.RejectionPolicy.CALLER_RUNS, tasks, maximumSize, 0);
+            run(TaskExecutor.RejectionPolicy.BLOCK, tasks, maximumSize, queueCapacity);
+        }
+    }
+
+    private static void run(TaskExecutor.RejectionPolicy policy, int tasks, int maximumSize, int queueCapacity) throws InterruptedException {
+        TaskExecutor executor = new TaskExecutor("Benchmark", 2, maximumSize, queueCapacity, policy, 1);
+        final AtomicLong sum = new AtomicLong();
+        long outstandingMaximum = 0L;
+        long start = System.nanoTime();
+
+        try {
+            for (int i = 0; i < tasks; ++ i) {
+                final int value = i;
+
+                executor.execute(new Runnable() {
+
+                    @Override
+                    public void run() {
+                        sum.addAndGet(value);
+                    }
+                });
+
+                outstandingMaximum = Math.max(outstandingMaximum, executor.getSubmitCount() - executor.getCompleteCount());
+            }
+
+        } finally {
+            executor.shutdown();
+        }
+
+        if (!executor.awaitTermination(1, TimeUnit.MINUTES)) {
+            throw new IllegalStateException("Tasks didn't finish in a minute!");
+        }
+
+        long elapsed = System.nanoTime() - start;
+
+        System.out.println(String.format(
+                "%s\t%d\t%.0f\t%.1f\t%d\t%d",
+                policy,
+                queueCapacity,
+                tasks / (elapsed / 1e9),
+                (double) elapsed / tasks,
+                outstandingMaximum,
+                executor.getLargestPoolSize()));
+    }
+}
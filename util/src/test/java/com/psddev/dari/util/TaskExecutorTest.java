@@ -0,0 +1,216 @@
+package com.psddev.dari.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Test;
+
+public class TaskExecutorTest {
+
+    private static final int TASKS = 2000;
+
+    // Submits many short tasks as fast as possible and checks that the
+    // threads and the outstanding tasks, and so the memory, stay bounded.
+    // See TaskExecutorBenchmark for the throughput under a longer run.
+    private void stress(String name, TaskExecutor.RejectionPolicy policy, int maximumSize, int queueCapacity) throws InterruptedException {
+        TaskExecutor executor = new TaskExecutor(name, 2, maximumSize, queueCapacity, policy, 1);
+        final AtomicLong sum = new AtomicLong();
+        long outstandingMaximum = 0L;
+        int threadsMaximum = 0;
+
+        try {
+            for (int i = 0; i < TASKS; ++ i) {
+                final int value = i;
+
+                executor.execute(new Runnable() {
+
+                    @Override
+                    public void run() {
+                        sum.addAndGet(value);
+                    }
+                });
+
+                // Only this thread submits, so the submit count is exact and
+                // the difference can only overstate the outstanding tasks.
+                outstandingMaximum = Math.max(outstandingMaximum, executor.getSubmitCount() - executor.getCompleteCount());
+
+                if (i % 1000 == 0) {
+                    threadsMaximum = Math.max(threadsMaximum, countThreads(name));
+                }
+            }
+
+        } finally {
+            executor.shutdown();
+        }
+
+        assertTrue(executor.awaitTermination(30, TimeUnit.SECONDS));
+        assertEquals((long) TASKS * (TASKS - 1) / 2, sum.get());
+        assertEquals(TASKS, executor.getSubmitCount());
+        assertEquals(TASKS, executor.getCompleteCount());
+        assertTrue(executor.getLargestPoolSize() <= maximumSize);
+        assertTrue(threadsMaximum <= maximumSize + 1);
+        assertTrue(executor.getLargestQueueSize() <= queueCapacity);
+        assertTrue(outstandingMaximum <= maximumSize + queueCapacity);
+    }
+
+    private int countThreads(String name) {
+        Thread[] threads = new Thread[Thread.activeCount() * 2 + 10];
+        int count = 0;
+
+        for (int i = 0, length = Thread.enumerate(threads); i < length; ++ i) {
+            if (threads[i].getName().startsWith(name + ": ")) {
+                ++ count;
+            }
+        }
+
+        return count;
+    }
+
+    @Test
+    public void stressCallerRuns() throws InterruptedException {
+        stress("stressCallerRuns", TaskExecutor.RejectionPolicy.CALLER_RUNS, 8, 1000);
+    }
+
+    @Test
+    public void stressCallerRunsWithoutQueue() throws InterruptedException {
+        stress("stressCallerRunsWithoutQueue", TaskExecutor.RejectionPolicy.CALLER_RUNS, 8, 0);
+    }
+
+    @Test
+    public void stressBlock() throws InterruptedException {
+        stress("stressBlock", TaskExecutor.RejectionPolicy.BLOCK, 4, 100);
+    }
+
+    @Test
+    public void defaultPolicy() {
+        assertEquals(TaskExecutor.RejectionPolicy.BLOCK, new TaskExecutor("defaultPolicy").getRejectionPolicy());
+    }
+
+    @Test
+    public void givenPolicy() {
+        String settingsName = TaskExecutorTest.class.getName();
+        Map<String, Object> overrides = new HashMap<String, Object>();
+
+        CollectionUtils.putByPath(overrides, TaskExecutor.DEFAULT_SETTING + "/" + TaskExecutor.REJECTION_POLICY_SUB_SETTING, "block");
+        CollectionUtils.putByPath(overrides, TaskExecutor.SETTING_PREFIX + "/givenPolicyOverridden/" + TaskExecutor.REJECTION_POLICY_SUB_SETTING, "caller_runs");
+        Settings.putPermanentOverrides(settingsName, overrides);
+
+        try {
+            assertEquals(TaskExecutor.RejectionPolicy.ABORT, TaskExecutor.Static.getInstance("givenPolicy", TaskExecutor.RejectionPolicy.ABORT).getRejectionPolicy());
+            assertEquals(TaskExecutor.RejectionPolicy.CALLER_RUNS, TaskExecutor.Static.getInstance("givenPolicyOverridden", TaskExecutor.RejectionPolicy.ABORT).getRejectionPolicy());
+
+        } finally {
+            Settings.removePermanentOverrides(settingsName);
+        }
+    }
+
+    @Test
+    public void blockUntilShutdown() throws InterruptedException {
+        final TaskExecutor executor = new TaskExecutor("blockUntilShutdown", 0, 1, 0, TaskExecutor.RejectionPolicy.BLOCK, 1);
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch rejected = new CountDownLatch(1);
+        final Runnable blocking = new Runnable() {
+
+            @Override
+            public void run() {
+                started.countDown();
+
+                try {
+                    release.await();
+
+                } catch (InterruptedException error) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+
+        try {
+            executor.execute(blocking);
+            started.await();
+
+            Thread submitter = new Thread() {
+
+                @Override
+                public void run() {
+                    try {
+                        executor.execute(blocking);
+
+                    } catch (RejectedExecutionException error) {
+                        rejected.countDown();
+                    }
+                }
+            };
+
+            submitter.start();
+
+            while (executor.getRejectCount() == 0) {
+                Thread.sleep(10L);
+            }
+
+            executor.shutdown();
+            assertTrue(rejected.await(10, TimeUnit.SECONDS));
+            submitter.join();
+
+        } finally {
+            release.countDown();
+            executor.shutdown();
+        }
+
+        assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+        assertEquals(1, executor.getCompleteCount());
+    }
+
+    @Test
+    public void abort() throws InterruptedException {
+        TaskExecutor executor = new TaskExecutor("abort", 0, 1, 1, TaskExecutor.RejectionPolicy.ABORT, 1);
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        Runnable blocking = new Runnable() {
+
+            @Override
+            public void run() {
+                started.countDown();
+
+                try {
+                    release.await();
+
+                } catch (InterruptedException error) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+
+        try {
+            executor.execute(blocking);
+            started.await();
+            executor.execute(blocking);
+
+            try {
+                executor.execute(blocking);
+                fail();
+
+            } catch (RejectedExecutionException error) {
+                // Expected.
+            }
+
+            assertEquals(1, executor.getRejectCount());
+            assertEquals(1, executor.getQueueSize());
+
+        } finally {
+            release.countDown();
+            executor.shutdown();
+        }
+
+        assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+        assertEquals(2, executor.getCompleteCount());
+    }
+}
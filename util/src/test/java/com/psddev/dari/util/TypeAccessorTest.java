@@ -0,0 +1,167 @@
+package com.psddev.dari.util;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TypeAccessorTest {
+
+    public static class Accessible {
+
+        public String publicString;
+        List<String> packageList;
+        protected int protectedInt;
+        private long privateLong;
+        public final String finalString = "final";
+
+        public long getPrivateLong() {
+            return privateLong;
+        }
+    }
+
+    // As if enhanced by a ClassEnhancer.
+    public static class FieldMethods {
+
+        private String privateString;
+        private int privateInt;
+        private final String finalString = "final";
+
+        static String dari$get$privateString(FieldMethods object) {
+            return object.privateString;
+        }
+
+        static void dari$set$privateString(FieldMethods object, String value) {
+            object.privateString = value;
+        }
+
+        static int dari$get$privateInt(FieldMethods object) {
+            return object.privateInt;
+        }
+
+        static void dari$set$privateInt(FieldMethods object, int value) {
+            object.privateInt = value;
+        }
+
+        static String dari$get$finalString(FieldMethods object) {
+            return object.finalString;
+        }
+
+        public String getPrivateString() {
+            return privateString;
+        }
+
+        public int getPrivateInt() {
+            return privateInt;
+        }
+    }
+
+    public static class PrivateConstructor {
+
+        private PrivateConstructor() {
+        }
+    }
+
+    private TypeAccessor<Accessible> getAccessor() {
+        return TypeDefinition.getInstance(Accessible.class).getAccessor();
+    }
+
+    private Field getField(String name) {
+        return TypeDefinition.getInstance(Accessible.class).getField(name);
+    }
+
+    @Test
+    public void generated() {
+        Assert.assertNotSame(TypeAccessor.class, getAccessor().getClass());
+    }
+
+    @Test
+    public void newInstance() {
+        Assert.assertTrue(TypeDefinition.getInstance(Accessible.class).newInstance() instanceof Accessible);
+        Assert.assertTrue(TypeDefinition.getInstance(PrivateConstructor.class).newInstance() instanceof PrivateConstructor);
+    }
+
+    @Test
+    public void getAndSet() {
+        TypeAccessor<Accessible> accessor = getAccessor();
+        Accessible object = accessor.newInstance();
+        List<String> list = new ArrayList<String>();
+
+        accessor.set(object, getField("publicString"), "foo");
+        accessor.set(object, getField("packageList"), list);
+        accessor.set(object, getField("protectedInt"), 1);
+        accessor.set(object, getField("privateLong"), 2L);
+
+        Assert.assertEquals("foo", object.publicString);
+        Assert.assertSame(list, object.packageList);
+        Assert.assertEquals(1, object.protectedInt);
+        Assert.assertEquals(2L, object.getPrivateLong());
+
+        Assert.assertEquals("foo", accessor.get(object, getField("publicString")));
+        Assert.assertSame(list, accessor.get(object, getField("packageList")));
+        Assert.assertEquals(1, accessor.get(object, getField("protectedInt")));
+        Assert.assertEquals(2L, accessor.get(object, getField("privateLong")));
+        Assert.assertEquals("final", accessor.get(object, getField("finalString")));
+
+        accessor.set(object, getField("publicString"), null);
+        Assert.assertNull(object.publicString);
+    }
+
+    @Test
+    public void setWidening() {
+        TypeAccessor<Accessible> accessor = getAccessor();
+        Accessible object = accessor.newInstance();
+
+        accessor.set(object, getField("privateLong"), 3);
+        Assert.assertEquals(3L, object.getPrivateLong());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void setIncompatible() {
+        TypeAccessor<Accessible> accessor = getAccessor();
+
+        accessor.set(accessor.newInstance(), getField("publicString"), 1);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void setNullPrimitive() {
+        TypeAccessor<Accessible> accessor = getAccessor();
+
+        accessor.set(accessor.newInstance(), getField("protectedInt"), null);
+    }
+
+    @Test
+    public void privateWithoutFieldMethods() {
+        Assert.assertTrue(getAccessor().isGenerated(getField("publicString")));
+        Assert.assertFalse(getAccessor().isGenerated(getField("privateLong")));
+    }
+
+    @Test
+    public void privateWithFieldMethods() {
+        TypeDefinition<FieldMethods> definition = TypeDefinition.getInstance(FieldMethods.class);
+        TypeAccessor<FieldMethods> accessor = definition.getAccessor();
+        FieldMethods object = accessor.newInstance();
+        Field privateString = definition.getField("privateString");
+        Field privateInt = definition.getField("privateInt");
+        Field finalString = definition.getField("finalString");
+
+        Assert.assertTrue(accessor.isGenerated(privateString));
+        Assert.assertTrue(accessor.isGenerated(privateInt));
+        Assert.assertTrue(accessor.isGenerated(finalString));
+
+        accessor.set(object, privateString, "foo");
+        accessor.set(object, privateInt, 1);
+
+        Assert.assertEquals("foo", object.getPrivateString());
+        Assert.assertEquals(1, object.getPrivateInt());
+        Assert.assertEquals("foo", accessor.get(object, privateString));
+        Assert.assertEquals(1, accessor.get(object, privateInt));
+        Assert.assertEquals("final", accessor.get(object, finalString));
+
+        // Conversions are still left to the reflection.
+        accessor.set(object, privateInt, (short) 2);
+        Assert.assertEquals(2, object.getPrivateInt());
+    }
+}